@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.granular;
+
+import java.util.Arrays;
+
+import net.paulhertz.pixelaudio.schedule.GestureSchedule;
+
+/**
+ * A gesture reduced to packed per-event arrays, ready to replay.
+ *
+ * <p>{@link PAGranularInstrumentDirector#compileGesture} runs the schedule transform
+ * (resampling, duration scaling and warp), converts event times to sample onsets, clamps
+ * source indices and resolves per-event pan, gain and pitch against the
+ * {@link GestureGranularParams} defaults, once. Replaying the result with
+ * {@link PAGranularInstrumentDirector#playCompiledAtSampleTime} then does no per-point math:
+ * it takes a source for each event and hands the whole gesture to the scheduler in one
+ * batch.</p>
+ *
+ * <p>The director caches compiled gestures by the content of their inputs, so playing the
+ * same brush again with equal parameters reuses the arrays even when the schedule and
+ * parameter objects are new. Arrays are shared with the cache and must not be modified.</p>
+ *
+ * @see PAGranularInstrumentDirector
+ */
+public final class CompiledGesture {
+
+    /** Number of events. */
+    public final int n;
+    /** Onset of each event in samples, relative to the first event. */
+    public final long[] onsetSamples;
+    /** Start index of each event in the source buffer, clamped to the buffer. */
+    public final int[] startIndices;
+    /** Pan of each event in [-1, 1], before the instrument's global pan. */
+    public final float[] pan;
+    /** Linear gain of each event, before the instrument's global gain. */
+    public final float[] gain;
+    /** Pitch ratio of each event. */
+    public final float[] pitchRatio;
+    /** Sample rate the onsets were computed for. */
+    public final float sampleRate;
+    /** Length of the source buffer the indices were clamped to. */
+    public final int bufferLength;
+
+    private CompiledGesture(int n, long[] onsetSamples, int[] startIndices, float[] pan,
+            float[] gain, float[] pitchRatio, float sampleRate, int bufferLength) {
+        this.n = n;
+        this.onsetSamples = onsetSamples;
+        this.startIndices = startIndices;
+        this.pan = pan;
+        this.gain = gain;
+        this.pitchRatio = pitchRatio;
+        this.sampleRate = sampleRate;
+        this.bufferLength = bufferLength;
+    }
+
+    /**
+     * Compiles a prepared schedule. Called by the director after it has applied its time
+     * transform.
+     *
+     * @param prepared       transformed schedule in milliseconds
+     * @param params         runtime granular playback parameters
+     * @param evtParams      per-event parameters, sized to {@code prepared}
+     * @param sampleRate     sample rate for onsets
+     * @param bufferLength   length of the source buffer
+     * @return compiled gesture
+     */
+    static CompiledGesture compile(GestureSchedule prepared, GestureGranularParams params,
+            GestureEventParams evtParams, float sampleRate, int bufferLength) {
+        final int n = prepared.size();
+        final long[] onsets = new long[n];
+        final int[] idx = new int[n];
+        final float[] pans = new float[n];
+        final float[] gains = new float[n];
+        final float[] pitches = new float[n];
+
+        final int hop = Math.max(1, params.hopLengthSamples);
+        final boolean fixedHop = (params.hopMode == GestureGranularParams.HopMode.FIXED);
+        final float defaultPitch = (params.pitchRatio > 0f) ? params.pitchRatio : 1.0f;
+        final float t0 = (n > 0) ? prepared.timesMs[0] : 0f;
+
+        for (int i = 0; i < n; i++) {
+            if (fixedHop) {
+                onsets[i] = (long) i * (long) hop;
+            }
+            else {
+                float relMs = Math.max(0f, prepared.timesMs[i] - t0);
+                onsets[i] = Math.max(0L, Math.round((relMs * 0.001) * sampleRate));
+            }
+            idx[i] = Math.max(0, Math.min(bufferLength - 1, evtParams.startIndices[i]));
+            pans[i] = (evtParams.pan != null) ? clampPan(evtParams.pan[i]) : params.pan;
+            float dynamics = (evtParams.gain != null) ? Math.max(0f, evtParams.gain[i]) : 1.0f;
+            gains[i] = params.gainLinear * dynamics;
+            pitches[i] = (evtParams.pitchRatio != null)
+                    ? Math.max(1e-6f, evtParams.pitchRatio[i])
+                    : defaultPitch;
+        }
+        return new CompiledGesture(n, onsets, idx, pans, gains, pitches, sampleRate, bufferLength);
+    }
+
+    /**
+     * Returns the time from the first onset to the last, in samples.
+     *
+     * @return onset span in samples, 0 for an empty gesture
+     */
+    public long spanSamples() {
+        return (n > 0) ? onsetSamples[n - 1] : 0L;
+    }
+
+    private static float clampPan(float p) {
+        if (p < -1f) return -1f;
+        if (p >  1f) return  1f;
+        return p;
+    }
+
+    // ------------------------------------------------------------------------
+    // Content key
+    // ------------------------------------------------------------------------
+
+    /**
+     * Content key for a compilation: the raw schedule times, every parameter that affects the
+     * compiled arrays, the per-event arrays, the sample rate and the buffer length. A key built
+     * for a lookup refers to the caller's arrays; {@link #copy()} makes the one stored in a
+     * cache, so later changes to the inputs cannot alias a cached entry.
+     */
+    static final class Key {
+        private final float[] timesMs;
+        private final double[] paramValues;
+        private final int[] startIndices;
+        private final float[] pan;
+        private final float[] gain;
+        private final float[] pitchRatio;
+        private final int hash;
+
+        Key(GestureSchedule schedule, boolean pretransformed, GestureGranularParams params,
+                GestureEventParams evt, float sampleRate, int bufferLength) {
+            this(schedule.timesMs,
+                    new double[] {
+                            pretransformed ? 1 : 0,
+                            params.timeTransform.ordinal(), params.targetCount, params.targetDurationMs,
+                            params.warpShape.ordinal(), params.warpExponent, params.hopMode.ordinal(),
+                            params.hopLengthSamples, params.pan, params.gainLinear, params.pitchRatio,
+                            sampleRate, bufferLength
+                    },
+                    evt.startIndices, evt.pan, evt.gain, evt.pitchRatio);
+        }
+
+        private Key(float[] timesMs, double[] paramValues, int[] startIndices, float[] pan,
+                float[] gain, float[] pitchRatio) {
+            this.timesMs = timesMs;
+            this.paramValues = paramValues;
+            this.startIndices = startIndices;
+            this.pan = pan;
+            this.gain = gain;
+            this.pitchRatio = pitchRatio;
+            int h = Arrays.hashCode(timesMs);
+            h = h * 31 + Arrays.hashCode(paramValues);
+            h = h * 31 + Arrays.hashCode(startIndices);
+            h = h * 31 + Arrays.hashCode(pan);
+            h = h * 31 + Arrays.hashCode(gain);
+            h = h * 31 + Arrays.hashCode(pitchRatio);
+            this.hash = h;
+        }
+
+        /** @return a key holding its own copies of the arrays */
+        Key copy() {
+            return new Key(timesMs.clone(), paramValues, startIndices.clone(),
+                    (pan != null) ? pan.clone() : null,
+                    (gain != null) ? gain.clone() : null,
+                    (pitchRatio != null) ? pitchRatio.clone() : null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return hash == k.hash
+                    && Arrays.equals(timesMs, k.timesMs)
+                    && Arrays.equals(paramValues, k.paramValues)
+                    && Arrays.equals(startIndices, k.startIndices)
+                    && Arrays.equals(pan, k.pan)
+                    && Arrays.equals(gain, k.gain)
+                    && Arrays.equals(pitchRatio, k.pitchRatio);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -29,9 +29,20 @@ package net.paulhertz.pixelaudio.granular;
  * <p>The main use is granular rendering, where each grain occupies an absolute sample span
  * but each audio callback renders only one block at a time. {@link PABurstGranularSource}
  * uses this class to find the loop bounds for samples that belong to the active grain.</p>
+ *
+ * <p>Render loops should use {@link #blockOverlap(long, int, long, long)}, which packs the
+ * overlap range into a single {@code long} and allocates nothing. Read the bounds back with
+ * {@link #sliceStart(long)} and {@link #sliceEnd(long)}, and test for overlap with
+ * {@link #hasOverlap(long)}. {@link #computeBlockSlice(long, int, long, long)} remains for
+ * callers outside the audio thread that prefer an object.</p>
  */
 public final class OverlapUtil {
 
+    /** Packed value returned by {@link #blockOverlap} when the span misses the block. */
+    public static final long NO_OVERLAP = 0L;
+
+    private static final Slice EMPTY_SLICE = new Slice(0, 0, false);
+
     private OverlapUtil() {
         // utility class
     }
@@ -93,7 +104,7 @@ public final class OverlapUtil {
 
         // No overlap cases
         if (spanEnd <= blockStart || spanStart >= blockEnd) {
-            return new Slice(0, 0, false);
+            return EMPTY_SLICE;
         }
 
         long oStart = Math.max(spanStart, blockStart);
@@ -106,9 +117,59 @@ public final class OverlapUtil {
         if (endIdx > blockSize) endIdx = blockSize;
 
         if (startIdx >= endIdx) {
-            return new Slice(0, 0, false);
+            return EMPTY_SLICE;
         }
 
         return new Slice(startIdx, endIdx, true);
     }
+
+    /**
+     * Computes the same overlap as {@link #computeBlockSlice(long, int, long, long)} without
+     * allocating, packing the block-local range into one {@code long}: the start index in the
+     * high 32 bits and the end index in the low 32 bits. A span that misses the block returns
+     * {@link #NO_OVERLAP}.
+     *
+     * <pre>
+     * long ov = OverlapUtil.blockOverlap(blockStart, blockSize, grainStart, grainEnd);
+     * for (int i = OverlapUtil.sliceStart(ov); i &lt; OverlapUtil.sliceEnd(ov); i++) { ... }
+     * </pre>
+     *
+     * @param blockStart    absolute sample index of the first sample in the block
+     * @param blockSize     number of samples in the block
+     * @param spanStart     absolute start of the span, inclusive
+     * @param spanEnd       absolute end of the span, exclusive
+     * @return packed {@code [startIndex, endIndex)} within the block, or {@link #NO_OVERLAP}
+     */
+    public static long blockOverlap(long blockStart, int blockSize, long spanStart, long spanEnd) {
+        long blockEnd = blockStart + blockSize;
+        if (spanEnd <= blockStart || spanStart >= blockEnd) return NO_OVERLAP;
+        int startIdx = (int) (Math.max(spanStart, blockStart) - blockStart);
+        int endIdx = (int) (Math.min(spanEnd, blockEnd) - blockStart);
+        if (startIdx >= endIdx) return NO_OVERLAP;
+        return ((long) startIdx << 32) | (endIdx & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param packed value from {@link #blockOverlap}
+     * @return first overlapping block index, inclusive
+     */
+    public static int sliceStart(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    /**
+     * @param packed value from {@link #blockOverlap}
+     * @return one past the last overlapping block index
+     */
+    public static int sliceEnd(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * @param packed value from {@link #blockOverlap}
+     * @return true if the packed range contains at least one sample
+     */
+    public static boolean hasOverlap(long packed) {
+        return packed != NO_OVERLAP;
+    }
 }
@@ -18,6 +18,11 @@
 
 package net.paulhertz.pixelaudio.granular;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import ddf.minim.analysis.WindowFunction;
 import net.paulhertz.pixelaudio.sampler.PitchPolicy;
 
@@ -39,18 +44,23 @@ import net.paulhertz.pixelaudio.sampler.PitchPolicy;
  * internally by {@code pitchRatio}; the instrument should not apply a second playback-rate
  * transposition on top of it.</p>
  *
+ * <p>Sources taken from a {@link Pool} are reset in place for each event and return to their
+ * pool when the voice playing them finishes, so dense gesture playback does not allocate a
+ * source per event.</p>
+ *
  * @see PAGranularInstrumentDirector
  * @see PASource
  * @see WindowCache
  */
 public final class PABurstGranularSource implements PASource {
 
-    private final float[] source;
-    private final int baseIndex;          // startIndices[i]
-    private final int burstGrains;        // >= 1
-    private final int timeHopSamples;     // >= 1 (intra-burst spacing in time)
-    private final int indexHopSamples;    // >= 0 (intra-burst scan in source index)
-    private final float pitchRatio;       // > 0
+    // event parameters, replaced in place by reset() when the source comes from a Pool
+    private float[] source;
+    private int baseIndex;                // startIndices[i]
+    private int burstGrains;              // >= 1
+    private int timeHopSamples;           // >= 1 (intra-burst spacing in time)
+    private int indexHopSamples;          // >= 0 (intra-burst scan in source index)
+    private float pitchRatio;             // > 0
     private boolean wrapAround = false;
 
     // Optional per-source gain (multiplicative). Default unity.
@@ -66,10 +76,22 @@ public final class PABurstGranularSource implements PASource {
     // note-level state (voice time origin)
     private long noteStartSample = Long.MIN_VALUE;
     private boolean noteStarted = false;
+    // first grain that may still overlap a block: grains are in start order, so the cursor only
+    // moves forward while blocks do, and grains before it have already ended
+    private int grainCursor = 0;
+    private long lastBlockStart = Long.MIN_VALUE;
 
     // Scratch buffers (reused) for safe in-source OLA normalization
     private float[] wsum = new float[0];
 
+    // pooling: the owning pool, or null, and whether this source is currently in it
+    private final Pool pool;
+    private final AtomicBoolean pooled = new AtomicBoolean(false);
+    // last window curve looked up, so a reused source skips the cache lookup
+    private WindowFunction lastWindow = null;
+    private float[] lastWindowCurve = null;
+    private int lastWindowLength = 0;
+
     /**
      * Creates a burst granular source.
      *
@@ -118,6 +140,27 @@ public final class PABurstGranularSource implements PASource {
             float pitchRatio,
             boolean wrapAround
     ) {
+        this.pool = null;
+        reset(source, baseIndex, grainLengthSamples, burstGrains, timeHopSamples,
+                indexHopSamples, pitchRatio, wrapAround);
+    }
+
+    /** Creates an empty source owned by {@code pool}; {@link #reset} fills it in. */
+    private PABurstGranularSource(Pool pool) {
+        this.pool = pool;
+        this.source = new float[0];
+        this.burstGrains = 1;
+        this.timeHopSamples = 1;
+        this.pitchRatio = 1.0f;
+        this.grainLength = 1;
+    }
+
+    /**
+     * Reinitializes this source for a new event, keeping its scratch buffers. Arguments are
+     * clamped as in the constructor. The grain window is cleared and must be set again.
+     */
+    private void reset(float[] source, int baseIndex, int grainLengthSamples, int burstGrains,
+            int timeHopSamples, int indexHopSamples, float pitchRatio, boolean wrapAround) {
         if (source == null) throw new IllegalArgumentException("source must not be null");
         this.source = source;
 
@@ -127,9 +170,28 @@ public final class PABurstGranularSource implements PASource {
         this.burstGrains = Math.max(1, burstGrains);
         this.timeHopSamples = Math.max(1, timeHopSamples);
         this.indexHopSamples = Math.max(0, indexHopSamples);
-
         this.pitchRatio = (pitchRatio > 0f) ? pitchRatio : 1.0f;
         this.wrapAround = wrapAround;
+
+        this.gain = 1.0f;
+        this.grainWindow = null;
+        this.windowCurve = null;
+        this.noteStartSample = Long.MIN_VALUE;
+        this.noteStarted = false;
+        this.grainCursor = 0;
+        this.lastBlockStart = Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns this source to the pool it was taken from. Called by {@link PAGranularVoice}
+     * when it is done with the source; does nothing for sources built with a constructor or
+     * already returned.
+     */
+    @Override
+    public void recycle() {
+        if (pool != null && pooled.compareAndSet(false, true)) {
+            pool.offer(this);
+        }
     }
 
     /**
@@ -163,6 +225,8 @@ public final class PABurstGranularSource implements PASource {
     public void seekTo(long absoluteSample) {
         this.noteStartSample = absoluteSample;
         this.noteStarted = true;
+        this.grainCursor = 0;
+        this.lastBlockStart = Long.MIN_VALUE;
     }
 
     /**
@@ -172,6 +236,12 @@ public final class PABurstGranularSource implements PASource {
      * that output arrays are at least {@code blockSize} samples long. If this source has not
      * been started with {@link #seekTo(long)}, rendering is skipped.</p>
      *
+     * <p>Only grains overlapping the block are visited. Grain starts are evenly spaced by
+     * {@code timeHopSamples}, so a cursor that skips grains ending before the block and stops
+     * at the first grain starting after it keeps the per-block cost proportional to grain
+     * density rather than to burst length. The cursor advances as blocks move forward and is
+     * repositioned arithmetically when a block starts earlier than the previous one.</p>
+     *
      * @param blockStart    absolute sample index of the first sample in the output block
      * @param blockSize     number of samples in the output block
      * @param outL          left output buffer to mix into
@@ -184,30 +254,36 @@ public final class PABurstGranularSource implements PASource {
 
         final long blockEnd = blockStart + (long) blockSize;
 
-        final float[] window =
-                (windowCurve != null && windowCurve.length == grainLength)
-                        ? windowCurve
-                        : (grainWindow != null && grainLength > 1)
-                            ? WindowCache.INSTANCE.getWindowCurve(grainWindow, grainLength)
-                            : null;
+        // windowCurve always matches grainLength: both are set together by setGrainWindow().
+        // Its own length can differ when WindowCache quantizes lengths; it is then stretched.
+        final float[] window = (grainLength > 1) ? windowCurve : null;
+        final boolean exactWindow = (window != null && window.length == grainLength);
 
         final boolean doR = (outR != null && outR != outL);
 
         ensureWSum(blockSize);
 
-        // Each grain g occupies [grainStartAbs, grainEndAbs)
-        for (int g = 0; g < burstGrains; g++) {
+        if (blockStart < lastBlockStart) grainCursor = firstGrainEndingAfter(blockStart);
+        lastBlockStart = blockStart;
+        // retire grains that ended before this block
+        while (grainCursor < burstGrains
+                && noteStartSample + (long) grainCursor * timeHopSamples + grainLength <= blockStart) {
+            grainCursor++;
+        }
+
+        // Each grain g occupies [grainStartAbs, grainEndAbs); starts increase with g
+        for (int g = grainCursor; g < burstGrains; g++) {
             final long grainStartAbs = noteStartSample + (long) g * (long) timeHopSamples;
+            if (grainStartAbs >= blockEnd) break;
             final long grainEndAbs   = grainStartAbs + (long) grainLength;
+            if (grainEndAbs <= blockStart) continue;
 
-            if (grainEndAbs <= blockStart || grainStartAbs >= blockEnd) continue;
-
-            OverlapUtil.Slice slice = OverlapUtil.computeBlockSlice(
+            final long overlap = OverlapUtil.blockOverlap(
                     blockStart, blockSize, grainStartAbs, grainEndAbs);
-            if (!slice.hasOverlap) continue;
+            if (!OverlapUtil.hasOverlap(overlap)) continue;
 
-            final int i0 = slice.startIndex;
-            final int i1 = slice.endIndex;
+            final int i0 = OverlapUtil.sliceStart(overlap);
+            final int i1 = OverlapUtil.sliceEnd(overlap);
 
             final int grainSourceStart = baseIndex + g * indexHopSamples;
 
@@ -222,7 +298,9 @@ public final class PABurstGranularSource implements PASource {
 
                 if (!wrapAround && (srcPos < 0f || srcPos >= (source.length - 1))) continue;
 
-                final float w = (window != null) ? window[offsetInGrain] : 1.0f;
+                final float w = (window == null) ? 1.0f
+                        : exactWindow ? window[offsetInGrain]
+                        : WindowCache.readInterpolated(window, offsetInGrain, grainLength);
                 final float s = readLinear(source, srcPos, wrapAround) * w;
 
                 outL[i] += s;
@@ -278,7 +356,13 @@ public final class PABurstGranularSource implements PASource {
         this.grainWindow = wf;
         this.grainLength = Math.max(1, grainLenSamples);
         if (wf != null && this.grainLength > 1) {
-            this.windowCurve = WindowCache.INSTANCE.getWindowCurve(wf, this.grainLength);
+            // pooled sources see the same window again and again; skip the cache lookup
+            if (wf != lastWindow || lastWindowCurve == null || lastWindowLength != this.grainLength) {
+                lastWindowCurve = WindowCache.INSTANCE.getWindowCurve(wf, this.grainLength);
+                lastWindow = wf;
+                lastWindowLength = this.grainLength;
+            }
+            this.windowCurve = lastWindowCurve;
         } else {
             this.windowCurve = null; // rectangular
         }
@@ -298,6 +382,18 @@ public final class PABurstGranularSource implements PASource {
         return wrapAround;
     }
 
+    /**
+     * Returns the index of the first grain whose end lies after {@code sample}, or
+     * {@code burstGrains} if every grain has ended.
+     */
+    private int firstGrainEndingAfter(long sample) {
+        // grain g ends after sample when g * hop > sample - noteStart - grainLength
+        long d = sample - noteStartSample - grainLength;
+        if (d < 0) return 0;
+        long g = d / timeHopSamples + 1;
+        return (int) Math.min(g, burstGrains);
+    }
+
     private void ensureWSum(int blockSize) {
         if (wsum.length != blockSize) {
             wsum = new float[blockSize];
@@ -340,4 +436,141 @@ public final class PABurstGranularSource implements PASource {
         int wrapped = index % length;
         return (wrapped < 0) ? wrapped + length : wrapped;
     }
+
+    // ------------------------------------------------------------------------
+    // Pool
+    // ------------------------------------------------------------------------
+
+    /**
+     * Lock-free pool of reusable burst sources.
+     *
+     * <p>{@link #acquire} takes a free source, or builds a new one if none is free, and resets
+     * it in place for the event. When the voice playing it finishes, the source returns itself
+     * through {@link PABurstGranularSource#recycle()}. Returned sources beyond the pool's
+     * capacity are left to the garbage collector, and sources that are never played (for
+     * example because their scheduled start was cleared) are simply not returned, so the pool
+     * never blocks and never leaks.</p>
+     *
+     * <p>Free sources sit in a fixed array of slots claimed and filled with compare-and-set,
+     * so control threads may acquire while the audio thread returns sources, without locks and,
+     * in steady state, without allocation.</p>
+     */
+    public static final class Pool {
+        /** Capacity used by {@link PAGranularInstrumentDirector}. */
+        public static final int DEFAULT_CAPACITY = 256;
+
+        private final AtomicReferenceArray<PABurstGranularSource> slots;
+        private final AtomicInteger takeHint = new AtomicInteger();
+        private final AtomicInteger putHint = new AtomicInteger();
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong reused = new AtomicLong();
+
+        /**
+         * Creates an empty pool.
+         *
+         * @param capacity   maximum number of free sources held; values below 1 are clamped to 1
+         */
+        public Pool(int capacity) {
+            this.slots = new AtomicReferenceArray<>(Math.max(1, capacity));
+        }
+
+        /**
+         * Takes a source from the pool, or builds one if the pool is empty, and resets it for a
+         * new event. Arguments are clamped as in the {@link PABurstGranularSource} constructor.
+         *
+         * @param source                mono source buffer to read from
+         * @param baseIndex             start index in {@code source} for the first grain
+         * @param grainLengthSamples    grain length in samples
+         * @param burstGrains           number of grains in this event
+         * @param timeHopSamples        spacing, in output samples, between grains in the burst
+         * @param indexHopSamples       spacing, in source-buffer samples, between grain start positions
+         * @param pitchRatio            playback pitch ratio for each grain
+         * @param wrapAround            true to wrap finite source-buffer reads at the buffer end
+         * @return a source ready to schedule
+         * @throws IllegalArgumentException if {@code source} is null
+         */
+        public PABurstGranularSource acquire(float[] source, int baseIndex, int grainLengthSamples,
+                int burstGrains, int timeHopSamples, int indexHopSamples, float pitchRatio,
+                boolean wrapAround) {
+            PABurstGranularSource s = poll();
+            if (s == null) {
+                s = new PABurstGranularSource(this);
+                created.incrementAndGet();
+            }
+            else {
+                reused.incrementAndGet();
+            }
+            s.reset(source, baseIndex, grainLengthSamples, burstGrains, timeHopSamples,
+                    indexHopSamples, pitchRatio, wrapAround);
+            s.pooled.set(false);
+            return s;
+        }
+
+        /**
+         * Builds sources until {@code count} are free, so the first events of a performance do
+         * not allocate.
+         *
+         * @param count   number of free sources wanted, up to the capacity
+         */
+        public void prefill(int count) {
+            int n = Math.min(count, capacity());
+            for (int i = available(); i < n; i++) {
+                PABurstGranularSource s = new PABurstGranularSource(this);
+                created.incrementAndGet();
+                s.pooled.set(true);
+                if (!offer(s)) break;
+            }
+        }
+
+        private PABurstGranularSource poll() {
+            final int n = slots.length();
+            final int start = takeHint.get();
+            for (int k = 0; k < n; k++) {
+                int i = (start + k) % n;
+                PABurstGranularSource s = slots.get(i);
+                if (s != null && slots.compareAndSet(i, s, null)) {
+                    takeHint.lazySet((i + 1) % n);
+                    return s;
+                }
+            }
+            return null;
+        }
+
+        private boolean offer(PABurstGranularSource s) {
+            final int n = slots.length();
+            final int start = putHint.get();
+            for (int k = 0; k < n; k++) {
+                int i = (start + k) % n;
+                if (slots.get(i) == null && slots.compareAndSet(i, null, s)) {
+                    putHint.lazySet((i + 1) % n);
+                    return true;
+                }
+            }
+            return false;   // full: let the collector have it
+        }
+
+        /** @return maximum number of free sources held */
+        public int capacity() {
+            return slots.length();
+        }
+
+        /** @return number of free sources, a snapshot */
+        public int available() {
+            int count = 0;
+            for (int i = 0; i < slots.length(); i++) {
+                if (slots.get(i) != null) count++;
+            }
+            return count;
+        }
+
+        /** @return number of sources built because the pool was empty */
+        public long getCreatedCount() {
+            return created.get();
+        }
+
+        /** @return number of acquisitions served by a reused source */
+        public long getReusedCount() {
+            return reused.get();
+        }
+    }
 }
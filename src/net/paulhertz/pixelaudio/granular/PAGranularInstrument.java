@@ -18,12 +18,15 @@
 
 package net.paulhertz.pixelaudio.granular;
 
+import java.util.Objects;
+
 import ddf.minim.AudioOutput;
 import ddf.minim.analysis.WindowFunction;
 
 import net.paulhertz.pixelaudio.sampler.ADSRParams;
 import net.paulhertz.pixelaudio.schedule.AudioSampleClock;
 import net.paulhertz.pixelaudio.schedule.AudioUtility;
+import net.paulhertz.pixelaudio.schedule.PATransport;
 
 /**
  * High-level granular instrument wrapper for {@link PASource} playback.
@@ -61,6 +64,10 @@ public class PAGranularInstrument implements AudioSampleClock {
 
     private boolean isClosed = false;
 
+    // batch scratch for startAtSampleTimes, grown as needed; guarded by this
+    private float[] batchGains = new float[0];
+    private float[] batchPans = new float[0];
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -81,6 +88,21 @@ public class PAGranularInstrument implements AudioSampleClock {
                 : new ADSRParams(1f, 0.01f, 0.2f, 0.8f, 0.3f);
     }
 
+    /**
+     * Creates a granular instrument around an existing sampler, such as an offline sampler
+     * built with {@link PAGranularSampler#PAGranularSampler(float, int, int)}.
+     *
+     * @param sampler       sampler that renders this instrument's voices
+     * @param defaultEnv    default macro envelope for voices when a playback call supplies null
+     */
+    public PAGranularInstrument(PAGranularSampler sampler, ADSRParams defaultEnv) {
+        this.sampler = Objects.requireNonNull(sampler, "sampler");
+        this.out = sampler.getAudioOutput();
+        this.defaultEnv = (defaultEnv != null)
+                ? defaultEnv
+                : new ADSRParams(1f, 0.01f, 0.2f, 0.8f, 0.3f);
+    }
+
     /**
      * Creates a granular instrument with a default envelope and 16 voices.
      *
@@ -217,6 +239,61 @@ public class PAGranularInstrument implements AudioSampleClock {
         );
     }    
 
+    /**
+     * Schedules a batch of sources with shared grain-window settings in a single scheduler insert.
+     *
+     * <p>Used by {@link PAGranularInstrumentDirector} to play a {@link CompiledGesture}: global
+     * gain and pan are applied to each entry here, then the sampler hands the whole batch to its
+     * scheduler at once.</p>
+     *
+     * @param srcs              sources to render; null entries are skipped
+     * @param amps              linear amplitude of each source before global gain is applied
+     * @param pans              stereo pan offset of each source in the range [-1, 1]
+     * @param env               envelope to use, or null to use the instrument default
+     * @param looping           true to loop the source path where supported
+     * @param startSamples      absolute sample index at which each source should start
+     * @param count             number of entries to schedule
+     * @param grainWindow       window function for shaping grain amplitude, or null for source default
+     * @param grainLenSamples   number of samples in one grain
+     */
+    public synchronized void startAtSampleTimes(PASource[] srcs,
+            float[] amps,
+            float[] pans,
+            ADSRParams env,
+            boolean looping,
+            long[] startSamples,
+            int count,
+            WindowFunction grainWindow,
+            int grainLenSamples) {
+
+        if (srcs == null || sampler == null || isClosed || count <= 0) return;
+
+        if (batchGains.length < count) {
+            int cap = Math.max(count, 2 * batchGains.length);
+            batchGains = new float[cap];
+            batchPans = new float[cap];
+        }
+        final float[] gains = batchGains;
+        final float[] finalPans = batchPans;
+        for (int i = 0; i < count; i++) {
+            gains[i] = amps[i] * globalGain;
+            finalPans[i] = clampPan(globalPan + pans[i]);
+        }
+        ADSRParams useEnv = (env != null) ? env : defaultEnv;
+
+        sampler.startAtSampleTimes(
+                srcs,
+                gains,
+                finalPans,
+                startSamples,
+                count,
+                useEnv,
+                looping,
+                grainWindow,
+                Math.max(1, grainLenSamples)
+        );
+    }
+
     /**
      * Schedules playback after a delay in samples relative to the current sampler time.
      *
@@ -286,7 +363,7 @@ public class PAGranularInstrument implements AudioSampleClock {
     public float getGlobalGainDb() { return AudioUtility.linearToDb(globalGain); }
     
     @Override
-    public float getSampleRate() { return this.out.sampleRate(); }
+    public float getSampleRate() { return sampler.getSampleRate(); }
 
     public PAGranularSampler getSampler() { return sampler; }
     
@@ -299,6 +376,23 @@ public class PAGranularInstrument implements AudioSampleClock {
         return getCurrentSampleTime();
     }
 
+    /**
+     * Subscribes this instrument's sampler to a shared transport, or unsubscribes it with null.
+     * While subscribed, {@link #getCurrentSampleTime()} and scheduled start samples are in
+     * transport time.
+     *
+     * @param transport   shared transport, or null to use the sampler's local clock
+     * @see PAGranularSampler#setTransport(PATransport)
+     */
+    public void setTransport(PATransport transport) {
+        sampler.setTransport(transport);
+    }
+
+    /** @return the transport this instrument's sampler follows, or null */
+    public PATransport getTransport() {
+        return sampler.getTransport();
+    }
+
     // ------------------------------------------------------------------------
     // Lifecycle
     // ------------------------------------------------------------------------
@@ -19,13 +19,15 @@
 package net.paulhertz.pixelaudio.granular;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 import ddf.minim.analysis.WindowFunction;
 import ddf.minim.analysis.HannWindow;
 
 import net.paulhertz.pixelaudio.schedule.GestureSchedule;
-import processing.core.PVector;
+import net.paulhertz.pixelaudio.schedule.GestureScheduleBuilder;
 
 /**
  * Top-level director for gesture-driven granular synthesis in PixelAudio.
@@ -57,6 +59,17 @@ import processing.core.PVector;
  * window is used. {@link PABurstGranularSource} owns sample-level burst rendering for each
  * event.</p>
  *
+ * <p>Burst sources come from a {@link PABurstGranularSource.Pool} owned by the director. Each
+ * source is reset in place for its event and returns to the pool when its voice finishes, so
+ * repeated gestures reuse the same objects instead of allocating one per event.</p>
+ *
+ * <p>Event timing and per-event parameters are compiled into a {@link CompiledGesture} and
+ * cached by content, so replaying a gesture skips the schedule transform and per-point math.
+ * All events of a gesture reach the sampler's scheduler in a single batch. The batch is
+ * staged in arrays the director and instrument reuse, and the sampler takes its scheduled
+ * payloads from a pool, so once warm, replaying gestures allocates nothing.</p>
+ *
+ * @see CompiledGesture
  * @see GestureGranularParams
  * @see GestureEventParams
  * @see PABurstGranularSource
@@ -64,17 +77,25 @@ import processing.core.PVector;
 public final class PAGranularInstrumentDirector {
     private final PAGranularInstrument instrument;
     private final float sampleRate;
-
-    // --- cache (offsets only)
-    private int lastScheduleSize = -1;
-    private float lastScheduleEndMs = Float.NaN;
-    private long[] cachedEventOffsetsSamples = new long[0];
-    
-    // Cache for schedule transform results (identity-based)
-    private GestureSchedule lastRawScheduleRef = null;
-    private GestureGranularParams lastOffsetsParamsRef = null;
-    private GestureSchedule lastTransformedScheduleRef = null;
-    private GestureSchedule lastOffsetsScheduleRef = null;
+    private final PABurstGranularSource.Pool sourcePool =
+            new PABurstGranularSource.Pool(PABurstGranularSource.Pool.DEFAULT_CAPACITY);
+
+    /** Number of compiled gestures kept by {@link #compileGesture}. */
+    public static final int COMPILED_CACHE_SIZE = 64;
+
+    // compiled gestures by content, least recently used dropped first
+    private final Map<CompiledGesture.Key, CompiledGesture> compiledCache =
+            new LinkedHashMap<CompiledGesture.Key, CompiledGesture>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CompiledGesture.Key, CompiledGesture> eldest) {
+                    return size() > COMPILED_CACHE_SIZE;
+                }
+            };
+    private long compileCount = 0L;
+    // per-gesture scratch, grown as needed and reused; guarded by this
+    private PASource[] eventSources = new PASource[0];
+    private long[] eventTimes = new long[0];
     
     // Performance fade state
 
@@ -224,23 +245,8 @@ public final class PAGranularInstrumentDirector {
             long startSampleTime) {
 
         if (monoBuf == null || monoBuf.length == 0) return;
-        if (schedule == null || params == null || evtParams == null) return;
-
-        // 1) Transform schedule times (ms domain) according to params
-        GestureSchedule sched = prepareSchedule(schedule, params);
-        final int n = sched.size();
-        if (n <= 0) return;
-
-        // Validate params alignment
-        if (evtParams.n != n) return; // or throw IllegalArgumentException for stricter behavior
-        if (evtParams.startIndices == null || evtParams.startIndices.length < n) return;
-
-        // 2) Cache offsets
-        ensureCache(sched, params);
-
-        // 3) Schedule Model-A events (Director creates sources)
-        final WindowFunction grainWf = resolveGrainWindow(params);
-        scheduleEvents(monoBuf, sched, params, evtParams, grainWf, startSampleTime);
+        CompiledGesture cg = compileGesture(schedule, params, evtParams, monoBuf.length);
+        if (cg != null) playCompiledAtSampleTime(monoBuf, cg, params, startSampleTime);
     }
     
     /**
@@ -268,30 +274,119 @@ public final class PAGranularInstrumentDirector {
         final int n = transformedSchedule.size();
         if (evtParams.n != n) return;
 
-        ensureCache(transformedSchedule, params);
-        scheduleEvents(monoBuf, transformedSchedule, params, evtParams, resolveGrainWindow(params), startSampleTime);
+        CompiledGesture cg = compile(transformedSchedule, true, params, evtParams, monoBuf.length);
+        if (cg != null) playCompiledAtSampleTime(monoBuf, cg, params, startSampleTime);
+    }
+
+    // ------------------------------------------------------------------------
+    // Compiled gestures
+    // ------------------------------------------------------------------------
+
+    /**
+     * Compiles a gesture into packed per-event arrays, or returns a cached compilation.
+     *
+     * <p>The schedule is prepared as in {@link #prepareSchedule}, then event onsets, source
+     * indices, pans, gains and pitch ratios are resolved once. Results are cached by content:
+     * schedule times, the parameters that shape events, the per-event arrays and the buffer
+     * length. A later call with equal content returns the same {@link CompiledGesture} without
+     * repeating the transform, even when the objects passed in are new.</p>
+     *
+     * @param schedule       raw gesture schedule in milliseconds
+     * @param params         runtime granular playback parameters
+     * @param evtParams      per-event source indices and optional pan, gain, and pitch overrides
+     * @param bufferLength   length of the mono source buffer the gesture will read
+     * @return compiled gesture, or null if the inputs are empty or do not match in size
+     */
+    public CompiledGesture compileGesture(GestureSchedule schedule,
+            GestureGranularParams params,
+            GestureEventParams evtParams,
+            int bufferLength) {
+        return compile(schedule, false, params, evtParams, bufferLength);
+    }
+
+    private CompiledGesture compile(GestureSchedule schedule, boolean pretransformed,
+            GestureGranularParams params, GestureEventParams evtParams, int bufferLength) {
+        if (schedule == null || schedule.isEmpty() || params == null || evtParams == null) return null;
+        if (bufferLength <= 0 || evtParams.startIndices == null) return null;
+
+        CompiledGesture.Key probe = new CompiledGesture.Key(
+                schedule, pretransformed, params, evtParams, sampleRate, bufferLength);
+        synchronized (compiledCache) {
+            CompiledGesture hit = compiledCache.get(probe);
+            if (hit != null) return hit;
+        }
+
+        GestureSchedule sched = pretransformed ? schedule : prepareSchedule(schedule, params);
+        final int n = sched.size();
+        if (n <= 0) return null;
+        // Validate params alignment
+        if (evtParams.n != n) return null; // or throw IllegalArgumentException for stricter behavior
+        if (evtParams.startIndices.length < n) return null;
+
+        CompiledGesture cg = CompiledGesture.compile(sched, params, evtParams, sampleRate, bufferLength);
+        synchronized (compiledCache) {
+            compiledCache.put(probe.copy(), cg);
+            compileCount++;
+        }
+        return cg;
+    }
+
+    /**
+     * Plays a compiled gesture, scheduling every event with a single batch insert.
+     *
+     * <p>Grain length, burst size, envelope, window and wrap-around still come from
+     * {@code params}, so one compilation can be replayed with different grain settings.</p>
+     *
+     * @param monoBuf            mono source buffer containing audio samples
+     * @param cg                 compiled gesture, from {@link #compileGesture}
+     * @param params             runtime granular playback parameters
+     * @param startSampleTime    absolute sample time for the first gesture event
+     */
+    public void playCompiledAtSampleTime(float[] monoBuf,
+            CompiledGesture cg,
+            GestureGranularParams params,
+            long startSampleTime) {
+        if (monoBuf == null || monoBuf.length == 0 || cg == null || cg.n <= 0 || params == null) return;
+        if (monoBuf.length < cg.bufferLength) return;    // indices were clamped to a longer buffer
+        scheduleEvents(monoBuf, cg, params, resolveGrainWindow(params), startSampleTime);
+    }
+
+    /**
+     * Removes all compiled gestures from the cache.
+     */
+    public void clearCompiledCache() {
+        synchronized (compiledCache) {
+            compiledCache.clear();
+        }
+    }
+
+    /**
+     * Returns how many gestures have been compiled, as opposed to served from the cache.
+     *
+     * @return number of compilations performed by this director
+     */
+    public long getCompileCount() {
+        synchronized (compiledCache) {
+            return compileCount;
+        }
     }
     
     /**
-     * Creates and schedules one burst source for each gesture event.
+     * Creates one burst source for each compiled event and schedules them all at once.
      *
      * @param monoBuf            mono source buffer containing audio samples
-     * @param sched              prepared gesture schedule in milliseconds
+     * @param cg                 compiled gesture
      * @param params             runtime granular playback parameters
-     * @param evtParams          per-event source indices and optional pan, gain, and pitch overrides
      * @param wf                 grain window function resolved from {@code params}, or the default window
      * @param startSampleTime    absolute sample time for the first gesture event
      */
-    private void scheduleEvents(float[] monoBuf,
-            GestureSchedule sched,
+    private synchronized void scheduleEvents(float[] monoBuf,
+            CompiledGesture cg,
             GestureGranularParams params,
-            GestureEventParams evtParams,
             WindowFunction wf,
             long startSampleTime) {
 
-        final int n = sched.size();
-        if (n <= 0) return;
-
+        final int n = cg.n;
         final int grainLen = Math.max(1, params.grainLengthSamples);
         final int hop      = Math.max(1, params.hopLengthSamples);
 
@@ -300,84 +395,46 @@ public final class PAGranularInstrumentDirector {
         final int timeHop  = hop;
         final int indexHop = hop;
 
-        final boolean fixedHop = (params.hopMode == GestureGranularParams.HopMode.FIXED);
-
-        // Defaults from params
-        final float defaultPan   = params.pan;
-        final float defaultGain  = params.gainLinear;
-        final float defaultPitch = (params.pitchRatio > 0f) ? params.pitchRatio : 1.0f;
-
-        // Prewarm window curve (avoid first-hit allocation)
+        // Generate the window curve here rather than on the audio thread, so voices find it
+        // with a lock-free hit. It is not pinned: grain lengths vary continuously, and a
+        // pinned curve per length would grow the cache without bound.
         if (wf != null && grainLen > 1) {
-            WindowCache.INSTANCE.prewarm(wf, grainLen);
+            WindowCache.INSTANCE.getWindowCurve(wf, grainLen);
         }
 
+        if (eventSources.length < n) {
+            int cap = Math.max(n, 2 * eventSources.length);
+            eventSources = new PASource[cap];
+            eventTimes = new long[cap];
+        }
+        final PASource[] srcs = eventSources;
+        final long[] when = eventTimes;
         for (int i = 0; i < n; i++) {
-            final long tEvent = fixedHop ? (long)i * (long)hop : cachedEventOffsetsSamples[i];
-            final long when = startSampleTime + tEvent;
-
-            int idx = evtParams.startIndices[i];
-            if (idx < 0) idx = 0;
-            if (idx >= monoBuf.length) idx = monoBuf.length - 1;
-
-            final float pan = (evtParams.pan != null) ? clampPan(evtParams.pan[i]) : defaultPan;
-            final float dynamics = (evtParams.gain != null) ? Math.max(0f, evtParams.gain[i]) : 1.0f;
-            final float gain = defaultGain * dynamics;
-            final float pitchRatio = (evtParams.pitchRatio != null)
-                    ? Math.max(1e-6f, evtParams.pitchRatio[i])
-                    : defaultPitch;
-
-            PASource src = new PABurstGranularSource(
+            when[i] = startSampleTime + cg.onsetSamples[i];
+            srcs[i] = sourcePool.acquire(
                     monoBuf,
-                    idx,
+                    cg.startIndices[i],
                     grainLen,
                     burstGrains,
                     timeHop,
                     indexHop,
-                    pitchRatio,
+                    cg.pitchRatio[i],
                     params.wrapAround
             );
-
-            instrument.startAtSampleTime(
-                    src,
-                    gain,
-                    pan,
-                    params.env,
-                    false,    // one-shot burst
-                    when,
-                    wf,
-                    grainLen
-            );
-        }
-    }
-
-    private void ensureCache(GestureSchedule sched, GestureGranularParams params) {
-        float endMs = (sched.timesMs.length > 0) ? sched.timesMs[sched.timesMs.length - 1] : 0f;
-
-        boolean same =
-        		lastOffsetsScheduleRef == sched
-                && lastScheduleSize == sched.size()
-                && Float.compare(lastScheduleEndMs, endMs) == 0
-                && lastOffsetsParamsRef == params;
-
-        if (same) return;
-
-        int n = sched.size();
-        if (cachedEventOffsetsSamples.length != n) {
-            cachedEventOffsetsSamples = new long[n];
-        }
-
-        float t0 = (n > 0) ? sched.timesMs[0] : 0f;
-        for (int i = 0; i < n; i++) {
-            float relMs = sched.timesMs[i] - t0;
-            if (relMs < 0f) relMs = 0f;
-            cachedEventOffsetsSamples[i] = msToSamples(relMs, sampleRate);
         }
 
-        lastOffsetsScheduleRef = sched;
-        lastScheduleSize = n;
-        lastScheduleEndMs = endMs;
-        lastOffsetsParamsRef = params;
+        instrument.startAtSampleTimes(
+                srcs,
+                cg.gain,
+                cg.pan,
+                params.env,
+                false,    // one-shot bursts
+                when,
+                n,
+                wf,
+                grainLen
+        );
+        Arrays.fill(srcs, 0, n, null);    // do not pin sources the voices will recycle
     }
 
     // --------------------------
@@ -439,7 +496,8 @@ public final class PAGranularInstrumentDirector {
      *
      * <p>If {@code params.timeTransform} is {@link GestureGranularParams.TimeTransform#RAW_GESTURE},
      * the raw schedule is returned unchanged. Otherwise this method applies the director's
-     * transform pipeline and caches the result by raw schedule and parameter object identity.</p>
+     * transform pipeline. Nothing is cached here, so a schedule edited in place is always
+     * transformed afresh; {@link #compileGesture} caches whole compilations by content.</p>
      *
      * @param rawSchedule    original gesture schedule
      * @param params         runtime granular playback parameters
@@ -448,50 +506,12 @@ public final class PAGranularInstrumentDirector {
     public GestureSchedule prepareSchedule(GestureSchedule rawSchedule, GestureGranularParams params) {
         if (rawSchedule == null || rawSchedule.isEmpty()) return rawSchedule;
         if (params == null || params.timeTransform == GestureGranularParams.TimeTransform.RAW_GESTURE) return rawSchedule;
-
-        if (rawSchedule == lastRawScheduleRef && params == lastOffsetsParamsRef && lastTransformedScheduleRef != null) {
-            return lastTransformedScheduleRef;
-        }
-        // we need to get a new GestureSchedule and cache some references
-    	GestureSchedule transformed = applyTimeTransform(rawSchedule, params);
-    	lastRawScheduleRef = rawSchedule;
-    	lastOffsetsParamsRef = params;
-    	lastTransformedScheduleRef = transformed;
-    	return transformed;
-    }
-
-    private static long msToSamples(float ms, float sr) {
-        // round to nearest sample
-        double s = (ms * 0.001) * sr;
-        return (long) Math.max(0, Math.round(s));
+        return applyTimeTransform(rawSchedule, params);
     }
 
     private static GestureSchedule resampleToCount(GestureSchedule in, int targetCount) {
-        // TODO: implement using your existing schedule resampling rules.
-        // For now: naive linear index resample (keeps endpoints)
-        int n = in.size();
-        if (targetCount <= 1 || n <= 1) return in;
-
-        PVector[] outPts = new PVector[targetCount];
-        float[] outT = new float[targetCount];
-
-        for (int i = 0; i < targetCount; i++) {
-            float u = (targetCount == 1) ? 0f : (i / (float)(targetCount - 1));
-            float x = u * (n - 1);
-            int a = (int)Math.floor(x);
-            int b = Math.min(n - 1, a + 1);
-            float f = x - a;
-
-            PVector pa = in.points.get(a);
-            PVector pb = in.points.get(b);
-            outPts[i] = new PVector(
-                    lerp(pa.x, pb.x, f),
-                    lerp(pa.y, pb.y, f)
-            );
-            outT[i] = lerp(in.timesMs[a], in.timesMs[b], f);
-        }
-
-        return new GestureSchedule(Arrays.asList(outPts), outT);
+        if (targetCount <= 1) return in;
+        return GestureScheduleBuilder.resampleToCount(in, targetCount);
     }
 
     private static GestureSchedule scaleToDuration(GestureSchedule in, float targetDurationMs) {
@@ -548,16 +568,6 @@ public final class PAGranularInstrumentDirector {
         return 1f - 0.5f * (float)Math.pow(2f * (1f - u), e);
     }
 
-    private static float lerp(float a, float b, float u) {
-        return a + (b - a) * u;
-    }
-    
-	private static float clampPan(float p) {
-		if (p < -1f) return -1f;
-		if (p >  1f) return  1f;
-		return p;
-	}
-	
 	// ------------------------------------------------------------------------
 	// Access to PAGranularInstrument
     // ------------------------------------------------------------------------
@@ -570,6 +580,16 @@ public final class PAGranularInstrumentDirector {
 	public PAGranularInstrument getInstrument() {
 		return this.instrument;
 	}
+
+    /**
+     * Returns the pool that supplies this director's burst sources, for prefilling before a
+     * performance or checking how often sources are reused.
+     *
+     * @return burst source pool used by this director
+     */
+    public PABurstGranularSource.Pool getSourcePool() {
+        return sourcePool;
+    }
  
     // ------------------------------------------------------------------------
     // Performance stop and release methods
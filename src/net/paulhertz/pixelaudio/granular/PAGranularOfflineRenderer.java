@@ -0,0 +1,368 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.granular;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import net.paulhertz.pixelaudio.sampler.ADSRParams;
+import net.paulhertz.pixelaudio.schedule.AudioUtility;
+import net.paulhertz.pixelaudio.schedule.GestureSchedule;
+
+/**
+ * Renders gestures played through {@link PAGranularInstrumentDirector} to stereo audio without
+ * an {@link ddf.minim.AudioOutput}, as fast as the CPU allows.
+ *
+ * <p>Each render builds an offline {@link PAGranularSampler}, wraps it in a
+ * {@link PAGranularInstrument} and director, schedules the gestures at their absolute sample
+ * times, and renders the sampler block by block on a virtual clock until every voice has
+ * finished. The sampler's own sample cursor is the clock, so scheduling behaves exactly as it
+ * does live; only the audio device is missing. A sampler's clock starts at its first event,
+ * so silence before a gesture costs nothing.</p>
+ *
+ * <p>With {@link #setParallel(boolean)} on, the default, each gesture renders on its own
+ * sampler on a worker thread and the results are summed. Each gesture then has its own voice
+ * pool, density normalization and limiter, which is what independent gestures would get from
+ * separate instruments. Turn parallel rendering off to render every gesture through one shared
+ * sampler, matching a single live instrument sample for sample.</p>
+ *
+ * <pre>
+ * PAGranularOfflineRenderer r = new PAGranularOfflineRenderer(48000f);
+ * r.addGesture(monoBuf, schedule, params, evtParams, 0);
+ * r.addGesture(monoBuf, schedule2, params, evtParams2, r.millisToSamples(2500));
+ * r.renderToFile("bounce.wav", false);
+ * </pre>
+ *
+ * @see PAGranularInstrumentDirector
+ * @see AudioUtility#saveStereoAudioToFile(float[], float[], float, String)
+ */
+public final class PAGranularOfflineRenderer {
+
+    /** Default block size used by offline voices. */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    /** One gesture to render. */
+    private static final class Gesture {
+        final float[] monoBuf;
+        final GestureSchedule schedule;
+        final GestureGranularParams params;
+        final GestureEventParams evtParams;
+        final long startSample;
+
+        Gesture(float[] monoBuf, GestureSchedule schedule, GestureGranularParams params,
+                GestureEventParams evtParams, long startSample) {
+            this.monoBuf = monoBuf;
+            this.schedule = schedule;
+            this.params = params;
+            this.evtParams = evtParams;
+            this.startSample = startSample;
+        }
+    }
+
+    private final float sampleRate;
+    private final int blockSize;
+    private final List<Gesture> gestures = new ArrayList<>();
+
+    private int maxVoices = 32;
+    private ADSRParams defaultEnv = new ADSRParams(1f, 0.01f, 0.2f, 0.8f, 0.3f);
+    private boolean parallel = true;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private float maxDurationSeconds = 3600f;
+
+    /**
+     * Creates a renderer with the default block size.
+     *
+     * @param sampleRate   sample rate of the rendered audio in Hz
+     */
+    public PAGranularOfflineRenderer(float sampleRate) {
+        this(sampleRate, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a renderer.
+     *
+     * @param sampleRate   sample rate of the rendered audio in Hz
+     * @param blockSize    block size used by voices when they render their sources
+     */
+    public PAGranularOfflineRenderer(float sampleRate, int blockSize) {
+        if (sampleRate <= 0f) throw new IllegalArgumentException("sampleRate must be positive");
+        this.sampleRate = sampleRate;
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    // ------------------------------------------------------------------------
+    // Gestures
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds a gesture to the next render. Arguments are those of
+     * {@link PAGranularInstrumentDirector#playGestureAtSampleTime(float[], GestureSchedule,
+     * GestureGranularParams, GestureEventParams, long)}; nothing is scheduled until
+     * {@link #render()}.
+     *
+     * @param monoBuf       mono source buffer containing audio samples
+     * @param schedule      raw gesture schedule in milliseconds
+     * @param params        runtime granular playback parameters
+     * @param evtParams     per-event source indices and optional pan, gain, and pitch overrides
+     * @param startSample   sample time of the first event, counted from the start of the render
+     */
+    public synchronized void addGesture(float[] monoBuf, GestureSchedule schedule,
+            GestureGranularParams params, GestureEventParams evtParams, long startSample) {
+        if (monoBuf == null || schedule == null || params == null || evtParams == null) {
+            throw new IllegalArgumentException("monoBuf, schedule, params and evtParams must not be null");
+        }
+        gestures.add(new Gesture(monoBuf, schedule, params, evtParams, Math.max(0L, startSample)));
+    }
+
+    /** Removes all gestures. */
+    public synchronized void clear() {
+        gestures.clear();
+    }
+
+    /** @return number of gestures waiting to render */
+    public synchronized int gestureCount() {
+        return gestures.size();
+    }
+
+    /**
+     * Converts milliseconds to samples at this renderer's sample rate.
+     *
+     * @param ms   time in milliseconds
+     * @return time in samples
+     */
+    public long millisToSamples(float ms) {
+        return Math.round(ms * 0.001 * sampleRate);
+    }
+
+    // ------------------------------------------------------------------------
+    // Rendering
+    // ------------------------------------------------------------------------
+
+    /**
+     * Renders every added gesture and returns the summed stereo result. Rendering stops when
+     * every voice has finished, or after {@link #getMaxDurationSeconds()} seconds.
+     *
+     * @return two arrays of equal length, left then right
+     * @throws IllegalStateException if rendering is interrupted
+     */
+    public float[][] render() {
+        final List<List<Gesture>> lanes = new ArrayList<>();
+        final int voices;
+        final ADSRParams env;
+        final int nThreads;
+        final long maxFrames;
+        synchronized (this) {
+            voices = maxVoices;
+            env = defaultEnv;
+            nThreads = threads;
+            maxFrames = (long) Math.ceil(maxDurationSeconds * sampleRate);
+            if (parallel) {
+                for (Gesture g : gestures) lanes.add(List.of(g));
+            }
+            else if (!gestures.isEmpty()) {
+                lanes.add(new ArrayList<>(gestures));
+            }
+        }
+        if (lanes.isEmpty()) return new float[][] { new float[0], new float[0] };
+
+        // schedule every lane here, on one thread: directors prewarm shared window curves,
+        // and Minim window functions are not safe to generate from several threads at once
+        // each lane starts at its first event, rounded down to a control block, so silence
+        // before it is not rendered
+        final List<PAGranularSampler> samplers = new ArrayList<>(lanes.size());
+        final long[] offsets = new long[lanes.size()];
+        for (int i = 0; i < lanes.size(); i++) {
+            long first = Long.MAX_VALUE;
+            for (Gesture g : lanes.get(i)) first = Math.min(first, g.startSample);
+            offsets[i] = first - (first % PAGranularSampler.CONTROL_BLOCK_SIZE);
+            samplers.add(scheduleLane(lanes.get(i), offsets[i], voices, env));
+        }
+
+        final List<float[][]> results = new ArrayList<>(samplers.size());
+        final int workers = Math.min(nThreads, samplers.size());
+        if (workers == 1) {
+            for (PAGranularSampler s : samplers) results.add(renderSampler(s, maxFrames));
+        }
+        else {
+            ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "PAGranularOfflineRenderer");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<float[][]>> futures = new ArrayList<>(samplers.size());
+                for (PAGranularSampler s : samplers) futures.add(pool.submit(() -> renderSampler(s, maxFrames)));
+                for (Future<float[][]> f : futures) results.add(f.get());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("offline render interrupted", e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException(cause);
+            }
+            finally {
+                pool.shutdownNow();
+            }
+        }
+        return sum(results, offsets);
+    }
+
+    /**
+     * Renders every added gesture and saves the result as a stereo WAV file through
+     * {@link AudioUtility}.
+     *
+     * @param fileName   name of the file to write
+     * @param float32    true for 32-bit float samples, false for 16-bit integer PCM
+     * @return number of frames written
+     * @throws IOException if the file cannot be written
+     */
+    public int renderToFile(String fileName, boolean float32) throws IOException {
+        float[][] lr = render();
+        if (float32) {
+            AudioUtility.saveStereoAudioTo32BitPCMFile(lr[0], lr[1], sampleRate, fileName);
+        }
+        else {
+            try {
+                AudioUtility.saveStereoAudioToFile(lr[0], lr[1], sampleRate, fileName);
+            }
+            catch (UnsupportedAudioFileException e) {
+                throw new IOException(e);
+            }
+        }
+        return lr[0].length;
+    }
+
+    private PAGranularSampler scheduleLane(List<Gesture> lane, long offset, int voices, ADSRParams env) {
+        PAGranularSampler sampler = new PAGranularSampler(sampleRate, blockSize, voices);
+        sampler.getMetrics().setTimingEnabled(false);
+        PAGranularInstrument instrument = new PAGranularInstrument(sampler, env);
+        PAGranularInstrumentDirector director = new PAGranularInstrumentDirector(instrument);
+        for (Gesture g : lane) {
+            director.playGestureAtSampleTime(g.monoBuf, g.schedule, g.params, g.evtParams, g.startSample - offset);
+        }
+        return sampler;
+    }
+
+    /** Renders one sampler a block at a time until it falls idle. */
+    private static float[][] renderSampler(PAGranularSampler sampler, long maxFrames) {
+        final int block = PAGranularSampler.CONTROL_BLOCK_SIZE;
+        float[] left = new float[1 << 16];
+        float[] right = new float[1 << 16];
+        int n = 0;
+        while (n < maxFrames) {
+            if (n + block > left.length) {
+                int grown = (int) Math.min(Integer.MAX_VALUE - 8L, (long) left.length * 2);
+                left = Arrays.copyOf(left, grown);
+                right = Arrays.copyOf(right, grown);
+            }
+            int frames = (int) Math.min(block, maxFrames - n);
+            sampler.render(left, right, n, frames);
+            n += frames;
+            if (sampler.isIdle()) break;
+        }
+        return new float[][] { Arrays.copyOf(left, n), Arrays.copyOf(right, n) };
+    }
+
+    /** Sums lane renders, each placed at its offset in the output. */
+    private static float[][] sum(List<float[][]> parts, long[] offsets) {
+        long len = 0;
+        for (int k = 0; k < parts.size(); k++) len = Math.max(len, offsets[k] + parts.get(k)[0].length);
+        if (len > Integer.MAX_VALUE - 8) throw new IllegalStateException("render too long for one array");
+        float[] left = new float[(int) len];
+        float[] right = new float[(int) len];
+        for (int k = 0; k < parts.size(); k++) {
+            float[][] p = parts.get(k);
+            int at = (int) offsets[k];
+            for (int i = 0; i < p[0].length; i++) {
+                left[at + i] += p[0][i];
+                right[at + i] += p[1][i];
+            }
+        }
+        return new float[][] { left, right };
+    }
+
+    // ------------------------------------------------------------------------
+    // Settings
+    // ------------------------------------------------------------------------
+
+    /** @param maxVoices voices per sampler; values below 1 are clamped to 1 */
+    public synchronized void setMaxVoices(int maxVoices) {
+        this.maxVoices = Math.max(1, maxVoices);
+    }
+
+    public synchronized int getMaxVoices() {
+        return maxVoices;
+    }
+
+    /** @param env default macro envelope for events, as in {@link PAGranularInstrument} */
+    public synchronized void setDefaultEnvelope(ADSRParams env) {
+        if (env != null) this.defaultEnv = env;
+    }
+
+    public synchronized ADSRParams getDefaultEnvelope() {
+        return defaultEnv;
+    }
+
+    /** @param parallel true to render each gesture on its own thread and sum the results */
+    public synchronized void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public synchronized boolean isParallel() {
+        return parallel;
+    }
+
+    /** @param threads maximum worker threads for parallel rendering; values below 1 are clamped to 1 */
+    public synchronized void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public synchronized int getThreads() {
+        return threads;
+    }
+
+    /** @param seconds hard limit on the rendered length, in case a voice never finishes */
+    public synchronized void setMaxDurationSeconds(float seconds) {
+        this.maxDurationSeconds = Math.max(0f, seconds);
+    }
+
+    public synchronized float getMaxDurationSeconds() {
+        return maxDurationSeconds;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+}
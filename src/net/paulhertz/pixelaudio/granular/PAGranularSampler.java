@@ -22,10 +22,18 @@ import ddf.minim.UGen;
 import ddf.minim.AudioOutput;
 import ddf.minim.analysis.WindowFunction;
 import net.paulhertz.pixelaudio.sampler.ADSRParams;
+import net.paulhertz.pixelaudio.sampler.ClipMode;
+import net.paulhertz.pixelaudio.sampler.VoiceAllocator;
+import net.paulhertz.pixelaudio.sampler.VoiceParam;
+import net.paulhertz.pixelaudio.schedule.AudioCommandQueue;
 import net.paulhertz.pixelaudio.schedule.AudioScheduler;
+import net.paulhertz.pixelaudio.schedule.EngineMetrics;
+import net.paulhertz.pixelaudio.schedule.PATransport;
 
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * UGen-based multi-voice sampler for granular {@link PASource} playback.
@@ -41,7 +49,8 @@ import java.util.*;
  *   <li>manage a bounded pool of {@link PAGranularVoice} instances;</li>
  *   <li>start sources immediately or through {@link AudioScheduler};</li>
  *   <li>carry per-voice envelope, gain, pan, looping, and grain-window settings;</li>
- *   <li>mix active voices sample by sample in {@link #uGenerate(float[])};</li>
+ *   <li>mix active voices in blocks of {@link #CONTROL_BLOCK_SIZE} samples, read out one
+ *   frame at a time by {@link #uGenerate(float[])};</li>
  *   <li>apply light mix normalization and soft clipping to reduce overload.</li>
  * </ul>
  *
@@ -49,6 +58,22 @@ import java.util.*;
  * smooth stealing enabled, the old voice is released before reuse; otherwise it is stopped
  * immediately.</p>
  *
+ * <p>Rendering is block based. When its block buffer runs out, the sampler drains control
+ * commands, collects the scheduled starts that fall in the next {@link #CONTROL_BLOCK_SIZE}
+ * samples, and mixes every voice for the whole block. Voices are mixed up to each start's
+ * offset in the block before that start is launched, so starts stay sample accurate, and a
+ * voice stolen mid-block sounds until the sample at which it is taken. Per sample,
+ * {@link #uGenerate(float[])} only reads the block buffer.</p>
+ *
+ * <p>Threading: the audio thread never takes a monitor. Immediate plays, stops and
+ * releases are written into preallocated records in an {@link AudioCommandQueue} and applied
+ * by the audio thread at the start of each block. Scheduled starts go through the lock-free
+ * {@link AudioScheduler} inbox. Control calls never wait for the audio thread: if the ring is
+ * full the command is dropped and the call reports it, returning -1 or false.</p>
+ *
+ * <p>Voice counts, steals, rejected and late starts, block render time and limiter gain
+ * reduction are collected in an {@link EngineMetrics} instance; see {@link #getMetricsSnapshot()}.</p>
+ *
  * @see PAGranularInstrumentDirector
  * @see PAGranularInstrument
  * @see PAGranularVoice
@@ -58,16 +83,17 @@ public class PAGranularSampler extends UGen {
     // Internal scheduled-play payload
     // ------------------------------------------------------------------------
 	// TODO include "final long srcSampleIndex;  // <-- the mapped read position in ScheduledPlay
+    /** Scheduled start, taken from {@link PlayPool} and returned to it once dispatched. */
     private static final class ScheduledPlay {
-        final PASource src;
-        final ADSRParams env;
-        final float gain;
-        final float pan;
-        final boolean looping;
-        final WindowFunction grainWindow; // may be null -> voice should default
-        final int grainLenSamples;        // >= 1
-
-        ScheduledPlay(PASource src,
+        PASource src;
+        ADSRParams env;
+        float gain;
+        float pan;
+        boolean looping;
+        WindowFunction grainWindow; // may be null -> voice should default
+        int grainLenSamples;        // >= 1
+
+        ScheduledPlay set(PASource src,
         		ADSRParams env,
         		float gain,
         		float pan,
@@ -81,40 +107,168 @@ public class PAGranularSampler extends UGen {
         	this.looping = looping;
         	this.grainWindow = grainWindow;
         	this.grainLenSamples = Math.max(1, grainLenSamples);
+        	return this;
         }
-        
-        // Backward-friendly convenience if you still enqueue without window data
-        ScheduledPlay(PASource src,
-        		ADSRParams env,
-        		float gain,
-        		float pan,
-        		boolean looping) {
-        	this(src, env, gain, pan, looping, null, 1);
+    }
+
+    /**
+     * Free list of scheduled-start payloads. Control threads take payloads and the audio thread
+     * returns them after dispatch, so steady scheduling allocates none. Payloads dropped as late
+     * or by {@link AudioScheduler#clear()}, and returns beyond the capacity, are left to the
+     * collector.
+     */
+    private static final class PlayPool {
+        private final AtomicReferenceArray<ScheduledPlay> slots;
+        private final AtomicInteger takeHint = new AtomicInteger();
+        private final AtomicInteger putHint = new AtomicInteger();
+
+        PlayPool(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        /** Takes a free payload, or builds one if none is free. Any thread. */
+        ScheduledPlay acquire() {
+            final int n = slots.length();
+            final int start = takeHint.get();
+            for (int k = 0; k < n; k++) {
+                int i = (start + k) % n;
+                ScheduledPlay p = slots.get(i);
+                if (p != null && slots.compareAndSet(i, p, null)) {
+                    takeHint.lazySet((i + 1) % n);
+                    return p;
+                }
+            }
+            return new ScheduledPlay();
+        }
+
+        /** Returns a dispatched payload. Audio thread; never allocates. */
+        void release(ScheduledPlay p) {
+            p.src = null;
+            p.env = null;
+            p.grainWindow = null;
+            final int n = slots.length();
+            final int start = putHint.get();
+            for (int k = 0; k < n; k++) {
+                int i = (start + k) % n;
+                if (slots.get(i) == null && slots.compareAndSet(i, null, p)) {
+                    putHint.lazySet((i + 1) % n);
+                    return;
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Internal control command record, preallocated in the command ring
+    // ------------------------------------------------------------------------
+    private static final class Command {
+        static final int PLAY = 1;
+        static final int RELEASE_ALL = 2;
+        static final int STOP_ALL = 3;
+        static final int SET_MAX_VOICES = 4;
+        static final int SET_PARAM = 5;
+
+        int type;
+        int count;
+        long voiceId;
+        VoiceParam param;
+        float value;
+        PAGranularVoice[] voices;
+        VoiceAllocator allocator;
+        PASource src;
+        ADSRParams env;
+        float gain;
+        float pan;
+        boolean looping;
+        WindowFunction grainWindow;
+        int grainLenSamples;
+
+        /** Drops object references so a recycled slot does not pin sources or windows. */
+        void clearRefs() {
+            src = null;
+            env = null;
+            grainWindow = null;
+            voices = null;
+            allocator = null;
+            param = null;
         }
+    }
 
-    }	
+    /** Number of samples rendered per block, and between drains of the control command ring. */
+    public static final int CONTROL_BLOCK_SIZE = 64;
+    /** Capacity of the control command ring. */
+    private static final int COMMAND_CAPACITY = 1024;
+    /** Free scheduled-start payloads kept for reuse. */
+    private static final int PLAY_POOL_CAPACITY = 1024;
 
     // ------------------------------------------------------------------------
     // Core fields
     // ------------------------------------------------------------------------
     private final AudioOutput out;
+    private final float sampleRate;
 
-    private final List<PAGranularVoice> voices = new ArrayList<>();
-    private int maxVoices = 32;
+    // Voice pool, replaced (never mutated) when it grows
+    private volatile PAGranularVoice[] voices;
+    /**
+     * Largest voice array built so far, adopted or still queued; guarded by {@code this}.
+     * Each grow extends this array, so a grow queued behind another keeps its voices.
+     */
+    private PAGranularVoice[] pendingVoices;
+    private volatile int maxVoices = 32;
     private int blockSize;
 
-    private boolean smoothSteal = true;
+    private volatile boolean smoothSteal = true;
+    /** Free list and steal heap over {@link #voices}; owned by the audio thread. */
+    private VoiceAllocator allocator;
+    /** Allocated voice count, published by the audio thread. */
+    private volatile int allocatedVoices = 0;
+    /** Policy for choosing a voice to steal; SAME_PITCH behaves like OLDEST here. */
+    private volatile VoiceAllocator.StealPolicy stealPolicy = VoiceAllocator.StealPolicy.OLDEST;
     
     // Sample-accurate scheduler for launching new voices
     private final AudioScheduler<ScheduledPlay> scheduler = new AudioScheduler<>();
-
-    // Absolute sample counter (across the life of this UGen)
-    private long sampleCursor = 0L;
+    private final PlayPool playPool = new PlayPool(PLAY_POOL_CAPACITY);
+    // batch scratch for startAtSampleTimes, grown as needed; guarded by this
+    private ScheduledPlay[] batchPlays = new ScheduledPlay[0];
+    private long[] batchTimes = new long[0];
+
+    // Lock-free control commands, drained on the audio thread, and preallocated handlers
+    private final AudioCommandQueue<Command> commands =
+            new AudioCommandQueue<>(COMMAND_CAPACITY, Command::new);
+    private final AudioCommandQueue.Handler<Command> commandHandler = this::executeCommand;
+    private final AudioScheduler.PointHandler<ScheduledPlay> scheduledStartHandler =
+            (sp, offsetInBlock) -> {
+                mixVoicesTo(offsetInBlock);
+                getAvailableVoice(sp.src, sp.env, sp.gain, sp.pan, sp.looping,
+                        sp.grainWindow, sp.grainLenSamples, -1L);
+                playPool.release(sp);
+            };
+
+    // Absolute sample time of the first sample not yet rendered (across the life of this UGen)
+    private volatile long sampleCursor = 0L;
+    // Maps sampleCursor to a shared transport, or null for the local clock
+    private volatile PATransport.Follower transport;
+
+    // Block mix buffers, filled by renderBlock() and read out by uGenerate(); audio thread only
+    private final float[] mixL = new float[CONTROL_BLOCK_SIZE];
+    private final float[] mixR = new float[CONTROL_BLOCK_SIZE];
+    /** Next frame of the mix buffers to hand out; a full block forces a render. */
+    private int readPos = CONTROL_BLOCK_SIZE;
+    /** Frames of the block being rendered that voices have already been mixed into. */
+    private int mixedTo = 0;
+    /** Active or releasing voices after the last mixed span. */
+    private int mixedActive = 0;
+
+    /** Voice, trigger, timing and limiter metrics, written by the audio thread. */
+    private final EngineMetrics metrics;
     
-    private final float[] tmpStereo = new float[2];
-
     private float mixNorm = 1f;    // NEW, mixing and normalization
     private float globalMakeUpGain = 2.5f;
+    /** Density normalization target and the voice count it was computed for; audio thread only. */
+    private float densityNorm = 1f;
+    private int densityCount = 0;
+    /** Soft limiter curve applied to the mixed output. */
+    private volatile ClipMode clipMode = ClipMode.SOFTSIGN;
 
 	// private long blockStartSample = 0;    // NEW, for revised AudioScheduler
 
@@ -126,10 +280,34 @@ public class PAGranularSampler extends UGen {
      * @param maxVoices    maximum number of voices to allocate
      */
     public PAGranularSampler(AudioOutput out, int maxVoices) {
+        this(out, out.sampleRate(), out.bufferSize(), maxVoices);
+    }
+
+    /**
+     * Creates a granular sampler that is not patched to any output, for offline rendering.
+     * Drive it by calling {@link #tick(float[])} once per sample frame, or
+     * {@link #render(float[], float[], int, int)} for runs of frames, as
+     * {@link PAGranularOfflineRenderer} does.
+     *
+     * @param sampleRate   sample rate of the rendered audio in Hz
+     * @param blockSize    block size used by voices when they render their sources
+     * @param maxVoices    maximum number of voices to allocate
+     */
+    public PAGranularSampler(float sampleRate, int blockSize, int maxVoices) {
+        this(null, sampleRate, blockSize, maxVoices);
+    }
+
+    private PAGranularSampler(AudioOutput out, float sampleRate, int blockSize, int maxVoices) {
         this.out = out;
+        this.sampleRate = sampleRate;
         this.maxVoices = Math.max(1, maxVoices);
-        this.blockSize = out.bufferSize();
-        this.patch(out);             // UGen connected to AudioOutput
+        this.blockSize = Math.max(1, blockSize);
+        this.voices = allocateVoices(new PAGranularVoice[0], this.maxVoices);
+        this.pendingVoices = voices;
+        this.allocator = new VoiceAllocator(voices.length);
+        this.metrics = new EngineMetrics("PAGranularSampler", CONTROL_BLOCK_SIZE, sampleRate);
+        scheduler.setMetrics(metrics);
+        if (out != null) this.patch(out);             // UGen connected to AudioOutput
     }
 
     /**
@@ -144,13 +322,27 @@ public class PAGranularSampler extends UGen {
     // ------------------------------------------------------------------------
     // Voice allocation
     // ------------------------------------------------------------------------
+
+    /**
+     * Grows a voice array to {@code count} voices, reusing the voices already present.
+     * Called on the control thread; the audio thread only ever sees fully built arrays.
+     */
+    private PAGranularVoice[] allocateVoices(PAGranularVoice[] current, int count) {
+        if (current.length >= count) return current;
+        PAGranularVoice[] grown = Arrays.copyOf(current, count);
+        for (int i = current.length; i < count; i++) {
+            grown[i] = new PAGranularVoice(null, blockSize, sampleRate);
+        }
+        return grown;
+    }
  
     /**
-     * Allocates or reuses a voice for a source.
+     * Allocates or reuses a voice for a source. Audio thread only.
      *
-     * <p>If no inactive voice is available and the pool is below {@link #maxVoices}, a new
-     * voice is created. If the pool is full, the oldest active voice is stolen. Smooth stealing
-     * releases the old voice first; hard stealing stops it immediately.</p>
+     * <p>Voices are preallocated up to {@link #maxVoices} and tracked by a
+     * {@link VoiceAllocator}, so finding an idle voice or the voice to steal takes constant
+     * time. Smooth stealing releases the old voice first; hard stealing stops it
+     * immediately.</p>
      *  
      * @param src                source to render
      * @param env                ADSRParams envelope, or null for the voice default
@@ -159,48 +351,89 @@ public class PAGranularSampler extends UGen {
      * @param looping            true to loop the source path where supported
      * @param grainWindow        window function for shaping grain amplitude, or null for source default
      * @param grainLenSamples    number of samples in one grain
+     * @param voiceId            id reserved by {@link #play}, or -1 to keep the id the voice assigns itself
      * @return allocated voice, or null if no voice could be allocated
      */
     private PAGranularVoice getAvailableVoice(PASource src, ADSRParams env,
     		float gain, float pan, boolean looping,
-    		WindowFunction grainWindow, int grainLenSamples) {
-    	// 1. find free voice
-    	for (PAGranularVoice v : voices) {
-    		if (!v.isActive() && !v.isReleasing()) {
-    			v.activate(src, env, gain, pan, looping, grainWindow, Math.max(1, grainLenSamples));
-    			return v;
+    		WindowFunction grainWindow, int grainLenSamples, long voiceId) {
+    	// 1. take an idle voice
+    	int idx = allocator.acquire(1f);
+    	if (idx < 0) {
+    		// 2. recycle a busy voice
+    		idx = allocator.steal(stealPolicy, 1f);
+    		if (idx < 0) {             // should not occur
+    			metrics.recordRejected();
+    			return null;
     		}
+    		metrics.recordSteal();
+    		PAGranularVoice victim = voices[idx];
+    		if (smoothSteal) victim.release();
+    		else victim.stop();
     	}
+    	PAGranularVoice v = voices[idx];
+    	v.activate(src, env, gain, pan, looping, grainWindow, Math.max(1, grainLenSamples));
+    	if (voiceId >= 0) v.setVoiceId(voiceId);
+    	allocatedVoices = allocator.allocatedCount();
+    	metrics.recordTrigger();
+    	return v;
+    }
 
-    	// 2. expand pool if allowed
-    	if (voices.size() < maxVoices) {
-    		PAGranularVoice v = new PAGranularVoice(src, blockSize, out.sampleRate());
-    		voices.add(v);
-    		v.activate(src, env, gain, pan, looping, grainWindow, Math.max(1, grainLenSamples));
-    		return v;
-    	}
-
-    	// 3. recycle oldest active voice
-    	PAGranularVoice oldest = null;
-    	for (PAGranularVoice v : voices) {
-    		if (v.isActive() && (oldest == null || v.getVoiceId() < oldest.getVoiceId())) {
-    			oldest = v;
-    		}
-    	}
-    	if (oldest != null) {
-    		if (smoothSteal) oldest.release();
-    		else oldest.stop();
-    		oldest.activate(src, env, gain, pan, looping, grainWindow, Math.max(1, grainLenSamples));
-    		return oldest;
+    /**
+     * Applies one control command on the audio thread. Called from {@link #uGenerate(float[])}
+     * while draining the command ring.
+     */
+    private void executeCommand(Command c) {
+    	final PAGranularVoice[] vs = voices;
+    	switch (c.type) {
+    		case Command.PLAY:
+    			getAvailableVoice(c.src, c.env, c.gain, c.pan, c.looping,
+    					c.grainWindow, c.grainLenSamples, c.voiceId);
+    			break;
+    		case Command.RELEASE_ALL:
+    			for (PAGranularVoice v : vs) {
+    				if (v.isActive() || v.isReleasing()) v.release();
+    			}
+    			break;
+    		case Command.STOP_ALL:
+    			for (PAGranularVoice v : vs) v.stop();
+    			allocator.reset();
+    			allocatedVoices = 0;
+    			break;
+    		case Command.SET_MAX_VOICES:
+    			if (c.voices != null && c.allocator != null) {
+    				c.allocator.copyFrom(allocator);
+    				allocator = c.allocator;
+    				voices = c.voices;
+    			}
+    			allocator.setLimit(c.count);
+    			break;
+    		case Command.SET_PARAM:
+    			for (PAGranularVoice v : vs) {
+    				if ((v.isActive() || v.isReleasing()) && (c.voiceId < 0 || v.getVoiceId() == c.voiceId)) {
+    					if (c.param == VoiceParam.GAIN) v.setGain(c.value);
+    					else v.setPan(c.value);
+    				}
+    			}
+    			break;
+    		default:
+    			break;
     	}
-
-    	return null; // should not occur
+    	c.clearRefs();
     }
 
-    // Preserve old internal helper signature (calls new one with null window)
-    private PAGranularVoice getAvailableVoice(PASource src, ADSRParams env,
-    		float gain, float pan, boolean looping) {
-    	return getAvailableVoice(src, env, gain, pan, looping, null, 1);
+    /**
+     * Posts a command that carries no arguments beyond its type. Never waits: if the ring is
+     * full the command is dropped and the caller is told so.
+     *
+     * @return true if the command was queued
+     */
+    private boolean postCommand(int type) {
+    	long ticket = commands.claim();
+    	if (ticket < 0) return false;
+    	commands.slot(ticket).type = type;
+    	commands.publish(ticket);
+    	return true;
     }
 
     // ------------------------------------------------------------------------
@@ -210,28 +443,75 @@ public class PAGranularSampler extends UGen {
     /**
      * Plays a granular source immediately as a voice.
      *
+     * <p>The request is posted to the lock-free command ring; the voice starts at the next
+     * control-block boundary. Use {@link #startAtSampleTime(PASource, ADSRParams, float, float, boolean, long)}
+     * when the start must land on an exact sample.</p>
+     *
+     * <p>The voice id is reserved here, before the voice exists, so it can be passed to
+     * {@link #setParam(long, VoiceParam, float)} straight away: commands are applied in order,
+     * so a parameter change posted after the play reaches the new voice. Once the voice starts,
+     * {@link PAGranularVoice#getVoiceId()} returns the same id. The call never waits; if the
+     * command ring is full the play is dropped, counted as rejected, and -1 is returned.</p>
+     *
      * @param src       source to render
      * @param env       ADSR for the macro envelope
      * @param gain      linear voice gain
      * @param pan       stereo pan in the range [-1, 1]
      * @param looping   true to loop the source path where supported
-     * @return voice id, or -1 if playback could not start
+     * @return id of the voice that will play the source, or -1 if the play was dropped
      */
-    public synchronized long play(PASource src,
+    public long play(PASource src,
     		ADSRParams env,
     		float gain,
     		float pan,
     		boolean looping) {
     	if (src == null) return -1;
 
-    	PAGranularVoice v = getAvailableVoice(src, env, gain, pan, looping);
-    	if (v == null) return -1;
+    	long ticket = commands.claim();
+    	if (ticket < 0) {
+    		metrics.recordRejected();
+    		return -1;
+    	}
+    	Command c = commands.slot(ticket);
+    	c.type = Command.PLAY;
+    	c.src = src;
+    	c.env = env;
+    	c.gain = gain;
+    	c.pan = pan;
+    	c.looping = looping;
+    	c.grainWindow = null;
+    	c.grainLenSamples = 1;
+    	long id = PAGranularVoice.nextVoiceId();
+    	c.voiceId = id;
+    	commands.publish(ticket);
+    	return id;
+    }
 
-    	return v.getVoiceId();
+    /**
+     * Changes a parameter of a sounding voice. The change is applied at the next control block
+     * and ramped over {@link PAGranularVoice#PARAM_RAMP_SAMPLES} samples. The call never
+     * waits; if the command ring is full the change is dropped.
+     *
+     * @param voiceId   id returned by {@link #play}, or -1 for every sounding voice
+     * @param param     parameter to change
+     * @param value     new value: a linear gain for {@link VoiceParam#GAIN}, -1 to 1 for {@link VoiceParam#PAN}
+     * @return true if the change was queued, false if the ring was full
+     */
+    public boolean setParam(long voiceId, VoiceParam param, float value) {
+    	if (param == null) return false;
+    	long ticket = commands.claim();
+    	if (ticket < 0) return false;
+    	Command c = commands.slot(ticket);
+    	c.type = Command.SET_PARAM;
+    	c.voiceId = voiceId;
+    	c.param = param;
+    	c.value = value;
+    	commands.publish(ticket);
+    	return true;
     }
 
     /** Convenience overload that disables looping. */
-    public synchronized long play(PASource src,
+    public long play(PASource src,
     		ADSRParams env,
     		float gain,
     		float pan) {
@@ -239,7 +519,7 @@ public class PAGranularSampler extends UGen {
     }
 
     /** Convenience overload for callers that supply an already-resolved default envelope. */
-    public synchronized long play(PASource src,
+    public long play(PASource src,
     		float gain,
     		float pan,
     		ADSRParams defaultEnv,
@@ -261,15 +541,15 @@ public class PAGranularSampler extends UGen {
      * @param looping       true to loop the source path where supported
      * @param startSample   absolute sample index at which to start the voice
      */
-    public synchronized void startAtSampleTime(PASource src,
+    public void startAtSampleTime(PASource src,
             ADSRParams env,
             float gain,
             float pan,
             boolean looping,
             long startSample) {
         if (src == null) return;
-        ScheduledPlay happening = new ScheduledPlay(src, env, gain, pan, looping);
-        scheduler.schedulePoint(startSample, happening);
+        ScheduledPlay happening = playPool.acquire().set(src, env, gain, pan, looping, null, 1);
+        scheduler.schedulePoint(toLocal(startSample), happening);
     }
         
     /**
@@ -288,7 +568,7 @@ public class PAGranularSampler extends UGen {
      * @param grainWindow        a window function for shaping grain amplitude
      * @param grainLenSamples    number of samples in one grain
      */
-    public synchronized void startAtSampleTime(PASource src,
+    public void startAtSampleTime(PASource src,
     		ADSRParams env,
     		float gain,
     		float pan,
@@ -297,8 +577,54 @@ public class PAGranularSampler extends UGen {
     		WindowFunction grainWindow,
     		int grainLenSamples) {
     	if (src == null) return;
-    	ScheduledPlay happening = new ScheduledPlay(src, env, gain, pan, looping, grainWindow, grainLenSamples);
-    	scheduler.schedulePoint(startSample, happening);
+    	ScheduledPlay happening = playPool.acquire().set(src, env, gain, pan, looping, grainWindow, grainLenSamples);
+    	scheduler.schedulePoint(toLocal(startSample), happening);
+    }
+
+    /**
+     * Schedules a batch of voices with shared envelope and grain-window settings.
+     *
+     * <p>All entries reach the audio thread through one scheduler insert, so a whole gesture
+     * costs a single inbox operation. Null sources are skipped. Payloads come from a pool and
+     * the batch is staged in reused arrays, so steady scheduling does not allocate.</p>
+     *
+     * @param srcs               sources to render
+     * @param gains              final linear gain of each voice
+     * @param pans               final stereo pan of each voice
+     * @param startSamples       absolute sample index at which each voice starts
+     * @param count              number of entries to schedule
+     * @param env                ADSR (already resolved: either custom or default)
+     * @param looping            true to loop the source path where supported
+     * @param grainWindow        a window function for shaping grain amplitude
+     * @param grainLenSamples    number of samples in one grain
+     */
+    public synchronized void startAtSampleTimes(PASource[] srcs,
+            float[] gains,
+            float[] pans,
+            long[] startSamples,
+            int count,
+            ADSRParams env,
+            boolean looping,
+            WindowFunction grainWindow,
+            int grainLenSamples) {
+        if (srcs == null || count <= 0) return;
+        if (batchPlays.length < count) {
+            int cap = Math.max(count, 2 * batchPlays.length);
+            batchPlays = new ScheduledPlay[cap];
+            batchTimes = new long[cap];
+        }
+        final ScheduledPlay[] plays = batchPlays;
+        final long[] times = batchTimes;
+        final long shift = toLocal(0L);
+        int m = 0;
+        for (int i = 0; i < count; i++) {
+            if (srcs[i] == null) continue;
+            plays[m] = playPool.acquire().set(srcs[i], env, gains[i], pans[i], looping, grainWindow, grainLenSamples);
+            times[m] = startSamples[i] + shift;
+            m++;
+        }
+        scheduler.schedulePoints(times, plays, m);
+        Arrays.fill(plays, 0, m, null);
     }
     
     /**
@@ -311,88 +637,193 @@ public class PAGranularSampler extends UGen {
      * @param looping        true to loop the source path where supported
      * @param delaySamples   how many samples from "now" to start
      */
-    public synchronized void startAfterDelaySamples(PASource src,
+    public void startAfterDelaySamples(PASource src,
     		ADSRParams env,
     		float gain,
     		float pan,
     		boolean looping,
     		long delaySamples) {
-    	long startSample = this.sampleCursor + Math.max(0, delaySamples);
+    	long startSample = getCurrentSampleTime() + Math.max(0, delaySamples);
     	startAtSampleTime(src, env, gain, pan, looping, startSample);
     }
 
     /**
      * Returns the current absolute sample cursor for higher-level scheduling.
      *
+     * <p>This is the first sample of the next block to be rendered. A start scheduled at or
+     * after it is launched on its exact sample; an earlier one is late. When a transport is
+     * set the value is in transport time.</p>
+     *
      * @return current sample time maintained by this sampler
      */
-    public synchronized long getCurrentSampleTime() {
-    	return sampleCursor;
+    public long getCurrentSampleTime() {
+    	final PATransport.Follower f = transport;
+    	return (f != null) ? f.toTransport(sampleCursor) : sampleCursor;
+    }
+
+    /**
+     * Subscribes this sampler to a shared transport, or unsubscribes it with null.
+     *
+     * <p>While subscribed, {@link #getCurrentSampleTime()} reports transport time and absolute
+     * start samples are read as transport time, so events sent to several engines with the
+     * same start sample land on the same output sample. The offset between this sampler's
+     * cursor and the transport is measured on the audio thread at the next output buffer
+     * boundary.</p>
+     *
+     * @param transport   shared transport, or null to use the local clock
+     */
+    public void setTransport(PATransport transport) {
+    	this.transport = (transport != null) ? transport.follow(sampleCursor - CONTROL_BLOCK_SIZE + readPos) : null;
+    }
+
+    /** @return the transport this sampler follows, or null */
+    public PATransport getTransport() {
+    	final PATransport.Follower f = transport;
+    	return (f != null) ? f.getTransport() : null;
+    }
+
+    /** Converts a time on {@link #getCurrentSampleTime()} to the local scheduler clock. */
+    private long toLocal(long sampleTime) {
+    	final PATransport.Follower f = transport;
+    	return (f != null) ? f.toLocal(sampleTime) : sampleTime;
     }
     
 
     /**
      * Generates one audio sample frame for Minim.
      *
-     * <p>This method advances the scheduler, launches voices whose start time has arrived,
-     * renders active voices, applies mix normalization and soft clipping, and increments the
-     * sample cursor.</p>
+     * <p>Reads the next frame of the current block, rendering a new block with
+     * {@link #renderBlock()} when the current one is used up. No monitor is taken here.</p>
      */
     @Override
-    protected synchronized void uGenerate(float[] channels) {
-        scheduler.processBlock(
-            sampleCursor,
-            1,
-            (ScheduledPlay sp, int offsetInBlock) -> {
-                getAvailableVoice(
-                    sp.src, sp.env, sp.gain, sp.pan, sp.looping,
-                    sp.grainWindow, sp.grainLenSamples
-                );
-            },
-            null
-        );
-
-        Arrays.fill(channels, 0f);
-
-        float leftMix = 0f;
-        float rightMix = 0f;
-        int activeCount = 0;
-
-        for (PAGranularVoice v : voices) {
-            v.nextSampleStereo(tmpStereo);
-            if (v.isActive() || v.isReleasing()) {
-                activeCount++;
-                leftMix  += tmpStereo[0];
-                rightMix += tmpStereo[1];
-            }
+    protected void uGenerate(float[] channels) {
+        if (readPos >= CONTROL_BLOCK_SIZE) renderBlock();
+        final PATransport.Follower follower = transport;
+        if (follower != null) follower.observe(sampleCursor - CONTROL_BLOCK_SIZE + readPos);
+        channels[0] = mixL[readPos];
+        if (channels.length > 1) {
+            channels[1] = mixR[readPos];
+            for (int c = 2; c < channels.length; c++) channels[c] = 0f;
         }
+        readPos++;
+    }
 
-        // power normalization, smoothed
-        float targetNorm = (activeCount > 1)
-                ? (float)Math.pow(activeCount, -0.25f)  // gentler than 1/sqrt
-                : 1f;
+    /**
+     * Renders a run of stereo frames into caller-supplied arrays, for offline use.
+     *
+     * <p>Equivalent to calling {@link #tick(float[])} {@code frames} times, but copies whole
+     * spans of the block buffer. Both read the same buffer, so calls may be interleaved.</p>
+     *
+     * @param left     left output array
+     * @param right    right output array
+     * @param offset   first index to write
+     * @param frames   number of frames to write
+     */
+    public void render(float[] left, float[] right, int offset, int frames) {
+        int done = 0;
+        while (done < frames) {
+            if (readPos >= CONTROL_BLOCK_SIZE) renderBlock();
+            final PATransport.Follower follower = transport;
+            if (follower != null) follower.observe(sampleCursor - CONTROL_BLOCK_SIZE + readPos);
+            int n = Math.min(frames - done, CONTROL_BLOCK_SIZE - readPos);
+            System.arraycopy(mixL, readPos, left, offset + done, n);
+            System.arraycopy(mixR, readPos, right, offset + done, n);
+            readPos += n;
+            done += n;
+        }
+    }
 
-        float alpha = 0.12f;
-        mixNorm += alpha * (targetNorm - mixNorm);
+    /**
+     * Renders the next block of {@link #CONTROL_BLOCK_SIZE} samples into the mix buffers.
+     * Audio thread only.
+     *
+     * <p>Drains the command ring, then asks the scheduler for starts inside the block. Each
+     * start first mixes all voices up to its offset, then launches its voice, so a start lands
+     * on its exact sample. The rest of the block is mixed afterwards. Mix normalization and
+     * soft clipping are applied per sample over the finished block.</p>
+     */
+    private void renderBlock() {
+        metrics.endBlock(allocatedVoices);
+        final long t0 = metrics.beginFrame();
+        final long now = sampleCursor;
+        commands.drain(commandHandler);
+
+        Arrays.fill(mixL, 0f);
+        Arrays.fill(mixR, 0f);
+        mixedTo = 0;
+        scheduler.processBlock(now, CONTROL_BLOCK_SIZE, scheduledStartHandler, null);
+        mixVoicesTo(CONTROL_BLOCK_SIZE);
+
+        // power normalization, smoothed per sample; the target is recomputed once per block
+        final int activeCount = mixedActive;
+        if (activeCount != densityCount) {
+            densityCount = activeCount;
+            densityNorm = (activeCount > 1)
+                    ? (float)Math.pow(activeCount, -0.25f)  // gentler than 1/sqrt
+                    : 1f;
+        }
 
-        // makeup is MULTIPLICATIVE
-        float postGain = mixNorm * globalMakeUpGain; // e.g., 1.5f..3.0f
-        leftMix  *= postGain;
-        rightMix *= postGain;
+        final float alpha = 0.12f;
+        final float drive = 2.0f;
+        final ClipMode clip = clipMode;
+        for (int i = 0; i < CONTROL_BLOCK_SIZE; i++) {
+            mixNorm += alpha * (densityNorm - mixNorm);
+
+            // makeup is MULTIPLICATIVE
+            float postGain = mixNorm * globalMakeUpGain; // e.g., 1.5f..3.0f
+            float preL = mixL[i] * postGain;
+            float preR = mixR[i] * postGain;
+
+            // limiter
+            float l = clip.apply(preL, drive);
+            float r = clip.apply(preR, drive);
+            metrics.trackLimiter(preL * drive, l);
+            metrics.trackLimiter(preR * drive, r);
+            mixL[i] = l;
+            mixR[i] = r;
+        }
 
-        // limiter
-        float drive = 2.0f;
-        leftMix  = softClipSoftsign(leftMix, drive);
-        rightMix = softClipSoftsign(rightMix, drive);
-        channels[0] = leftMix;
-        if (channels.length > 1) channels[1] = rightMix;
+        readPos = 0;
+        sampleCursor = now + CONTROL_BLOCK_SIZE;
+        metrics.endFrame(t0);
+    }
 
-        sampleCursor++;
+    /**
+     * Mixes every sounding voice from {@link #mixedTo} up to {@code end} in the current block,
+     * then frees voices that have finished. Audio thread only.
+     */
+    private void mixVoicesTo(int end) {
+        if (end <= mixedTo) return;
+        int activeCount = 0;
+        final PAGranularVoice[] vs = voices;
+        for (int i = 0; i < vs.length; i++) {
+            PAGranularVoice v = vs[i];
+            if (v.isActive()) v.mixInto(mixL, mixR, mixedTo, end);
+            if (v.isActive() || v.isReleasing()) {
+                activeCount++;
+                if (v.isReleasing()) allocator.markReleasing(i);
+            }
+            else if (allocator.isAllocated(i)) {
+                allocator.free(i);
+                allocatedVoices = allocator.allocatedCount();
+            }
+        }
+        mixedActive = activeCount;
+        mixedTo = end;
     }
     
-    private static float softClipSoftsign(float x, float drive) {
-        float y = drive * x;
-        return y / (1f + Math.abs(y));
+    /**
+     * Selects the soft limiter curve applied to the mixed output.
+     *
+     * @param mode   SOFTSIGN (default), TABLE or CUBIC
+     */
+    public void setClipMode(ClipMode mode) {
+        if (mode != null) this.clipMode = mode;
+    }
+
+    /** @return soft limiter curve applied to the mixed output */
+    public ClipMode getClipMode() {
+        return clipMode;
     }
    
     
@@ -402,19 +833,20 @@ public class PAGranularSampler extends UGen {
     /**
      * Immediately stops all voices without clearing pending scheduled starts.
      *
-     * <p>A stop halts voice processing directly and is more abrupt than a release.</p>
+     * <p>A stop halts voice processing directly and is more abrupt than a release. The stop
+     * is queued and applied at the next control block.</p>
+     *
+     * @return true if the stop was queued, false if the command ring was full
      */
-    public void stopAll() {
-        synchronized (this) {
-            for (PAGranularVoice v : voices) v.stop();
-        }
+    public boolean stopAll() {
+        return postCommand(Command.STOP_ALL);
     }
     
     /**
      * Remove all pending scheduled starts that have not yet been launched.
      * Does not affect currently active voices.
      */
-    public synchronized void clearScheduled() {
+    public void clearScheduled() {
         scheduler.clear();
     }
 
@@ -424,61 +856,110 @@ public class PAGranularSampler extends UGen {
      * <p>A release is generally less abrupt than a stop, because each active voice is allowed
      * to pass through its envelope release stage. This is useful for a musical stop after
      * clearing pending scheduled starts.</p>
+     *
+     * @return true if the release was queued, false if the command ring was full
      */
-    public synchronized void releaseAll() {
-        for (PAGranularVoice v : voices) {
-            if (v.isActive() || v.isReleasing()) {
-                v.release();
-            }
-        }
+    public boolean releaseAll() {
+        return postCommand(Command.RELEASE_ALL);
     }
 
     /**
      * Clear pending scheduled starts and immediately stop all active voices.
      *
      * <p>A stop halts voice processing directly and is therefore more abrupt than a release.</p>
+     *
+     * @return true if the stop was queued, false if the command ring was full
      */
-    public synchronized void cancelAndStopAll() {
+    public boolean cancelAndStopAll() {
         scheduler.clear();
-        for (PAGranularVoice v : voices) {
-            v.stop();
-        }
+        return postCommand(Command.STOP_ALL);
     }
 
     /**
      * Clear pending scheduled starts and release currently sounding voices.
      *
      * <p>This is the less abrupt counterpart to {@link #cancelAndStopAll()}.</p>
+     *
+     * @return true if the release was queued, false if the command ring was full
      */
-    public synchronized void cancelAndReleaseAll() {
+    public boolean cancelAndReleaseAll() {
         scheduler.clear();
-        for (PAGranularVoice v : voices) {
-            if (v.isActive() || v.isReleasing()) {
-                v.release();
-            }
-        }
+        return postCommand(Command.RELEASE_ALL);
     }
     
+    /**
+     * Returns the live metrics of this sampler: triggers, rejected starts, steals, late
+     * scheduled starts, voice count, block render time and limiter gain reduction.
+     *
+     * @return metrics written by the audio thread
+     */
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** @return an immutable copy of the current metrics */
+    public EngineMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
     /**
      * Counts voices that are active or releasing.
      *
      * @return active or releasing voice count
      */
-    public synchronized int activeOrReleasingVoiceCount() {
-        int count = 0;
-        for (PAGranularVoice v : voices) {
-            if (v.isActive() || v.isReleasing()) count++;
-        }
-        return count;
+    public int activeOrReleasingVoiceCount() {
+        return allocatedVoices;
+    }
+
+    /**
+     * Returns true when nothing is left to play: no voice is sounding, no start is scheduled
+     * and no control command is waiting. Reliable only on the thread that drives the sampler,
+     * which for an offline sampler is the rendering thread.
+     *
+     * @return true when further frames will be silent until something new is scheduled
+     */
+    public boolean isIdle() {
+        return allocatedVoices == 0 && scheduler.isIdle() && commands.isEmpty();
     }
 
     /**
-     * Sets the maximum number of voices in the pool.
+     * Sets the maximum number of voices in the pool. Additional voices are allocated here, on
+     * the calling thread, and published to the audio thread as a new voice array.
      *
      * @param maxVoices maximum voices; values below 1 are clamped to 1
+     * @return true if the change was queued, false if the command ring was full
      */
-    public void setMaxVoices(int maxVoices) {
-        this.maxVoices = Math.max(1, maxVoices);
+    public synchronized boolean setMaxVoices(int maxVoices) {
+        int n = Math.max(1, maxVoices);
+        long ticket = commands.claim();
+        if (ticket < 0) return false;
+        Command c = commands.slot(ticket);
+        c.type = Command.SET_MAX_VOICES;
+        c.count = n;
+        if (n > pendingVoices.length) {
+            // build the larger voice array and allocator here, growing the newest array rather
+            // than the adopted one, which may lag behind a grow still in the ring
+            pendingVoices = allocateVoices(pendingVoices, n);
+            c.voices = pendingVoices;
+            c.allocator = new VoiceAllocator(n);
+        }
+        commands.publish(ticket);
+        this.maxVoices = n;
+        return true;
+    }
+
+    /**
+     * Selects how a voice is chosen for reuse when all voices are busy.
+     *
+     * @param policy   OLDEST (default) or QUIETEST; SAME_PITCH behaves like OLDEST
+     */
+    public void setStealPolicy(VoiceAllocator.StealPolicy policy) {
+        if (policy != null) this.stealPolicy = policy;
+    }
+
+    /** @return current voice steal policy */
+    public VoiceAllocator.StealPolicy getStealPolicy() {
+        return stealPolicy;
     }
 
     public int getMaxVoices() {
@@ -508,10 +989,16 @@ public class PAGranularSampler extends UGen {
     }
 
     public List<PAGranularVoice> getVoices() {
-        return Collections.unmodifiableList(voices);
+        return Collections.unmodifiableList(Arrays.asList(voices));
     }
 
+    /** @return Minim output this sampler is patched to, or null for an offline sampler */
     public AudioOutput getAudioOutput() {
         return out;
     }
+
+    /** @return sample rate of the rendered audio in Hz */
+    public float getSampleRate() {
+        return sampleRate;
+    }
 }
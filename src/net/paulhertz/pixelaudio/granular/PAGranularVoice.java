@@ -18,6 +18,8 @@
 
 package net.paulhertz.pixelaudio.granular;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import ddf.minim.UGen;
 import ddf.minim.analysis.WindowFunction;
 import net.paulhertz.pixelaudio.sampler.ADSRParams;
@@ -51,7 +53,8 @@ public class PAGranularVoice {
     // ------------------------------------------------------------------------
     // Core state
     // ------------------------------------------------------------------------
-    private static long NEXT_VOICE_ID = 0;
+    /** Voice ids, shared by the audio thread and by control threads that reserve an id for a play. */
+    private static final AtomicLong NEXT_VOICE_ID = new AtomicLong();
 
     /** Granular source: a {@link PABurstGranularSource}, in the current design using @link PAGranularInstrumentDirector} */
     private PASource source;
@@ -76,17 +79,32 @@ public class PAGranularVoice {
 
     // Envelope
     private SimpleADSR envelope;
+    /** Envelope state owned by this voice and reset in place on each activation. */
+    private final SimpleADSR envelopeState = new SimpleADSR(0f, 0f, 1f, 0f);
     ADSRParams defaultEnvParams = new ADSRParams(1.0f, 0.01f, 0.02f, 0.9375f, 0.125f);
     
     // pan gain
     private float panGainL = 1f;
     private float panGainR = 1f;
+
+    /** Length in samples of the linear ramp applied by {@link #setGain(float)} and {@link #setPan(float)}. */
+    public static final int PARAM_RAMP_SAMPLES = 64;
+
+    private float gainStep;
+    private float panLeftStep;
+    private float panRightStep;
+    private float gainTarget;
+    private float panLeftTarget;
+    private float panRightTarget;
+    private int rampRemaining = 0;
     
     /** granular window function, may be null, in which case defaults apply */
     private WindowFunction grainWindow;
     private int grainLenSamples = 1024;
 
     private boolean endTriggered = false;
+    /** Cursor position in the current block at which a non-looping source ends. */
+    private int endCursor = Integer.MAX_VALUE;
 
 
     /**
@@ -153,12 +171,14 @@ public class PAGranularVoice {
     		WindowFunction grainWindow,
     		int grainLenSamples) {
 
+    	if (this.source != source) detachSource();
     	this.source = source;
 
-    	this.voiceId = NEXT_VOICE_ID++;
+    	this.voiceId = NEXT_VOICE_ID.getAndIncrement();
     	this.gain = gain;
     	this.pan = clampPan(pan);
     	updatePanGains();
+    	this.rampRemaining = 0;
     	this.looping = looping;
 
     	this.grainWindow = grainWindow;
@@ -169,9 +189,11 @@ public class PAGranularVoice {
     	this.active = true;
     	this.endTriggered = false;    // bug fix, 1 July 2026, release 0.9.8.5-beta. See issue #44.
 
-    	// Reset block state
-    	this.cursor = 0;
+    	// Reset block state: an exhausted cursor makes the first sample render a fresh block,
+    	// so the voice neither replays the previous block nor starts a block late
+    	this.cursor = blockSize;
     	this.absSample = 0;
+    	this.endCursor = Integer.MAX_VALUE;
 
     	// Start granular engine at absSample = 0
     	// this is the critical first step to open the PASource for audio processing
@@ -188,7 +210,7 @@ public class PAGranularVoice {
     	ADSRParams useEnv = (envParams != null) ? envParams : defaultEnvParams;
 
     	// Envelope setup (macro envelope over a gesture)
-        envelope = useEnv.toSimpleADSR(playbackSampleRate);
+        envelope = useEnv.applyTo(envelopeState, playbackSampleRate);
     	envelope.noteOn();
     }
 
@@ -216,11 +238,20 @@ public class PAGranularVoice {
         if (cursor >= blockSize) {
             refillBlock();
         }
+        if (cursor >= endCursor) {
+            endOfSource();
+            if (!active) {
+                outLR[0] = 0f;
+                outLR[1] = 0f;
+                return;
+            }
+        }
 
         float l = blockL[cursor];
         float r = blockR[cursor];
         cursor++;
 
+        if (rampRemaining > 0) advanceRamp();
         float envValue = (envelope != null ? envelope.tick() : 1f);
         float amp = gain * envValue;
 
@@ -234,6 +265,58 @@ public class PAGranularVoice {
         if (released && (envelope == null || envelope.isFinished())) {
             active = false;
             finished = true;
+            detachSource();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // mix a span of frames (block rendering)
+    // ------------------------------------------------------------------------
+
+    /**
+     * Adds frames {@code [from, to)} of this voice to a pair of mix buffers.
+     *
+     * <p>Produces the same samples as calling {@link #nextSampleStereo(float[])} once per frame
+     * and summing the results, but reads the cached source block in runs. {@link PAGranularSampler}
+     * calls this for each span of its render block, splitting spans at scheduled start offsets.
+     * Frames after the voice finishes are left untouched.</p>
+     *
+     * @param mixL   left mix buffer
+     * @param mixR   right mix buffer
+     * @param from   first frame to mix, inclusive
+     * @param to     last frame to mix, exclusive
+     */
+    public void mixInto(float[] mixL, float[] mixR, int from, int to) {
+        int i = from;
+        while (i < to && active && !finished) {
+            if (cursor >= blockSize) {
+                refillBlock();
+            }
+            if (cursor >= endCursor) {
+                endOfSource();
+                if (!active) return;
+            }
+            int run = Math.min(to - i, blockSize - cursor);
+            if (endCursor > cursor) run = Math.min(run, endCursor - cursor);
+            float gl = gain * panGainL;
+            float gr = gain * panGainR;
+            for (int k = 0; k < run; k++, i++) {
+                if (rampRemaining > 0) {
+                    advanceRamp();
+                    gl = gain * panGainL;
+                    gr = gain * panGainR;
+                }
+                final float envValue = (envelope != null ? envelope.tick() : 1f);
+                mixL[i] += blockL[cursor] * envValue * gl;
+                mixR[i] += blockR[cursor] * envValue * gr;
+                cursor++;
+                if (released && (envelope == null || envelope.isFinished())) {
+                    active = false;
+                    finished = true;
+                    detachSource();
+                    return;
+                }
+            }
         }
     }
 
@@ -255,7 +338,12 @@ public class PAGranularVoice {
         if (cursor >= blockSize) {
             refillBlock();
         }
+        if (cursor >= endCursor) {
+            endOfSource();
+            if (!active) return 0f;
+        }
 
+        if (rampRemaining > 0) advanceRamp();
         float l = blockL[cursor] * panGainL;
         float r = blockR[cursor] * panGainR;
         cursor++; // advance exactly once
@@ -268,6 +356,7 @@ public class PAGranularVoice {
         if (released && (envelope == null || envelope.isFinished())) {
             active = false;
             finished = true;
+            detachSource();
         }
 
         return mono;
@@ -282,8 +371,8 @@ public class PAGranularVoice {
      * <p>The voice asks its {@link PASource} to render the block beginning at
      * {@code absSample}, then advances {@code absSample} by {@code blockSize}. If looping is
      * enabled and the source span has ended, the voice rewinds the source and starts again.
-     * If looping is disabled and the source span has ended, the voice triggers envelope
-     * release or stops immediately when no envelope is available.</p>
+     * If looping is disabled and the source span ends in this block, the voice notes where,
+     * so that {@link #endOfSource()} runs when playback reaches that sample.</p>
      */
     private void refillBlock() {
         // Zero out block
@@ -305,18 +394,26 @@ public class PAGranularVoice {
             return;
         }
         
-        // non-looping end of source => release/stop the voice
-        if (!looping && absSample >= sourceLen) {
-            if (!endTriggered) {
-                endTriggered = true;
-                // If we have an ADSR, let it release naturally.
-                // If no ADSR, stop immediately.
-                if (envelope != null) {
-                    release();            // calls noteOff()
-                } else {
-                    stop();
-                }
-            }
+        // non-looping end of source => release/stop the voice once playback gets there
+        if (!looping && absSample >= sourceLen && !endTriggered) {
+            long blockBegin = absSample - blockSize;
+            endCursor = (int) Math.max(0L, Math.min(blockSize, sourceLen - blockBegin));
+        }
+    }
+
+    /**
+     * Ends a non-looping voice when playback reaches the end of its source.
+     */
+    private void endOfSource() {
+        endCursor = Integer.MAX_VALUE;
+        if (endTriggered) return;
+        endTriggered = true;
+        // If we have an ADSR, let it release naturally.
+        // If no ADSR, stop immediately.
+        if (envelope != null) {
+            release();            // calls noteOff()
+        } else {
+            stop();
         }
     }
     
@@ -331,6 +428,73 @@ public class PAGranularVoice {
     	panGainR = (float) Math.sin(angle);
     }
 
+    private void advanceRamp() {
+        if (--rampRemaining == 0) {
+            gain = gainTarget;
+            panGainL = panLeftTarget;
+            panGainR = panRightTarget;
+        } else {
+            gain += gainStep;
+            panGainL += panLeftStep;
+            panGainR += panRightStep;
+        }
+    }
+
+    /** Starts a ramp from the current gain and pan gains toward the current targets. */
+    private void startRamp() {
+        float inv = 1f / PARAM_RAMP_SAMPLES;
+        gainStep = (gainTarget - gain) * inv;
+        panLeftStep = (panLeftTarget - panGainL) * inv;
+        panRightStep = (panRightTarget - panGainR) * inv;
+        rampRemaining = PARAM_RAMP_SAMPLES;
+    }
+
+    /** Fills the ramp targets with the current values, so a new ramp only changes one parameter. */
+    private void holdTargets() {
+        if (rampRemaining == 0) {
+            gainTarget = gain;
+            panLeftTarget = panGainL;
+            panRightTarget = panGainR;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Parameter changes
+    // ------------------------------------------------------------------------
+
+    /**
+     * Changes the amplitude of a sounding voice. The change is spread over
+     * {@link #PARAM_RAMP_SAMPLES} samples to avoid zipper noise.
+     *
+     * @param newGain linear gain multiplier
+     */
+    public void setGain(float newGain) {
+        holdTargets();
+        gainTarget = newGain;
+        if (active || released) startRamp();
+        else { gain = newGain; rampRemaining = 0; }
+    }
+
+    /**
+     * Changes the stereo position of a sounding voice. The equal-power gains are computed once
+     * here and approached over {@link #PARAM_RAMP_SAMPLES} samples.
+     *
+     * @param newPan stereo pan position, -1.0 (left) to 1.0 (right)
+     */
+    public void setPan(float newPan) {
+        holdTargets();
+        pan = clampPan(newPan);
+        float angle = (pan + 1.0f) * 0.25f * (float) Math.PI;
+        panLeftTarget = (float) Math.cos(angle);
+        panRightTarget = (float) Math.sin(angle);
+        if (active || released) startRamp();
+        else {
+            panGainL = panLeftTarget;
+            panGainR = panRightTarget;
+            rampRemaining = 0;
+        }
+    }
+
 
     // ------------------------------------------------------------------------
     // Lifecycle control
@@ -356,6 +520,18 @@ public class PAGranularVoice {
     public void stop() {
         active = false;
         finished = true;
+        detachSource();
+    }
+
+    /**
+     * Hands the current source back through {@link PASource#recycle()} and forgets it.
+     * Pooled burst sources return to their pool here; other sources ignore the call.
+     */
+    private void detachSource() {
+        if (source != null) {
+            source.recycle();
+            source = null;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -367,6 +543,17 @@ public class PAGranularVoice {
 
     public long getVoiceId() { return voiceId; }
 
+    /**
+     * Reserves a voice id ahead of activation. {@link PAGranularSampler#play} hands the id to
+     * the caller and applies it with {@link #setVoiceId(long)} when the voice starts.
+     */
+    static long nextVoiceId() { return NEXT_VOICE_ID.getAndIncrement(); }
+
+    /** Replaces the id assigned by the last activation with one reserved by {@link #nextVoiceId()}. */
+    void setVoiceId(long id) { this.voiceId = id; }
+
+    public float getGain() { return gain; }
+
     public float getPan() { return pan; }
 
     private static float clampPan(float p) {
@@ -95,4 +95,13 @@ public interface PASource extends PAFloatSource {
     default MultiChannelBuffer getMultiChannelBuffer() {
         return null;
     }
+
+    /**
+     * Signals that the voice playing this source is done with it.
+     *
+     * <p>The default implementation does nothing. Pooled sources, such as those taken from a
+     * {@link PABurstGranularSource.Pool}, return themselves to their pool so they can be reset
+     * for a later event. Callers must not use the source after recycling it.</p>
+     */
+    default void recycle() { /* no-op */ }
 }
@@ -0,0 +1,514 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.granular;
+
+import ddf.minim.analysis.HannWindow;
+import ddf.minim.analysis.WindowFunction;
+import net.paulhertz.pixelaudio.curves.PAControlCurve;
+import net.paulhertz.pixelaudio.sampler.PitchPolicy;
+
+/**
+ * Granular source that generates an unbounded cloud of grains from a parameter set.
+ *
+ * <p>Where {@link PABurstGranularSource} renders a fixed list of grains chosen when it is
+ * built, {@code PAStreamingGranularSource} starts grains as it renders. Each grain reads from a
+ * mono buffer around a center position, with random position offset, pitch deviation and pan
+ * drawn from a seeded generator. The source never ends ({@link #lengthSamples()} returns
+ * {@link Long#MAX_VALUE}), so a single voice can sustain a drone texture for hours.</p>
+ *
+ * <p>Parameters:</p>
+ * <ul>
+ *   <li><b>density</b>: grains started per second;</li>
+ *   <li><b>position</b>: grain center in the source buffer, from 0 (start) to 1 (end);</li>
+ *   <li><b>position jitter</b>: width of the random position spread, as a fraction of the buffer;</li>
+ *   <li><b>pitch ratio</b> and <b>pitch jitter</b>: playback rate, and random deviation from it in semitones;</li>
+ *   <li><b>pan spread</b>: random per-grain pan width, from 0 (center) to 1 (full stereo);</li>
+ *   <li><b>gain</b>: output gain, applied after density compensation;</li>
+ *   <li><b>window</b> and grain length, set with {@link #setGrainWindow(WindowFunction, int)}.</li>
+ * </ul>
+ *
+ * <p>Any parameter except the window can follow a {@link PAControlCurve}, such as a
+ * {@link net.paulhertz.pixelaudio.curves.PAKeyframeControlCurve PAKeyframeControlCurve}, set
+ * with {@link #setModulation(Param, PAControlCurve, long, boolean)}. Curves are sampled once per
+ * block and replace the parameter's base value while they are set.</p>
+ *
+ * <p>Active grains live in fixed arrays of {@code maxGrains} entries, so memory does not grow
+ * with running time and rendering does not allocate. A grain due while every slot is busy is
+ * dropped and counted. Random values are drawn whether or not a grain is dropped, so a given
+ * seed always produces the same cloud from {@link #seekTo(long)} onward.</p>
+ *
+ * <p>Level does not rise with density: each grain is scaled by the inverse square root of the
+ * expected number of overlapping grains, which keeps uncorrelated clouds near the source level.
+ * Pan uses an equal-power law normalized to unity at center.</p>
+ *
+ * <p>Parameter setters may be called from any thread; the audio thread reads each parameter
+ * once per block.</p>
+ *
+ * @see PABurstGranularSource
+ * @see PAGranularVoice
+ */
+public final class PAStreamingGranularSource implements PASource {
+
+    /** Parameters that can follow a control curve. */
+    public enum Param {
+        /** Grains started per second. */
+        DENSITY,
+        /** Grain center position, 0 to 1 across the source buffer. */
+        POSITION,
+        /** Random position spread, as a fraction of the source buffer. */
+        POSITION_JITTER,
+        /** Playback rate of each grain. */
+        PITCH_RATIO,
+        /** Random pitch deviation in semitones. */
+        PITCH_JITTER,
+        /** Random pan width, 0 to 1. */
+        PAN_SPREAD,
+        /** Output gain. */
+        GAIN
+    }
+
+    /** Number of grain slots used by the short constructor. */
+    public static final int DEFAULT_MAX_GRAINS = 128;
+    /** Grain length used until {@link #setGrainWindow(WindowFunction, int)} is called. */
+    public static final int DEFAULT_GRAIN_LENGTH = 2048;
+    /** Seed used by the short constructor. */
+    public static final long DEFAULT_SEED = 0x2545F4914F6CDD1DL;
+
+    private static final float SQRT2 = (float) Math.sqrt(2.0);
+
+    private final float[] source;
+    private final float sampleRate;
+    private final int maxGrains;
+    private final long seed;
+
+    // base parameter values
+    private volatile float density = 20f;
+    private volatile float position = 0.5f;
+    private volatile float positionJitter = 0.1f;
+    private volatile float pitchRatio = 1f;
+    private volatile float pitchJitter = 0f;
+    private volatile float panSpread = 0.5f;
+    private volatile float gain = 1f;
+    private volatile boolean wrapAround = true;
+
+    // window and grain length travel together so the audio thread never sees a mismatched pair
+    private volatile GrainShape shape;
+
+    // control curves by Param ordinal, replaced as a whole when one changes
+    private volatile Modulation[] modulations = new Modulation[Param.values().length];
+
+    // active grains, packed in [0, active)
+    private final long[] grainStart;
+    private final int[] grainLen;
+    private final double[] grainPos;
+    private final float[] grainRate;
+    private final float[] grainGainL;
+    private final float[] grainGainR;
+    private int active = 0;
+
+    // stream state, touched only by seekTo() and renderBlock()
+    private long originSample = 0L;
+    private double nextOnset = 0.0;
+    private long rng;
+    private boolean started = false;
+    private long grainsStarted = 0L;
+    private long grainsDropped = 0L;
+
+    /**
+     * Creates a streaming granular source with {@link #DEFAULT_MAX_GRAINS} grain slots and
+     * {@link #DEFAULT_SEED}.
+     *
+     * @param source       mono source buffer to read from
+     * @param sampleRate   output sample rate, used to convert density to grain spacing
+     * @throws IllegalArgumentException if {@code source} is null or empty
+     */
+    public PAStreamingGranularSource(float[] source, float sampleRate) {
+        this(source, sampleRate, DEFAULT_MAX_GRAINS, DEFAULT_SEED);
+    }
+
+    /**
+     * Creates a streaming granular source.
+     *
+     * @param source       mono source buffer to read from
+     * @param sampleRate   output sample rate, used to convert density to grain spacing
+     * @param maxGrains    number of grains that may sound at once; values below 1 are clamped to 1
+     * @param seed         seed for the random position, pitch and pan draws
+     * @throws IllegalArgumentException if {@code source} is null or empty
+     */
+    public PAStreamingGranularSource(float[] source, float sampleRate, int maxGrains, long seed) {
+        if (source == null || source.length == 0) {
+            throw new IllegalArgumentException("source must not be null or empty");
+        }
+        this.source = source;
+        this.sampleRate = (sampleRate > 0f) ? sampleRate : 44100f;
+        this.maxGrains = Math.max(1, maxGrains);
+        this.seed = seed;
+        this.grainStart = new long[this.maxGrains];
+        this.grainLen = new int[this.maxGrains];
+        this.grainPos = new double[this.maxGrains];
+        this.grainRate = new float[this.maxGrains];
+        this.grainGainL = new float[this.maxGrains];
+        this.grainGainR = new float[this.maxGrains];
+        setGrainWindow(new HannWindow(), DEFAULT_GRAIN_LENGTH);
+        seedRandom();
+    }
+
+    // ------------------------------------------------------------------------
+    // Parameters
+    // ------------------------------------------------------------------------
+
+    /** @param grainsPerSecond grains started per second; negative values are clamped to 0 */
+    public void setDensity(float grainsPerSecond) { this.density = Math.max(0f, grainsPerSecond); }
+    /** @return grains started per second, before modulation */
+    public float getDensity() { return density; }
+
+    /** @param position grain center from 0 (buffer start) to 1 (buffer end), clamped */
+    public void setPosition(float position) { this.position = clamp01(position); }
+    /** @return grain center position, before modulation */
+    public float getPosition() { return position; }
+
+    /** @param jitter width of the random position spread as a fraction of the buffer, clamped to [0, 1] */
+    public void setPositionJitter(float jitter) { this.positionJitter = clamp01(jitter); }
+    /** @return position spread, before modulation */
+    public float getPositionJitter() { return positionJitter; }
+
+    /** @param ratio playback rate of each grain; non-positive values use 1.0 */
+    public void setPitchRatio(float ratio) { this.pitchRatio = (ratio > 0f) ? ratio : 1f; }
+    /** @return pitch ratio, before modulation */
+    public float getPitchRatio() { return pitchRatio; }
+
+    /** @param semitones maximum random pitch deviation in semitones; negative values are clamped to 0 */
+    public void setPitchJitter(float semitones) { this.pitchJitter = Math.max(0f, semitones); }
+    /** @return pitch deviation in semitones, before modulation */
+    public float getPitchJitter() { return pitchJitter; }
+
+    /** @param spread random pan width from 0 (center) to 1 (full stereo), clamped */
+    public void setPanSpread(float spread) { this.panSpread = clamp01(spread); }
+    /** @return pan spread, before modulation */
+    public float getPanSpread() { return panSpread; }
+
+    /** @param gain linear output gain; negative values are clamped to 0 */
+    public void setGain(float gain) { this.gain = Math.max(0f, gain); }
+    /** @return output gain, before modulation */
+    public float getGain() { return gain; }
+
+    /** @param wrapAround true to wrap grain reads at the buffer ends, false to silence them */
+    public void setWrapAround(boolean wrapAround) { this.wrapAround = wrapAround; }
+    /** @return true when grain reads wrap at the buffer ends */
+    public boolean isWrapAround() { return wrapAround; }
+
+    /**
+     * Sets the grain window and grain length for grains started from now on. Grains already
+     * sounding keep their length.
+     *
+     * @param wf                window function to apply, or null for rectangular grains
+     * @param grainLenSamples   grain length in samples; values below 1 are clamped to 1
+     */
+    @Override
+    public void setGrainWindow(WindowFunction wf, int grainLenSamples) {
+        int len = Math.max(1, grainLenSamples);
+        float[] curve = (wf != null && len > 1) ? WindowCache.INSTANCE.getWindowCurve(wf, len) : null;
+        this.shape = new GrainShape(len, curve);
+    }
+
+    /** @return grain length in samples for newly started grains */
+    public int getGrainLength() {
+        return shape.length;
+    }
+
+    /**
+     * Makes a parameter follow a control curve, sampled once per block.
+     *
+     * <p>The curve is read at {@code u = t / periodSamples}, where {@code t} is the time since
+     * the last {@link #seekTo(long)}. When {@code loop} is true, {@code u} wraps to [0, 1) so the
+     * curve repeats; otherwise it holds its last value after one period. The curve value
+     * replaces the base value and is clamped as the matching setter would clamp it.</p>
+     *
+     * @param param           parameter to modulate
+     * @param curve           control curve, or null to remove the modulation
+     * @param periodSamples   samples covered by the curve's [0, 1] range; values below 1 are clamped to 1
+     * @param loop            true to repeat the curve every period
+     */
+    public synchronized void setModulation(Param param, PAControlCurve curve, long periodSamples, boolean loop) {
+        Modulation[] next = modulations.clone();
+        next[param.ordinal()] = (curve != null) ? new Modulation(curve, Math.max(1L, periodSamples), loop) : null;
+        modulations = next;
+    }
+
+    /** Removes every parameter modulation. */
+    public synchronized void clearModulations() {
+        modulations = new Modulation[Param.values().length];
+    }
+
+    // ------------------------------------------------------------------------
+    // PASource
+    // ------------------------------------------------------------------------
+
+    /**
+     * Restarts the cloud at {@code absoluteSample}. Sounding grains are dropped, the random
+     * generator is reseeded and modulation time restarts at zero, so playback from a seek is
+     * reproducible.
+     *
+     * @param absoluteSample   sample time at which the first grain starts
+     */
+    @Override
+    public void seekTo(long absoluteSample) {
+        originSample = absoluteSample;
+        nextOnset = absoluteSample;
+        active = 0;
+        seedRandom();
+        started = true;
+    }
+
+    /**
+     * Starts any grains due in this block and mixes every sounding grain into the output.
+     *
+     * <p>If this source has not been started with {@link #seekTo(long)}, rendering is skipped.
+     * Grains whose whole span lies before the block, for example after a jump forward, are
+     * skipped without being started.</p>
+     *
+     * @param blockStart    absolute sample index of the first sample in the output block
+     * @param blockSize     number of samples in the output block
+     * @param outL          left output buffer to mix into
+     * @param outR          right output buffer to mix into; may be null or the same array as {@code outL}
+     */
+    @Override
+    public void renderBlock(long blockStart, int blockSize, float[] outL, float[] outR) {
+        if (!started || outL == null || blockSize <= 0) return;
+        final long blockEnd = blockStart + (long) blockSize;
+        final GrainShape sh = shape;
+
+        // block-rate parameters
+        final Modulation[] mods = modulations;
+        final long t = blockStart - originSample;
+        final float dens = Math.max(0f, param(mods, Param.DENSITY, density, t));
+
+        if (dens > 0f) {
+            final double interval = sampleRate / dens;
+            // skip grains that would end before this block
+            final double earliest = (double) (blockStart - sh.length);
+            if (nextOnset < earliest) {
+                nextOnset += Math.ceil((earliest - nextOnset) / interval) * interval;
+            }
+            if (nextOnset < blockEnd) {
+                final float pos   = clamp01(param(mods, Param.POSITION, position, t));
+                final float jit   = clamp01(param(mods, Param.POSITION_JITTER, positionJitter, t));
+                final float pitch = param(mods, Param.PITCH_RATIO, pitchRatio, t);
+                final float pj    = Math.max(0f, param(mods, Param.PITCH_JITTER, pitchJitter, t));
+                final float pan   = clamp01(param(mods, Param.PAN_SPREAD, panSpread, t));
+                final float g     = Math.max(0f, param(mods, Param.GAIN, gain, t));
+                final float overlap = dens * sh.length / sampleRate;
+                final float level = g / (float) Math.sqrt(Math.max(1f, overlap));
+                while (nextOnset < blockEnd) {
+                    startGrain((long) Math.floor(nextOnset), sh.length, pos, jit,
+                            (pitch > 0f) ? pitch : 1f, pj, pan, level);
+                    nextOnset += interval;
+                }
+            }
+        }
+        else if (nextOnset < blockEnd) {
+            // silent stretch: the next grain starts as soon as density returns
+            nextOnset = blockEnd;
+        }
+
+        final boolean doR = (outR != null && outR != outL);
+        final float[] window = sh.curve;
+        final boolean wrap = wrapAround;
+        final int n = source.length;
+        for (int k = 0; k < active; k++) {
+            final long gs = grainStart[k];
+            final int len = grainLen[k];
+            final int i0 = (int) Math.max(0L, gs - blockStart);
+            final int i1 = (int) Math.min((long) blockSize, gs + len - blockStart);
+            final double p0 = grainPos[k];
+            final float rate = grainRate[k];
+            final float gl = grainGainL[k];
+            final float gr = grainGainR[k];
+            final boolean exactWindow = (window != null && window.length == len);
+            for (int i = i0; i < i1; i++) {
+                final int off = (int) (blockStart + i - gs);
+                final double p = p0 + (double) off * rate;
+                if (!wrap && (p < 0.0 || p >= n - 1)) continue;
+                final float w = (window == null || len <= 1) ? 1f
+                        : exactWindow ? window[off]
+                        : WindowCache.readInterpolated(window, off, len);
+                final float s = readLinear(p, wrap) * w;
+                if (doR) {
+                    outL[i] += s * gl;
+                    outR[i] += s * gr;
+                }
+                else {
+                    outL[i] += s * 0.5f * (gl + gr);
+                }
+            }
+            if (gs + len <= blockEnd) {
+                // finished: move the last grain into this slot and look at it next
+                removeGrain(k);
+                k--;
+            }
+        }
+    }
+
+    /** @return {@link Long#MAX_VALUE}; the cloud runs until its voice is stopped */
+    @Override
+    public long lengthSamples() {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Reports that this source handles pitch internally.
+     *
+     * @return {@link PitchPolicy#SOURCE_GRANULAR}
+     */
+    @Override
+    public PitchPolicy pitchPolicy() {
+        return PitchPolicy.SOURCE_GRANULAR;
+    }
+
+    // ------------------------------------------------------------------------
+    // Statistics
+    // ------------------------------------------------------------------------
+
+    /** @return number of grain slots */
+    public int getMaxGrains() { return maxGrains; }
+
+    /** @return number of grains sounding after the last rendered block */
+    public int getActiveGrainCount() { return active; }
+
+    /** @return grains started since the last {@link #seekTo(long)} */
+    public long getGrainsStarted() { return grainsStarted; }
+
+    /** @return grains dropped because every slot was busy, since the last {@link #seekTo(long)} */
+    public long getGrainsDropped() { return grainsDropped; }
+
+    // ------------------------------------------------------------------------
+    // Internals
+    // ------------------------------------------------------------------------
+
+    private void startGrain(long start, int len, float pos, float jitter, float pitch,
+            float pitchJit, float spread, float level) {
+        // draw every value first so drops do not change later grains
+        final double rPos = nextUnit() - 0.5;
+        final double rPitch = nextUnit() * 2.0 - 1.0;
+        final double rPan = nextUnit() * 2.0 - 1.0;
+        if (active >= maxGrains) {
+            grainsDropped++;
+            return;
+        }
+        final int n = source.length;
+        final double center = (double) pos * (n - 1);
+        final float rate = (pitchJit > 0f)
+                ? (float) (pitch * Math.pow(2.0, rPitch * pitchJit / 12.0))
+                : pitch;
+        final float pan = (float) (rPan * spread);
+        final float angle = (pan + 1.0f) * 0.25f * (float) Math.PI;
+        final int k = active++;
+        grainStart[k] = start;
+        grainLen[k] = len;
+        grainPos[k] = center + rPos * jitter * n;
+        grainRate[k] = rate;
+        grainGainL[k] = level * SQRT2 * (float) Math.cos(angle);
+        grainGainR[k] = level * SQRT2 * (float) Math.sin(angle);
+        grainsStarted++;
+    }
+
+    private void removeGrain(int k) {
+        final int last = --active;
+        if (k == last) return;
+        grainStart[k] = grainStart[last];
+        grainLen[k] = grainLen[last];
+        grainPos[k] = grainPos[last];
+        grainRate[k] = grainRate[last];
+        grainGainL[k] = grainGainL[last];
+        grainGainR[k] = grainGainR[last];
+    }
+
+    private float readLinear(double pos, boolean wrap) {
+        final int n = source.length;
+        if (n == 1) return source[0];
+        double fl = Math.floor(pos);
+        float frac = (float) (pos - fl);
+        long i0 = (long) fl;
+        if (wrap) {
+            int a = (int) Math.floorMod(i0, (long) n);
+            int b = (a + 1 == n) ? 0 : a + 1;
+            return source[a] + frac * (source[b] - source[a]);
+        }
+        if (i0 < 0) return source[0];
+        if (i0 >= n - 1) return source[n - 1];
+        int a = (int) i0;
+        return source[a] + frac * (source[a + 1] - source[a]);
+    }
+
+    private static float param(Modulation[] mods, Param p, float base, long t) {
+        final Modulation m = mods[p.ordinal()];
+        if (m == null) return base;
+        double u = (m.loop ? Math.floorMod(t, m.periodSamples) : Math.max(0L, t)) / (double) m.periodSamples;
+        return m.curve.sample((float) Math.min(1.0, u));
+    }
+
+    private void seedRandom() {
+        // splitmix64 finalizer, so nearby seeds give unrelated streams and the state is never 0
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        rng = (z != 0L) ? z : 0x9E3779B97F4A7C15L;
+        grainsStarted = 0L;
+        grainsDropped = 0L;
+    }
+
+    /** xorshift64* draw in [0, 1). */
+    private double nextUnit() {
+        long x = rng;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        rng = x;
+        return ((x * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+    }
+
+    private static float clamp01(float v) {
+        return (v < 0f) ? 0f : (v > 1f) ? 1f : v;
+    }
+
+    /** Grain length and its window curve, or null for rectangular grains. */
+    private static final class GrainShape {
+        final int length;
+        final float[] curve;
+
+        GrainShape(int length, float[] curve) {
+            this.length = length;
+            this.curve = curve;
+        }
+    }
+
+    /** A control curve bound to a parameter. */
+    private static final class Modulation {
+        final PAControlCurve curve;
+        final long periodSamples;
+        final boolean loop;
+
+        Modulation(PAControlCurve curve, long periodSamples, boolean loop) {
+            this.curve = curve;
+            this.periodSamples = periodSamples;
+            this.loop = loop;
+        }
+    }
+}
@@ -19,12 +19,16 @@
 package net.paulhertz.pixelaudio.granular;
 
 import ddf.minim.analysis.WindowFunction;
+import net.paulhertz.pixelaudio.schedule.AudioUtility;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Thread-safe cache for generated Minim window curves. PixelAudio uses 
+ * Thread-safe, bounded cache for generated Minim window curves. PixelAudio uses 
  * a Hann window by default. Minim provides additional WindowFunction classes 
  * and a model for creating your own. 
  *
@@ -32,14 +36,33 @@ import java.util.concurrent.ConcurrentHashMap;
  * {@link WindowFunction#generateCurve(int)} so repeated granular voices can reuse the same
  * window data instead of regenerating it for every grain or playback event.</p>
  *
- * <p>Cache entries are keyed by the concrete {@link WindowFunction} class and the requested
- * length. Two different instances of the same window-function class therefore share a cached
- * curve when the requested length is the same.</p>
+ * <p>Cache entries are keyed by window kind and length. The kind combines the concrete
+ * {@link WindowFunction} class with a fingerprint of the curve it generates, so two instances
+ * of the same class share curves only when their parameters match: a Gauss window with alpha
+ * 0.25 and one with alpha 0.5 get separate entries. Each instance is fingerprinted once, on
+ * first use and outside any lock; after that, kind and length are packed into a {@code long}
+ * key and lookups allocate nothing.</p>
  *
- * <p>The cache is safe to access from multiple threads. For strict real-time audio behavior,
- * call {@link #prewarm(WindowFunction, int)} during setup or scheduling so the audio thread
- * can later call {@link #getWindowCurve(WindowFunction, int)} without triggering curve
- * generation.</p>
+ * <p>The cache is bounded. When it holds more than {@link #getMaxEntries()} curves or more
+ * than {@link #getMaxSamples()} floats in all, the least recently used curves are dropped.
+ * Curves loaded with {@link #prewarm(WindowFunction, int)} are pinned: they do not count
+ * toward the bounds and are not dropped, until {@link #unpinAll()} or {@link #clear()}. At
+ * most {@link #getMaxPinned()} curves stay pinned; pinning one more returns the least
+ * recently used pinned curve to ordinary LRU management, so prewarming an unbounded series
+ * of lengths cannot grow the cache without bound.
+ * Arrays already handed out stay valid; the cache just forgets them. Gesture-driven grain
+ * lengths vary continuously, so {@link #setLengthQuantization(int)} can also round requested
+ * lengths to a fixed number of buckets per octave. The returned curve may then differ in
+ * length from the grain and should be read with {@link #readInterpolated(float[], int, int)},
+ * as {@link PABurstGranularSource} does.</p>
+ *
+ * <p>The cache is safe to access from multiple threads. A hit takes no lock: it reads an
+ * immutable index published through a volatile field and stamps the entry's recency. Misses
+ * generate the curve outside the lock, then take it briefly to insert the curve and publish a
+ * new index. For strict real-time audio behavior, call {@link #prewarm(WindowFunction, int)}
+ * during setup or scheduling so the audio thread can later call
+ * {@link #getWindowCurve(WindowFunction, int)} without generating a curve or waiting on a
+ * lock.</p>
  *
  * <p>The returned arrays are cached and shared. Callers should treat them as read-only.</p>
  *
@@ -50,43 +73,87 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class WindowCache {
 
+    /** Default maximum number of cached curves. */
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    /** Default maximum number of floats held across all cached curves (16 MiB). */
+    public static final long DEFAULT_MAX_SAMPLES = 1L << 22;
+    /** Default maximum number of pinned curves. */
+    public static final int DEFAULT_MAX_PINNED = 64;
+
     /** Shared cache instance used by the granular synthesis engine. */
-    public static final WindowCache INSTANCE = new WindowCache();
+    public static final WindowCache INSTANCE = new WindowCache(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_SAMPLES);
 
-    private WindowCache() {
-        // private: use INSTANCE
-    }
+    /** Number of points generated to fingerprint a window's parameters. */
+    private static final int FINGERPRINT_LENGTH = 61;
+    /** Lengths below this are never quantized. */
+    private static final int MIN_QUANTIZED_LENGTH = 64;
 
-    private static final class Key {
-        final Class<? extends WindowFunction> wfClass;
-        final int length;
+    /** One cached curve. */
+    private static final class Entry {
+        final long key;
+        final float[] curve;
+        /** Guarded by the cache lock. */
+        boolean pinned;
+        /** Recency stamp, written without a lock by hits; a lost update only blurs LRU order. */
+        long lastUse;
 
-        Key(WindowFunction wf, int length) {
-            this.wfClass = wf.getClass();
-            this.length = length;
+        Entry(long key, float[] curve, boolean pinned, long lastUse) {
+            this.key = key;
+            this.curve = curve;
+            this.pinned = pinned;
+            this.lastUse = lastUse;
         }
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (!(o instanceof Key)) return false;
-            Key other = (Key) o;
-            return wfClass == other.wfClass && length == other.length;
-        }
+    /** A window instance and its kind id; the instance is held weakly. */
+    private static final class Kind {
+        final WeakReference<WindowFunction> window;
+        final int id;
 
-        @Override
-        public int hashCode() {
-            return wfClass.hashCode() * 31 + length;
+        Kind(WindowFunction wf, int id) {
+            this.window = new WeakReference<>(wf);
+            this.id = id;
         }
     }
 
-    private final Map<Key, float[]> windowCurves = new ConcurrentHashMap<>();
+    // --- read side: immutable open-addressing tables, replaced whole under the lock
+    private volatile Entry[] table = new Entry[2];
+    private volatile Kind[] kinds = new Kind[0];
+    /** Recency clock; incremented without a lock, like {@link Entry#lastUse}. */
+    private long useClock = 0L;
+
+    // --- write side, guarded by this
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<List<Object>, Integer> kindOfSignature = new HashMap<>();
+    private int maxEntries;
+    private long maxSamples;
+    private int maxPinned = DEFAULT_MAX_PINNED;
+    private int unpinnedCount = 0;
+    private long unpinnedSamples = 0L;
+    private long storedSamples = 0L;
+    private long evictions = 0L;
+
+    private volatile int stepsPerOctave = 0;
 
     /**
-     * Precomputes and caches a window curve.
+     * Creates a cache with the given bounds. Most callers use {@link #INSTANCE}.
+     *
+     * @param maxEntries   maximum number of cached curves
+     * @param maxSamples   maximum number of floats held across all cached curves
+     */
+    WindowCache(int maxEntries, long maxSamples) {
+        setCapacity(maxEntries, maxSamples);
+    }
+
+    /**
+     * Precomputes, caches and pins a window curve.
      *
      * <p>Use this method during setup or scheduling to avoid first-use curve generation on the
-     * audio thread. If the curve is already cached, this method returns the existing shared
-     * array.</p>
+     * audio thread. The curve is pinned, so later lookups find it however many other curves
+     * pass through the cache, until {@link #unpinAll()} or {@link #clear()}, or until
+     * {@link #getMaxPinned()} more recently used curves have been pinned. If the curve is
+     * already cached, this method pins and returns the existing shared array. With length
+     * quantization enabled, the curve is generated for the quantized length.</p>
      *
      * @param wf window function used to generate the curve
      * @param length number of samples in the generated curve
@@ -94,8 +161,7 @@ public final class WindowCache {
      * @throws NullPointerException if {@code wf} is null
      */
     public float[] prewarm(WindowFunction wf, int length) {
-        Key key = new Key(wf, length);
-        return windowCurves.computeIfAbsent(key, k -> wf.generateCurve(length));
+        return lookupOrInsert(wf, length, true);
     }
 
     /**
@@ -103,7 +169,8 @@ public final class WindowCache {
      *
      * <p>If no matching curve has been cached, this method generates one lazily and stores it.
      * For strict real-time safety, prefer calling {@link #prewarm(WindowFunction, int)} ahead
-     * of time.</p>
+     * of time. With length quantization enabled, the curve has the quantized length, which may
+     * differ from {@code length}.</p>
      *
      * @param wf window function used to generate the curve
      * @param length number of samples in the generated curve
@@ -111,7 +178,317 @@ public final class WindowCache {
      * @throws NullPointerException if {@code wf} is null
      */
     public float[] getWindowCurve(WindowFunction wf, int length) {
-        Key key = new Key(wf, length);
-        return windowCurves.computeIfAbsent(key, k -> wf.generateCurve(length));
+        return lookupOrInsert(wf, length, false);
+    }
+
+    private float[] lookupOrInsert(WindowFunction wf, int length, boolean pin) {
+        if (wf == null) throw new NullPointerException("wf");
+        final int len = quantizeLength(Math.max(1, length));
+        final long key = ((long) kindOf(wf) << 32) | (len & 0xFFFFFFFFL);
+        if (!pin) {
+            Entry hit = find(table, key);
+            if (hit != null) {
+                hit.lastUse = ++useClock;
+                return hit.curve;
+            }
+        }
+        else {
+            synchronized (this) {
+                Entry hit = find(table, key);
+                if (hit != null) {
+                    hit.lastUse = ++useClock;
+                    pin(hit);
+                    return hit.curve;
+                }
+            }
+        }
+        // generate outside the lock; window tails can reach subnormal values, which slow
+        // every multiply that touches them
+        float[] curve = AudioUtility.flushDenormals(wf.generateCurve(len));
+        synchronized (this) {
+            Entry raced = find(table, key);
+            if (raced != null) {
+                if (pin) pin(raced);
+                raced.lastUse = ++useClock;
+                return raced.curve;
+            }
+            Entry e = new Entry(key, curve, pin, ++useClock);
+            insert(e);
+            if (pin) trimPinned(e);
+            publish();
+        }
+        return curve;
+    }
+
+    /**
+     * Reads a window curve at a grain offset, stretching the curve to the grain length with
+     * linear interpolation. When the curve length equals {@code grainLength}, this is a plain
+     * array read.
+     *
+     * @param curve         window curve from this cache
+     * @param offset        sample offset in the grain, from 0 to {@code grainLength - 1}
+     * @param grainLength   grain length in samples
+     * @return window value at {@code offset}
+     */
+    public static float readInterpolated(float[] curve, int offset, int grainLength) {
+        final int n = curve.length;
+        if (n == grainLength) return curve[offset];
+        if (n == 1 || grainLength <= 1) return curve[0];
+        float pos = offset * (float) (n - 1) / (float) (grainLength - 1);
+        int i = (int) pos;
+        if (i >= n - 1) return curve[n - 1];
+        float f = pos - i;
+        return curve[i] + f * (curve[i + 1] - curve[i]);
+    }
+
+    // ------------------------------------------------------------------------
+    // Settings and statistics
+    // ------------------------------------------------------------------------
+
+    /**
+     * Rounds requested lengths to {@code stepsPerOctave} geometric buckets per octave, so
+     * continuously varying grain lengths share a bounded set of curves. Lengths below 64 are
+     * kept exact. Pass 0, the default, to cache every requested length exactly.
+     *
+     * @param stepsPerOctave   buckets per octave, or 0 to disable quantization
+     */
+    public void setLengthQuantization(int stepsPerOctave) {
+        this.stepsPerOctave = Math.max(0, stepsPerOctave);
+    }
+
+    /** @return buckets per octave used for length quantization, 0 when disabled */
+    public int getLengthQuantization() {
+        return stepsPerOctave;
+    }
+
+    /**
+     * Returns the length a curve requested for {@code length} samples actually has.
+     *
+     * @param length   requested length in samples
+     * @return {@code length}, or its bucket length when quantization is enabled
+     */
+    public int quantizeLength(int length) {
+        final int steps = stepsPerOctave;
+        if (steps <= 0 || length < MIN_QUANTIZED_LENGTH) return length;
+        double q = Math.rint(steps * Math.log(length) / Math.log(2.0));
+        return (int) Math.round(Math.pow(2.0, q / steps));
+    }
+
+    /**
+     * Sets the cache bounds. Shrinking the bounds drops least recently used curves at once.
+     * Pinned curves are not counted and are kept.
+     *
+     * @param maxEntries   maximum number of cached curves; values below 1 are clamped to 1
+     * @param maxSamples   maximum total number of cached floats; values below 1 are clamped to 1
+     */
+    public synchronized void setCapacity(int maxEntries, long maxSamples) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxSamples = Math.max(1L, maxSamples);
+        while (unpinnedCount > this.maxEntries || unpinnedSamples > this.maxSamples) {
+            evictOldest();
+        }
+        publish();
+    }
+
+    /**
+     * Sets how many curves may stay pinned. Lowering the limit returns the least recently
+     * used pinned curves to LRU management at once.
+     *
+     * @param maxPinned   maximum number of pinned curves; values below 0 are clamped to 0
+     */
+    public synchronized void setMaxPinned(int maxPinned) {
+        this.maxPinned = Math.max(0, maxPinned);
+        trimPinned(null);
+        publish();
+    }
+
+    /** @return maximum number of pinned curves */
+    public synchronized int getMaxPinned() {
+        return maxPinned;
+    }
+
+    /** @return number of pinned curves */
+    public synchronized int getPinnedCount() {
+        return entries.size() - unpinnedCount;
+    }
+
+    /** @return maximum number of cached curves */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /** @return maximum number of floats held across all cached curves */
+    public synchronized long getMaxSamples() {
+        return maxSamples;
+    }
+
+    /** @return number of cached curves, pinned ones included */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return number of floats held across all cached curves, pinned ones included */
+    public synchronized long getStoredSamples() {
+        return storedSamples;
+    }
+
+    /** @return number of curves dropped to stay within the bounds */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Returns every pinned curve to ordinary LRU management, dropping the least recently used
+     * curves if the cache is now over its bounds.
+     */
+    public synchronized void unpinAll() {
+        for (Entry e : entries) {
+            if (!e.pinned) continue;
+            e.pinned = false;
+            unpinnedCount++;
+            unpinnedSamples += e.curve.length;
+        }
+        setCapacity(maxEntries, maxSamples);
+    }
+
+    /** Drops every cached curve, pinned ones included. Window kinds are kept. */
+    public synchronized void clear() {
+        entries.clear();
+        unpinnedCount = 0;
+        unpinnedSamples = 0L;
+        storedSamples = 0L;
+        publish();
+    }
+
+    // ------------------------------------------------------------------------
+    // Window kinds
+    // ------------------------------------------------------------------------
+
+    /** Returns the kind id for a window instance, fingerprinting it the first time it is seen. */
+    private int kindOf(WindowFunction wf) {
+        for (Kind k : kinds) {
+            if (k.window.get() == wf) return k.id;
+        }
+        // first sight of this instance: fingerprint it outside the lock
+        List<Object> signature = List.of(wf.getClass(), probeKey(wf.generateCurve(FINGERPRINT_LENGTH)));
+        synchronized (this) {
+            Kind[] old = kinds;
+            for (Kind k : old) {
+                if (k.window.get() == wf) return k.id;
+            }
+            Integer id = kindOfSignature.get(signature);
+            if (id == null) {
+                id = kindOfSignature.size() + 1;
+                kindOfSignature.put(signature, id);
+            }
+            // drop instances that have been collected
+            List<Kind> live = new ArrayList<>(old.length + 1);
+            for (Kind k : old) {
+                if (k.window.get() != null) live.add(k);
+            }
+            live.add(new Kind(wf, id));
+            kinds = live.toArray(new Kind[0]);
+            return id;
+        }
+    }
+
+    private static String probeKey(float[] probe) {
+        StringBuilder sb = new StringBuilder(probe.length * 9);
+        for (float v : probe) sb.append(Integer.toHexString(Float.floatToIntBits(v))).append(',');
+        return sb.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    // Entries; everything below except find() is called with the lock held
+    // ------------------------------------------------------------------------
+
+    private static Entry find(Entry[] t, long key) {
+        final int mask = t.length - 1;
+        for (int i = hash(key) & mask; t[i] != null; i = (i + 1) & mask) {
+            if (t[i].key == key) return t[i];
+        }
+        return null;
+    }
+
+    private void pin(Entry e) {
+        if (e.pinned) return;
+        e.pinned = true;
+        unpinnedCount--;
+        unpinnedSamples -= e.curve.length;
+        trimPinned(e);
+    }
+
+    /**
+     * Unpins least recently used curves, other than {@code keep}, until at most
+     * {@link #maxPinned} remain, then evicts to bring the unpinned curves within the bounds.
+     */
+    private void trimPinned(Entry keep) {
+        boolean demoted = false;
+        while (entries.size() - unpinnedCount > maxPinned) {
+            Entry oldest = null;
+            for (Entry e : entries) {
+                if (e.pinned && e != keep && (oldest == null || e.lastUse < oldest.lastUse)) oldest = e;
+            }
+            if (oldest == null) break;
+            oldest.pinned = false;
+            unpinnedCount++;
+            unpinnedSamples += oldest.curve.length;
+            demoted = true;
+        }
+        if (!demoted) return;
+        while (unpinnedCount > maxEntries || unpinnedSamples > maxSamples) {
+            evictOldest();
+        }
+    }
+
+    private void insert(Entry e) {
+        if (!e.pinned) {
+            while (unpinnedCount > 0
+                    && (unpinnedCount >= maxEntries || unpinnedSamples + e.curve.length > maxSamples)) {
+                evictOldest();
+            }
+            unpinnedCount++;
+            unpinnedSamples += e.curve.length;
+        }
+        entries.add(e);
+        storedSamples += e.curve.length;
+    }
+
+    /** Drops the least recently used unpinned curve. */
+    private void evictOldest() {
+        int victim = -1;
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            if (!e.pinned && e.lastUse < oldest) {
+                oldest = e.lastUse;
+                victim = i;
+            }
+        }
+        if (victim < 0) return;
+        Entry e = entries.get(victim);
+        entries.set(victim, entries.get(entries.size() - 1));
+        entries.remove(entries.size() - 1);
+        unpinnedCount--;
+        unpinnedSamples -= e.curve.length;
+        storedSamples -= e.curve.length;
+        evictions++;
+    }
+
+    /** Builds a new read table from the current entries and publishes it. */
+    private void publish() {
+        Entry[] t = new Entry[Integer.highestOneBit(Math.max(2, entries.size()) * 2 - 1) << 1];
+        final int mask = t.length - 1;
+        for (Entry e : entries) {
+            int i = hash(e.key) & mask;
+            while (t[i] != null) i = (i + 1) & mask;
+            t[i] = e;
+        }
+        table = t;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
     }
 }
@@ -37,6 +37,10 @@
  * <ul>
  *   <li>{@link net.paulhertz.pixelaudio.granular.PAGranularInstrumentDirector PAGranularInstrumentDirector}
  *   coordinates gesture playback, scheduling, event parameters, and granular source creation.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.granular.CompiledGesture CompiledGesture}
+ *   holds a gesture's event onsets, source indices, pans, gains, and pitch ratios as packed arrays for replay.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.granular.PAGranularOfflineRenderer PAGranularOfflineRenderer}
+ *   renders gestures to stereo audio or a WAV file faster than real time, without an audio output.</li>
  *   <li>{@link net.paulhertz.pixelaudio.granular.PAGranularInstrument PAGranularInstrument}
  *   provides the high-level instrument API for pan, gain, envelopes, looping, and scheduled starts.</li>
  *   <li>{@link net.paulhertz.pixelaudio.granular.PAGranularSampler PAGranularSampler}
@@ -54,6 +58,8 @@
  *   <li>{@link net.paulhertz.pixelaudio.granular.PABurstGranularSource PABurstGranularSource}
  *   provides windowed granular synthesis with normalization, optional wrap-around source reads,
  *   and powers the granular synthesis engine.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.granular.PAStreamingGranularSource PAStreamingGranularSource}
+ *   generates an unbounded, seeded grain cloud with block-rate parameter modulation, for sustained textures.</li>
  * </ul>
  *
  * <p><b>Gesture configuration and event data</b></p>
@@ -69,9 +75,10 @@
  * <p><b>Utilities</b></p>
  * <ul>
  *   <li>{@link net.paulhertz.pixelaudio.granular.WindowCache WindowCache}
- *   caches generated window curves for granular playback.</li>
+ *   keeps a bounded, least-recently-used cache of generated window curves.</li>
  *   <li>{@link net.paulhertz.pixelaudio.granular.OverlapUtil OverlapUtil}
- *   computes block/span overlaps for sample-accurate audio processing.</li>
+ *   computes block/span overlaps for sample-accurate audio processing, with an
+ *   allocation-free packed form for render loops.</li>
  * </ul>
  *
  */
@@ -150,6 +150,21 @@ public class ADSRParams {
         envelope.setSampleRate(sampleRate);
         return envelope;
     }
+
+    /**
+     * Loads this envelope description into an existing SimpleADSR and resets it to idle.
+     * Voices use this to reuse one envelope object per voice, so note activation does not
+     * allocate on the audio thread.
+     *
+     * @param envelope     envelope to reconfigure
+     * @param sampleRate   sample rate in Hz
+     * @return {@code envelope}, for chaining
+     */
+    public SimpleADSR applyTo(SimpleADSR envelope, float sampleRate) {
+        envelope.configure(attack, decay, sustain, release,
+                attackCurve, decayCurve, releaseCurve, sampleRate);
+        return envelope;
+    }
     
     /**
      * @return a String representation of the ADSRParams data
@@ -0,0 +1,178 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.sampler;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ddf.minim.MultiChannelBuffer;
+
+/**
+ * Immutable, reference-counted mono sample data shared by samplers, instruments and voices.
+ *
+ * <p>A PASampleBuffer is never written after construction, so any number of instruments and
+ * voices can read it at once. Swapping an instrument's buffer publishes a new PASampleBuffer
+ * for notes started afterwards; voices that are already sounding keep reading the buffer they
+ * started with until they finish. Nothing is stopped and nothing is copied by the swap.</p>
+ *
+ * <p>The reference count tracks holders: each sampler or mixer channel that has adopted the
+ * buffer, and each voice that is sounding from it. Holders retain and release on the audio
+ * thread, so {@link #refCount()} is a snapshot. A count of zero means the buffer is no longer
+ * in use and can be dropped or reused by the caller.</p>
+ *
+ * <p>{@link #wrap(float[], float)} adopts an array without copying; the caller must not
+ * modify the array afterwards. {@link #copyOf(float[], float)} and
+ * {@link #copyOf(MultiChannelBuffer, float)} take a private copy, which is the safe choice for
+ * data the caller keeps editing.</p>
+ *
+ * <p>{@link PAStreamingSampleBuffer} is a disk-backed subclass whose samples are not held in
+ * memory; for it {@link #data()} returns null and reads go through {@link #get(int)}.</p>
+ */
+public class PASampleBuffer {
+    private final float[] samples;
+    private final int length;
+    private final float sampleRate;
+    private final AtomicInteger refs = new AtomicInteger();
+
+    private PASampleBuffer(float[] samples, float sampleRate) {
+        this.samples = samples;
+        this.length = samples.length;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Constructor for buffers without an in-memory sample array.
+     *
+     * @param length       length in samples
+     * @param sampleRate   sample rate of the data in Hz
+     */
+    protected PASampleBuffer(int length, float sampleRate) {
+        this.samples = null;
+        this.length = Math.max(0, length);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Adopts {@code samples} without copying. The array must not be modified afterwards.
+     *
+     * @param samples      mono sample data
+     * @param sampleRate   sample rate of the data in Hz
+     * @return buffer backed by {@code samples}
+     */
+    public static PASampleBuffer wrap(float[] samples, float sampleRate) {
+        return new PASampleBuffer((samples != null) ? samples : new float[0], sampleRate);
+    }
+
+    /**
+     * Copies {@code samples} into a new buffer.
+     *
+     * @param samples      mono sample data
+     * @param sampleRate   sample rate of the data in Hz
+     * @return buffer holding a private copy of {@code samples}
+     */
+    public static PASampleBuffer copyOf(float[] samples, float sampleRate) {
+        return wrap((samples != null) ? samples.clone() : null, sampleRate);
+    }
+
+    /**
+     * Copies channel 0 of {@code buffer} into a new buffer.
+     *
+     * @param buffer       source MultiChannelBuffer
+     * @param sampleRate   sample rate of the data in Hz
+     * @return buffer holding a private copy of channel 0
+     */
+    public static PASampleBuffer copyOf(MultiChannelBuffer buffer, float sampleRate) {
+        if (buffer == null) return wrap(null, sampleRate);
+        return wrap(Arrays.copyOf(buffer.getChannel(0), buffer.getBufferSize()), sampleRate);
+    }
+
+    /**
+     * Returns the backing array for reading. It is shared with every holder of this buffer and
+     * must not be written.
+     *
+     * @return backing sample array, or null if the samples are not held in memory
+     */
+    public float[] data() { return samples; }
+
+    /** @return true when samples are read from disk rather than held in {@link #data()} */
+    public boolean isStreaming() { return samples == null; }
+
+    /** @return length in samples */
+    public int length() { return length; }
+
+    /** @return sample rate of the data in Hz */
+    public float sampleRate() { return sampleRate; }
+
+    /**
+     * @param index sample index
+     * @return sample at {@code index}
+     */
+    public float get(int index) { return samples[index]; }
+
+    /**
+     * Copies the data into a new one-channel MultiChannelBuffer.
+     *
+     * @return new MultiChannelBuffer holding a copy of this buffer
+     */
+    public MultiChannelBuffer toMultiChannelBuffer() {
+        MultiChannelBuffer mcb = new MultiChannelBuffer(Math.max(1, length), 1);
+        if (length > 0) mcb.setChannel(0, (samples != null) ? samples : toArray());
+        return mcb;
+    }
+
+    /**
+     * Returns the samples as an array. In-memory buffers return a copy of {@link #data()};
+     * streaming buffers read the whole source, which can be slow and large.
+     *
+     * @return new array holding every sample
+     */
+    public float[] toArray() {
+        return samples.clone();
+    }
+
+    /**
+     * Adds a holder.
+     *
+     * @return this buffer
+     */
+    public PASampleBuffer retain() {
+        refs.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Removes a holder. Extra releases are ignored rather than driving the count negative.
+     *
+     * @return remaining holder count
+     */
+    public int release() {
+        int n;
+        do {
+            n = refs.get();
+            if (n <= 0) return 0;
+        } while (!refs.compareAndSet(n, n - 1));
+        return n - 1;
+    }
+
+    /** @return current holder count */
+    public int refCount() { return refs.get(); }
+
+    /** @return true while a sampler, channel or voice holds this buffer */
+    public boolean isInUse() { return refs.get() > 0; }
+}
@@ -18,6 +18,8 @@
 
 package net.paulhertz.pixelaudio.sampler;
 
+import net.paulhertz.pixelaudio.schedule.EngineMetrics;
+
 /**
  * Backend engine contract for sampler implementations.
  * Allows swapping implementations without changing higher layers.
@@ -131,5 +133,29 @@ public interface PASampler {
 	 * @param playbackSampleRate sample rate of the source buffer in Hz
 	 */
 	public void setBuffer(float[] buffer, float playbackSampleRate);
+
+	/**
+	 * Replaces the sampler source buffer and playback sample rate with a shared, immutable
+	 * buffer. Implementations should not copy the data and should let voices that are already
+	 * sounding finish on the buffer they started with. The default implementation hands the
+	 * samples to {@link #setBuffer(float[], float)}, reading a streaming buffer into memory.
+	 *
+	 * @param buffer   shared source buffer; its sample rate becomes the playback rate
+	 */
+	default void setBuffer(PASampleBuffer buffer) {
+		if (buffer != null) {
+			setBuffer(buffer.isStreaming() ? buffer.toArray() : buffer.data(), buffer.sampleRate());
+		}
+	}
+
+	/**
+	 * Returns the live metrics of the engine behind this sampler. Samplers that share a mixer
+	 * return the mixer's metrics. The default implementation reports none.
+	 *
+	 * @return engine metrics, or null if this sampler does not collect them
+	 */
+	default EngineMetrics getMetrics() {
+		return null;
+	}
 	
 }
@@ -18,12 +18,14 @@
 
 package net.paulhertz.pixelaudio.sampler;
 
-import java.util.Arrays;
 
 import ddf.minim.AudioOutput;
 import ddf.minim.MultiChannelBuffer;
 import net.paulhertz.pixelaudio.schedule.AudioSampleClock;
+import net.paulhertz.pixelaudio.schedule.AudioScheduler;
+import net.paulhertz.pixelaudio.schedule.EngineMetrics;
 import net.paulhertz.pixelaudio.schedule.AudioUtility;
+import net.paulhertz.pixelaudio.schedule.PATransport;
 
 /**
  * Represents a playable instrument that uses a PASampler instantiated as a PASharedBufferSampler
@@ -44,6 +46,8 @@ import net.paulhertz.pixelaudio.schedule.AudioUtility;
  *   <li>Linear trim (gain) per instrument.</li>
  *   <li>Compensation for differing buffer vs. output sample rates.</li>
  *   <li>Cached buffer size for efficiency.</li>
+ *   <li>Copy-on-write buffer swaps through {@link PASampleBuffer}: a swap costs no copy and
+ *       lets sounding voices finish on the buffer they started with.</li>
  * </ul>
  *
  * Implements both PAPlayable and PASamplerPlayable for full compatibility.
@@ -55,8 +59,10 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	// ------------------------------------------------------------------------
 	/** Sampler backend used to trigger playback. */
 	private final PASampler sampler;
-	/** Source buffer for this instrument. */
+	/** Source buffer for this instrument, or null until {@link #getBuffer()} materializes it. */
 	private MultiChannelBuffer buffer;
+	/** Shared, immutable source data played by the sampler. */
+	private PASampleBuffer sampleBuffer;
 	/** Audio output this instrument is patched to. */
 	private final AudioOutput out;
 	/** Cached source buffer size in samples. TODO consider replacing with buffer.getBufferSize(). */
@@ -113,7 +119,47 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 		this.isClosed = false;
 		this.maxVoices = Math.max(1, maxVoices);
 		// pass through to sampler
-		this.sampler = new PASharedBufferSampler(buffer, sampleRate, audioOut, this.maxVoices);
+		this.sampleBuffer = PASampleBuffer.copyOf(buffer, sampleRate);
+		this.sampler = new PASharedBufferSampler(sampleBuffer, audioOut, this.maxVoices);
+		syncMasterGain();
+	}
+
+	/**
+	 * Constructs an instrument over a shared sample buffer. The data is not copied, so a pool
+	 * of instruments can all play one buffer.
+	 *
+	 * @param sampleBuffer   shared source buffer; its sample rate is the buffer sample rate
+	 * @param maxVoices      number of simultaneous voices (polyphony)
+	 * @param audioOut       target AudioOutput
+	 * @param env            default ADSR envelope parameters
+	 */
+	public PASamplerInstrument(PASampleBuffer sampleBuffer, int maxVoices, AudioOutput audioOut, ADSRParams env) {
+		this(sampleBuffer, audioOut,
+			 new PASharedBufferSampler(sampleBuffer, audioOut, Math.max(1, maxVoices)),
+			 env);
+		this.maxVoices = Math.max(1, maxVoices);
+	}
+
+	/**
+	 * Constructs an instrument over a shared sample buffer with a custom sampler. The sampler
+	 * is expected to be playing {@code sampleBuffer} already.
+	 *
+	 * @param sampleBuffer   shared source buffer; its sample rate is the buffer sample rate
+	 * @param out            target AudioOutput
+	 * @param sampler        sampler implementation to use
+	 * @param defaultEnv     default ADSR envelope
+	 */
+	public PASamplerInstrument(PASampleBuffer sampleBuffer, AudioOutput out, PASampler sampler, ADSRParams defaultEnv) {
+		this.out = out;
+		this.sampleBuffer = sampleBuffer;
+		this.buffer = null;
+		this.sampler = sampler;
+		this.defaultEnv = (defaultEnv != null) ? defaultEnv : new ADSRParams(1f, 0.01f, 0.2f, 0.8f, 0.3f);
+		this.bufferSize = (sampleBuffer != null) ? sampleBuffer.length() : 0;
+		this.bufferSampleRate = (sampleBuffer != null) ? sampleBuffer.sampleRate()
+				: (out != null) ? out.sampleRate() : 44100f;
+		this.outputSampleRate = (out != null) ? out.sampleRate() : bufferSampleRate;
+		this.sampleRateRatio = (outputSampleRate > 0f) ? bufferSampleRate / outputSampleRate : 1f;
 		syncMasterGain();
 	}
 
@@ -130,6 +176,8 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 		this.out = out;
 		this.buffer = buffer;
 		this.sampler = sampler;
+		if (sampler instanceof PASharedBufferSampler s) this.sampleBuffer = s.getSampleBuffer();
+		else if (sampler instanceof PASamplerMixer.Channel ch) this.sampleBuffer = ch.getSampleBuffer();
 		syncMasterGain();
 		this.defaultEnv = defaultEnv;
 		this.bufferSize = (buffer != null) ? buffer.getBufferSize() : 0;
@@ -237,6 +285,26 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 		return (sampler != null) ? sampler.getCurrentSampleTime() : 0L;
 	}
 
+	/**
+	 * Subscribes this instrument's sampler to a shared transport, or unsubscribes it with null.
+	 * While subscribed, {@link #getCurrentSampleTime()} and scheduled start samples are in
+	 * transport time. An instrument that plays through a {@link PASamplerMixer} subscribes the
+	 * whole mixer, and with it every channel.
+	 *
+	 * @param transport   shared transport, or null to use the sampler's local clock
+	 */
+	public void setTransport(PATransport transport) {
+		if (sampler instanceof PASharedBufferSampler s) s.setTransport(transport);
+		else if (sampler instanceof PASamplerMixer.Channel ch) ch.getMixer().setTransport(transport);
+	}
+
+	/** @return the transport this instrument's sampler follows, or null */
+	public PATransport getTransport() {
+		if (sampler instanceof PASharedBufferSampler s) return s.getTransport();
+		if (sampler instanceof PASamplerMixer.Channel ch) return ch.getMixer().getTransport();
+		return null;
+	}
+
 	/** Clears scheduled starts that have not fired yet. */
 	public synchronized void clearScheduled() {
 		if (sampler != null) sampler.clearScheduled();
@@ -445,12 +513,17 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	    if (sampler instanceof PASharedBufferSampler s) {
 	        s.setMasterGain(gain * parentGain);
 	    }
+	    else if (sampler instanceof PASamplerMixer.Channel ch) {
+	        ch.setMasterGain(gain * parentGain);
+	    }
 	}
 
 	/**
 	 * Pass-through to the underlying PASharedBufferSampler mix behavior.
 	 * This lets a host application tune density normalization / soft clipping
-	 * without changing per-event gain or envelope settings.
+	 * without changing per-event gain or envelope settings. For an instrument
+	 * that plays through a shared {@link PASamplerMixer}, the profile applies to
+	 * the whole mixer.
 	 *
 	 * @param profile   a PASharedBufferSampler mix profile
 	 */
@@ -458,6 +531,20 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	    if (sampler instanceof PASharedBufferSampler sam && profile != null) {
 	        sam.setMixProfile(profile);
 	    }
+	    else if (sampler instanceof PASamplerMixer.Channel ch && profile != null) {
+	        ch.getMixer().setMixProfile(profile);
+	    }
+	}
+
+	/**
+	 * Selects the soft limiter curve of the underlying sampler. For an instrument that plays
+	 * through a shared {@link PASamplerMixer}, the curve applies to the whole mixer.
+	 *
+	 * @param mode   SOFTSIGN (default), TABLE or CUBIC
+	 */
+	public void setClipMode(ClipMode mode) {
+	    if (sampler instanceof PASharedBufferSampler sam) sam.setClipMode(mode);
+	    else if (sampler instanceof PASamplerMixer.Channel ch) ch.getMixer().setClipMode(mode);
 	}
 
 	/**
@@ -468,6 +555,9 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	    if (sampler instanceof PASharedBufferSampler sam) {
 	        return sam.getMixProfile();
 	    }
+	    if (sampler instanceof PASamplerMixer.Channel ch) {
+	        return ch.getMixer().getMixProfile();
+	    }
 	    return PASharedBufferSampler.MixProfile.BALANCED;
 	}
 
@@ -477,16 +567,65 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	 * @return the newly selected profile
 	 */
 	public PASharedBufferSampler.MixProfile cycleMixProfile() {
+	    PASharedBufferSampler.MixProfile[] vals = PASharedBufferSampler.MixProfile.values();
 	    PASharedBufferSampler.MixProfile next = PASharedBufferSampler.MixProfile.BALANCED;
 	    if (sampler instanceof PASharedBufferSampler s) {
-	        PASharedBufferSampler.MixProfile[] vals = PASharedBufferSampler.MixProfile.values();
 	        int i = (s.getMixProfile().ordinal() + 1) % vals.length;
 	        next = vals[i];
 	        s.setMixProfile(next);
 	    }
+	    else if (sampler instanceof PASamplerMixer.Channel ch) {
+	        int i = (ch.getMixer().getMixProfile().ordinal() + 1) % vals.length;
+	        next = vals[i];
+	        ch.getMixer().setMixProfile(next);
+	    }
 	    return next;
 	}
 
+	/**
+	 * Sets how the sampler's scheduler treats starts whose time has already passed.
+	 *
+	 * @param policy   DROP or CLAMP_TO_BLOCK_START
+	 */
+	public void setLatePolicy(AudioScheduler.LatePolicy policy) {
+	    if (sampler instanceof PASharedBufferSampler s) s.setLatePolicy(policy);
+	    else if (sampler instanceof PASamplerMixer.Channel ch) ch.getMixer().setLatePolicy(policy);
+	}
+
+	/**
+	 * Selects how a voice is chosen for reuse when all of this instrument's voices are busy.
+	 *
+	 * @param policy   OLDEST, QUIETEST, or SAME_PITCH
+	 */
+	public void setStealPolicy(VoiceAllocator.StealPolicy policy) {
+	    if (sampler instanceof PASharedBufferSampler s) s.setStealPolicy(policy);
+	}
+
+	/**
+	 * Selects the buffer read kernel used by this instrument's voices, which sets the
+	 * quality/CPU trade-off for pitched playback.
+	 *
+	 * @param mode   TRUNCATE, LINEAR, HERMITE or SINC
+	 */
+	public void setInterpolation(SampleInterpolation mode) {
+	    if (sampler instanceof PASharedBufferSampler s) {
+	        s.setInterpolation(mode);
+	    }
+	    else if (sampler instanceof PASamplerMixer.Channel ch) {
+	        ch.setInterpolation(mode);
+	    }
+	}
+
+	/**
+	 * @return the read kernel used by this instrument's voices, or TRUNCATE if the
+	 *         sampler implementation does not support interpolation.
+	 */
+	public SampleInterpolation getInterpolation() {
+	    if (sampler instanceof PASharedBufferSampler s) return s.getInterpolation();
+	    if (sampler instanceof PASamplerMixer.Channel ch) return ch.getInterpolation();
+	    return SampleInterpolation.TRUNCATE;
+	}
+
 	/**
 	 * Reports whether this instrument has an available voice.
 	 *
@@ -494,11 +633,21 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	 */
 	public boolean hasAvailableVoice() {
 	    if (sampler == null) return false;
-	    for (PASamplerVoice v : ((PASharedBufferSampler) sampler).getVoices()) {
-	        if (v.isFinished() || (!v.isActive() && !v.isReleasing())) {
-	            return true;
-	        }
+	    if (sampler instanceof PASamplerMixer.Channel ch) {
+	        return ch.activeVoiceCount() < ch.getMaxVoices();
 	    }
+	    return ((PASharedBufferSampler) sampler).countAvailableVoices() > 0;
+	}
+
+	/**
+	 * Changes the voice limit of the underlying sampler or mixer channel.
+	 *
+	 * @param maxVoices   maximum simultaneous voices
+	 * @return true if the new limit was applied
+	 */
+	public boolean setMaxVoices(int maxVoices) {
+	    if (sampler instanceof PASamplerMixer.Channel ch) return ch.setMaxVoices(maxVoices);
+	    if (sampler instanceof PASharedBufferSampler s) return s.setMaxVoices(maxVoices);
 	    return false;
 	}
 
@@ -509,11 +658,7 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	 * @return true when one or more voices are active or releasing
 	 */
 	public boolean hasActiveOrReleasingVoices() {
-	    PASharedBufferSampler s = (PASharedBufferSampler) getSampler();
-	    for (PASamplerVoice v : s.getVoices()) {
-	        if (v.isActive() || v.isReleasing()) return true;
-	    }
-	    return false;
+	    return activeOrReleasingVoiceCount() > 0;
 	}
 
 	/**
@@ -522,12 +667,8 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	 * @return active or releasing voice count
 	 */
 	public int activeOrReleasingVoiceCount() {
-	    PASharedBufferSampler s = (PASharedBufferSampler) getSampler();
-	    int c = 0;
-	    for (PASamplerVoice v : s.getVoices()) {
-	        if (v.isActive() || v.isReleasing()) c++;
-	    }
-	    return c;
+	    if (sampler instanceof PASamplerMixer.Channel ch) return ch.activeVoiceCount();
+	    return ((PASharedBufferSampler) sampler).getAllocatedVoiceCount();
 	}
 
 	/** Smoothly release all active voices (used only if we must recycle an instrument). */
@@ -537,34 +678,53 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 
 	/** @return sampler implementation used by this instrument */
 	public PASampler getSampler() { return sampler; }
+
+	/**
+	 * Returns the metrics of the engine this instrument plays through. Instruments that share a
+	 * {@link PASamplerMixer} all return the mixer's metrics.
+	 *
+	 * @return engine metrics, or null if the sampler does not collect them
+	 */
+	public EngineMetrics getMetrics() {
+		return (sampler != null) ? sampler.getMetrics() : null;
+	}
 		
-	/** @return current source buffer */
-	public MultiChannelBuffer getBuffer() { return buffer; }
+	/**
+	 * Returns the source buffer as a MultiChannelBuffer. After a {@link PASampleBuffer} swap the
+	 * MultiChannelBuffer is built on first request from the shared data; editing it does not
+	 * change what the instrument plays. For a {@link PAStreamingSampleBuffer} this reads the
+	 * whole file into memory.
+	 *
+	 * @return current source buffer
+	 */
+	public synchronized MultiChannelBuffer getBuffer() {
+		if (buffer == null && sampleBuffer != null) buffer = sampleBuffer.toMultiChannelBuffer();
+		return buffer;
+	}
+
+	/** @return shared, immutable source data played by this instrument */
+	public PASampleBuffer getSampleBuffer() { return sampleBuffer; }
 	
 	/** @return current source buffer size in samples */
 	public int getBufferSize() { return bufferSize; }
 	
 	/**
-	 * Copy the data and settings in the provided MultiChannelBuffer to this.buffer; 
-	 * bufferSampleRate is unchanged. The sampler and its voices are also refreshed.
+	 * Copy channel 0 of the provided MultiChannelBuffer into a new {@link PASampleBuffer} and
+	 * swap it in; bufferSampleRate is unchanged. This is the only copy made: voices already
+	 * sounding finish on the old data, and new voices play the new data.
 	 * Note that bufferSize will change if the buffers are not the same size.
 	 * 
 	 * @param newBuffer    buffer to replace the current buffer
 	 */
 	public synchronized void setBuffer(MultiChannelBuffer newBuffer) {
 	    if (newBuffer != null) {
-	    	// MultiChannelBuffer.set() copies newBuffer data and resizes buffer and channel count, if necessary
-	    	// We call it to avoid reallocating memory and copy sample data efficiently.
-	        this.buffer.set(newBuffer);
-	        this.bufferSize = newBuffer.getBufferSize();
-	        float[] sharedBuffer = Arrays.copyOf(newBuffer.getChannel(0), newBuffer.getBufferSize());
-	        sampler.setBuffer(sharedBuffer);
+	        setBuffer(PASampleBuffer.copyOf(newBuffer, bufferSampleRate));
 	    }
 	}
 	
 	/**
-	 * Copy the data and settings of the provided MultiChannelBuffer to this.buffer 
-	 * and set bufferSampleRate. The sampler and its voices are also refreshed.
+	 * Copy channel 0 of the provided MultiChannelBuffer into a new {@link PASampleBuffer} and
+	 * swap it in with a new bufferSampleRate. Voices already sounding finish on the old data.
 	 * Note that bufferSize will change if the buffers are not the same size.
 	 * 
 	 * @param newBuffer    buffer to replace the current buffer
@@ -572,42 +732,42 @@ public class PASamplerInstrument implements PASamplerPlayable, AudioSampleClock
 	 */
 	public synchronized void setBuffer(MultiChannelBuffer newBuffer, float newSampleRate) {
 	    if (newBuffer != null) {
-	    	// MultiChannelBuffer.set() copies newBuffer data and resizes buffer and channel count, if necessary
-	    	// We call it to avoid reallocating memory and copy sample data efficiently.
-	    	this.buffer.set(newBuffer);
-	    	this.bufferSize = newBuffer.getBufferSize();
-	    	setBufferSampleRate(newSampleRate);
-	        float[] sharedBuffer = Arrays.copyOf(newBuffer.getChannel(0), newBuffer.getBufferSize());
-	        sampler.setBuffer(sharedBuffer);
+	        setBuffer(PASampleBuffer.copyOf(newBuffer, (newSampleRate > 0f) ? newSampleRate : bufferSampleRate));
 	    }
 	}
 
 	/**
-	 * Replace the instrument's active buffer contents and set a new sample rate. 
-	 * Replace with a new signal array using MultiChannelBuffer setChannel(0, newBuffer), 
-	 * which creates a copy of the supplied array, and set a new bufferSamplerRate. 
-	 * The sampler and its voices are also refreshed. Note that bufferSize will change 
-	 * if the this.buffer and newBuffer are not the same size.
-	 * <p>
-	 * The instrument retains its own MultiChannelBuffer but updates its internal copy.
-	 * The sampler and its voices also receive a fresh copy.
-	 * </p>
+	 * Copy the supplied signal into a new {@link PASampleBuffer} and swap it in with a new
+	 * bufferSampleRate. The copy lets the caller keep editing {@code newBuffer}; use
+	 * {@link #setBuffer(PASampleBuffer)} with {@link PASampleBuffer#wrap(float[], float)} to
+	 * hand over an array without copying. Voices already sounding finish on the old data.
+	 * 
 	 * @param newBuffer       replacement mono source buffer
 	 * @param newSampleRate   sample rate of the replacement buffer in Hz
 	 */
 	public synchronized void setBuffer(float[] newBuffer, float newSampleRate) {
 	    if (newBuffer == null || newBuffer.length == 0) return;
-	    // Ensure the instrument's internal MultiChannelBuffer matches size of newBuffer
-	    if (buffer == null || buffer.getBufferSize() != newBuffer.length) {
-	        this.buffer.setBufferSize(newBuffer.length);
+	    setBuffer(PASampleBuffer.copyOf(newBuffer, (newSampleRate > 0f) ? newSampleRate : bufferSampleRate));
+	}
+
+	/**
+	 * Swap in a shared, immutable sample buffer. Nothing is copied and no voice is stopped:
+	 * the sampler publishes the buffer to the audio thread at the next control block, voices
+	 * already sounding finish on the buffer they started with, and new voices play the new
+	 * one. The buffer's sample rate becomes the instrument's buffer sample rate.
+	 *
+	 * @param newBuffer   shared source buffer
+	 */
+	public synchronized void setBuffer(PASampleBuffer newBuffer) {
+	    if (newBuffer == null) return;
+	    this.sampleBuffer = newBuffer;
+	    this.buffer = null;
+	    this.bufferSize = newBuffer.length();
+	    if (newBuffer.sampleRate() > 0f) {
+	        this.bufferSampleRate = newBuffer.sampleRate();
+	        this.sampleRateRatio = (outputSampleRate > 0f) ? bufferSampleRate / outputSampleRate : 1f;
 	    }
-	    // Copy signal into the instrument's internal buffer
-	    buffer.setChannel(0, newBuffer);
-	    bufferSize = newBuffer.length;
-	    // Update sample rate references
-	    setBufferSampleRate(newSampleRate);
-	    // Propagate to sampler and voices — safe internal copy for playback
-	    sampler.setBuffer(Arrays.copyOf(newBuffer, newBuffer.length), newSampleRate);
+	    sampler.setBuffer(newBuffer);
 	}
 
 	
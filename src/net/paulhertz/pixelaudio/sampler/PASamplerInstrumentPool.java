@@ -21,9 +21,14 @@ package net.paulhertz.pixelaudio.sampler;
 import ddf.minim.AudioOutput;
 import ddf.minim.MultiChannelBuffer;
 import net.paulhertz.pixelaudio.schedule.AudioSampleClock;
+import net.paulhertz.pixelaudio.schedule.AudioScheduler;
 import net.paulhertz.pixelaudio.schedule.AudioUtility;
+import net.paulhertz.pixelaudio.schedule.EngineMetrics;
+import net.paulhertz.pixelaudio.schedule.GestureSchedule;
+import net.paulhertz.pixelaudio.schedule.PATransport;
 
 import java.util.*;
+import java.util.function.LongSupplier;
 
 /**
  * Manages a group of PASamplerInstruments sharing the same source buffer
@@ -41,6 +46,10 @@ import java.util.*;
  *  <li>Voice stealing via release or stop()</li>
  *  <li>Looping detection</li>
  *  <li>Thread-safe access</li>
+ *  <li>Optional shared {@link PASamplerMixer}: one UGen, voice array, scheduler and
+ *      limiter for the whole pool, with each instrument reduced to a parameter set</li>
+ *  <li>Scheduling in {@link PATransport} time, on the pool's own transport or one shared
+ *      with other engines</li>
  * </ul>
  */
 public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, AudioSampleClock {
@@ -50,8 +59,8 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
 	
     /** Audio output shared by all instruments in this pool. */
     private final AudioOutput out;
-    /** Shared source buffer for pooled instruments. */
-    private MultiChannelBuffer buffer;
+    /** Shared, immutable source buffer played by every pooled instrument. */
+    private PASampleBuffer sampleBuffer;
 
     /** Instruments managed by this pool. */
     private final List<PASamplerInstrument> pool = new ArrayList<>();
@@ -82,19 +91,46 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
 	/** Pool-wide sampler mix profile propagated to pooled instruments. */
 	private volatile PASharedBufferSampler.MixProfile mixProfile =
 	        PASharedBufferSampler.MixProfile.BALANCED;
+
+	/** Soft limiter curve propagated to pooled instruments. */
+	private volatile ClipMode clipMode = ClipMode.SOFTSIGN;
 	
 	/** True to wrap finite sampler events across the source-buffer boundary. */
 	private volatile boolean wrapAround = false;
 
+	/** Buffer read kernel propagated to pooled instruments. */
+	private volatile SampleInterpolation interpolation = SampleInterpolation.TRUNCATE;
+
+	/** Voice steal policy propagated to pooled instruments. */
+	private volatile VoiceAllocator.StealPolicy stealPolicy = VoiceAllocator.StealPolicy.OLDEST;
+
+	// Scheduling against a shared clock
+	/** Transport every pooled engine follows; absolute sample times given to the pool are transport times. */
+	private PATransport transport;
+	/** True when the pool created {@link #transport} and detaches it on close. */
+	private boolean ownsTransport = false;
+	/** Wall-clock source for {@link #schedulePlayAtMillis}; Processing sketches may pass {@code this::millis}. */
+	private LongSupplier millisSource = System::currentTimeMillis;
+	/** Policy for events whose start time has already passed. */
+	private AudioScheduler.LatePolicy latePolicy = AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START;
+	/** Late events caught by the pool before they reach a sampler; written under this monitor. */
+	private final EngineMetrics scheduleMetrics = new EngineMetrics("PASamplerInstrumentPool", 1, 0f);
+
+	/** Round-robin start index for {@link #getAvailableInstrument()}. */
+	private int nextInstrument = 0;
+
+	/** Shared mixer for all instruments, or null when each instrument owns its own sampler UGen. */
+	private PASamplerMixer mixer = null;
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
 
     /**
      * Full backward-compatible constructor with a MultiChannelBuffer argument. Envelope is
-     * supplied, pitch and pan default to globalPitch and globalPan. Note that the MultiChannelBuffer
-     * we supply is not copied, we use it directly for storage. Calling applications should not 
-     * modify the buffer. 
+     * supplied, pitch and pan default to globalPitch and globalPan. Channel 0 of the MultiChannelBuffer
+     * is copied once into a {@link PASampleBuffer} that all instruments share, so the calling
+     * application may go on editing the MultiChannelBuffer without affecting playback.
      *
      * @param buffer               shared MultiChannelBuffer
      * @param sampleRate           nominal sample rate of the buffer (Hz)
@@ -110,7 +146,7 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
     		AudioOutput out,
     		ADSRParams defaultEnv) {
     	this.out = out;
-    	this.buffer = buffer;
+    	this.sampleBuffer = PASampleBuffer.copyOf(buffer, sampleRate);
     	this.poolSize = Math.max(1, poolSize);
     	this.maxVoices = perInstrumentVoices;
     	this.bufferSampleRate = sampleRate;
@@ -121,6 +157,66 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
     	this.globalPan = 0.0f;
     	// Initialize instrument pool
     	initPool();
+    	initTransport();
+    }
+
+    /**
+     * Full constructor with a choice of mixing architecture. When {@code sharedMixer} is true,
+     * all instruments play through a single {@link PASamplerMixer} patched to {@code out}: one
+     * UGen, one voice array, one scheduler and one limiter, so per-sample cost scales with the
+     * number of sounding voices rather than the number of instruments. When false, this is the
+     * same as {@link #PASamplerInstrumentPool(MultiChannelBuffer, float, int, int, AudioOutput, ADSRParams)}.
+     *
+     * @param buffer               shared MultiChannelBuffer
+     * @param sampleRate           nominal sample rate of the buffer (Hz)
+     * @param poolSize             number of instruments in the pool
+     * @param perInstrumentVoices  number of voices per instrument
+     * @param out                  AudioOutput to patch the mixer or instruments into
+     * @param defaultEnv           default ADSR envelope for all instruments
+     * @param sharedMixer          true to mix all instruments in one shared UGen
+     */
+    public PASamplerInstrumentPool(MultiChannelBuffer buffer,
+    		float sampleRate,
+    		int poolSize,
+    		int perInstrumentVoices,
+    		AudioOutput out,
+    		ADSRParams defaultEnv,
+    		boolean sharedMixer) {
+    	this(PASampleBuffer.copyOf(buffer, sampleRate), poolSize, perInstrumentVoices, out, defaultEnv, sharedMixer);
+    }
+
+    /**
+     * Constructor over a shared, immutable sample buffer. The buffer is not copied: every
+     * instrument, and any other pool constructed over the same buffer, reads the same data.
+     * Otherwise the same as
+     * {@link #PASamplerInstrumentPool(MultiChannelBuffer, float, int, int, AudioOutput, ADSRParams, boolean)}.
+     *
+     * @param sampleBuffer         shared source buffer; its sample rate is the buffer sample rate
+     * @param poolSize             number of instruments in the pool
+     * @param perInstrumentVoices  number of voices per instrument
+     * @param out                  AudioOutput to patch the mixer or instruments into
+     * @param defaultEnv           default ADSR envelope for all instruments
+     * @param sharedMixer          true to mix all instruments in one shared UGen
+     */
+    public PASamplerInstrumentPool(PASampleBuffer sampleBuffer,
+    		int poolSize,
+    		int perInstrumentVoices,
+    		AudioOutput out,
+    		ADSRParams defaultEnv,
+    		boolean sharedMixer) {
+    	this.out = out;
+    	this.sampleBuffer = Objects.requireNonNull(sampleBuffer, "sampleBuffer");
+    	this.poolSize = Math.max(1, poolSize);
+    	this.maxVoices = Math.max(1, perInstrumentVoices);
+    	this.bufferSampleRate = sampleBuffer.sampleRate();
+    	this.outputSampleRate = (out != null) ? out.sampleRate() : bufferSampleRate;
+    	this.outputBufferSize = (out != null) ? out.bufferSize() : 1024;
+    	this.defaultEnv = (defaultEnv != null) ? defaultEnv : new ADSRParams(0.8f, 0.01f, 0.2f, 0.8f, 0.3f);
+    	if (sharedMixer) {
+    		this.mixer = new PASamplerMixer(out, this.poolSize * this.maxVoices);
+    	}
+    	initPool();
+    	initTransport();
     }
 
     /**
@@ -137,13 +233,14 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
     		float bufferSampleRate,
     		ADSRParams env) {
         this.out = out;
-        this.buffer = buffer;
+        this.sampleBuffer = PASampleBuffer.copyOf(buffer, bufferSampleRate);
         this.poolSize = Math.max(1, poolSize);
         this.bufferSampleRate = bufferSampleRate;
         this.defaultEnv = (env != null) ? env : new ADSRParams(1f, 0.01f, 0.2f, 0.8f, 0.3f);
         this.outputSampleRate = (out != null) ? out.sampleRate() : bufferSampleRate;
         this.outputBufferSize = (out != null) ? out.bufferSize() : 1024;
         initPool();
+        initTransport();
     }
 
     /**
@@ -162,14 +259,53 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
     private synchronized void initPool() {
         pool.clear();
         for (int i = 0; i < poolSize; i++) {
-            PASamplerInstrument inst = new PASamplerInstrument(buffer, bufferSampleRate, maxVoices, out, defaultEnv);
-            inst.setPitchScale(globalPitch);
-            inst.setGlobalPan(globalPan);
-            inst.setParentGain(poolGain);
-            inst.setMixProfile(mixProfile);
-            inst.setWrapAround(wrapAround);
-            pool.add(inst);
+            pool.add(createInstrument());
+        }
+    }
+
+    /**
+     * Creates the pool's own transport, driven by the output when there is one, and subscribes
+     * every pooled engine to it.
+     */
+    private void initTransport() {
+        transport = (out != null) ? new PATransport(out) : new PATransport(outputSampleRate);
+        ownsTransport = true;
+        applyTransport();
+    }
+
+    /** Subscribes the shared mixer, or each instrument's own sampler, to {@link #transport}. */
+    private void applyTransport() {
+        if (mixer != null) {
+            mixer.setTransport(transport);
+            return;
+        }
+        for (PASamplerInstrument inst : pool) inst.setTransport(transport);
+    }
+
+    /**
+     * Creates one instrument configured with the pool-wide settings. In shared-mixer mode the
+     * instrument's sampler is a {@link PASamplerMixer.Channel} of the pool's mixer.
+     */
+    private PASamplerInstrument createInstrument() {
+        PASamplerInstrument inst;
+        if (mixer != null) {
+            PASamplerMixer.Channel ch = mixer.createChannel(sampleBuffer, maxVoices);
+            inst = new PASamplerInstrument(sampleBuffer, out, ch, defaultEnv);
+        }
+        else {
+            inst = new PASamplerInstrument(sampleBuffer, maxVoices, out, defaultEnv);
+            if (transport != null) inst.setTransport(transport);
         }
+        inst.setPitchScale(globalPitch);
+        inst.setGlobalPan(globalPan);
+        inst.setParentGain(poolGain);
+        inst.setMixProfile(mixProfile);
+        inst.setClipMode(clipMode);
+        inst.setWrapAround(wrapAround);
+        inst.setInterpolation(interpolation);
+        inst.setStealPolicy(stealPolicy);
+        inst.setLatePolicy(latePolicy);
+        return inst;
     }
 
     // ------------------------------------------------------------------------
@@ -178,18 +314,26 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
 
     /**
      * Find a free instrument; if no free instrument find least-busy; otherwise smooth-steal one.
+     *
+     * <p>The search starts at a round-robin cursor, so consecutive triggers land on different
+     * instruments and the first candidate is usually free. Each check reads a voice count
+     * published by the audio thread, so it is constant time per instrument.</p>
      */
     private synchronized PASamplerInstrument getAvailableInstrument() {
     	PASamplerInstrument free = null;
     	PASamplerInstrument leastBusy = null;
     	int leastCount = Integer.MAX_VALUE;
-    	for (PASamplerInstrument inst : pool) {
-    		if (!inst.hasActiveOrReleasingVoices()) {
+    	final int n = pool.size();
+    	for (int k = 0; k < n; k++) {
+    		int i = (nextInstrument + k) % n;
+    		PASamplerInstrument inst = pool.get(i);
+    		int c = inst.activeOrReleasingVoiceCount();
+    		if (c == 0) {
     			free = inst;
+    			nextInstrument = (i + 1) % n;
     			break;
     		}
     		// track least busy in case none are free
-    		int c = inst.activeOrReleasingVoiceCount();
     		if (c < leastCount) {
     			leastCount = c;
     			leastBusy = inst;
@@ -262,9 +406,7 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
      */
     public synchronized void startAtSampleTime(int samplePos, int sampleLen, float amplitude,
             ADSRParams env, float pitch, float pan, long startSample) {
-        PASamplerInstrument inst = getAvailableInstrument();
-        if (inst == null) return;
-        inst.startAtSampleTime(samplePos, sampleLen, amplitude, env, pitch, pan, startSample);
+        scheduleAtClockSample(startSample, samplePos, sampleLen, amplitude, env, pitch, pan);
     }
 
     /**
@@ -292,16 +434,14 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
     }
 
     /**
-     * Returns a representative sample clock from the first pooled instrument.
-     *
-     * <p>All instruments are patched to the same output when the pool is constructed, but
-     * callers that need cross-engine alignment should still choose one transport clock and
-     * pass absolute sample times to every instrument.</p>
+     * Returns the current sample time of the pooled engines, in transport time: the shared
+     * mixer's clock, or the first instrument's.
      *
-     * @return current sample clock, or 0 if the pool is empty
+     * @return current sample time, or 0 if the pool is empty
      */
     @Override
     public synchronized long getCurrentSampleTime() {
+        if (mixer != null) return mixer.getCurrentSampleTime();
         return pool.isEmpty() ? 0L : pool.get(0).getCurrentSampleTime();
     }
 
@@ -477,80 +617,73 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
     // ------------------------------------------------------------------------
     
     /**
-     * Swap the pool's shared buffer; keeps existing bufferSampleRate.
+     * Swap the pool's shared buffer; keeps existing bufferSampleRate. Channel 0 is copied once
+     * into a {@link PASampleBuffer} shared by every instrument. Voices already sounding finish
+     * on the old data.
      * 
      * @param newBuffer    a new MultiChannelBuffer as audio source for this instrument
      * 
      */
     public synchronized void setBuffer(MultiChannelBuffer newBuffer) {
         if (newBuffer == null) return;       
-        // Ensure channel count matches to avoid hidden exceptions in Minim
-        if (this.buffer.getChannelCount() != newBuffer.getChannelCount() ||
-            this.buffer.getBufferSize()  != newBuffer.getBufferSize()) {
-            // Different shape: replace instead of set()
-        	this.buffer = new MultiChannelBuffer(newBuffer.getBufferSize(), newBuffer.getChannelCount());
-            this.buffer.set(newBuffer);
-        } 
-        else {
-            this.buffer.set(newBuffer); // fast path
-        }
-        for (PASamplerInstrument inst : pool) {
-            inst.setBuffer(newBuffer);
-        }
-        propagateParentGain();
+        setBuffer(PASampleBuffer.copyOf(newBuffer, bufferSampleRate));
     }
 
     /**
-     * Swap the pool's shared buffer and update its buffer sample rate.
+     * Swap the pool's shared buffer and update its buffer sample rate. Channel 0 is copied
+     * once into a {@link PASampleBuffer} shared by every instrument. Voices already sounding
+     * finish on the old data.
      * 
      * @param newBuffer   a new MultiChannelBuffer as audio source for this instrument
      * @param newBufferSampleRate sample rate of the replacement buffer in Hz
      */
     public synchronized void setBuffer(MultiChannelBuffer newBuffer, float newBufferSampleRate) {
         if (newBuffer == null) return;
-        // Ensure channel count matches to avoid hidden exceptions in Minim
-        if (this.buffer.getChannelCount() != newBuffer.getChannelCount() ||
-            this.buffer.getBufferSize()  != newBuffer.getBufferSize()) {
-            // Different shape: replace instead of set()
-            this.buffer = new MultiChannelBuffer(newBuffer.getBufferSize(), newBuffer.getChannelCount());
-            this.buffer.set(newBuffer);
-        } 
-        else {
-            this.buffer.set(newBuffer); // fast path
-        }
-        this.bufferSampleRate = newBufferSampleRate;
-        for (PASamplerInstrument inst : pool) {
-            inst.setBuffer(newBuffer, newBufferSampleRate);
-        }
-        propagateParentGain();
+        setBuffer(PASampleBuffer.copyOf(newBuffer, newBufferSampleRate));
     }
     
     /**
-     * Propagate a new float[] buffer to all instruments in this pool.
+     * Propagate a new float[] buffer to all instruments in this pool. The array is copied
+     * once into a {@link PASampleBuffer} shared by every instrument.
      *
      * @param newBuffer   replacement mono source buffer
      * @param newBufferSampleRate sample rate of the replacement buffer in Hz
      */
     public synchronized void setBuffer(float[] newBuffer, float newBufferSampleRate) {
     	if (newBuffer == null || newBuffer.length == 0) return;
-    	if (newBuffer.length != this.buffer.getBufferSize()) {
-    		this.buffer = new MultiChannelBuffer(newBuffer.length, 1);
-    	}
-    	else {
-    		this.buffer.setChannel(0, newBuffer);
-    	}
-    	this.bufferSampleRate = newBufferSampleRate;
+    	setBuffer(PASampleBuffer.copyOf(newBuffer, newBufferSampleRate));
+    }
+
+    /**
+     * Swap in a shared, immutable buffer for every instrument in this pool. Nothing is copied
+     * and nothing is stopped: voices already sounding finish on the buffer they started with,
+     * and notes started after the swap play the new one. Reloading a long sample during a
+     * performance therefore costs neither a copy nor a dropout.
+     *
+     * @param newBuffer   shared source buffer; its sample rate becomes the buffer sample rate
+     */
+    public synchronized void setBuffer(PASampleBuffer newBuffer) {
+    	if (newBuffer == null) return;
+    	this.sampleBuffer = newBuffer;
+    	if (newBuffer.sampleRate() > 0f) this.bufferSampleRate = newBuffer.sampleRate();
     	for (PASamplerInstrument inst : pool) {
-    		inst.setBuffer(newBuffer, newBufferSampleRate);
+    		inst.setBuffer(newBuffer);
     	}
     	propagateParentGain();
     }
 
+    /** @return shared source buffer played by the pooled instruments */
+    public synchronized PASampleBuffer getSampleBuffer() { return sampleBuffer; }
+
     /** Re-sync instruments to current AudioOutput sample rate (if output device changes). */
     public synchronized void updateRateFromOutput() {
         if (out == null) return;
         this.outputSampleRate = out.sampleRate();
         this.outputBufferSize = out.bufferSize();
+        if (ownsTransport && transport.getSampleRate() != outputSampleRate) {
+            transport.detach();
+            initTransport();
+        }
         for (PASamplerInstrument inst : pool) {
             inst.setOutputSampleRate(outputSampleRate);
         }
@@ -603,6 +736,24 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
         }
     }
 
+    /**
+     * Sets the soft limiter curve for every instrument in the pool.
+     *
+     * @param mode   SOFTSIGN (default), TABLE or CUBIC
+     */
+    public synchronized void setClipMode(ClipMode mode) {
+        if (mode == null) return;
+        this.clipMode = mode;
+        for (PASamplerInstrument inst : pool) {
+            inst.setClipMode(mode);
+        }
+    }
+
+    /** @return the pool-wide soft limiter curve */
+    public synchronized ClipMode getClipMode() {
+        return clipMode;
+    }
+
     /**
      * @return the pool-wide sampler mix profile
      */
@@ -664,6 +815,45 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
         reinitInstruments();
     }
     
+    /**
+     * Sets the voice steal policy for all pooled instruments.
+     *
+     * @param policy   OLDEST, QUIETEST, or SAME_PITCH
+     */
+    public synchronized void setStealPolicy(VoiceAllocator.StealPolicy policy) {
+        if (policy == null) return;
+        this.stealPolicy = policy;
+        for (PASamplerInstrument inst : pool) {
+            if (inst != null) inst.setStealPolicy(policy);
+        }
+    }
+
+    /** @return voice steal policy used by pooled instruments */
+    public synchronized VoiceAllocator.StealPolicy getStealPolicy() { return stealPolicy; }
+
+    /**
+     * Sets the buffer read kernel for all pooled instruments. Pitched playback with LINEAR,
+     * HERMITE or SINC avoids the aliasing of TRUNCATE, so transposed copies of a buffer are
+     * not needed.
+     *
+     * @param mode   interpolation mode
+     */
+    public synchronized void setInterpolation(SampleInterpolation mode) {
+        this.interpolation = (mode != null) ? mode : SampleInterpolation.TRUNCATE;
+        for (PASamplerInstrument inst : pool) {
+            if (inst != null) inst.setInterpolation(this.interpolation);
+        }
+    }
+
+    /** @return buffer read kernel used by pooled instruments */
+    public synchronized SampleInterpolation getInterpolation() { return interpolation; }
+
+    /** @return true when all instruments play through one shared {@link PASamplerMixer} */
+    public boolean isSharedMixer() { return mixer != null; }
+
+    /** @return the shared mixer, or null when each instrument owns its own sampler UGen */
+    public PASamplerMixer getMixer() { return mixer; }
+
     /** @return number of instruments in the pool */
     public synchronized int getPoolSize() { return pool.size(); }
     /**
@@ -697,13 +887,7 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
         // --- Grow the pool ---
         if (poolSize > currentSize) {
             for (int i = currentSize; i < poolSize; i++) {
-                PASamplerInstrument inst = new PASamplerInstrument(buffer, bufferSampleRate, maxVoices, out, defaultEnv);
-                inst.setPitchScale(globalPitch);
-                inst.setGlobalPan(globalPan);
-                inst.setParentGain(poolGain);
-                inst.setMixProfile(mixProfile);
-                inst.setWrapAround(wrapAround);
-                pool.add(inst);
+                pool.add(createInstrument());
             }
         }
         // --- Shrink the pool ---
@@ -713,6 +897,7 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
                 PASamplerInstrument inst = pool.get(i);
                 inst.stop();
                 inst.close();
+                removeChannel(inst);
             }
             // Trim the list
             while (pool.size() > poolSize) {
@@ -721,6 +906,7 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
         }
         // Update shared parameters on all instruments
         for (PASamplerInstrument inst : pool) {
+            inst.setMaxVoices(maxVoices);
             inst.setDefaultEnv(defaultEnv);
             inst.setPitchScale(globalPitch);
             inst.setGlobalPan(globalPan);
@@ -730,37 +916,164 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
         }
     }
 
+    /** Returns a discarded instrument's voices and voice budget to the shared mixer. */
+    private void removeChannel(PASamplerInstrument inst) {
+        if (mixer != null && inst.getSampler() instanceof PASamplerMixer.Channel ch) {
+            mixer.removeChannel(ch);
+        }
+    }
+
     /** @return mutable list of pooled instruments */
     public List<PASamplerInstrument> getInstruments() {
         return pool;
     }
 
     // ------------------------------------------------------------------------
-    // TimedLocation hooks (stubs)
+    // Scheduling against a shared clock
     // ------------------------------------------------------------------------
 
-	/**
-	 * Hook: schedule by future wallclock milliseconds; will be wired to TimedLocation later.
-	 *
-	 * @param triggerTimeMillis   future trigger time in milliseconds
-	 * @param samplePos           buffer index to start playback
-	 * @param sampleLen           requested duration in samples
-	 * @param amplitude           gain multiplier
-	 * @param env                 optional ADSR envelope
-	 * @param pitch               pitch or playback-rate multiplier
-	 * @param pan                 stereo pan
-	 */
+    /**
+     * Subscribes every pooled engine to a shared transport. Absolute sample times passed to
+     * this pool, and the conversions from milliseconds and audio frames, are then in that
+     * transport's time, so the pool stays aligned with every other engine that follows it.
+     * Pass null to go back to the pool's own transport, which it creates on its output.
+     *
+     * @param transport   shared transport, or null
+     */
+    public synchronized void setTransport(PATransport transport) {
+        if (transport != null && transport == this.transport) return;
+        if (ownsTransport) this.transport.detach();
+        if (transport == null) {
+            initTransport();
+            return;
+        }
+        this.transport = transport;
+        this.ownsTransport = false;
+        applyTransport();
+    }
+
+    /**
+     * Returns the transport the pooled engines follow. Unless {@link #setTransport} was called,
+     * this is the pool's own transport, driven by its output; offline code without an output
+     * drives it with {@link PATransport#advance(int)}.
+     *
+     * @return transport of this pool
+     */
+    public synchronized PATransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the millisecond time source used to interpret {@link #schedulePlayAtMillis} times.
+     * The default is {@code System::currentTimeMillis}; a Processing sketch that computes
+     * trigger times from {@code millis()} should pass {@code this::millis}.
+     *
+     * @param source   millisecond time source
+     */
+    public synchronized void setMillisSource(LongSupplier source) {
+        this.millisSource = Objects.requireNonNull(source, "source");
+    }
+
+    /**
+     * Sets how events whose start time has already passed are handled. With DROP they are
+     * discarded; with CLAMP_TO_BLOCK_START (the default) they start as soon as possible. The
+     * policy is applied when an event is scheduled and again by each sampler's scheduler, so
+     * events that become late in transit are treated the same way.
+     *
+     * @param policy   late-event policy
+     */
+    public synchronized void setLatePolicy(AudioScheduler.LatePolicy policy) {
+        this.latePolicy = Objects.requireNonNull(policy, "policy");
+        for (PASamplerInstrument inst : pool) {
+            if (inst != null) inst.setLatePolicy(policy);
+        }
+    }
+
+    /** @return late-event policy */
+    public synchronized AudioScheduler.LatePolicy getLatePolicy() { return latePolicy; }
+
+    /**
+     * Combines the metrics of every engine behind this pool: the shared mixer, or each
+     * instrument's own sampler. Late and rejected events caught by the pool's own scheduling
+     * calls are added in, so the totals cover every requested note.
+     *
+     * @return combined, immutable metrics snapshot
+     */
+    public synchronized EngineMetrics.Snapshot getMetricsSnapshot() {
+        Set<EngineMetrics> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<EngineMetrics.Snapshot> parts = new ArrayList<>();
+        for (PASamplerInstrument inst : pool) {
+            EngineMetrics m = (inst != null) ? inst.getMetrics() : null;
+            if (m != null && seen.add(m)) parts.add(m.snapshot());
+        }
+        parts.add(scheduleMetrics.snapshot());
+        return EngineMetrics.Snapshot.combine("PASamplerInstrumentPool",
+                parts.toArray(new EngineMetrics.Snapshot[0]));
+    }
+
+    /** Resets the metrics of every engine behind this pool. */
+    public synchronized void resetMetrics() {
+        for (PASamplerInstrument inst : pool) {
+            EngineMetrics m = (inst != null) ? inst.getMetrics() : null;
+            if (m != null) m.reset();
+        }
+        scheduleMetrics.reset();
+    }
+
+
+    /**
+     * Converts a time from the millisecond source to a transport sample time: the transport's
+     * estimate of the sample being heard now, plus the distance to {@code timeMillis}.
+     *
+     * @param timeMillis   time from the millisecond source
+     * @return transport sample time
+     */
+    public synchronized long millisToSampleTime(long timeMillis) {
+        return transport.estimateSampleTime() + transport.millisToSamples(timeMillis - millisSource.getAsLong());
+    }
+
+    /**
+     * Converts an audio-frame index (one AudioOutput callback) to a transport sample time.
+     * The transport counts output buffers, so frame 0 is the first buffer it counted and
+     * {@link #getFrameIndex()} is the frame being rendered now.
+     *
+     * @param frameIndex   audio callback index
+     * @return transport sample time
+     */
+    public synchronized long frameToSampleTime(long frameIndex) {
+        return frameIndex * (long) outputBufferSize;
+    }
+
+    /** @return index of the output buffer being rendered, counted on the transport */
+    public synchronized long getFrameIndex() {
+        return transport.getCurrentSampleTime() / outputBufferSize;
+    }
+
+    /**
+     * Schedule playback at a wall-clock time in milliseconds, as reported by the millisecond
+     * source (see {@link #setMillisSource(LongSupplier)}). The time is converted to a
+     * transport sample and queued on the chosen instrument's sampler, so the voice
+     * starts on the exact sample rather than at the next Processing frame.
+     *
+     * @param triggerTimeMillis   future trigger time in milliseconds
+     * @param samplePos           buffer index to start playback
+     * @param sampleLen           requested duration in samples
+     * @param amplitude           gain multiplier
+     * @param env                 optional ADSR envelope
+     * @param pitch               pitch or playback-rate multiplier
+     * @param pan                 stereo pan
+     */
     public synchronized void schedulePlayAtMillis(long triggerTimeMillis,
                                                   int samplePos, int sampleLen,
                                                   float amplitude, ADSRParams env,
                                                   float pitch, float pan) 
     {
-        // Stub: immediate play for now. TimedLocation will call into here later.
-        playSample(samplePos, sampleLen, amplitude, env, pitch, pan);
+        scheduleAtClockSample(millisToSampleTime(triggerTimeMillis),
+                samplePos, sampleLen, amplitude, env, pitch, pan);
     }
 
     /**
-     * Hook: schedule by audio-frame index (frame = one AudioOutput callback).
+     * Schedule playback at the start of an audio-frame index (frame = one AudioOutput callback).
      *
      * @param frameIndex  future audio callback frame index
      * @param samplePos   buffer index to start playback
@@ -775,8 +1088,92 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
                                                  float amplitude, ADSRParams env,
                                                  float pitch, float pan)
     {
-        // Stub: immediate play for now. TimedLocation will call into here later.
-        playSample(samplePos, sampleLen, amplitude, env, pitch, pan);
+        scheduleAtClockSample(frameToSampleTime(frameIndex),
+                samplePos, sampleLen, amplitude, env, pitch, pan);
+    }
+
+    /**
+     * Schedules every point of a gesture in one call. Point {@code i} starts at
+     * {@code startSample + timesMs[i]} (converted to samples) and plays from
+     * {@code samplePositions[i]}. Every pooled engine follows the pool's transport, so all
+     * events share one time base and their spacing is sample-exact.
+     *
+     * @param schedule          gesture timing; only {@code timesMs} is read
+     * @param samplePositions   buffer index for each gesture point, typically from a PixelAudioMapper
+     * @param startSample       transport sample time of the gesture's time zero
+     * @param sampleLen         requested duration of each event in samples
+     * @param amplitude         gain multiplier
+     * @param env               optional ADSR envelope
+     * @param pitch             pitch or playback-rate multiplier
+     * @param pan               stereo pan
+     * @return number of events scheduled (late events dropped under DROP are not counted)
+     */
+    public synchronized int scheduleGesture(GestureSchedule schedule, int[] samplePositions,
+            long startSample, int sampleLen, float amplitude, ADSRParams env, float pitch, float pan) {
+        if (schedule == null || samplePositions == null || pool.isEmpty()) return 0;
+        final float[] times = schedule.timesMs;
+        final int n = Math.min(times.length, samplePositions.length);
+        final long now = getCurrentSampleTime();
+        final double samplesPerMs = outputSampleRate / 1000.0;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            long t = startSample + Math.round(times[i] * samplesPerMs);
+            if (t < now) {
+                scheduleMetrics.recordLateEvent(latePolicy == AudioScheduler.LatePolicy.DROP);
+                if (latePolicy == AudioScheduler.LatePolicy.DROP) continue;
+                t = now;
+            }
+            PASamplerInstrument inst = getAvailableInstrument();
+            if (inst == null) {
+                scheduleMetrics.recordRejected();
+                continue;
+            }
+            inst.startAtSampleTime(samplePositions[i], sampleLen, amplitude, env, pitch, pan, t);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Schedules every point of a gesture starting at the schedule's {@code startTimeMs} on the
+     * millisecond source, or now if it is 0.
+     *
+     * @param schedule          gesture timing
+     * @param samplePositions   buffer index for each gesture point
+     * @param sampleLen         requested duration of each event in samples
+     * @param amplitude         gain multiplier
+     * @param env               optional ADSR envelope
+     * @param pitch             pitch or playback-rate multiplier
+     * @param pan               stereo pan
+     * @return number of events scheduled
+     */
+    public synchronized int scheduleGestureAtMillis(GestureSchedule schedule, int[] samplePositions,
+            int sampleLen, float amplitude, ADSRParams env, float pitch, float pan) {
+        if (schedule == null) return 0;
+        long startMs = (schedule.getStartTimeMs() != 0) ? schedule.getStartTimeMs() : millisSource.getAsLong();
+        return scheduleGesture(schedule, samplePositions, millisToSampleTime(startMs),
+                sampleLen, amplitude, env, pitch, pan);
+    }
+
+    /**
+     * Core scheduling path: applies the late policy, picks an instrument, and queues the
+     * transport-time start on its sampler.
+     */
+    private boolean scheduleAtClockSample(long clockSample, int samplePos, int sampleLen,
+            float amplitude, ADSRParams env, float pitch, float pan) {
+        long now = getCurrentSampleTime();
+        if (clockSample < now) {
+            scheduleMetrics.recordLateEvent(latePolicy == AudioScheduler.LatePolicy.DROP);
+            if (latePolicy == AudioScheduler.LatePolicy.DROP) return false;
+            clockSample = now;
+        }
+        PASamplerInstrument inst = getAvailableInstrument();
+        if (inst == null) {
+            scheduleMetrics.recordRejected();
+            return false;
+        }
+        inst.startAtSampleTime(samplePos, sampleLen, amplitude, env, pitch, pan, clockSample);
+        return true;
     }
 
     // ------------------------------------------------------------------------
@@ -799,9 +1196,12 @@ public class PASamplerInstrumentPool implements PASamplerPlayable, PAPlayable, A
     	stopAll();
     	for (PASamplerInstrument inst : pool) {
     		inst.close();
+    		removeChannel(inst);
     	}
+    	if (mixer != null && out != null) mixer.unpatch(out);
+    	if (ownsTransport) transport.detach();
     	pool.clear();
-    	buffer = null;    // necessary?
+    	sampleBuffer = null;
     	isClosed = true;
     }
 
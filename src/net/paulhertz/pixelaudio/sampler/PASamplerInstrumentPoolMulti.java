@@ -441,28 +441,39 @@ public class PASamplerInstrumentPoolMulti implements PASamplerPlayable, PAPlayab
     }
 
     /**
-     * Propagate new buffer and sample rate to all sub-pools.
+     * Propagate new buffer and sample rate to all sub-pools. Channel 0 is copied once and
+     * shared by every sub-pool.
      *
      * @param newBuffer       replacement source buffer
      * @param newSampleRate   sample rate of the replacement buffer in Hz
      */
     public synchronized void setBuffer(MultiChannelBuffer newBuffer, float newSampleRate) {
         if (newBuffer == null) return;
-        for (PASamplerInstrumentPool p : pools.values()) {
-            p.setBuffer(newBuffer, newSampleRate);
-        }
+        setBuffer(PASampleBuffer.copyOf(newBuffer, newSampleRate));
     }
 
     /**
-     * Propagate float[] buffer to all sub-pools (mono assumption).
+     * Propagate float[] buffer to all sub-pools (mono assumption). The array is copied once
+     * and shared by every sub-pool.
      *
      * @param newBuffer       replacement mono source buffer
      * @param newSampleRate   sample rate of the replacement buffer in Hz
      */
     public synchronized void setBuffer(float[] newBuffer, float newSampleRate) {
         if (newBuffer == null || newBuffer.length == 0) return;
+        setBuffer(PASampleBuffer.copyOf(newBuffer, newSampleRate));
+    }
+
+    /**
+     * Propagate a shared, immutable buffer to all sub-pools without copying. Voices already
+     * sounding finish on the buffer they started with.
+     *
+     * @param newBuffer       shared source buffer
+     */
+    public synchronized void setBuffer(PASampleBuffer newBuffer) {
+        if (newBuffer == null) return;
         for (PASamplerInstrumentPool p : pools.values()) {
-            p.setBuffer(newBuffer, newSampleRate);
+            p.setBuffer(newBuffer);
         }
     }
 
@@ -0,0 +1,955 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.sampler;
+
+import ddf.minim.AudioOutput;
+import ddf.minim.UGen;
+import net.paulhertz.pixelaudio.schedule.AudioCommandQueue;
+import net.paulhertz.pixelaudio.schedule.AudioScheduler;
+import net.paulhertz.pixelaudio.schedule.AudioUtility;
+import net.paulhertz.pixelaudio.schedule.EngineMetrics;
+import net.paulhertz.pixelaudio.schedule.PATransport;
+
+import java.util.*;
+
+/**
+ * Single UGen that mixes the voices of many sampler instruments.
+ *
+ * <p>In the default configuration every {@link PASamplerInstrument} in a
+ * {@link PASamplerInstrumentPool} owns its own {@link PASharedBufferSampler}, so a pool of 16
+ * instruments is 16 UGens, each with its own scheduler, command ring and limiter, all summed by
+ * Minim. {@code PASamplerMixer} replaces those with one voice array, one
+ * {@link AudioScheduler}, one command ring and one limiter. Each instrument is reduced to a
+ * {@link Channel}: a lightweight {@link PASampler} that holds the instrument's buffer, sample
+ * rate, voice limit and gain, and forwards playback requests to the shared mixer.</p>
+ *
+ * <p>The mixer keeps a list of sounding voices and a stack of free voices, so the audio
+ * callback touches only active voices: per-sample cost is O(active voices), independent of
+ * the number of channels. All channels share one sample clock.</p>
+ *
+ * <p>Channels come and go with their instruments: {@link #removeChannel(Channel)} frees a
+ * channel's voices and its share of the voice budget, and {@link Channel#setMaxVoices(int)}
+ * changes a channel's limit in place.</p>
+ *
+ * <p>Threading follows {@link PASharedBufferSampler}: control calls fill preallocated records
+ * in an {@link AudioCommandQueue} that the audio thread drains every
+ * {@link #CONTROL_BLOCK_SIZE} samples, and {@link #uGenerate(float[])} never takes a monitor.
+ * One {@link EngineMetrics} instance covers every channel; see {@link #getMetricsSnapshot()}.</p>
+ *
+ * @see PASamplerInstrumentPool#PASamplerInstrumentPool(ddf.minim.MultiChannelBuffer, float, int, int, AudioOutput, ADSRParams, boolean)
+ */
+public class PASamplerMixer extends UGen {
+    // ------------------------------------------------------------------------
+    // Internal scheduled-play payload
+    // ------------------------------------------------------------------------
+    private static final class ScheduledPlay {
+        final Channel channel;
+        final int generation;
+        final int samplePos;
+        final int sampleLen;
+        final float amplitude;
+        final ADSRParams env;
+        final float pitch;
+        final float pan;
+        final boolean looping;
+        final boolean wrapAround;
+
+        ScheduledPlay(Channel channel, int generation, int samplePos, int sampleLen, float amplitude,
+                ADSRParams env, float pitch, float pan, boolean looping, boolean wrapAround) {
+            this.channel = channel;
+            this.generation = generation;
+            this.samplePos = samplePos;
+            this.sampleLen = sampleLen;
+            this.amplitude = amplitude;
+            this.env = env;
+            this.pitch = pitch;
+            this.pan = pan;
+            this.looping = looping;
+            this.wrapAround = wrapAround;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Internal control command record, preallocated in the command ring
+    // ------------------------------------------------------------------------
+    private static final class Command {
+        static final int PLAY = 1;
+        static final int RELEASE_ALL = 2;
+        static final int STOP_ALL = 3;
+        static final int SWAP_BUFFER = 4;
+        static final int GROW = 5;
+        static final int REMOVE_CHANNEL = 6;
+
+        int type;
+        /** Target channel, or null for every channel. */
+        Channel channel;
+        int samplePos;
+        int sampleLen;
+        float amplitude;
+        ADSRParams env;
+        float pitch;
+        float pan;
+        boolean looping;
+        boolean wrapAround;
+        PASampleBuffer sampleBuffer;
+        PASamplerVoice[] voices;
+        Channel[] owners;
+        int[] active;
+        int[] free;
+
+        /** Drops object references so a recycled slot does not pin old state. */
+        void clearRefs() {
+            channel = null;
+            env = null;
+            sampleBuffer = null;
+            voices = null;
+            owners = null;
+            active = null;
+            free = null;
+        }
+    }
+
+    /** Number of samples between drains of the control command ring. */
+    public static final int CONTROL_BLOCK_SIZE = PASharedBufferSampler.CONTROL_BLOCK_SIZE;
+    private static final int CONTROL_BLOCK_MASK = CONTROL_BLOCK_SIZE - 1;
+    /** Capacity of the control command ring. */
+    private static final int COMMAND_CAPACITY = 2048;
+
+    /** Audio output this mixer is patched to. */
+    private final AudioOutput out;
+
+    // Voice table, owned by the audio thread. voices is volatile so control threads can inspect it.
+    private volatile PASamplerVoice[] voices;
+    private Channel[] owners;
+    private int[] activeList;
+    private int activeCount = 0;
+    private int[] freeStack;
+    private int freeCount = 0;
+    /** Voice capacity as seen by control threads; grows through GROW commands. */
+    private int requestedCapacity;
+    /** Sum of the voice limits of all live channels. */
+    private int assignedVoices = 0;
+
+    /** True to release stolen voices smoothly instead of stopping them immediately. */
+    private volatile boolean smoothSteal = true;
+    /** Smoothed mix-normalization gain. */
+    private float mixNorm = 1f;
+    /** Density normalization target, recomputed only when the density changes. */
+    private float densityNorm = 1f;
+    /** Voice density and exponent {@link #densityNorm} was computed for; audio thread only. */
+    private float densityWeight = 0f;
+    private float densityExponent = Float.NaN;
+    /** Soft limiter curve applied to the mixed output. */
+    private volatile ClipMode clipMode = ClipMode.SOFTSIGN;
+    /** Master linear gain applied to the mixed output. */
+    private volatile float masterGain = 1f;
+    private volatile PASharedBufferSampler.MixProfile mixProfile = PASharedBufferSampler.MixProfile.BALANCED;
+
+    /** Shared sample-accurate scheduler for all channels. */
+    private final AudioScheduler<ScheduledPlay> scheduler = new AudioScheduler<>();
+    private final AudioCommandQueue<Command> commands =
+            new AudioCommandQueue<>(COMMAND_CAPACITY, Command::new);
+    private final AudioCommandQueue.Handler<Command> commandHandler = this::executeCommand;
+    private final AudioScheduler.PointHandler<ScheduledPlay> scheduledStartHandler = (sp, offsetInBlock) -> {
+        if (sp.generation == sp.channel.scheduleGeneration) {
+            startVoice(sp.channel, sp.samplePos, sp.sampleLen, sp.amplitude, sp.env,
+                    sp.pitch, sp.pan, sp.looping, sp.wrapAround);
+        }
+    };
+
+    /** Absolute sample counter shared by every channel. */
+    private volatile long sampleCursor = 0L;
+    /** Maps {@link #sampleCursor} to a shared transport, or null for the local clock. */
+    private volatile PATransport.Follower transport;
+
+    /** Voice, trigger, timing and limiter metrics for all channels, written by the audio thread. */
+    private final EngineMetrics metrics;
+
+    /**
+     * Creates a shared mixer and patches it to {@code out}.
+     *
+     * @param out             target AudioOutput
+     * @param voiceCapacity   initial number of preallocated voices shared by all channels
+     */
+    public PASamplerMixer(AudioOutput out, int voiceCapacity) {
+        this.out = out;
+        int n = Math.max(1, voiceCapacity);
+        this.requestedCapacity = n;
+        this.voices = new PASamplerVoice[n];
+        this.owners = new Channel[n];
+        this.activeList = new int[n];
+        this.freeStack = new int[n];
+        for (int i = 0; i < n; i++) {
+            voices[i] = new PASamplerVoice(null, (out != null) ? out.sampleRate() : 44100f);
+        }
+        // push in reverse so voice 0 is handed out first
+        for (int i = n - 1; i >= 0; i--) freeStack[freeCount++] = i;
+        this.metrics = new EngineMetrics("PASamplerMixer", CONTROL_BLOCK_SIZE,
+                (out != null) ? out.sampleRate() : 44100f);
+        scheduler.setMetrics(metrics);
+        if (out != null) this.patch(out);
+    }
+
+    // ------------------------------------------------------------------------
+    // Channels
+    // ------------------------------------------------------------------------
+
+    /**
+     * Creates a channel: the parameter set for one instrument that plays through this mixer.
+     * Grows the shared voice array so that it holds at least the sum of all channel limits.
+     *
+     * @param buffer       mono source buffer for the channel (not copied)
+     * @param sampleRate   sample rate of the source buffer in Hz
+     * @param maxVoices    maximum simultaneous voices for the channel
+     * @return a new channel
+     */
+    public synchronized Channel createChannel(float[] buffer, float sampleRate, int maxVoices) {
+        return createChannel(PASampleBuffer.wrap(buffer, sampleRate), maxVoices);
+    }
+
+    /**
+     * Creates a channel over a shared sample buffer and makes room for its voices.
+     *
+     * @param buffer       shared source buffer for the channel; its rate sets the playback rate
+     * @param maxVoices    voice limit for the channel
+     * @return new channel
+     */
+    public synchronized Channel createChannel(PASampleBuffer buffer, int maxVoices) {
+        Channel ch = new Channel(this, buffer, Math.max(1, maxVoices));
+        assignedVoices += ch.maxVoices;
+        ensureVoiceCapacity(assignedVoices);
+        return ch;
+    }
+
+    /**
+     * Removes a channel from the mixer. Its voices are stopped and returned to the free list at
+     * the next control block, its pending scheduled starts are cancelled, its buffer is
+     * released, and its voice limit no longer counts toward the voice budget, so a later
+     * {@link #createChannel} can reuse the voices. A removed channel ignores further plays.
+     *
+     * @param ch   channel created by this mixer
+     * @return true if the channel was removed, false if it was not live on this mixer or the
+     *         command ring was full
+     */
+    public synchronized boolean removeChannel(Channel ch) {
+        if (ch == null || ch.mixer != this || ch.removed) return false;
+        // flag first, so a swap queued behind the removal is ignored by the audio thread
+        ch.removed = true;
+        if (!postChannelCommand(Command.REMOVE_CHANNEL, ch, null)) {
+            ch.removed = false;
+            return false;
+        }
+        ch.scheduleGeneration++;
+        assignedVoices -= ch.maxVoices;
+        return true;
+    }
+
+    /**
+     * Changes a channel's voice limit, growing the shared voice array when the budget rises.
+     * Voices already sounding above a lowered limit are stolen as new notes arrive.
+     */
+    private synchronized boolean resizeChannel(Channel ch, int maxVoices) {
+        if (ch.removed) return false;
+        int n = Math.max(1, maxVoices);
+        if (n == ch.maxVoices) return true;
+        if (!ensureVoiceCapacity(assignedVoices - ch.maxVoices + n)) return false;
+        assignedVoices += n - ch.maxVoices;
+        ch.maxVoices = n;
+        return true;
+    }
+
+    /**
+     * Grows the shared voice array. New arrays are allocated on the calling thread and handed
+     * to the audio thread, which copies its voice-table state into them.
+     *
+     * @param capacity   minimum number of voices
+     * @return true if the array is already large enough or the grow was queued, false if the
+     *         command ring was full
+     */
+    public synchronized boolean ensureVoiceCapacity(int capacity) {
+        if (capacity <= requestedCapacity) return true;
+        long ticket = commands.claim();
+        if (ticket < 0) return false;
+        PASamplerVoice[] current = voices;
+        PASamplerVoice[] grown = Arrays.copyOf(current, Math.max(capacity, current.length));
+        for (int i = 0; i < grown.length; i++) {
+            if (grown[i] == null) grown[i] = new PASamplerVoice(null, (out != null) ? out.sampleRate() : 44100f);
+        }
+        Command c = commands.slot(ticket);
+        c.type = Command.GROW;
+        c.voices = grown;
+        c.owners = new Channel[grown.length];
+        c.active = new int[grown.length];
+        c.free = new int[grown.length];
+        commands.publish(ticket);
+        requestedCapacity = capacity;
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // Audio thread
+    // ------------------------------------------------------------------------
+
+    /**
+     * Picks a voice index for a new note on {@code ch}: a free voice if the channel is under
+     * its limit, otherwise the channel's oldest voice; the globally oldest voice when the whole
+     * table is busy. Audio thread only.
+     */
+    private int allocateVoice(Channel ch) {
+        if (ch.activeVoices >= ch.maxVoices) {
+            int idx = oldestActive(ch);
+            if (idx >= 0) return steal(idx);
+        }
+        if (freeCount > 0) {
+            int idx = freeStack[--freeCount];
+            activeList[activeCount++] = idx;
+            return idx;
+        }
+        int idx = oldestActive(null);
+        return (idx >= 0) ? steal(idx) : -1;
+    }
+
+    private int oldestActive(Channel ch) {
+        int best = -1;
+        long bestId = Long.MAX_VALUE;
+        for (int k = 0; k < activeCount; k++) {
+            int idx = activeList[k];
+            if (ch != null && owners[idx] != ch) continue;
+            long id = voices[idx].getVoiceId();
+            if (id < bestId) {
+                bestId = id;
+                best = idx;
+            }
+        }
+        return best;
+    }
+
+    private int steal(int idx) {
+        metrics.recordSteal();
+        PASamplerVoice v = voices[idx];
+        if (smoothSteal) v.release();
+        else v.stop();
+        Channel prev = owners[idx];
+        if (prev != null) prev.activeVoices--;
+        owners[idx] = null;
+        return idx;
+    }
+
+    /** Activates a voice for {@code ch}. Audio thread only. */
+    private void startVoice(Channel ch, int samplePos, int sampleLen, float amplitude, ADSRParams env,
+            float pitch, float pan, boolean looping, boolean wrap) {
+        PASampleBuffer buf = ch.current;
+        if (buf == null) return;
+        int idx = allocateVoice(ch);
+        if (idx < 0) {
+            metrics.recordRejected();
+            return;
+        }
+        PASamplerVoice v = voices[idx];
+        v.setSource(buf, ch.currentRate);
+        v.setInterpolation(ch.interpolation);
+        v.activate(samplePos, sampleLen, amplitude, env, pitch, pan, looping, wrap);
+        owners[idx] = ch;
+        ch.activeVoices++;
+        metrics.recordTrigger();
+    }
+
+    /** Removes the voice at position {@code k} of the active list. Audio thread only. */
+    private void retire(int k) {
+        int idx = activeList[k];
+        activeList[k] = activeList[--activeCount];
+        freeStack[freeCount++] = idx;
+        Channel ch = owners[idx];
+        if (ch != null) ch.activeVoices--;
+        owners[idx] = null;
+    }
+
+    /** Applies one control command on the audio thread. */
+    private void executeCommand(Command c) {
+        switch (c.type) {
+            case Command.PLAY:
+                startVoice(c.channel, c.samplePos, c.sampleLen, c.amplitude, c.env, c.pitch, c.pan,
+                        c.looping, c.wrapAround);
+                break;
+            case Command.RELEASE_ALL:
+                for (int k = 0; k < activeCount; k++) {
+                    int idx = activeList[k];
+                    if (c.channel == null || owners[idx] == c.channel) voices[idx].release();
+                }
+                break;
+            case Command.STOP_ALL:
+                // stopped voices are retired by the next render pass
+                for (int k = 0; k < activeCount; k++) {
+                    int idx = activeList[k];
+                    if (c.channel == null || owners[idx] == c.channel) voices[idx].stop();
+                }
+                break;
+            case Command.SWAP_BUFFER:
+                // copy-on-write: sounding voices keep their buffer, new voices bind the new one
+                if (!c.channel.removed) c.channel.adopt(c.sampleBuffer);
+                break;
+            case Command.GROW:
+                installGrownTable(c);
+                break;
+            case Command.REMOVE_CHANNEL:
+                for (int k = 0; k < activeCount; k++) {
+                    int idx = activeList[k];
+                    if (owners[idx] == c.channel) {
+                        voices[idx].stop();
+                        voices[idx].resetPosition();
+                        retire(k);
+                        k--;
+                    }
+                }
+                c.channel.adopt(null);
+                break;
+            default:
+                break;
+        }
+        c.clearRefs();
+    }
+
+    private void installGrownTable(Command c) {
+        int oldLen = owners.length;
+        int newLen = c.voices.length;
+        if (newLen <= oldLen) return;
+        System.arraycopy(owners, 0, c.owners, 0, oldLen);
+        System.arraycopy(activeList, 0, c.active, 0, activeCount);
+        System.arraycopy(freeStack, 0, c.free, 0, freeCount);
+        owners = c.owners;
+        activeList = c.active;
+        freeStack = c.free;
+        for (int i = newLen - 1; i >= oldLen; i--) freeStack[freeCount++] = i;
+        voices = c.voices;
+    }
+
+    /**
+     * Required by Minim.UGen: mixes every active voice of every channel.
+     *
+     * <p>The command ring is drained at control-block boundaries, scheduled starts are
+     * processed for the current sample, and then only the active voices are rendered. Each
+     * voice is scaled by its channel gain, panned, summed, density-normalized, and passed
+     * through one soft limiter.</p>
+     */
+    @Override
+    protected void uGenerate(float[] channels) {
+        final long now = sampleCursor;
+        final boolean blockStart = (now & CONTROL_BLOCK_MASK) == 0;
+        if (blockStart) metrics.endBlock(activeCount);
+        final long t0 = metrics.beginFrame();
+        final PATransport.Follower follower = transport;
+        if (follower != null) follower.observe(now);
+        if (blockStart) commands.drain(commandHandler);
+        scheduler.processBlock(now, 1, scheduledStartHandler, null);
+
+        Arrays.fill(channels, 0f);
+
+        final PASharedBufferSampler.MixProfile profile = this.mixProfile;
+        final PASamplerVoice[] vs = voices;
+        float activeWeight = 0f;
+        float left = 0f;
+        float right = 0f;
+
+        for (int k = 0; k < activeCount; k++) {
+            int idx = activeList[k];
+            PASamplerVoice v = vs[idx];
+            float sample;
+            try {
+                sample = v.nextSample();
+            }
+            catch (ArrayIndexOutOfBoundsException e) {
+                v.stop();
+                sample = 0f;
+            }
+            boolean isActive = v.isActive();
+            boolean isReleasing = v.isReleasing();
+            if (isActive || isReleasing) {
+                activeWeight += isActive ? 1.0f : profile.releaseWeight;
+                Channel ch = owners[idx];
+                float g = (ch != null) ? ch.gain : 1f;
+                left += sample * g * v.getPanGainLeft();
+                right += sample * g * v.getPanGainRight();
+            }
+            if (v.isFinished() || !(v.isActive() || v.isReleasing())) {
+                v.resetPosition();
+                retire(k);
+                k--;
+            }
+        }
+
+        // density target: once per control block, or at once when voices are added
+        if ((blockStart && (activeWeight != densityWeight || profile.normExponent != densityExponent))
+                || activeWeight > densityWeight) {
+            densityWeight = activeWeight;
+            densityExponent = profile.normExponent;
+            densityNorm = PASharedBufferSampler.densityNorm(activeWeight, profile.normExponent);
+        }
+        mixNorm += profile.alpha * (densityNorm - mixNorm);
+        float g = mixNorm * masterGain;
+
+        final ClipMode clip = clipMode;
+        channels[0] = clip.apply(left * g, profile.drive);
+        metrics.trackLimiter(left * g * profile.drive, channels[0]);
+        if (channels.length > 1) {
+            channels[1] = clip.apply(right * g, profile.drive);
+            metrics.trackLimiter(right * g * profile.drive, channels[1]);
+        }
+        sampleCursor = now + 1;
+        metrics.endFrame(t0);
+    }
+
+    // ------------------------------------------------------------------------
+    // Control-thread helpers
+    // ------------------------------------------------------------------------
+
+    /**
+     * Posts a stop, release or buffer swap. Never waits for the audio thread: if the ring is
+     * full the command is dropped.
+     *
+     * @return true if the command was queued
+     */
+    private boolean postChannelCommand(int type, Channel ch, PASampleBuffer buffer) {
+        long ticket = commands.claim();
+        if (ticket < 0) return false;
+        Command c = commands.slot(ticket);
+        c.type = type;
+        c.channel = ch;
+        c.sampleBuffer = buffer;
+        commands.publish(ticket);
+        return true;
+    }
+
+    private boolean postPlay(Channel ch, int samplePos, int sampleLen, float amplitude,
+            ADSRParams env, float pitch, float pan) {
+        long ticket = commands.claim();
+        if (ticket < 0) {
+            metrics.recordRejected();
+            return false;
+        }
+        Command c = commands.slot(ticket);
+        c.type = Command.PLAY;
+        c.channel = ch;
+        c.samplePos = samplePos;
+        c.sampleLen = sampleLen;
+        c.amplitude = amplitude;
+        c.env = env;
+        c.pitch = pitch;
+        c.pan = pan;
+        c.looping = ch.globalLooping;
+        c.wrapAround = ch.wrapAround;
+        commands.publish(ticket);
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    // Mixer-wide controls
+    // ------------------------------------------------------------------------
+
+    /** Stops every voice on every channel. */
+    public void stopAll() {
+        postChannelCommand(Command.STOP_ALL, null, null);
+    }
+
+    /** Releases every voice on every channel. */
+    public void releaseAll() {
+        postChannelCommand(Command.RELEASE_ALL, null, null);
+    }
+
+    /**
+     * Sets how scheduled starts whose sample time has already passed are handled.
+     *
+     * @param policy   DROP (default) or CLAMP_TO_BLOCK_START
+     */
+    public void setLatePolicy(AudioScheduler.LatePolicy policy) {
+        scheduler.setLatePolicy(policy);
+    }
+
+    /**
+     * Returns the live metrics shared by every channel of this mixer.
+     *
+     * @return metrics written by the audio thread
+     */
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** @return an immutable copy of the current metrics */
+    public EngineMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
+    /** Clears pending scheduled starts for every channel. */
+    public void clearScheduled() {
+        scheduler.clear();
+    }
+
+    /** @return shared sample clock of this mixer, in transport time when a transport is set */
+    public long getCurrentSampleTime() {
+        final PATransport.Follower f = transport;
+        return (f != null) ? f.toTransport(sampleCursor) : sampleCursor;
+    }
+
+    /**
+     * Subscribes every channel of this mixer to a shared transport, or unsubscribes with null.
+     * While subscribed, channel clocks and absolute start samples are in transport time.
+     *
+     * @param transport   shared transport, or null to use the mixer's local clock
+     */
+    public void setTransport(PATransport transport) {
+        this.transport = (transport != null) ? transport.follow(sampleCursor) : null;
+    }
+
+    /** @return the transport this mixer follows, or null */
+    public PATransport getTransport() {
+        final PATransport.Follower f = transport;
+        return (f != null) ? f.getTransport() : null;
+    }
+
+    /** Converts a time on {@link #getCurrentSampleTime()} to the local scheduler clock. */
+    private long toLocal(long sampleTime) {
+        final PATransport.Follower f = transport;
+        return (f != null) ? f.toLocal(sampleTime) : sampleTime;
+    }
+
+    /**
+     * Sets master output gain applied after all channels are summed.
+     *
+     * @param linear linear gain value
+     */
+    public void setMasterGain(float linear) {
+        if (Float.isNaN(linear) || Float.isInfinite(linear)) return;
+        masterGain = Math.max(0f, linear);
+    }
+
+    /**
+     * Selects the soft limiter curve applied to the mixed output.
+     *
+     * @param mode   SOFTSIGN (default), TABLE or CUBIC
+     */
+    public void setClipMode(ClipMode mode) {
+        if (mode != null) this.clipMode = mode;
+    }
+
+    /** @return soft limiter curve applied to the mixed output */
+    public ClipMode getClipMode() {
+        return clipMode;
+    }
+
+    /** @return master output gain as a linear value */
+    public float getMasterGain() {
+        return masterGain;
+    }
+
+    /**
+     * Sets the mix normalization profile of the shared limiter.
+     *
+     * @param profile mix profile to apply
+     */
+    public void setMixProfile(PASharedBufferSampler.MixProfile profile) {
+        if (profile != null) this.mixProfile = profile;
+    }
+
+    /** @return active mix normalization profile */
+    public PASharedBufferSampler.MixProfile getMixProfile() {
+        return mixProfile;
+    }
+
+    /** @param smoothSteal true to release stolen voices smoothly */
+    public void setSmoothSteal(boolean smoothSteal) {
+        this.smoothSteal = smoothSteal;
+    }
+
+    /** @return true when stolen voices release smoothly */
+    public boolean isSmoothSteal() {
+        return smoothSteal;
+    }
+
+    /**
+     * Read-only view of the shared voice array for GUI or debugging.
+     *
+     * @return unmodifiable voice list
+     */
+    public List<PASamplerVoice> getVoices() {
+        return Collections.unmodifiableList(Arrays.asList(voices));
+    }
+
+    /** @return target audio output */
+    public AudioOutput getAudioOutput() {
+        return out;
+    }
+
+    // ------------------------------------------------------------------------
+    // Channel: one instrument's parameter set
+    // ------------------------------------------------------------------------
+
+    /**
+     * A {@link PASampler} view of one instrument inside a {@link PASamplerMixer}.
+     *
+     * <p>A channel holds no voices and is not a UGen. It stores the instrument's source buffer,
+     * sample rate, looping and wrap defaults, voice limit and output gain, and forwards every
+     * playback request to the shared mixer. Its voice count is maintained by the audio thread,
+     * so availability checks are O(1).</p>
+     */
+    public static final class Channel implements PASampler {
+        private final PASamplerMixer mixer;
+        /** Shared source buffer for new voices. Control-thread view. */
+        private volatile PASampleBuffer source;
+        private volatile int bufferLen;
+        private volatile float playbackSampleRate;
+        private volatile boolean globalLooping = false;
+        private volatile boolean wrapAround = false;
+        private volatile float gain = 1f;
+        private volatile SampleInterpolation interpolation = SampleInterpolation.TRUNCATE;
+        private volatile int maxVoices;
+        /** Set by {@link PASamplerMixer#removeChannel(Channel)}; a removed channel plays nothing. */
+        private volatile boolean removed = false;
+        /** Voices currently owned by this channel; written only by the audio thread. */
+        private volatile int activeVoices = 0;
+        /** Incremented by {@link #clearScheduled()} to cancel this channel's pending starts. */
+        private volatile int scheduleGeneration = 0;
+        /** Buffer bound to new voices; owned by the audio thread once the channel is created. */
+        private PASampleBuffer current;
+        /** Playback sample rate for new voices, read by the audio thread. */
+        private volatile float currentRate;
+
+        private Channel(PASamplerMixer mixer, PASampleBuffer buffer, int maxVoices) {
+            this.mixer = mixer;
+            this.source = buffer;
+            this.bufferLen = (buffer != null) ? buffer.length() : 0;
+            this.playbackSampleRate = (buffer != null) ? buffer.sampleRate() : 0f;
+            this.currentRate = playbackSampleRate;
+            this.current = (buffer != null) ? buffer.retain() : null;
+            this.maxVoices = maxVoices;
+        }
+
+        /** Makes {@code sb} the buffer for new voices. Audio thread only. */
+        private void adopt(PASampleBuffer sb) {
+            if (sb == current) return;
+            if (current != null) current.release();
+            current = (sb != null) ? sb.retain() : null;
+        }
+
+        /** Starts loading the opening chunks of a note when the source streams from disk. */
+        private void prefetch(int samplePos) {
+            if (source instanceof PAStreamingSampleBuffer psb) psb.prefetch(samplePos);
+        }
+
+        private int[] normalizeRange(int samplePos, int sampleLen) {
+            if (removed || source == null || bufferLen <= 0 || sampleLen <= 0 || samplePos >= bufferLen) return null;
+            int pos = Math.max(0, samplePos);
+            int len = sampleLen;
+            if (!wrapAround && pos + len > bufferLen) len = bufferLen - pos;
+            if (len <= 0) return null;
+            return new int[] { pos, len };
+        }
+
+        @Override
+        public int play(int samplePos, int sampleLen, float amplitude, ADSRParams env, float pitch, float pan) {
+            int[] range = normalizeRange(samplePos, sampleLen);
+            if (range == null) return 0;
+            prefetch(range[0]);
+            if (!mixer.postPlay(this, range[0], range[1], amplitude, env, pitch, pan)) return 0;
+            return PlaybackInfo.computeVoiceDuration(range[0], range[1], bufferLen, pitch, env,
+                    globalLooping, playbackSampleRate, wrapAround);
+        }
+
+        @Override
+        public void startAtSampleTime(int samplePos, int sampleLen, float amplitude,
+                ADSRParams env, float pitch, float pan, long startSample) {
+            int[] range = normalizeRange(samplePos, sampleLen);
+            if (range == null) return;
+            prefetch(range[0]);
+            mixer.scheduler.schedulePoint(mixer.toLocal(startSample),
+                    new ScheduledPlay(this, scheduleGeneration, range[0], range[1], amplitude, env,
+                            pitch, pan, globalLooping, wrapAround));
+        }
+
+        @Override
+        public void startAfterDelaySamples(int samplePos, int sampleLen, float amplitude,
+                ADSRParams env, float pitch, float pan, long delaySamples) {
+            long startSample = mixer.getCurrentSampleTime() + Math.max(0L, delaySamples);
+            startAtSampleTime(samplePos, sampleLen, amplitude, env, pitch, pan, startSample);
+        }
+
+        @Override
+        public long getCurrentSampleTime() {
+            return mixer.getCurrentSampleTime();
+        }
+
+        @Override
+        public void clearScheduled() {
+            scheduleGeneration++;
+        }
+
+        @Override
+        public void setWrapAround(boolean wrapAround) {
+            this.wrapAround = wrapAround;
+        }
+
+        @Override
+        public boolean isWrapAround() {
+            return wrapAround;
+        }
+
+        /**
+         * Reports whether a voice owned by this channel is looping. Reads audio-thread state
+         * without synchronization, so the answer is a snapshot.
+         */
+        @Override
+        public boolean isLooping() {
+            PASamplerVoice[] vs = mixer.voices;
+            Channel[] own = mixer.owners;
+            int n = Math.min(vs.length, own.length);
+            for (int i = 0; i < n; i++) {
+                if (own[i] == this && vs[i].isActive() && vs[i].isLooping()) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void stopAll() {
+            mixer.postChannelCommand(Command.STOP_ALL, this, null);
+        }
+
+        @Override
+        public void releaseAll() {
+            mixer.postChannelCommand(Command.RELEASE_ALL, this, null);
+        }
+
+        /** Applies to voices started after this call. */
+        @Override
+        public void setPlaybackSampleRate(float newRate) {
+            if (newRate > 0f) {
+                this.playbackSampleRate = newRate;
+                this.currentRate = newRate;
+            }
+        }
+
+        /**
+         * Replaces the channel's buffer without copying it; the caller must not modify the array
+         * afterwards. Voices already sounding finish on the old buffer.
+         */
+        @Override
+        public void setBuffer(float[] buffer) {
+            setBuffer(PASampleBuffer.wrap(buffer, playbackSampleRate));
+        }
+
+        @Override
+        public void setBuffer(float[] buffer, float playbackSampleRate) {
+            setBuffer(PASampleBuffer.wrap(buffer, (playbackSampleRate > 0f) ? playbackSampleRate : this.playbackSampleRate));
+        }
+
+        /**
+         * Replaces the channel's buffer and playback rate. Costs no copy; voices already
+         * sounding finish on the buffer they started with.
+         */
+        @Override
+        public void setBuffer(PASampleBuffer buffer) {
+            trySetBuffer(buffer);
+        }
+
+        /**
+         * Same as {@link #setBuffer(PASampleBuffer)}, but reports whether the swap was queued.
+         * If the command ring stays full the swap is dropped and the channel keeps its current
+         * buffer and rate.
+         *
+         * @param buffer   shared source buffer; its sample rate becomes the playback rate
+         * @return true if the swap was queued for the audio thread
+         */
+        public boolean trySetBuffer(PASampleBuffer buffer) {
+            if (buffer == null || removed) return false;
+            if (!mixer.postChannelCommand(Command.SWAP_BUFFER, this, buffer)) return false;
+            this.source = buffer;
+            this.bufferLen = buffer.length();
+            setPlaybackSampleRate(buffer.sampleRate());
+            return true;
+        }
+
+        /** @return shared source buffer used for new voices */
+        public PASampleBuffer getSampleBuffer() { return source; }
+
+        /**
+         * Sets this channel's output gain, applied to each of its voices before mixing.
+         *
+         * @param linear linear gain value
+         */
+        public void setMasterGain(float linear) {
+            if (Float.isNaN(linear) || Float.isInfinite(linear)) return;
+            gain = Math.max(0f, linear);
+        }
+
+        /** @return channel output gain as a linear value */
+        public float getMasterGain() { return gain; }
+
+        /**
+         * Selects the buffer read kernel for voices this channel starts.
+         *
+         * @param mode   interpolation mode; null selects {@link SampleInterpolation#TRUNCATE}
+         */
+        public void setInterpolation(SampleInterpolation mode) {
+            this.interpolation = (mode != null) ? mode : SampleInterpolation.TRUNCATE;
+        }
+
+        /** @return read kernel for voices this channel starts */
+        public SampleInterpolation getInterpolation() { return interpolation; }
+
+        /** @param looping true to loop newly triggered voices */
+        public void setGlobalLooping(boolean looping) { this.globalLooping = looping; }
+
+        /** @return true when newly triggered voices loop by default */
+        public boolean isGlobalLooping() { return globalLooping; }
+
+        /** @return number of voices currently sounding on this channel */
+        public int activeVoiceCount() { return Math.max(0, activeVoices); }
+
+        /** @return maximum simultaneous voices for this channel */
+        public int getMaxVoices() { return maxVoices; }
+
+        /**
+         * Changes this channel's voice limit. Raising it grows the mixer's shared voice array
+         * when needed; lowering it takes effect as new notes steal the surplus voices.
+         *
+         * @param maxVoices   maximum simultaneous voices; values below 1 are clamped to 1
+         * @return true if the limit changed, false if the channel was removed or the command
+         *         ring was full
+         */
+        public boolean setMaxVoices(int maxVoices) {
+            return mixer.resizeChannel(this, maxVoices);
+        }
+
+        /** @return true once the channel has been removed from its mixer */
+        public boolean isRemoved() { return removed; }
+
+        /** @return source buffer length in samples */
+        public int getBufferLength() { return bufferLen; }
+
+        /** @return source buffer sample rate in Hz */
+        public float getPlaybackSampleRate() { return playbackSampleRate; }
+
+        /** @return the mixer this channel plays through */
+        public PASamplerMixer getMixer() { return mixer; }
+
+        /** @return metrics of the shared mixer, which cover every channel */
+        @Override
+        public EngineMetrics getMetrics() { return mixer.getMetrics(); }
+
+        /** @return master gain in decibels */
+        public float getMasterGainDb() { return AudioUtility.linearToDb(gain); }
+    }
+}
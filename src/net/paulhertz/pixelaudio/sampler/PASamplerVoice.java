@@ -18,27 +18,46 @@
 
 package net.paulhertz.pixelaudio.sampler;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.paulhertz.pixelaudio.schedule.PolyphaseSincTable;
+
 /**
  * PASamplerVoice - a single playback "voice" reading from a shared mono buffer.
  *
  * Each voice handles:
  *   - playback position and pitch
- *   - per-voice amplitude and pan
+ *   - per-voice amplitude and pan, with cached equal-power pan gains
+ *   - short linear ramps for gain and pan changes while the voice is sounding
  *   - one independent SimpleADSR envelope (sample-accurate)
  *   - optional wrap-around reads for finite events near the buffer end
- *   - optional zero-crossing start and micro-fade-in
+ *   - selectable read kernel: truncate, linear, Hermite, or band-limited sinc
+ *   - optional zero-crossing start and micro-fade-in, applied at read time
  *
- * Voices can be smoothly released and are recycled once the envelope finishes.
+ * Voices can be smoothly released and are recycled once the envelope finishes. A voice never
+ * writes to its buffer. When it is bound to a {@link PASampleBuffer}, it holds a reference
+ * from activation until it finishes, so a buffer swap does not disturb notes already sounding.
  */
 public class PASamplerVoice {
 
     // ------------------------------------------------------------------------
     // Core state
     // ------------------------------------------------------------------------
-    private static long NEXT_VOICE_ID = 0;
+    /** Voice ids, shared by the audio thread and by control threads that reserve an id for a play. */
+    private static final AtomicLong NEXT_VOICE_ID = new AtomicLong();
 
     private float[] buffer;
     private float playbackSampleRate;
+    /** Buffer that {@link #buffer} was taken from, or null for a bare array. */
+    private PASampleBuffer source;
+    /** Buffer retained by the current note, released when the voice finishes. */
+    private PASampleBuffer held;
+    /** Disk-backed source when {@link #source} is streaming, otherwise null. */
+    private PAStreamingSampleBuffer stream;
+    /** Length of the source in samples, valid for both array and streaming sources. */
+    private int bufferLength;
+    /** Chunk of {@link #stream} the read position was last in, for lookahead requests. */
+    private int streamChunk = -1;
 
     private long voiceId;
     private boolean active;
@@ -53,6 +72,23 @@ public class PASamplerVoice {
     private float rate;       // pitch ratio
     private float gain;       // amplitude factor
     private float pan;        // stereo location (-1.0f...1.0f)
+    private float panLeft;    // equal-power left gain for pan
+    private float panRight;   // equal-power right gain for pan
+
+    // ------------------------------------------------------------------------
+    // Parameter ramps
+    // ------------------------------------------------------------------------
+
+    /** Length in samples of the linear ramp applied by {@link #setGain(float)} and {@link #setPan(float)}. */
+    public static final int PARAM_RAMP_SAMPLES = 64;
+
+    private float gainStep;
+    private float panLeftStep;
+    private float panRightStep;
+    private float gainTarget;
+    private float panLeftTarget;
+    private float panRightTarget;
+    private int rampRemaining = 0;
 
     
     // ------------------------------------------------------------------------
@@ -60,10 +96,24 @@ public class PASamplerVoice {
     // ------------------------------------------------------------------------
     
     private SimpleADSR envelope;
+    /** Envelope state owned by this voice and reset in place on each activation. */
+    private final SimpleADSR envelopeState = new SimpleADSR(0f, 0f, 1f, 0f);
+
+    // Read kernel
+    private SampleInterpolation interpolation = SampleInterpolation.TRUNCATE;
+    /** Sinc table matched to the current rate; only used in SINC mode. */
+    private PolyphaseSincTable sincTable = PolyphaseSincTable.forRate(1.0);
+    /** Gathers sinc taps from a streaming source, which has no backing array. */
+    private float[] sincTaps = new float[2 * PolyphaseSincTable.DEFAULT_HALF_WIDTH];
 
     // Optional pre-start processing
     private boolean isFindZeroCrossing = false;
     private boolean isMicroFadeIn = false;
+    /** Length in output samples of the read-time fade applied when micro-fade-in is enabled. */
+    public static final int MICRO_FADE_SAMPLES = 64;
+    private int fadeRemaining = 0;
+    private float fadeAmp = 1f;
+    private float fadeStep = 0f;
 
     private static final boolean DEBUG = false;
     private int frameCounter = 0;
@@ -81,6 +131,7 @@ public class PASamplerVoice {
      */
     public PASamplerVoice(float[] buffer, float sampleRate) {
         this.buffer = buffer;
+        this.bufferLength = (buffer != null) ? buffer.length : 0;
         this.playbackSampleRate = sampleRate;
         this.active = false;
         this.released = false;
@@ -128,15 +179,21 @@ public class PASamplerVoice {
         this.looping = looping;
         this.wrapAround = wrapAround;
 
-        this.voiceId = NEXT_VOICE_ID++;
+        this.voiceId = NEXT_VOICE_ID.getAndIncrement();
         this.start = Math.max(0, start);
         this.end = wrapAround
                 ? this.start + Math.max(0, length)
-                : Math.min(buffer.length, start + Math.max(0, length));
+                : Math.min(bufferLength, start + Math.max(0, length));
         this.position = this.start;
+        this.streamChunk = -1;
         this.rate = pitch;
+        if (interpolation == SampleInterpolation.SINC) this.sincTable = PolyphaseSincTable.forRate(pitch);
         this.gain = gain;
         this.pan = Math.max(-1f, Math.min(1f, pan));
+        this.rampRemaining = 0;
+        double theta = (this.pan + 1.0) * (Math.PI * 0.25);
+        this.panLeft = (float) Math.cos(theta);
+        this.panRight = (float) Math.sin(theta);
 
         // Optional zero-crossing adjustment
         if (isFindZeroCrossing) {
@@ -146,16 +203,18 @@ public class PASamplerVoice {
 
         // Envelope setup
         if (envParams != null) {
-            envelope = envParams.toSimpleADSR(playbackSampleRate);
+            envelope = envParams.applyTo(envelopeState, playbackSampleRate);
             envelope.noteOn();
         } else {
             envelope = null;
         }
 
-        // Optional micro-fade at buffer start
-        if (isMicroFadeIn) applyMicroFadeIn();
+        // Optional micro-fade at note start, applied as samples are read
+        if (isMicroFadeIn) startMicroFade();
+        else fadeRemaining = 0;
 
         this.active = (this.start < this.end);
+        holdSource(active ? source : null);
 
         // intentionally dead code, can be reactivated for debugging
         if (DEBUG && frameCounter++ % 2000 == 0) {
@@ -170,9 +229,10 @@ public class PASamplerVoice {
      * @return next sample value, or 0 when inactive/finished
      */
     public float nextSample() {
-        if (finished || buffer == null) return 0f;
+        if (finished || (buffer == null && stream == null)) return 0f;
 
         int idx = (int) position;   // truncate position to get sample index
+        if (stream != null) requestStreamAhead(idx);
 
         // --- 1. Trigger release once we pass the "note" window ---
         if (position >= end && !released) {
@@ -180,13 +240,21 @@ public class PASamplerVoice {
             if (envelope != null) envelope.noteOff();
         }
 
-        // --- 2. Read sample safely ---
-        float base = readBufferSample(idx);
+        // --- 2. Read sample safely with the selected kernel ---
+        float base = (interpolation == SampleInterpolation.TRUNCATE)
+                ? readBufferSample(idx)
+                : readInterpolated(idx, position - idx);
+        if (fadeRemaining > 0) {
+            base *= fadeAmp;
+            fadeAmp += fadeStep;
+            fadeRemaining--;
+        }
 
         // --- 3. Advance ---
         position += rate;   // rate as pitch determines how fast or slow we advance position
 
-        // --- 4. Envelope always ticks ---
+        // --- 4. Envelope always ticks, parameter ramps advance ---
+        if (rampRemaining > 0) advanceRamp();
         float envValue = (envelope != null) ? envelope.tick() : 1f;
         float sample = base * gain * envValue;
 
@@ -194,12 +262,80 @@ public class PASamplerVoice {
         if (released && (envelope == null || envelope.isFinished())) {
             active = false;
             finished = true;
+            holdSource(null);
         }
 
         return sample;
     }
 
     
+    private void advanceRamp() {
+        if (--rampRemaining == 0) {
+            gain = gainTarget;
+            panLeft = panLeftTarget;
+            panRight = panRightTarget;
+        } else {
+            gain += gainStep;
+            panLeft += panLeftStep;
+            panRight += panRightStep;
+        }
+    }
+
+    /** Starts a ramp from the current gain and pan gains toward the current targets. */
+    private void startRamp() {
+        float inv = 1f / PARAM_RAMP_SAMPLES;
+        gainStep = (gainTarget - gain) * inv;
+        panLeftStep = (panLeftTarget - panLeft) * inv;
+        panRightStep = (panRightTarget - panRight) * inv;
+        rampRemaining = PARAM_RAMP_SAMPLES;
+    }
+
+    /** Fills the ramp targets with the current values, so a new ramp only changes one parameter. */
+    private void holdTargets() {
+        if (rampRemaining == 0) {
+            gainTarget = gain;
+            panLeftTarget = panLeft;
+            panRightTarget = panRight;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Parameter changes
+    // ------------------------------------------------------------------------
+
+    /**
+     * Changes the amplitude of a sounding voice. The change is spread over
+     * {@link #PARAM_RAMP_SAMPLES} samples to avoid zipper noise.
+     *
+     * @param newGain linear gain multiplier
+     */
+    public void setGain(float newGain) {
+        holdTargets();
+        gainTarget = newGain;
+        if (active || released) startRamp();
+        else { gain = newGain; rampRemaining = 0; }
+    }
+
+    /**
+     * Changes the stereo position of a sounding voice. The equal-power gains are computed once
+     * here and approached over {@link #PARAM_RAMP_SAMPLES} samples.
+     *
+     * @param newPan stereo pan position, -1.0 (left) to 1.0 (right)
+     */
+    public void setPan(float newPan) {
+        holdTargets();
+        pan = Math.max(-1f, Math.min(1f, newPan));
+        double theta = (pan + 1.0) * (Math.PI * 0.25);
+        panLeftTarget = (float) Math.cos(theta);
+        panRightTarget = (float) Math.sin(theta);
+        if (active || released) startRamp();
+        else {
+            panLeft = panLeftTarget;
+            panRight = panRightTarget;
+            rampRemaining = 0;
+        }
+    }
+
     // ------------------------------------------------------------------------
     // Lifecycle control
     // ------------------------------------------------------------------------
@@ -218,12 +354,13 @@ public class PASamplerVoice {
         active = false;
         released = false;
         finished = true;
+        holdSource(null);
     }
 
     /** Resets this voice to the beginning of its current buffer and marks it inactive. */
     public void resetPosition() {
         this.start = 0;
-        this.end = (buffer != null ? buffer.length : 0);
+        this.end = bufferLength;
         this.position = 0f;
         this.released = false;
         this.active = false;
@@ -236,12 +373,16 @@ public class PASamplerVoice {
     // ------------------------------------------------------------------------
     
     /**
-     * Replaces the source buffer and resets the voice.
+     * Replaces the source buffer and resets the voice. Voices owned by a
+     * {@link PASharedBufferSampler} are only touched on the audio thread, so no lock is taken.
      *
      * @param buffer shared mono source buffer
      */
-    public synchronized void setBuffer(float[] buffer) {
+    public void setBuffer(float[] buffer) {
         this.buffer = buffer;
+        this.bufferLength = (buffer != null) ? buffer.length : 0;
+        this.source = null;
+        this.stream = null;
         resetPosition();
     }
 
@@ -251,11 +392,53 @@ public class PASamplerVoice {
      * @param buffer shared mono source buffer
      * @param playbackSampleRate playback sample rate in Hz
      */
-    public synchronized void setBuffer(float[] buffer, float playbackSampleRate) {
+    public void setBuffer(float[] buffer, float playbackSampleRate) {
         this.buffer = buffer;
+        this.bufferLength = (buffer != null) ? buffer.length : 0;
+        this.source = null;
+        this.stream = null;
         this.playbackSampleRate = playbackSampleRate;
         resetPosition();
     }
+
+    /**
+     * Points an idle voice at a shared buffer for its next activation. The voice retains the
+     * buffer while it sounds and releases it when it finishes. Does nothing if the voice is
+     * already bound to {@code sb} at the same rate, so samplers can call it before every start.
+     *
+     * @param sb                   shared sample buffer
+     * @param playbackSampleRate   playback sample rate in Hz
+     */
+    public void setSource(PASampleBuffer sb, float playbackSampleRate) {
+        this.playbackSampleRate = playbackSampleRate;
+        if (sb == source) return;
+        this.source = sb;
+        this.buffer = (sb != null) ? sb.data() : null;
+        this.stream = (sb instanceof PAStreamingSampleBuffer psb) ? psb : null;
+        this.bufferLength = (sb != null) ? sb.length() : 0;
+    }
+
+    /** @return shared buffer this voice reads from, or null if it reads a bare array */
+    public PASampleBuffer getSource() { return source; }
+
+    /**
+     * Asks a streaming source for the chunks ahead of the read position each time the
+     * position enters a new chunk. Never blocks.
+     */
+    private void requestStreamAhead(int idx) {
+        int c = stream.chunkOf(idx);
+        if (c != streamChunk) {
+            streamChunk = c;
+            stream.requestAhead(idx, rate >= 0f);
+        }
+    }
+
+    /** Moves this voice's buffer reference to {@code sb}, releasing the previous one. */
+    private void holdSource(PASampleBuffer sb) {
+        if (held == sb) return;
+        if (held != null) held.release();
+        held = (sb != null) ? sb.retain() : null;
+    }
     
 
     // ------------------------------------------------------------------------
@@ -281,47 +464,118 @@ public class PASamplerVoice {
 
     /** @return stereo pan position */
     public float getPan()         { return pan; }
+    /** @return current equal-power left gain, including any pan ramp in progress */
+    public float getPanGainLeft() { return panLeft; }
+    /** @return current equal-power right gain, including any pan ramp in progress */
+    public float getPanGainRight() { return panRight; }
+    /** @return current linear gain, including any gain ramp in progress */
+    public float getGain()        { return gain; }
     /** @return unique voice identifier */
     public long getVoiceId()      { return voiceId; }
 
+    /**
+     * Reserves a voice id ahead of activation. {@link PASharedBufferSampler#playVoice} hands
+     * the id to the caller and applies it with {@link #setVoiceId(long)} when the voice starts.
+     */
+    static long nextVoiceId()     { return NEXT_VOICE_ID.getAndIncrement(); }
+
+    /** Replaces the id assigned by the last activation with one reserved by {@link #nextVoiceId()}. */
+    void setVoiceId(long id)      { this.voiceId = id; }
+
     
     // ------------------------------------------------------------------------
     // Optional features
     // ------------------------------------------------------------------------
     
-    private void applyMicroFadeIn() {
-        int fadeSamples = Math.min(64, end - start);
-        float fadeAmp = 0f;
-        float fadeStep = 1f / fadeSamples;
-        for (int i = 0; i < fadeSamples; i++) {
-            buffer[start + i] *= fadeAmp;
-            fadeAmp += fadeStep;
+    /** Starts a linear fade from silence over the first samples read, leaving the buffer untouched. */
+    private void startMicroFade() {
+        int fadeSamples = Math.min(MICRO_FADE_SAMPLES, end - start);
+        if (fadeSamples <= 0) {
+            fadeRemaining = 0;
+            return;
         }
+        fadeAmp = 0f;
+        fadeStep = 1f / fadeSamples;
+        fadeRemaining = fadeSamples;
     }
 
     private float readBufferSample(int idx) {
-        if (buffer == null || buffer.length == 0) return 0f;
+        if (bufferLength == 0) return 0f;
         if (wrapAround) {
-            int wrapped = idx % buffer.length;
-            if (wrapped < 0) wrapped += buffer.length;
-            return buffer[wrapped];
+            idx %= bufferLength;
+            if (idx < 0) idx += bufferLength;
+        }
+        else if (idx < 0 || idx >= bufferLength) {
+            return 0f;
+        }
+        return (stream != null) ? stream.read(idx) : buffer[idx];
+    }
+
+    private float readInterpolated(int idx, float frac) {
+        if (frac < 0f) {   // (int) truncates toward zero for negative positions
+            idx -= 1;
+            frac += 1f;
+        }
+        switch (interpolation) {
+            case LINEAR: {
+                float y0 = readBufferSample(idx);
+                return y0 + frac * (readBufferSample(idx + 1) - y0);
+            }
+            case HERMITE: {
+                float ym1 = readBufferSample(idx - 1);
+                float y0 = readBufferSample(idx);
+                float y1 = readBufferSample(idx + 1);
+                float y2 = readBufferSample(idx + 2);
+                float c1 = 0.5f * (y1 - ym1);
+                float c2 = ym1 - 2.5f * y0 + 2f * y1 - 0.5f * y2;
+                float c3 = 0.5f * (y2 - ym1) + 1.5f * (y0 - y1);
+                return ((c3 * frac + c2) * frac + c1) * frac + y0;
+            }
+            case SINC: {
+                if (stream != null) {
+                    // gather the taps so the table can run its in-range fast path
+                    int taps = sincTable.taps();
+                    if (sincTaps.length != taps) sincTaps = new float[taps];
+                    int base = idx - sincTable.halfWidth() + 1;
+                    for (int j = 0; j < taps; j++) sincTaps[j] = readBufferSample(base + j);
+                    return sincTable.interpolate(sincTaps, sincTable.halfWidth() - 1, frac);
+                }
+                return wrapAround
+                        ? sincTable.interpolateWrapped(buffer, idx, frac)
+                        : sincTable.interpolate(buffer, idx, frac);
+            }
+            default:
+                return readBufferSample(idx);
         }
-        return (idx >= 0 && idx < buffer.length) ? buffer[idx] : 0f;
     }
 
     private int findZeroCrossing(int index, int direction) {
-        int limit = Math.min(buffer.length - 2, Math.max(1, index));
+        if (bufferLength < 3) return index;
+        int limit = Math.min(bufferLength - 2, Math.max(1, index));
         int step = (direction >= 0) ? 1 : -1;
-        float prev = buffer[limit];
-        for (int i = 0; i < 256 && limit + i * step > 1 && limit + i * step < buffer.length - 1; i++) {
+        float prev = readBufferSample(limit);
+        for (int i = 0; i < 256 && limit + i * step > 1 && limit + i * step < bufferLength - 1; i++) {
             int pos = limit + i * step;
-            float next = buffer[pos];
+            float next = readBufferSample(pos);
             if ((prev <= 0 && next > 0) || (prev >= 0 && next < 0)) return pos;
             prev = next;
         }
         return index;
     }
 
+    /** @return read kernel used for fractional buffer positions */
+    public SampleInterpolation getInterpolation() { return interpolation; }
+
+    /**
+     * Selects the read kernel for fractional buffer positions. Takes effect on the next sample.
+     *
+     * @param mode   interpolation mode; null selects {@link SampleInterpolation#TRUNCATE}
+     */
+    public void setInterpolation(SampleInterpolation mode) {
+        this.interpolation = (mode != null) ? mode : SampleInterpolation.TRUNCATE;
+        if (interpolation == SampleInterpolation.SINC) this.sincTable = PolyphaseSincTable.forRate(rate);
+    }
+
     /** @return true when activation searches for a nearby zero crossing */
     public boolean isFindZeroCrossing() { return isFindZeroCrossing; }
     /** @param val true to search for a nearby zero crossing on activation */
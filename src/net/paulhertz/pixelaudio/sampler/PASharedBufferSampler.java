@@ -21,8 +21,11 @@ package net.paulhertz.pixelaudio.sampler;
 import ddf.minim.MultiChannelBuffer;
 import ddf.minim.AudioOutput;
 import ddf.minim.UGen;
+import net.paulhertz.pixelaudio.schedule.AudioCommandQueue;
 import net.paulhertz.pixelaudio.schedule.AudioUtility;
 import net.paulhertz.pixelaudio.schedule.AudioScheduler;
+import net.paulhertz.pixelaudio.schedule.EngineMetrics;
+import net.paulhertz.pixelaudio.schedule.PATransport;
 
 import java.util.*;
 
@@ -33,17 +36,29 @@ import java.util.*;
  * <p>
  * Features:
  * <ul>
- *    <li>Shared buffer (no duplication)</li>
+ *    <li>Shared, immutable {@link PASampleBuffer} (no duplication); buffer swaps are copy-on-write
+ *        and leave sounding voices on the buffer they started with</li>
  *    <li>Polyphony with voice pooling</li>
  *    <li>Looping (global default + per-voice)</li>
  *    <li>ADSR per voice via ADSRParams</li>
  *    <li>Oldest-first voice recycling, optional smooth stealing</li>
- *    <li>Thread-safe triggering</li>
+ *    <li>Lock-free triggering: control calls are queued and drained by the audio thread</li>
  *    <li>Presets for noise reduction with MixProfile and {@link PASamplerInstrumentPool} cycleMixProfile().</li>
+ *    <li>Lock-free {@link EngineMetrics}: voices, steals, rejected and late triggers, block render
+ *        time and limiter gain reduction, read with {@link #getMetricsSnapshot()}</li>
  * </ul>
  * 
  * Automatically patches to the provided AudioOutput.
- * 
+ * <p>
+ * Threading: {@link #uGenerate(float[])} never takes a monitor. Calls such as
+ * {@link #play(int, int, float, ADSRParams, float, float) play()}, {@link #stopAll()},
+ * {@link #releaseAll()}, {@link #setBuffer(float[])} and {@link #setPlaybackSampleRate(float)}
+ * fill in a preallocated record in an {@link AudioCommandQueue}, which the audio thread
+ * drains at the start of every control block of {@link #CONTROL_BLOCK_SIZE} samples.
+ * Scheduled starts travel through the {@link AudioScheduler} inbox and remain sample accurate.
+ * Control calls never wait for the audio thread: if the ring is full the command is dropped,
+ * and calls that can report it return 0, -1 or false.
+ * </p>
  */
 public class PASharedBufferSampler extends UGen implements PASampler {
     // ------------------------------------------------------------------------
@@ -72,28 +87,101 @@ public class PASharedBufferSampler extends UGen implements PASampler {
         }
     }
 
-    /** Mono source buffer, typically channel 0 from a MultiChannelBuffer. */
-    private float[] buffer;
+    // ------------------------------------------------------------------------
+    // Internal control command record, preallocated in the command ring
+    // ------------------------------------------------------------------------
+    private static final class Command {
+        static final int PLAY = 1;
+        static final int RELEASE_ALL = 2;
+        static final int STOP_ALL = 3;
+        static final int SWAP_BUFFER = 4;
+        static final int SET_PLAYBACK_RATE = 5;
+        static final int SET_PARAM = 6;
+        static final int SET_MAX_VOICES = 7;
+
+        int type;
+        int count;
+        PASamplerVoice[] voices;
+        VoiceAllocator allocator;
+        long voiceId;
+        int samplePos;
+        int sampleLen;
+        float amplitude;
+        ADSRParams env;
+        float pitch;
+        float pan;
+        boolean looping;
+        boolean wrapAround;
+        PASampleBuffer sampleBuffer;
+        float sampleRate;
+        VoiceParam param;
+        float value;
+
+        /** Drops object references so a recycled slot does not pin old buffers or envelopes. */
+        void clearRefs() {
+            env = null;
+            sampleBuffer = null;
+            voices = null;
+            allocator = null;
+            param = null;
+        }
+    }
+
+    /** Number of samples between drains of the control command ring. */
+    public static final int CONTROL_BLOCK_SIZE = 64;
+    private static final int CONTROL_BLOCK_MASK = CONTROL_BLOCK_SIZE - 1;
+    /** Capacity of the control command ring. */
+    private static final int COMMAND_CAPACITY = 1024;
+    /** Polyphony used when a constructor does not specify it. */
+    private static final int DEFAULT_MAX_VOICES = 32;
+
+    /** Shared source buffer for new voices. Control-thread view. */
+    private volatile PASampleBuffer source;
     /** Cached source buffer length in samples. */
-    private int bufferLen;
+    private volatile int bufferLen;
     /** Sample rate of the source buffer in Hz. */
-    private float playbackSampleRate;
+    private volatile float playbackSampleRate;
 
     /** Audio output this sampler is patched to. */
     private final AudioOutput out;
-    /** Voice pool used for polyphonic sample playback. */
-    private final List<PASamplerVoice> voices = new ArrayList<>();
+    /** Voice pool used for polyphonic sample playback, replaced (never mutated) when it grows. */
+    private volatile PASamplerVoice[] voices;
+    /**
+     * Largest voice array built so far, adopted or still queued; guarded by {@code this}.
+     * Each grow extends this array, so a grow queued behind another keeps its voices.
+     */
+    private PASamplerVoice[] pendingVoices;
     /** Maximum number of simultaneous voices. */
-    private int maxVoices = 32;
+    private volatile int maxVoices = DEFAULT_MAX_VOICES;
     /** Default looping state for newly triggered voices. */
-    private boolean globalLooping = false;
+    private volatile boolean globalLooping = false;
     /** True to wrap source-buffer reads for newly triggered voices. */
-    private boolean wrapAround = false;
+    private volatile boolean wrapAround = false;
     /** True to release stolen voices smoothly instead of stopping them immediately. */
-    private boolean smoothSteal = true;
+    private volatile boolean smoothSteal = true;
+    /** Read kernel applied to newly triggered voices. */
+    private volatile SampleInterpolation interpolation = SampleInterpolation.TRUNCATE;
+    /** Source buffer adopted by the audio thread and bound to each new voice. */
+    private PASampleBuffer current;
+    /** Playback sample rate for new voices; owned by the audio thread. */
+    private float currentRate;
+    /** Free list and steal heap over {@link #voices}; owned by the audio thread. */
+    private VoiceAllocator allocator;
+    /** Allocated voice count, published by the audio thread for O(1) availability checks. */
+    private volatile int allocatedVoices = 0;
+    /** Policy for choosing a voice to steal when all voices are busy. */
+    private volatile VoiceAllocator.StealPolicy stealPolicy = VoiceAllocator.StealPolicy.OLDEST;
     
     /** Smoothed mix-normalization gain. */
     private float mixNorm = 1f; 
+    /** Density normalization target, recomputed only when the density changes. */
+    private float densityNorm = 1f;
+    /** Voice density {@link #densityNorm} was computed for; audio thread only. */
+    private float densityWeight = 0f;
+    /** Exponent {@link #densityNorm} was computed with; audio thread only. */
+    private float densityExponent = Float.NaN;
+    /** Soft limiter curve applied to the mixed output. */
+    private volatile ClipMode clipMode = ClipMode.SOFTSIGN;
     
     /** Master linear gain applied to mixed output. */
     private volatile float masterGain = 1f;
@@ -104,8 +192,22 @@ public class PASharedBufferSampler extends UGen implements PASampler {
     /** Sample-accurate scheduler for launching sampler voices. */
     private final AudioScheduler<ScheduledPlay> scheduler = new AudioScheduler<>();
 
+    /** Lock-free ring of control commands, drained by the audio thread. */
+    private final AudioCommandQueue<Command> commands =
+            new AudioCommandQueue<>(COMMAND_CAPACITY, Command::new);
+    /** Preallocated handlers, so the audio callback creates no lambdas. */
+    private final AudioCommandQueue.Handler<Command> commandHandler = this::executeCommand;
+    private final AudioScheduler.PointHandler<ScheduledPlay> scheduledStartHandler =
+            (sp, offsetInBlock) -> startVoice(sp.samplePos, sp.sampleLen, sp.amplitude,
+                    sp.env, sp.pitch, sp.pan, sp.looping, sp.wrapAround, -1L);
+
     /** Absolute sample counter advanced by the audio callback. */
-    private long sampleCursor = 0L;
+    private volatile long sampleCursor = 0L;
+    /** Maps {@link #sampleCursor} to a shared transport, or null for the local clock. */
+    private volatile PATransport.Follower transport;
+
+    /** Voice, trigger, timing and limiter metrics, written by the audio thread. */
+    private final EngineMetrics metrics;
  
     /**
      * Mix-density normalization profiles for polyphonic sampler output,
@@ -127,7 +229,7 @@ public class PASharedBufferSampler extends UGen implements PASampler {
         /** smoothing coefficient for mixNorm */
         public final float alpha;
 
-        /** drive for softClipSoftsign */
+        /** pre-limiter drive passed to the {@link ClipMode} */
         public final float drive;
 
         /**
@@ -157,11 +259,7 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * @param out           target AudioOutput for playback
      */
     public PASharedBufferSampler(MultiChannelBuffer multiBuffer, float sampleRate, AudioOutput out) {
-        this.buffer = Arrays.copyOf(multiBuffer.getChannel(0), multiBuffer.getBufferSize());
-        this.bufferLen = buffer.length;
-        this.playbackSampleRate = sampleRate;
-        this.out = out;
-        this.patch(out);
+        this(PASampleBuffer.copyOf(multiBuffer, sampleRate), out, DEFAULT_MAX_VOICES);
     }
     
     /**
@@ -173,15 +271,32 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * @param maxVoices            maximum simultaneous voices
      */
     public PASharedBufferSampler(MultiChannelBuffer multiBuffer, float playbackSampleRate, AudioOutput out, int maxVoices) {
-    	this.buffer = Arrays.copyOf(multiBuffer.getChannel(0), multiBuffer.getBufferSize());
-       	this.bufferLen = buffer.length;
-    	this.playbackSampleRate = playbackSampleRate;
+    	this(PASampleBuffer.copyOf(multiBuffer, playbackSampleRate), out, maxVoices);
+    }
+
+    /**
+     * Constructs a sampler over a shared, immutable sample buffer. The buffer is not copied,
+     * so any number of samplers can play the same data.
+     *
+     * @param sampleBuffer   shared source buffer; its sample rate sets the playback rate
+     * @param out            target AudioOutput for playback, or null to patch the sampler later
+     * @param maxVoices      maximum simultaneous voices
+     */
+    public PASharedBufferSampler(PASampleBuffer sampleBuffer, AudioOutput out, int maxVoices) {
+    	this.source = Objects.requireNonNull(sampleBuffer, "sampleBuffer");
+    	this.bufferLen = sampleBuffer.length();
+    	this.playbackSampleRate = sampleBuffer.sampleRate();
+    	this.current = sampleBuffer.retain();
+    	this.currentRate = playbackSampleRate;
     	this.out = out;
     	this.maxVoices = Math.max(1, maxVoices);
-       	for (int i = 0; i < this.maxVoices; i++) {
-    		voices.add(new PASamplerVoice(buffer, playbackSampleRate));
-    	}
-    	this.patch(out);   	
+    	this.voices = allocateVoices(new PASamplerVoice[0], this.maxVoices);
+    	this.pendingVoices = voices;
+    	this.allocator = new VoiceAllocator(voices.length);
+    	this.metrics = new EngineMetrics("PASharedBufferSampler", CONTROL_BLOCK_SIZE,
+    			(out != null) ? out.sampleRate() : playbackSampleRate);
+    	scheduler.setMetrics(metrics);
+    	if (out != null) this.patch(out);
     }
     
 
@@ -199,8 +314,8 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * Plays a buffer region immediately.
      *
      * <p>The requested {@code samplePos} and {@code sampleLen} are normalized against the
-     * current source buffer before a voice is activated. This method starts playback from the
-     * calling thread's request as soon as the audio callback next renders this sampler; use
+     * current source buffer before a voice is activated. The request is posted to the lock-free
+     * command ring and the voice starts at the next control-block boundary; use
      * {@link #startAtSampleTime(int, int, float, ADSRParams, float, float, long)} when the
      * launch must align to a specific sampler-clock sample.</p>
      *
@@ -211,42 +326,80 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * @param pitch       playback-rate multiplier
      * @param pan         stereo pan position
      * @return computed voice duration in output samples, or 0 if playback could not start
+     *         or the command ring is full
      */
      @Override
-    public synchronized int play(int samplePos, int sampleLen, float amplitude,
+    public int play(int samplePos, int sampleLen, float amplitude,
                                  ADSRParams env, float pitch, float pan) {
         int[] range = normalizeRange(samplePos, sampleLen);
         if (range == null) return 0;
-        PASamplerVoice v = getAvailableVoice();
-        if (v == null) return 0;
-        v.activate(range[0], range[1], amplitude, env, pitch, pan, globalLooping, wrapAround);
+        if (postPlay(range, amplitude, env, pitch, pan) < 0) return 0;
         int eventSamples = computeEventSamples(range[0], range[1], env, pitch);
-        float bufferReadSamples = range[1] * Math.abs(pitch);
-        float durationMS = eventSamples / playbackSampleRate * 1000f;
-        // information to be shared later
-        PlaybackInfo info = new PlaybackInfo(
-            v.getVoiceId(),
-            eventSamples,
-            bufferReadSamples,
-            durationMS,
-            globalLooping,
-            sampleCursor,
-            playbackSampleRate
-        );
         // debugging
         if (DEBUG) 
-            System.out.printf("[Voice %d] eventDuration=%d samples (%.2f ms)%n",
-            v.getVoiceId(), eventSamples,
-            eventSamples / playbackSampleRate * 1000f);        
+            System.out.printf("[Sampler] eventDuration=%d samples (%.2f ms)%n",
+            eventSamples, eventSamples / playbackSampleRate * 1000f);        
         return eventSamples;
     }
 
+    /**
+     * Plays a buffer region immediately, like {@link #play(int, int, float, ADSRParams, float, float) play},
+     * and returns a handle to the voice instead of its duration.
+     *
+     * <p>The voice id is reserved here, before the voice exists, and travels with the play
+     * command. Commands are applied in order, so {@link #setVoicePan(long, float)},
+     * {@link #setVoiceGain(long, float)} and {@link #setParam(long, VoiceParam, float)} can be
+     * called with the id at once and will reach the voice. Once the voice starts,
+     * {@link PASamplerVoice#getVoiceId()} returns the same id. If no voice can be allocated
+     * when the command is processed, the id simply matches nothing.</p>
+     *
+     * @param samplePos   source-buffer index to start playback
+     * @param sampleLen   requested source-buffer duration in samples
+     * @param amplitude   per-voice gain multiplier
+     * @param env         ADSR envelope parameters, or null for no voice envelope
+     * @param pitch       playback-rate multiplier
+     * @param pan         stereo pan position
+     * @return id of the voice that will play the region, or -1 if the region is empty or the
+     *         command ring is full
+     */
+    public long playVoice(int samplePos, int sampleLen, float amplitude,
+                          ADSRParams env, float pitch, float pan) {
+        int[] range = normalizeRange(samplePos, sampleLen);
+        if (range == null) return -1L;
+        return postPlay(range, amplitude, env, pitch, pan);
+    }
+
+    /** Posts a PLAY command for a normalized range and returns the reserved voice id, or -1. */
+    private long postPlay(int[] range, float amplitude, ADSRParams env, float pitch, float pan) {
+        prefetch(range[0]);
+        long ticket = commands.claim();
+        if (ticket < 0) {
+            metrics.recordRejected();
+            return -1L;
+        }
+        Command c = commands.slot(ticket);
+        c.type = Command.PLAY;
+        c.samplePos = range[0];
+        c.sampleLen = range[1];
+        c.amplitude = amplitude;
+        c.env = env;
+        c.pitch = pitch;
+        c.pan = pan;
+        c.looping = globalLooping;
+        c.wrapAround = wrapAround;
+        long id = PASamplerVoice.nextVoiceId();
+        c.voiceId = id;
+        commands.publish(ticket);
+        return id;
+    }
+
     /**
      * Schedules a sampler voice to start at an absolute sample time.
      *
-     * <p>{@code startSample} is measured on this sampler's local audio-thread clock, returned
-     * by {@link #getCurrentSampleTime()}. The event is enqueued through {@link AudioScheduler}
-     * and activated inside {@link #uGenerate(float[])} when the clock reaches that sample.</p>
+     * <p>{@code startSample} is measured on the clock returned by {@link #getCurrentSampleTime()}:
+     * the shared transport if one is set, otherwise this sampler's local audio-thread clock. The
+     * event is enqueued through {@link AudioScheduler} and activated inside
+     * {@link #uGenerate(float[])} when the clock reaches that sample.</p>
      *
      * @param samplePos     source-buffer index to start playback
      * @param sampleLen     requested source-buffer duration in samples
@@ -254,14 +407,16 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * @param env           ADSR envelope parameters, or null for no voice envelope
      * @param pitch         playback-rate multiplier
      * @param pan           stereo pan position
-     * @param startSample   absolute sample time on this sampler's local clock
+     * @param startSample   absolute sample time on this sampler's clock
      */
     @Override
-    public synchronized void startAtSampleTime(int samplePos, int sampleLen, float amplitude,
+    public void startAtSampleTime(int samplePos, int sampleLen, float amplitude,
             ADSRParams env, float pitch, float pan, long startSample) {
         int[] range = normalizeRange(samplePos, sampleLen);
         if (range == null) return;
-        scheduler.schedulePoint(startSample,
+        prefetch(range[0]);
+        final PATransport.Follower f = transport;
+        scheduler.schedulePoint((f != null) ? f.toLocal(startSample) : startSample,
                 new ScheduledPlay(range[0], range[1], amplitude, env, pitch, pan,
                         globalLooping, wrapAround));
     }
@@ -278,32 +433,54 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * @param delaySamples   delay from the current sampler clock, clamped to 0 or greater
      */
     @Override
-    public synchronized void startAfterDelaySamples(int samplePos, int sampleLen, float amplitude,
+    public void startAfterDelaySamples(int samplePos, int sampleLen, float amplitude,
             ADSRParams env, float pitch, float pan, long delaySamples) {
-        long startSample = sampleCursor + Math.max(0L, delaySamples);
+        long startSample = getCurrentSampleTime() + Math.max(0L, delaySamples);
         startAtSampleTime(samplePos, sampleLen, amplitude, env, pitch, pan, startSample);
     }
 
     /**
-     * Returns the sampler-local audio-thread sample clock.
+     * Returns the sampler's audio-thread sample clock.
      *
-     * <p>The clock advances once for each {@link #uGenerate(float[])} call. It is suitable
-     * for scheduling future events on this sampler; applications that need multiple engines
-     * to align should choose one shared transport clock and convert all event times to that
-     * same absolute sample domain.</p>
+     * <p>The clock advances once for each {@link #uGenerate(float[])} call. Without a
+     * transport it is local to this sampler. Applications that need multiple engines to align
+     * should subscribe them all to one {@link PATransport} with {@link #setTransport}, and the
+     * clock then reads in transport time.</p>
      *
-     * @return current sampler-local sample cursor
+     * @return current sample time, in transport time when a transport is set
      */
     @Override
-    public synchronized long getCurrentSampleTime() {
-        return sampleCursor;
+    public long getCurrentSampleTime() {
+        final PATransport.Follower f = transport;
+        return (f != null) ? f.toTransport(sampleCursor) : sampleCursor;
+    }
+
+    /**
+     * Subscribes this sampler to a shared transport, or unsubscribes it with null.
+     *
+     * <p>While subscribed, {@link #getCurrentSampleTime()} reports transport time and
+     * {@link #startAtSampleTime} reads its start sample as transport time, so events sent to
+     * several engines with the same start sample land on the same output sample. The offset
+     * between this sampler's cursor and the transport is measured on the audio thread at the
+     * next output buffer boundary.</p>
+     *
+     * @param transport   shared transport, or null to use the local clock
+     */
+    public void setTransport(PATransport transport) {
+        this.transport = (transport != null) ? transport.follow(sampleCursor) : null;
+    }
+
+    /** @return the transport this sampler follows, or null */
+    public PATransport getTransport() {
+        final PATransport.Follower f = transport;
+        return (f != null) ? f.getTransport() : null;
     }
 
     /**
      * Clears pending scheduled starts without stopping active voices.
      */
     @Override
-    public synchronized void clearScheduled() {
+    public void clearScheduled() {
         scheduler.clear();
     }
 
@@ -316,7 +493,7 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      *         is the clamped length, or null when the request cannot produce playback
      */
     private int[] normalizeRange(int samplePos, int sampleLen) {
-        if (buffer == null || bufferLen <= 0 || sampleLen <= 0 || samplePos >= bufferLen) return null;
+        if (source == null || bufferLen <= 0 || sampleLen <= 0 || samplePos >= bufferLen) return null;
         int pos = Math.max(0, samplePos);
         int len = sampleLen;
         if (!wrapAround && pos + len > bufferLen) len = bufferLen - pos;
@@ -324,6 +501,11 @@ public class PASharedBufferSampler extends UGen implements PASampler {
         return new int[] { pos, len };
     }
 
+    /** Starts loading the opening chunks of a note when the source streams from disk. */
+    private void prefetch(int samplePos) {
+        if (source instanceof PAStreamingSampleBuffer psb) psb.prefetch(samplePos);
+    }
+
     /**
      * Computes the expected rendered duration of a voice in samples.
      *
@@ -347,68 +529,209 @@ public class PASharedBufferSampler extends UGen implements PASampler {
     }
 
     /**
-     * Get a free voice, or recycle the oldest active one if at the polyphony limit.
+     * Grows a voice array to {@code count} voices, reusing the voices already present.
+     * Called on the control thread; the audio thread only ever sees fully built arrays.
      */
-    private PASamplerVoice getAvailableVoice() {
-        // 1) Free voice first
-        for (PASamplerVoice v : voices) {
-            if (!v.isActive() && !v.isReleasing()) {
-                return v;
-            }
+    private PASamplerVoice[] allocateVoices(PASamplerVoice[] current, int count) {
+        if (current.length >= count) return current;
+        PASamplerVoice[] grown = Arrays.copyOf(current, count);
+        for (int i = current.length; i < count; i++) {
+            grown[i] = new PASamplerVoice(source.data(), playbackSampleRate);
         }
-        // 2) Allocate if under limit
-        if (voices.size() < maxVoices) {
-            PASamplerVoice v = new PASamplerVoice(buffer, playbackSampleRate);
-            voices.add(v);
-            return v;
+        return grown;
+    }
+
+    /**
+     * Get the index of a free voice, or steal one according to the steal policy if at the
+     * polyphony limit. Audio thread only; constant time apart from an O(log n) heap update
+     * when stealing, and never allocates.
+     */
+    private int getAvailableVoice(float pitch) {
+        int idx = allocator.acquire(pitch);
+        if (idx >= 0) return idx;
+        idx = allocator.steal(stealPolicy, pitch);
+        if (idx >= 0) {
+            metrics.recordSteal();
+            PASamplerVoice victim = voices[idx];
+            if (smoothSteal) victim.release();
+            else victim.stop();
         }
-        // 3) Recycle oldest
-        PASamplerVoice oldest = null;
-        for (PASamplerVoice v : voices) {
-            if (v.isActive() && (oldest == null || v.getVoiceId() < oldest.getVoiceId())) {
-                oldest = v;
-            }
+        return idx;
+    }
+
+    /**
+     * Activates a voice on the audio thread.
+     *
+     * @param voiceId   id reserved by {@link #playVoice}, or -1 to keep the id the voice assigns itself
+     */
+    private void startVoice(int samplePos, int sampleLen, float amplitude, ADSRParams env,
+            float pitch, float pan, boolean looping, boolean wrap, long voiceId) {
+        int idx = getAvailableVoice(pitch);
+        if (idx < 0) {
+            metrics.recordRejected();
+            return;
         }
-        if (oldest != null) {
-            // System.out.println("-- sampler voice recycle: stealing oldest voice " + oldest.getVoiceId());
-            if (smoothSteal) oldest.release();
-            else oldest.stop();
-            return oldest;
+        PASamplerVoice v = voices[idx];
+        v.setSource(current, currentRate);
+        v.setInterpolation(interpolation);
+        v.activate(samplePos, sampleLen, amplitude, env, pitch, pan, looping, wrap);
+        if (voiceId >= 0) v.setVoiceId(voiceId);
+        if (!v.isActive()) {
+            allocator.free(idx);   // empty region
+            metrics.recordRejected();
         }
-        return null; // shouldn't happen
+        else {
+            metrics.recordTrigger();
+        }
+        allocatedVoices = allocator.allocatedCount();
+    }
+
+    /**
+     * Applies one control command on the audio thread. Called from {@link #uGenerate(float[])}
+     * while draining the command ring.
+     */
+    private void executeCommand(Command c) {
+        final PASamplerVoice[] vs = voices;
+        switch (c.type) {
+            case Command.PLAY:
+                startVoice(c.samplePos, c.sampleLen, c.amplitude, c.env, c.pitch, c.pan,
+                        c.looping, c.wrapAround, c.voiceId);
+                break;
+            case Command.RELEASE_ALL:
+                for (PASamplerVoice v : vs) {
+                    if (v.isActive() || v.isReleasing()) v.release();
+                }
+                break;
+            case Command.STOP_ALL:
+                for (PASamplerVoice v : vs) v.stop();
+                allocator.reset();
+                allocatedVoices = 0;
+                break;
+            case Command.SWAP_BUFFER:
+                // copy-on-write: sounding voices keep their buffer, new voices bind the new one
+                if (c.sampleBuffer != current) {
+                    if (current != null) current.release();
+                    current = c.sampleBuffer.retain();
+                }
+                if (c.sampleRate > 0f) currentRate = c.sampleRate;
+                break;
+            case Command.SET_PLAYBACK_RATE:
+                currentRate = c.sampleRate;
+                for (PASamplerVoice v : vs) v.setPlaybackSampleRate(c.sampleRate);
+                break;
+            case Command.SET_MAX_VOICES:
+                if (c.voices != null && c.allocator != null) {
+                    c.allocator.copyFrom(allocator);
+                    allocator = c.allocator;
+                    voices = c.voices;
+                }
+                allocator.setLimit(c.count);
+                break;
+            case Command.SET_PARAM:
+                for (PASamplerVoice v : vs) {
+                    if ((v.isActive() || v.isReleasing()) && (c.voiceId < 0 || v.getVoiceId() == c.voiceId)) {
+                        if (c.param == VoiceParam.GAIN) v.setGain(c.value);
+                        else v.setPan(c.value);
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        c.clearRefs();
+    }
+
+    /**
+     * Changes a parameter of a sounding voice. The change takes effect at the next control
+     * block and is ramped over {@link PASamplerVoice#PARAM_RAMP_SAMPLES} samples, so automation
+     * does not click. The call never waits; if the command ring is full the change is dropped.
+     *
+     * @param voiceId   id returned by {@link #playVoice}, or -1 for all sounding voices
+     * @param param     parameter to change
+     * @param value     new value: a linear gain for {@link VoiceParam#GAIN}, -1 to 1 for {@link VoiceParam#PAN}
+     * @return true if the change was queued, false if the ring was full
+     */
+    public boolean setParam(long voiceId, VoiceParam param, float value) {
+        if (param == null) return false;
+        long ticket = commands.claim();
+        if (ticket < 0) return false;
+        Command c = commands.slot(ticket);
+        c.type = Command.SET_PARAM;
+        c.voiceId = voiceId;
+        c.param = param;
+        c.value = value;
+        commands.publish(ticket);
+        return true;
+    }
+
+    /**
+     * Moves a sounding voice to a new stereo position; shorthand for
+     * {@link #setParam(long, VoiceParam, float) setParam(voiceId, VoiceParam.PAN, pan)}.
+     *
+     * @param voiceId   id returned by {@link #playVoice}, or -1 for all sounding voices
+     * @param pan       stereo pan position, -1.0 (left) to 1.0 (right)
+     * @return true if the change was queued, false if the ring was full
+     */
+    public boolean setVoicePan(long voiceId, float pan) {
+        return setParam(voiceId, VoiceParam.PAN, pan);
+    }
+
+    /**
+     * Changes the amplitude of a sounding voice with a short linear ramp; shorthand for
+     * {@link #setParam(long, VoiceParam, float) setParam(voiceId, VoiceParam.GAIN, gain)}.
+     *
+     * @param voiceId   id returned by {@link #playVoice}, or -1 for all sounding voices
+     * @param gain      linear gain multiplier
+     * @return true if the change was queued, false if the ring was full
+     */
+    public boolean setVoiceGain(long voiceId, float gain) {
+        return setParam(voiceId, VoiceParam.GAIN, gain);
+    }
+
+    /**
+     * Posts a command that carries no arguments beyond its type. Never waits: if the ring is
+     * full the command is dropped.
+     *
+     * @return true if the command was queued
+     */
+    private boolean postCommand(int type) {
+        long ticket = commands.claim();
+        if (ticket < 0) return false;
+        commands.slot(ticket).type = type;
+        commands.publish(ticket);
+        return true;
     }
 
     /**
      * Required by Minim.UGen, core method for audio synthesis called by Minim.
      *
-     * <p>Scheduled point events are processed first so voices that start at the current
-     * {@code sampleCursor} contribute to this output sample. The method then mixes active
-     * voices, applies constant-power panning, density normalization, and soft limiting, and
-     * finally advances the sampler-local clock by one sample.</p>
+     * <p>At the start of each control block the command ring is drained, so queued plays,
+     * stops, releases and buffer swaps take effect together. Scheduled point events are
+     * processed next so voices that start at the current {@code sampleCursor} contribute to
+     * this output sample. The method then mixes active voices, applies constant-power panning,
+     * density normalization, and soft limiting, and finally advances the sampler-local clock
+     * by one sample. No monitor is taken here. Block render time, voice count and limiter
+     * gain reduction are published to {@link #getMetrics()} at each block boundary.</p>
      */
     @Override
-    protected synchronized void uGenerate(float[] channels) {
-        scheduler.processBlock(
-                sampleCursor,
-                1,
-                (ScheduledPlay sp, int offsetInBlock) -> {
-                    PASamplerVoice v = getAvailableVoice();
-                    if (v != null) {
-                        v.activate(sp.samplePos, sp.sampleLen, sp.amplitude,
-                                sp.env, sp.pitch, sp.pan, sp.looping, sp.wrapAround);
-                    }
-                },
-                null
-        );
+    protected void uGenerate(float[] channels) {
+        final long now = sampleCursor;
+        final boolean blockStart = (now & CONTROL_BLOCK_MASK) == 0;
+        if (blockStart) metrics.endBlock(allocatedVoices);
+        final long t0 = metrics.beginFrame();
+        final PATransport.Follower follower = transport;
+        if (follower != null) follower.observe(now);
+        if (blockStart) commands.drain(commandHandler);
+        scheduler.processBlock(now, 1, scheduledStartHandler, null);
 
         Arrays.fill(channels, 0f);
 
         final MixProfile profile = this.mixProfile;
         float activeWeight = 0f;
 
-        Iterator<PASamplerVoice> it = voices.iterator();
-        while (it.hasNext()) {
-            PASamplerVoice v = it.next();
+        final PASamplerVoice[] vs = voices;
+        for (int i = 0; i < vs.length; i++) {
+            PASamplerVoice v = vs[i];
 
             float sample;
             try {
@@ -428,17 +751,18 @@ public class PASharedBufferSampler extends UGen implements PASampler {
                     activeWeight += profile.releaseWeight;
                 }
 
-                float pan = v.getPan(); // [-1, +1]
-                float theta = (pan + 1f) * (float) (Math.PI * 0.25); // 0..pi/2
-                float leftGain = (float) Math.cos(theta);
-                float rightGain = (float) Math.sin(theta);
-
-                channels[0] += sample * leftGain;
-                if (channels.length > 1) channels[1] += sample * rightGain;
+                // equal-power gains are cached in the voice and ramped on change
+                channels[0] += sample * v.getPanGainLeft();
+                if (channels.length > 1) channels[1] += sample * v.getPanGainRight();
             }
 
             if (v.isFinished()) {
                 v.resetPosition();
+                allocator.free(i);
+                allocatedVoices = allocator.allocatedCount();
+            }
+            else if (isReleasing) {
+                allocator.markReleasing(i);
             }
         }
 
@@ -458,62 +782,82 @@ public class PASharedBufferSampler extends UGen implements PASampler {
          * alpha smooths how fast mixNorm changes. 
          * mixNorm scales masterGain.
          */
-        float targetNorm = (activeWeight > 1f)
-                ? 1f / (float) Math.pow(activeWeight, profile.normExponent)
-                : 1f;
+        /* The target is re-evaluated once per control block, and at once when the density
+         * rises so a burst of new voices cannot overload the limiter for a whole block.
+         * Math.pow therefore runs at voice-event rate, never per sample. */
+        if ((blockStart && (activeWeight != densityWeight || profile.normExponent != densityExponent))
+                || activeWeight > densityWeight) {
+            densityWeight = activeWeight;
+            densityExponent = profile.normExponent;
+            densityNorm = densityNorm(activeWeight, profile.normExponent);
+        }
 
-        mixNorm += profile.alpha * (targetNorm - mixNorm);
+        mixNorm += profile.alpha * (densityNorm - mixNorm);
 
         float g = mixNorm * masterGain;
         channels[0] *= g;
         if (channels.length > 1) channels[1] *= g;
 
         // Soft limiter
-        channels[0] = softClipSoftsign(channels[0], profile.drive);
+        final ClipMode clip = clipMode;
+        float pre = channels[0];
+        channels[0] = clip.apply(pre, profile.drive);
+        metrics.trackLimiter(pre * profile.drive, channels[0]);
         if (channels.length > 1) {
-            channels[1] = softClipSoftsign(channels[1], profile.drive);
+            pre = channels[1];
+            channels[1] = clip.apply(pre, profile.drive);
+            metrics.trackLimiter(pre * profile.drive, channels[1]);
         }
 
-        sampleCursor++;
+        sampleCursor = now + 1;
+        metrics.endFrame(t0);
     }
     
     
     /**
-     * Applies a softsign limiter to reduce overload without hard clipping.
+     * Density normalization target {@code 1 / activeWeight^normExponent}, or 1 for a single
+     * voice or silence.
      *
-     * <p>The input is first scaled by {@code drive}, then mapped through
-     * {@code y / (1 + abs(y))}. Small values stay close to linear, while large
-     * positive or negative values asymptotically approach -1 or 1.</p>
-     * <p>A drive value of 1.0 is basically neutral. Typical active values 
-     * are in the range 1.2 to 1.6. 2.0 to 3.3 provides obvious compress, 
-     * above 4.0 probably distorts. MixProfile provides :TRANSPARENT: 1.35, 
-     * BALANCED: 1.60, PROTECTIVE: 1.25.</p>
+     * @param activeWeight   weighted count of sounding voices
+     * @param normExponent   exponent from the {@link MixProfile}
+     * @return normalization gain in (0, 1]
+     */
+    static float densityNorm(float activeWeight, float normExponent) {
+        return (activeWeight > 1f) ? 1f / (float) Math.pow(activeWeight, normExponent) : 1f;
+    }
+
+    /**
+     * Selects the soft limiter curve applied to the mixed output.
      *
-     * @param x       input sample
-     * @param drive   pre-limiter gain controlling how quickly the curve saturates
-     * @return softly limited sample
+     * @param mode   SOFTSIGN (default), TABLE or CUBIC
      */
-    static float softClipSoftsign(float x, float drive) {
-        float y = drive * x;
-        return y / (1f + Math.abs(y));
+    public void setClipMode(ClipMode mode) {
+        if (mode != null) this.clipMode = mode;
+    }
+
+    /** @return soft limiter curve applied to the mixed output */
+    public ClipMode getClipMode() {
+        return clipMode;
     }
     
     // PASampler methods
 
+    /**
+     * Stops all voices immediately. The stop is queued and applied at the next control block;
+     * it is dropped if the command ring is full.
+     */
     @Override
     public void stopAll() {
-        synchronized (this) {
-            for (PASamplerVoice v : voices) v.stop();
-        }
+        postCommand(Command.STOP_ALL);
     }
     
+    /**
+     * Releases all sounding voices. The release is queued and applied at the next control block;
+     * it is dropped if the command ring is full.
+     */
     @Override
     public void releaseAll() {
-        synchronized (this) {
-            for (PASamplerVoice v : voices) {
-                if (v.isActive() || v.isReleasing()) v.release();
-            }
-        }
+        postCommand(Command.RELEASE_ALL);
     }
 
     @Override
@@ -567,14 +911,91 @@ public class PASharedBufferSampler extends UGen implements PASampler {
     public boolean isSmoothSteal() { return smoothSteal; }
 
     /**
-     * Change maximum polyphony at runtime.
+     * Selects the buffer read kernel for newly triggered voices. LINEAR or HERMITE make
+     * pitched playback usable without pre-rendering transposed buffers; SINC adds band-limiting
+     * for upward transpositions at a higher CPU cost.
+     *
+     * @param mode   interpolation mode; null selects {@link SampleInterpolation#TRUNCATE}
+     */
+    public void setInterpolation(SampleInterpolation mode) {
+        this.interpolation = (mode != null) ? mode : SampleInterpolation.TRUNCATE;
+    }
+
+    /** @return read kernel applied to newly triggered voices */
+    public SampleInterpolation getInterpolation() { return interpolation; }
+
+    /**
+     * Change maximum polyphony at runtime. Additional voices are allocated here, on the calling
+     * thread, and published to the audio thread as a new voice array.
      *
      * @param maxVoices maximum simultaneous voices
+     * @return true if the change was queued, false if the command ring was full
      */
-    public synchronized void setMaxVoices(int maxVoices) {
-        this.maxVoices = Math.max(1, maxVoices);
+    public synchronized boolean setMaxVoices(int maxVoices) {
+        int n = Math.max(1, maxVoices);
+        if (n == this.maxVoices) return true;
+        long ticket = commands.claim();
+        if (ticket < 0) return false;
+        Command c = commands.slot(ticket);
+        c.type = Command.SET_MAX_VOICES;
+        c.count = n;
+        if (n > pendingVoices.length) {
+            // build the larger voice array and allocator here, growing the newest array rather
+            // than the adopted one, which may lag behind a grow still in the ring
+            pendingVoices = allocateVoices(pendingVoices, n);
+            c.voices = pendingVoices;
+            c.allocator = new VoiceAllocator(n);
+        }
+        commands.publish(ticket);
+        this.maxVoices = n;
+        return true;
     }
 
+    /**
+     * Selects how a voice is chosen for reuse when all voices are busy.
+     *
+     * @param policy   OLDEST (default), QUIETEST, or SAME_PITCH
+     */
+    public void setStealPolicy(VoiceAllocator.StealPolicy policy) {
+        if (policy != null) this.stealPolicy = policy;
+    }
+
+    /**
+     * Sets how scheduled starts whose sample time has already passed are handled.
+     *
+     * @param policy   DROP (default) or CLAMP_TO_BLOCK_START
+     */
+    public void setLatePolicy(AudioScheduler.LatePolicy policy) {
+        scheduler.setLatePolicy(policy);
+    }
+
+    /**
+     * Returns the live metrics of this sampler: triggers, rejected triggers, steals, late
+     * scheduled starts, voice count, block render time and limiter gain reduction.
+     *
+     * @return metrics written by the audio thread
+     */
+    @Override
+    public EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** @return an immutable copy of the current metrics */
+    public EngineMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
+    /** @return current voice steal policy */
+    public VoiceAllocator.StealPolicy getStealPolicy() { return stealPolicy; }
+
+    /**
+     * Returns the number of allocated (active or releasing) voices as last published by the
+     * audio thread. Constant time.
+     *
+     * @return allocated voice count
+     */
+    public int getAllocatedVoiceCount() { return allocatedVoices; }
+
     /** @return maximum simultaneous voices */
     public int getMaxVoices() { return maxVoices; }
 
@@ -584,7 +1005,7 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * @return unmodifiable voice list
      */
     public List<PASamplerVoice> getVoices() {
-        return Collections.unmodifiableList(voices);
+        return Collections.unmodifiableList(Arrays.asList(voices));
     }
     
     // ----- Accessors ----- //
@@ -619,35 +1040,76 @@ public class PASharedBufferSampler extends UGen implements PASampler {
     }
     
     /**
-     * Replaces the sampler source buffer.
+     * Replaces the sampler source buffer without copying it; the caller must not modify the
+     * array afterwards. Voices started after the swap read the new buffer, while voices already
+     * sounding finish on the old one.
      *
      * @param buffer mono source sample buffer
      */
     public synchronized void setBuffer(float[] buffer) {
-    	this.buffer = buffer;
-    	this.bufferLen = (buffer != null) ? buffer.length : 0;
-    	for (PASamplerVoice v : this.voices) {
-    		v.stop();
-    		v.setBuffer(buffer);
-    		v.resetPosition();
-    	}
+    	swapBuffer(PASampleBuffer.wrap(buffer, playbackSampleRate), 0f);
     }
  
     /**
-     * Replaces the sampler source buffer and playback sample rate.
+     * Replaces the sampler source buffer and playback sample rate without copying the array.
+     * Voices started after the swap read the new buffer at the new rate, while voices already
+     * sounding finish on the old one.
      *
      * @param buffer mono source sample buffer
      * @param playbackSampleRate sample rate of the source buffer in Hz
      */
     public synchronized void setBuffer(float[] buffer, float playbackSampleRate) {
-    	this.buffer = buffer;
-    	this.bufferLen = (buffer != null) ? buffer.length : 0;
-    	this.playbackSampleRate = playbackSampleRate;
-    	for (PASamplerVoice v : this.voices) {
-    		v.stop();
-    		v.setBuffer(buffer);
-    		v.resetPosition();
-    	}
+    	swapBuffer(PASampleBuffer.wrap(buffer, playbackSampleRate), playbackSampleRate);
+    }
+
+    /**
+     * Replaces the sampler source buffer and playback sample rate with a shared buffer. The
+     * swap costs no copy: it is published to the audio thread at the next control block, and
+     * voices already sounding finish on the buffer they started with.
+     *
+     * @param sampleBuffer shared source buffer; its sample rate becomes the playback rate
+     */
+    @Override
+    public synchronized void setBuffer(PASampleBuffer sampleBuffer) {
+    	trySetBuffer(sampleBuffer);
+    }
+
+    /**
+     * Same as {@link #setBuffer(PASampleBuffer)}, but reports whether the swap was queued. If the
+     * command ring stays full the swap is dropped and the sampler keeps its current buffer
+     * and rate.
+     *
+     * @param sampleBuffer shared source buffer; its sample rate becomes the playback rate
+     * @return true if the swap was queued for the audio thread
+     */
+    public synchronized boolean trySetBuffer(PASampleBuffer sampleBuffer) {
+    	if (sampleBuffer == null) return false;
+    	return swapBuffer(sampleBuffer, sampleBuffer.sampleRate());
+    }
+
+    /** @return shared source buffer used for new voices */
+    public PASampleBuffer getSampleBuffer() { return source; }
+
+    /**
+     * Queues a buffer swap for the audio thread and, once it is queued, points the
+     * control-thread view at the new buffer.
+     *
+     * @param sampleBuffer   shared source buffer
+     * @param sampleRate     new playback sample rate, or 0 to keep the current rate
+     * @return false if the command ring stayed full and nothing changed
+     */
+    private boolean swapBuffer(PASampleBuffer sampleBuffer, float sampleRate) {
+    	long ticket = commands.claim();
+    	if (ticket < 0) return false;
+    	Command c = commands.slot(ticket);
+    	c.type = Command.SWAP_BUFFER;
+    	c.sampleBuffer = sampleBuffer;
+    	c.sampleRate = sampleRate;
+    	commands.publish(ticket);
+    	this.source = sampleBuffer;
+    	this.bufferLen = sampleBuffer.length();
+    	if (sampleRate > 0f) this.playbackSampleRate = sampleRate;
+    	return true;
     }
         
     /**
@@ -656,9 +1118,7 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * @return available voice count
      */
     public int countAvailableVoices() {
-        int n = 0;
-        for (PASamplerVoice v : voices) if (!v.isActive() && !v.isReleasing()) n++;
-        return n;
+        return Math.max(0, maxVoices - allocatedVoices);
     }
 
     /**
@@ -696,7 +1156,7 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      *
      * @return playback sample rate in Hz
      */
-    public synchronized float getPlaybackSampleRate() {
+    public float getPlaybackSampleRate() {
     	return playbackSampleRate;
     }
 
@@ -708,10 +1168,13 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      */
     public synchronized void setPlaybackSampleRate(float newRate) {
         if (newRate > 0f && newRate != playbackSampleRate) {
+            long ticket = commands.claim();
+            if (ticket < 0) return;
+            Command c = commands.slot(ticket);
+            c.type = Command.SET_PLAYBACK_RATE;
+            c.sampleRate = newRate;
+            commands.publish(ticket);
             this.playbackSampleRate = newRate;
-            for (PASamplerVoice v : voices) {
-                v.setPlaybackSampleRate(newRate);
-            }
         }
     }
 
@@ -719,7 +1182,7 @@ public class PASharedBufferSampler extends UGen implements PASampler {
      * Convenience: synchronize playback rate with AudioOutput's sample rate.
      * Useful if you want playback speed tied to system rate.
      */
-    public synchronized void updatePlaybackRateFromOutput() {
+    public void updatePlaybackRateFromOutput() {
         if (out != null) {
             setPlaybackSampleRate(out.sampleRate());
         }
@@ -0,0 +1,615 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.sampler;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.paulhertz.pixelaudio.schedule.AudioCommandQueue;
+import net.paulhertz.pixelaudio.schedule.WavFileReader;
+
+/**
+ * Disk-backed {@link PASampleBuffer} that streams channel 0 of a WAV file through a
+ * fixed-size chunk cache, so long samples cost a constant amount of heap.
+ *
+ * <p>The file is divided into chunks of {@link Cache#chunkFrames()} frames. A {@link Cache}
+ * owns a fixed number of chunk slots and one background reader thread, and may be shared by
+ * any number of streams: a library of long samples fits in the cache's heap budget no matter
+ * how many files are open. Slots are recycled with a second-chance (clock) policy.</p>
+ *
+ * <p>Reads never block. {@link #read(int)} returns the sample if its chunk is resident;
+ * otherwise it returns silence, counts an underrun, and queues a load request on a lock-free
+ * ring. Each {@link PASamplerVoice} asks for the next {@link #getLookaheadChunks()} chunks
+ * whenever it crosses a chunk boundary, and the samplers call {@link #prefetch(int)} when a
+ * note is requested, so scheduled notes normally find their data resident. Call
+ * {@link #awaitResident(int, int, long)} from the control thread to preload a region.</p>
+ *
+ * <p>The reader thread parks while the request ring is empty and is unparked by the next
+ * request. {@link Cache#close()} stops it and closes every stream still open on the cache.</p>
+ *
+ * <p>Supported formats are PCM WAV with 8, 16, 24 or 32 bit integer samples and 32 bit float
+ * samples, including WAVE_FORMAT_EXTENSIBLE headers, as parsed by {@link WavFileReader}.
+ * Only channel 0 is read.</p>
+ */
+public final class PAStreamingSampleBuffer extends PASampleBuffer implements Closeable {
+    /** Default chunks requested ahead of a voice's read position. */
+    public static final int DEFAULT_LOOKAHEAD_CHUNKS = 2;
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final int id;
+    private final File file;
+    private final Cache cache;
+    private final FileChannel channel;
+    private final long dataOffset;
+    private final int channels;
+    private final WavFileReader.Format format;
+    private final int frameBytes;
+    private final int chunkCount;
+    /** Chunk index to cache slot, or -1 when the chunk is not resident. */
+    private final AtomicIntegerArray chunkSlot;
+    /** 1 while a load request for the chunk is queued or in progress. */
+    private final AtomicIntegerArray pending;
+    private final AtomicLong underruns = new AtomicLong();
+    private volatile int lookaheadChunks = DEFAULT_LOOKAHEAD_CHUNKS;
+    private volatile boolean closed = false;
+
+    private PAStreamingSampleBuffer(File file, Cache cache, FileChannel channel, WavFileReader.Format f) {
+        super((int) Math.min(Integer.MAX_VALUE, f.frames), f.sampleRate);
+        this.id = NEXT_ID.incrementAndGet();
+        this.file = file;
+        this.cache = cache;
+        this.channel = channel;
+        this.format = f;
+        this.dataOffset = f.dataOffset;
+        this.channels = f.channels;
+        this.frameBytes = f.frameBytes();
+        this.chunkCount = (length() + cache.chunkFrames - 1) / cache.chunkFrames;
+        this.chunkSlot = new AtomicIntegerArray(chunkCount);
+        for (int i = 0; i < chunkCount; i++) chunkSlot.set(i, -1);
+        this.pending = new AtomicIntegerArray(chunkCount);
+    }
+
+    /**
+     * Opens a WAV file for streaming through the shared cache.
+     *
+     * @param file   WAV file
+     * @return streaming buffer over channel 0 of {@code file}
+     * @throws IOException if the file cannot be opened or its format is not supported
+     */
+    public static PAStreamingSampleBuffer open(File file) throws IOException {
+        return open(file, Cache.shared());
+    }
+
+    /**
+     * Opens a WAV file for streaming through {@code cache}.
+     *
+     * @param file    WAV file
+     * @param cache   chunk cache that holds this stream's resident data
+     * @return streaming buffer over channel 0 of {@code file}
+     * @throws IOException if the file cannot be opened or its format is not supported
+     */
+    public static PAStreamingSampleBuffer open(File file, Cache cache) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            WavFileReader.Format f = WavFileReader.readFormat(ch);
+            PAStreamingSampleBuffer sb = new PAStreamingSampleBuffer(file, cache, ch, f);
+            cache.attach(sb);
+            return sb;
+        }
+        catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Audio-thread reads
+    // ------------------------------------------------------------------------
+
+    /**
+     * Reads one sample without blocking. Missing data reads as silence, counts one underrun and
+     * queues a load of the chunk.
+     *
+     * @param index   sample index
+     * @return sample at {@code index}, or 0 if it is out of range or not resident
+     */
+    public float read(int index) {
+        if (index < 0 || index >= length() || closed) return 0f;
+        final Cache k = cache;
+        final int c = index >>> k.shift;
+        final int slot = chunkSlot.get(c);
+        if (slot >= 0) {
+            int version = k.seq.get(slot);
+            if ((version & 1) == 0 && k.owner[slot] == this && k.ownerChunk[slot] == c) {
+                // a closed cache swaps in empty slots; the sequence check below rejects the read
+                float[] data = k.slots[slot];
+                int i = index & k.mask;
+                float x = i < data.length ? data[i] : 0f;
+                VarHandle.acquireFence();
+                if (k.seq.get(slot) == version) {
+                    k.referenced[slot] = 1;
+                    return x;
+                }
+            }
+        }
+        underruns.incrementAndGet();
+        request(c);
+        return 0f;
+    }
+
+    @Override
+    public float get(int index) {
+        return read(index);
+    }
+
+    /**
+     * Requests the chunk holding {@code index} and the following lookahead chunks in the
+     * direction of travel. Called by voices when they cross a chunk boundary; never blocks.
+     *
+     * @param index     current read position; wrapped into the buffer if out of range
+     * @param forward   true when the read position is increasing
+     */
+    public void requestAhead(int index, boolean forward) {
+        int n = length();
+        if (n == 0 || closed) return;
+        index %= n;
+        if (index < 0) index += n;
+        int c = index >>> cache.shift;
+        int ahead = lookaheadChunks;
+        for (int k = 0; k <= ahead; k++) {
+            int cc = forward ? c + k : c - k;
+            if (cc >= chunkCount) cc -= chunkCount;
+            else if (cc < 0) cc += chunkCount;
+            if (chunkSlot.get(cc) < 0) request(cc);
+        }
+    }
+
+    /**
+     * @param index   sample index
+     * @return chunk index holding {@code index}
+     */
+    public int chunkOf(int index) {
+        return index >> cache.shift;
+    }
+
+    /** Queues a load of chunk {@code c} unless one is already pending. */
+    private void request(int c) {
+        if (!pending.compareAndSet(c, 0, 1)) return;
+        AudioCommandQueue<Request> q = cache.requests;
+        long ticket = q.claim();
+        if (ticket < 0) {
+            pending.set(c, 0);
+            return;
+        }
+        Request r = q.slot(ticket);
+        r.stream = this;
+        r.chunk = c;
+        q.publish(ticket);
+        cache.wakeReader();
+    }
+
+    // ------------------------------------------------------------------------
+    // Control-thread prefetch
+    // ------------------------------------------------------------------------
+
+    /**
+     * Requests the chunk holding {@code samplePos} and the lookahead chunks after it, and wakes
+     * the reader thread. Samplers call this when a note is requested, before it reaches the
+     * audio thread.
+     *
+     * @param samplePos   start of the region about to be played
+     */
+    public void prefetch(int samplePos) {
+        requestAhead(samplePos, true);
+        cache.wakeReader();
+    }
+
+    /**
+     * Loads the chunks covering a region and waits until they are resident. Control thread
+     * only. A region longer than half the cache is truncated, since it could not stay resident.
+     *
+     * @param samplePos       start of the region
+     * @param sampleLen       length of the region in samples
+     * @param timeoutMillis   maximum time to wait
+     * @return true if every chunk of the region is resident
+     */
+    public boolean awaitResident(int samplePos, int sampleLen, long timeoutMillis) {
+        int n = length();
+        if (n == 0 || closed) return false;
+        int first = Math.max(0, Math.min(n - 1, samplePos)) >>> cache.shift;
+        int last = Math.max(0, Math.min(n - 1, samplePos + Math.max(1, sampleLen) - 1)) >>> cache.shift;
+        last = Math.min(last, first + cache.slotCount() / 2 - 1);
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        while (true) {
+            boolean all = true;
+            for (int c = first; c <= last; c++) {
+                if (chunkSlot.get(c) < 0) {
+                    all = false;
+                    request(c);
+                }
+            }
+            if (all) return true;
+            cache.wakeReader();
+            if (System.nanoTime() >= deadline) return false;
+            LockSupport.parkNanos(200_000L);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Reader-thread loading
+    // ------------------------------------------------------------------------
+
+    /** Reads chunk {@code c} into {@code dest}, zero-filling past the end. Reader thread only. */
+    private boolean readChunk(int c, float[] dest, Cache k) {
+        int frames = Math.min(k.chunkFrames, length() - c * k.chunkFrames);
+        if (frames <= 0) return false;
+        ByteBuffer bb = k.scratch(frames * frameBytes);
+        long pos = dataOffset + (long) c * k.chunkFrames * frameBytes;
+        try {
+            while (bb.hasRemaining()) {
+                int got = channel.read(bb, pos + bb.position());
+                if (got < 0) break;
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+        bb.flip();
+        int avail = Math.min(frames, bb.limit() / frameBytes);
+        for (int i = 0; i < avail; i++) dest[i] = format.decode(bb, i * frameBytes);
+        for (int i = avail; i < dest.length; i++) dest[i] = 0f;
+        return true;
+    }
+
+    /**
+     * Reads every sample of channel 0 into a new array. Runs on the calling thread and does not
+     * use the cache.
+     */
+    @Override
+    public float[] toArray() {
+        float[] out = new float[length()];
+        int step = cache.chunkFrames;
+        ByteBuffer bb = ByteBuffer.allocate(step * frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (int start = 0; start < out.length; start += step) {
+                int frames = Math.min(step, out.length - start);
+                bb.clear();
+                bb.limit(frames * frameBytes);
+                long pos = dataOffset + (long) start * frameBytes;
+                while (bb.hasRemaining()) {
+                    if (channel.read(bb, pos + bb.position()) < 0) break;
+                }
+                bb.flip();
+                int avail = Math.min(frames, bb.limit() / frameBytes);
+                for (int i = 0; i < avail; i++) out[start + i] = format.decode(bb, i * frameBytes);
+            }
+        }
+        catch (IOException e) {
+            // return what was read; the rest stays silent
+        }
+        return out;
+    }
+
+    // ------------------------------------------------------------------------
+    // Status and lifecycle
+    // ------------------------------------------------------------------------
+
+    /** @return number of samples read as silence because their chunk was not resident */
+    public long getUnderrunCount() { return underruns.get(); }
+
+    /** Resets the underrun counter. */
+    public void resetUnderrunCount() { underruns.set(0L); }
+
+    /** @return chunks requested ahead of each voice's read position */
+    public int getLookaheadChunks() { return lookaheadChunks; }
+
+    /** @param chunks chunks to request ahead of each voice's read position, at least 0 */
+    public void setLookaheadChunks(int chunks) { this.lookaheadChunks = Math.max(0, chunks); }
+
+    /** @return number of chunks in the file */
+    public int getChunkCount() { return chunkCount; }
+
+    /** @return number of this stream's chunks currently resident in the cache */
+    public int getResidentChunkCount() {
+        int n = 0;
+        for (int c = 0; c < chunkCount; c++) if (chunkSlot.get(c) >= 0) n++;
+        return n;
+    }
+
+    /** @return number of channels in the file (only channel 0 is played) */
+    public int getFileChannels() { return channels; }
+
+    /** @return source file */
+    public File getFile() { return file; }
+
+    /** @return cache holding this stream's resident chunks */
+    public Cache getCache() { return cache; }
+
+    /** @return true after {@link #close()} */
+    public boolean isClosed() { return closed; }
+
+    /**
+     * Closes the file. Further reads return silence, and the cache reclaims this stream's slots
+     * as other streams need them.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        cache.detach(this);
+        channel.close();
+    }
+
+    // ------------------------------------------------------------------------
+    // Cache
+    // ------------------------------------------------------------------------
+
+    /** Load request record, preallocated in the cache's request ring. */
+    private static final class Request {
+        PAStreamingSampleBuffer stream;
+        int chunk;
+    }
+
+    /**
+     * Fixed-size chunk cache with one background reader thread, shared by any number of
+     * streams. Heap use is {@code slotCount * chunkFrames * 4} bytes regardless of how many
+     * streams are open or how long they are.
+     *
+     * <p>Each slot carries a sequence number that the reader makes odd while it refills the
+     * slot, so an audio thread that races with a refill sees the change and treats the read as
+     * a miss rather than returning data from the wrong chunk.</p>
+     *
+     * <p>The reader parks when the request ring is empty. A producer unparks it only when it
+     * has announced that it is parked, so requests from the audio thread cost no system call
+     * while the reader is busy. {@link #close()} stops the reader, closes the streams still
+     * open on the cache and releases the slot memory.</p>
+     */
+    public static final class Cache implements Closeable {
+        /** Default frames per chunk. */
+        public static final int DEFAULT_CHUNK_FRAMES = 16384;
+        /** Default slot count: 32 MB of samples at the default chunk size. */
+        public static final int DEFAULT_SLOT_COUNT = 512;
+        /** Capacity of the load request ring. */
+        private static final int REQUEST_CAPACITY = 4096;
+        /** Time {@link #close()} waits for the reader to finish its current load. */
+        private static final long READER_JOIN_MILLIS = 2000L;
+        /** Stand-in for released slot data. */
+        private static final float[] EMPTY = new float[0];
+
+        private static Cache shared;
+
+        private final int chunkFrames;
+        private final int shift;
+        private final int mask;
+        private final float[][] slots;
+        private final AtomicIntegerArray seq;
+        private final PAStreamingSampleBuffer[] owner;
+        private final int[] ownerChunk;
+        private final byte[] referenced;
+        private final AudioCommandQueue<Request> requests =
+                new AudioCommandQueue<>(REQUEST_CAPACITY, Request::new);
+        private final AudioCommandQueue.Handler<Request> loadHandler = this::load;
+        private final AtomicLong loads = new AtomicLong();
+        private int hand = 0;
+        private ByteBuffer scratch = ByteBuffer.allocateDirect(0);
+        /** Streams opened on this cache and not yet closed; guarded by {@code this}. */
+        private final List<PAStreamingSampleBuffer> streams = new ArrayList<>();
+        private volatile Thread reader;
+        /** True while the reader is parked or about to park. */
+        private volatile boolean parked = false;
+        private volatile boolean closed = false;
+
+        /**
+         * Builds a cache. The chunk size is rounded up to a power of two.
+         *
+         * @param chunkFrames   frames per chunk
+         * @param slotCount     number of resident chunks
+         */
+        public Cache(int chunkFrames, int slotCount) {
+            int cf = Integer.highestOneBit(Math.max(256, chunkFrames) - 1) << 1;
+            this.chunkFrames = cf;
+            this.shift = Integer.numberOfTrailingZeros(cf);
+            this.mask = cf - 1;
+            int n = Math.max(4, slotCount);
+            this.slots = new float[n][cf];
+            this.seq = new AtomicIntegerArray(n);
+            this.owner = new PAStreamingSampleBuffer[n];
+            this.ownerChunk = new int[n];
+            this.referenced = new byte[n];
+        }
+
+        /**
+         * Returns the cache used by {@link PAStreamingSampleBuffer#open(File)}, creating it with
+         * the default size on first use.
+         *
+         * @return shared cache
+         */
+        public static synchronized Cache shared() {
+            if (shared == null) shared = new Cache(DEFAULT_CHUNK_FRAMES, DEFAULT_SLOT_COUNT);
+            return shared;
+        }
+
+        /** @return frames per chunk */
+        public int chunkFrames() { return chunkFrames; }
+
+        /** @return number of resident chunks */
+        public int slotCount() { return slots.length; }
+
+        /** @return heap used by chunk data in bytes */
+        public long heapBytes() { return 4L * chunkFrames * slots.length; }
+
+        /** @return number of chunks loaded from disk since the cache was created */
+        public long getLoadCount() { return loads.get(); }
+
+        /** @return load requests lost because the request ring was full */
+        public long getDroppedRequestCount() { return requests.overflowCount(); }
+
+        /** @return true after {@link #close()} */
+        public boolean isClosed() { return closed; }
+
+        /** @return the reader thread, or null before the first stream is opened */
+        Thread getReaderThread() { return reader; }
+
+        /**
+         * Stops the reader thread, closes every stream still open on this cache and releases
+         * the slot memory. Streams read silence afterwards and no new streams can be opened.
+         * Closing the shared cache lets {@link #shared()} build a fresh one.
+         */
+        @Override
+        public void close() {
+            List<PAStreamingSampleBuffer> open;
+            Thread t;
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                open = new ArrayList<>(streams);
+                streams.clear();
+                t = reader;
+            }
+            synchronized (Cache.class) {
+                if (shared == this) shared = null;
+            }
+            for (PAStreamingSampleBuffer s : open) {
+                s.closed = true;
+                try {
+                    s.channel.close();
+                }
+                catch (IOException e) {
+                    // the stream is unusable either way
+                }
+            }
+            if (t != null) {
+                LockSupport.unpark(t);
+                try {
+                    t.join(READER_JOIN_MILLIS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (int slot = 0; slot < slots.length; slot++) {
+                seq.incrementAndGet(slot);   // odd for good: every read is a miss
+                PAStreamingSampleBuffer o = owner[slot];
+                if (o != null) o.chunkSlot.compareAndSet(ownerChunk[slot], slot, -1);
+                owner[slot] = null;
+                slots[slot] = EMPTY;
+            }
+            scratch = ByteBuffer.allocateDirect(0);
+        }
+
+        /** Registers a newly opened stream and starts the reader if needed. */
+        private synchronized void attach(PAStreamingSampleBuffer s) throws IOException {
+            if (closed) throw new IOException("stream cache is closed");
+            streams.add(s);
+            if (reader != null) return;
+            Thread t = new Thread(this::runReader, "PixelAudio stream reader");
+            t.setDaemon(true);
+            t.setPriority(Math.min(Thread.MAX_PRIORITY, Thread.NORM_PRIORITY + 1));
+            reader = t;
+            t.start();
+        }
+
+        private synchronized void detach(PAStreamingSampleBuffer s) {
+            streams.remove(s);
+        }
+
+        /** Unparks the reader if it is parked. Safe to call from the audio thread. */
+        private void wakeReader() {
+            if (!parked) return;
+            Thread t = reader;
+            if (t != null) LockSupport.unpark(t);
+        }
+
+        private void runReader() {
+            while (!closed) {
+                if (requests.drain(loadHandler) > 0) continue;
+                // announce before the last look, so a request published meanwhile either is
+                // seen here or finds the flag set and unparks us
+                parked = true;
+                if (requests.isEmpty() && !closed) LockSupport.park(this);
+                parked = false;
+            }
+        }
+
+        /** Loads one requested chunk into a victim slot. Reader thread only. */
+        private void load(Request r) {
+            PAStreamingSampleBuffer s = r.stream;
+            int c = r.chunk;
+            r.stream = null;
+            if (closed || s.closed || s.chunkSlot.get(c) >= 0) {
+                s.pending.set(c, 0);
+                return;
+            }
+            int slot = victim();
+            seq.incrementAndGet(slot);   // odd: readers treat the slot as missing
+            PAStreamingSampleBuffer prev = owner[slot];
+            if (prev != null) prev.chunkSlot.compareAndSet(ownerChunk[slot], slot, -1);
+            owner[slot] = s;
+            ownerChunk[slot] = c;
+            boolean ok = s.readChunk(c, slots[slot], this);
+            if (!ok) owner[slot] = null;
+            seq.incrementAndGet(slot);   // even: slot is stable again
+            if (ok) {
+                referenced[slot] = 1;
+                s.chunkSlot.set(c, slot);
+                loads.incrementAndGet();
+            }
+            s.pending.set(c, 0);
+        }
+
+        /** Picks a slot to refill with the second-chance clock policy. Reader thread only. */
+        private int victim() {
+            int n = slots.length;
+            for (int sweep = 0; sweep < 2 * n; sweep++) {
+                int slot = hand;
+                hand = (hand + 1 == n) ? 0 : hand + 1;
+                PAStreamingSampleBuffer o = owner[slot];
+                if (o == null || o.closed) return slot;
+                if (referenced[slot] != 0) {
+                    referenced[slot] = 0;
+                    continue;
+                }
+                return slot;
+            }
+            return hand;
+        }
+
+        /** Returns a cleared little-endian read buffer of at least {@code bytes}. Reader thread only. */
+        private ByteBuffer scratch(int bytes) {
+            if (scratch.capacity() < bytes) {
+                scratch = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            scratch.clear();
+            scratch.limit(bytes);
+            return scratch;
+        }
+    }
+}
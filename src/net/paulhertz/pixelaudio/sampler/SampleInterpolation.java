@@ -0,0 +1,50 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.sampler;
+
+/**
+ * SampleInterpolation selects how a PASamplerVoice reads its source buffer at fractional
+ * positions, trading CPU for quality when the pitch ratio is not 1.
+ */
+public enum SampleInterpolation {
+
+    /**
+     * Truncate the read position to an integer index. Cheapest; aliases and zipper-steps
+     * at any pitch other than 1. This is the historical behavior.
+     */
+    TRUNCATE,
+
+    /**
+     * Linear interpolation between two neighbouring samples.
+     */
+    LINEAR,
+
+    /**
+     * 4-point, 3rd-order Hermite interpolation. Smooth and inexpensive; a good default for
+     * moderate transpositions.
+     */
+    HERMITE,
+
+    /**
+     * Band-limited windowed-sinc interpolation from a precomputed polyphase table
+     * ({@link net.paulhertz.pixelaudio.schedule.PolyphaseSincTable}). The kernel cutoff follows
+     * the pitch ratio, so upward transpositions do not alias. Highest quality, highest cost.
+     */
+    SINC
+}
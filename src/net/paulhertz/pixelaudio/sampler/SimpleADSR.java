@@ -18,6 +18,8 @@
 
 package net.paulhertz.pixelaudio.sampler;
 
+import net.paulhertz.pixelaudio.schedule.AudioUtility;
+
 /**
  * SimpleADSR - software envelope generator with optional exponential curves.
  * <p>
@@ -28,7 +30,15 @@ package net.paulhertz.pixelaudio.sampler;
  *  <li>Per-stage exponential curvature</li>
  *  <li>Sustain-level clamping</li>
  *  <li>{@code noteOn()}, {@code noteOff()}, {@code tick()}, and {@code isFinished()}</li>
+ *  <li>In-place reconfiguration with {@link #configure}, so voices can keep one envelope
+ *      for their whole lifetime and activate without allocating</li>
  * </ul>
+ * <p>
+ * Curved stages follow {@code start + (end - start) * (c^t - 1) / (c - 1)} for
+ * {@code t} in 0..1. Rather than calling {@code Math.pow} on every sample, each stage
+ * computes the per-sample ratio {@code c^(1/N)} once and then advances {@code c^t} with
+ * a single multiply.
+ * </p>
  * TODO coding examples using shape curvature. 
  */
 public class SimpleADSR {
@@ -53,6 +63,13 @@ public class SimpleADSR {
     private int samplesInStage = 0;
     private int stageSamples = 0;
 
+    // --- Stage recurrence: value = stageOffset + stageScale * stageTerm ---
+    private double stageTerm = 0.0;   // c^t for curved stages, t for linear stages
+    private double stageStep = 0.0;   // per-sample multiplier (curved) or increment (linear)
+    private boolean stageLinear = true;
+    private double stageOffset = 0.0;
+    private double stageScale = 0.0;
+
     // ------------------------------------------------------------------------
     // Constructors
     // ------------------------------------------------------------------------
@@ -91,6 +108,36 @@ public class SimpleADSR {
         this.releaseCurve = Math.max(0.1f, releaseCurve);
     }
 
+    /**
+     * Reconfigures every parameter in place and returns the envelope to its idle state.
+     * Used by voices that keep one preallocated envelope and reset it on each note.
+     *
+     * @param attack         attack time in seconds
+     * @param decay          decay time in seconds
+     * @param sustain        sustain level in the range 0..1
+     * @param release        release time in seconds
+     * @param attackCurve    curvature for the attack stage
+     * @param decayCurve     curvature for the decay stage
+     * @param releaseCurve   curvature for the release stage
+     * @param sr             sample rate in Hz
+     */
+    public void configure(float attack, float decay, float sustain, float release,
+                          float attackCurve, float decayCurve, float releaseCurve, float sr) {
+        this.attackTime = Math.max(attack, 0f);
+        this.decayTime = Math.max(decay, 0f);
+        this.sustainLevel = Math.max(0f, Math.min(1f, sustain));
+        this.releaseTime = Math.max(release, 0f);
+        this.attackCurve = Math.max(0.1f, attackCurve);
+        this.decayCurve = Math.max(0.1f, decayCurve);
+        this.releaseCurve = Math.max(0.1f, releaseCurve);
+        if (sr > 0) this.sampleRate = sr;
+        this.stage = Stage.IDLE;
+        this.value = 0f;
+        this.releaseStart = 0f;
+        this.samplesInStage = 0;
+        this.stageSamples = 0;
+    }
+
     // ------------------------------------------------------------------------
     // Lifecycle control
     // ------------------------------------------------------------------------
@@ -109,6 +156,7 @@ public class SimpleADSR {
         stage = Stage.ATTACK;
         samplesInStage = 0;
         stageSamples = Math.max(1, (int)(attackTime * sampleRate));
+        beginStage(0f, 1f, attackCurve);
     }
 
     /** Starts the release stage from the current envelope value. */
@@ -117,6 +165,7 @@ public class SimpleADSR {
         stage = Stage.RELEASE;
         samplesInStage = 0;
         stageSamples = Math.max(1, (int)(releaseTime * sampleRate));
+        beginStage(releaseStart, 0f, releaseCurve);
     }
 
     /**
@@ -140,16 +189,17 @@ public class SimpleADSR {
     public float tick() {
         switch (stage) {
             case ATTACK:
-                value = exponentialInterp(samplesInStage, stageSamples, 0f, 1f, attackCurve);
+                value = nextStageValue();
                 if (++samplesInStage >= stageSamples) {
                     stage = Stage.DECAY;
                     samplesInStage = 0;
                     stageSamples = Math.max(1, (int)(decayTime * sampleRate));
+                    beginStage(1f, sustainLevel, decayCurve);
                 }
                 break;
 
             case DECAY:
-                value = exponentialInterp(samplesInStage, stageSamples, 1f, sustainLevel, decayCurve);
+                value = nextStageValue();
                 if (++samplesInStage >= stageSamples) {
                     stage = Stage.SUSTAIN;
                     value = sustainLevel;
@@ -161,7 +211,7 @@ public class SimpleADSR {
                 break;
 
             case RELEASE:
-                value = exponentialInterp(samplesInStage, stageSamples, releaseStart, 0f, releaseCurve);
+                value = nextStageValue();
                 if (++samplesInStage >= stageSamples) {
                     stage = Stage.FINISHED;
                     value = 0f;
@@ -184,15 +234,39 @@ public class SimpleADSR {
     }
 
     // ------------------------------------------------------------------------
-    // Exponential interpolation utility
+    // Stage recurrence
     // ------------------------------------------------------------------------
 
-    private static float exponentialInterp(int step, int total, float start, float end, float curve) {
-        if (total <= 0) return end;
-        float t = (float) step / total;
-        if (curve == 1.0f) return start + (end - start) * t; // linear
-        float shaped = (float) ((Math.pow(curve, t) - 1.0) / (curve - 1.0));
-        return start + (end - start) * shaped;
+    /**
+     * Prepares the recurrence for a stage of {@code stageSamples} samples running from
+     * {@code start} to {@code end}. This is the only place a transcendental function is called.
+     */
+    private void beginStage(float start, float end, float curve) {
+        if (curve == 1.0f) {
+            stageLinear = true;
+            stageTerm = 0.0;
+            stageStep = 1.0 / stageSamples;
+            stageOffset = start;
+            stageScale = (double) end - start;
+        }
+        else {
+            stageLinear = false;
+            stageTerm = 1.0;
+            stageStep = Math.pow(curve, 1.0 / stageSamples);
+            stageScale = ((double) end - start) / (curve - 1.0);
+            stageOffset = start - stageScale;
+        }
+    }
+
+    /**
+     * Returns the value for the current step of the stage and advances the recurrence. Values
+     * too small to hear are flushed to 0, so long release tails never become subnormal.
+     */
+    private float nextStageValue() {
+        float v = (float) (stageOffset + stageScale * stageTerm);
+        if (stageLinear) stageTerm += stageStep;
+        else stageTerm *= stageStep;
+        return AudioUtility.flushDenormal(v);
     }
 
     // ------------------------------------------------------------------------
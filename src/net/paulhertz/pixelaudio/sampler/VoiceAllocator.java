@@ -0,0 +1,386 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.sampler;
+
+import java.util.Arrays;
+
+/**
+ * Constant-time voice allocation for a fixed array of voices.
+ *
+ * <p>VoiceAllocator tracks voices by index into the owner's voice array. It keeps:</p>
+ * <ul>
+ *   <li>a stack of idle voice indices, so {@link #acquire(float)} is O(1);</li>
+ *   <li>an indexed min-heap of allocated voices keyed by start order, so the oldest voice is
+ *       found in O(1) and re-keyed in O(log n);</li>
+ *   <li>a FIFO list of releasing voices, used by {@link StealPolicy#QUIETEST};</li>
+ *   <li>a small hash of pitch buckets, used by {@link StealPolicy#SAME_PITCH}.</li>
+ * </ul>
+ *
+ * <p>All storage is allocated in the constructor. The allocator is not thread safe: it is
+ * owned by the audio thread of a sampler, which calls {@link #free(int)} when a voice
+ * finishes and {@link #markReleasing(int)} when it notices a voice entering release.
+ * {@link PASharedBufferSampler} and
+ * {@link net.paulhertz.pixelaudio.granular.PAGranularSampler PAGranularSampler} use it.</p>
+ */
+public final class VoiceAllocator {
+
+    /** Chooses which sounding voice to reuse when every voice is busy. */
+    public enum StealPolicy {
+        /** Steal the voice that started earliest. */
+        OLDEST,
+        /**
+         * Steal the voice that entered its release stage earliest, on the assumption that its
+         * envelope is the lowest; falls back to OLDEST when no voice is releasing.
+         */
+        QUIETEST,
+        /**
+         * Steal the oldest voice playing the same pitch, retriggering the note; falls back to
+         * OLDEST when no voice has that pitch.
+         */
+        SAME_PITCH
+    }
+
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private int limit;
+
+    // idle stack
+    private final int[] freeStack;
+    private int freeCount;
+    private final boolean[] allocated;
+
+    // min-heap on start order
+    private final int[] heap;
+    private final int[] heapPos;
+    private final long[] order;
+    private int heapSize = 0;
+    private long nextOrder = 0L;
+
+    // releasing FIFO (intrusive doubly linked list)
+    private final int[] relPrev;
+    private final int[] relNext;
+    private final boolean[] releasing;
+    private int relHead = NONE;
+    private int relTail = NONE;
+
+    // pitch buckets (intrusive doubly linked chains, oldest at head)
+    private final int[] bucketHead;
+    private final int[] bucketTail;
+    private final int bucketMask;
+    private final int[] pitchPrev;
+    private final int[] pitchNext;
+    private final int[] bucketOf;
+    private final float[] pitchOf;
+
+    /**
+     * Creates an allocator for {@code capacity} voices, all idle.
+     *
+     * @param capacity   number of voices in the owner's voice array
+     */
+    public VoiceAllocator(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.limit = this.capacity;
+        this.freeStack = new int[this.capacity];
+        this.allocated = new boolean[this.capacity];
+        this.heap = new int[this.capacity];
+        this.heapPos = new int[this.capacity];
+        this.order = new long[this.capacity];
+        this.relPrev = new int[this.capacity];
+        this.relNext = new int[this.capacity];
+        this.releasing = new boolean[this.capacity];
+        int buckets = Integer.highestOneBit(Math.max(1, this.capacity * 2 - 1)) << 1;
+        this.bucketHead = new int[buckets];
+        this.bucketTail = new int[buckets];
+        this.bucketMask = buckets - 1;
+        this.pitchPrev = new int[this.capacity];
+        this.pitchNext = new int[this.capacity];
+        this.bucketOf = new int[this.capacity];
+        this.pitchOf = new float[this.capacity];
+        reset();
+    }
+
+    /** Marks every voice idle. O(capacity); intended for stop-all and buffer swaps. */
+    public void reset() {
+        freeCount = 0;
+        for (int i = capacity - 1; i >= 0; i--) freeStack[freeCount++] = i;
+        Arrays.fill(allocated, false);
+        Arrays.fill(heapPos, NONE);
+        heapSize = 0;
+        Arrays.fill(releasing, false);
+        relHead = relTail = NONE;
+        Arrays.fill(bucketHead, NONE);
+        Arrays.fill(bucketTail, NONE);
+    }
+
+    /**
+     * Copies the allocation state of a smaller allocator into this one. Indices beyond the
+     * source capacity become idle. Used when the owner grows its voice array: the new
+     * allocator is built on a control thread and adopted on the audio thread without
+     * allocating.
+     *
+     * @param src   allocator being replaced; its capacity must not exceed this one's
+     */
+    public void copyFrom(VoiceAllocator src) {
+        if (src.capacity > capacity) throw new IllegalArgumentException("source allocator is larger");
+        reset();
+        nextOrder = src.nextOrder;
+        limit = Math.min(capacity, src.limit);
+        // rebuild idle stack: keep source free indices, then the new ones
+        freeCount = 0;
+        for (int i = capacity - 1; i >= src.capacity; i--) freeStack[freeCount++] = i;
+        for (int k = 0; k < src.freeCount; k++) freeStack[freeCount++] = src.freeStack[k];
+        // re-insert allocated voices in their original start order
+        for (int k = 0; k < src.heapSize; k++) {
+            int idx = src.heap[k];
+            allocated[idx] = true;
+            order[idx] = src.order[idx];
+            heapInsert(idx);
+            linkPitch(idx, src.pitchOf[idx]);
+        }
+        for (int idx = src.relHead; idx != NONE; idx = src.relNext[idx]) linkReleasing(idx);
+    }
+
+    // ------------------------------------------------------------------------
+    // Allocation
+    // ------------------------------------------------------------------------
+
+    /**
+     * Takes an idle voice and marks it as the newest allocated voice.
+     *
+     * @param pitch   pitch of the new note, recorded for {@link StealPolicy#SAME_PITCH}
+     * @return voice index, or -1 if no voice is idle or the limit is reached
+     */
+    public int acquire(float pitch) {
+        if (freeCount == 0 || heapSize >= limit) return NONE;
+        int idx = freeStack[--freeCount];
+        allocated[idx] = true;
+        order[idx] = nextOrder++;
+        heapInsert(idx);
+        linkPitch(idx, pitch);
+        return idx;
+    }
+
+    /**
+     * Chooses an allocated voice to reuse and re-keys it as the newest voice. The caller is
+     * responsible for releasing or stopping the stolen voice before reactivating it.
+     *
+     * @param policy   steal policy
+     * @param pitch    pitch of the new note
+     * @return voice index, or -1 if no voice is allocated
+     */
+    public int steal(StealPolicy policy, float pitch) {
+        if (heapSize == 0) return NONE;
+        int idx = NONE;
+        if (policy == StealPolicy.QUIETEST) {
+            idx = relHead;
+        }
+        else if (policy == StealPolicy.SAME_PITCH) {
+            int b = bucketIndex(pitch);
+            for (int k = bucketHead[b]; k != NONE; k = pitchNext[k]) {
+                if (pitchOf[k] == pitch) {
+                    idx = k;
+                    break;
+                }
+            }
+        }
+        if (idx == NONE) idx = heap[0];
+        unlinkReleasing(idx);
+        unlinkPitch(idx);
+        order[idx] = nextOrder++;
+        heapSiftDown(heapPos[idx]);
+        linkPitch(idx, pitch);
+        return idx;
+    }
+
+    /**
+     * Records that an allocated voice has entered its release stage. Idempotent.
+     *
+     * @param idx   voice index
+     */
+    public void markReleasing(int idx) {
+        if (allocated[idx] && !releasing[idx]) linkReleasing(idx);
+    }
+
+    /**
+     * Returns a voice to the idle stack. Idempotent.
+     *
+     * @param idx   voice index
+     */
+    public void free(int idx) {
+        if (!allocated[idx]) return;
+        allocated[idx] = false;
+        heapRemove(idx);
+        unlinkReleasing(idx);
+        unlinkPitch(idx);
+        freeStack[freeCount++] = idx;
+    }
+
+    /** @return index of the oldest allocated voice, or -1 if none */
+    public int oldest() {
+        return (heapSize > 0) ? heap[0] : NONE;
+    }
+
+    /**
+     * @param idx   voice index
+     * @return true if the voice is allocated (sounding or releasing)
+     */
+    public boolean isAllocated(int idx) {
+        return allocated[idx];
+    }
+
+    /**
+     * @param idx   voice index
+     * @return true if the voice has been marked as releasing
+     */
+    public boolean isReleasing(int idx) {
+        return releasing[idx];
+    }
+
+    /** @return number of allocated voices */
+    public int allocatedCount() { return heapSize; }
+
+    /** @return number of voices this allocator manages */
+    public int capacity() { return capacity; }
+
+    /** @return maximum number of voices {@link #acquire(float)} will hand out */
+    public int getLimit() { return limit; }
+
+    /**
+     * Caps the number of simultaneously allocated voices; further requests must steal.
+     *
+     * @param limit   polyphony limit, clamped to 1..capacity
+     */
+    public void setLimit(int limit) {
+        this.limit = Math.max(1, Math.min(capacity, limit));
+    }
+
+    // ------------------------------------------------------------------------
+    // Heap
+    // ------------------------------------------------------------------------
+
+    private void heapInsert(int idx) {
+        int i = heapSize++;
+        heap[i] = idx;
+        heapPos[idx] = i;
+        heapSiftUp(i);
+    }
+
+    private void heapRemove(int idx) {
+        int i = heapPos[idx];
+        if (i == NONE) return;
+        int last = heap[--heapSize];
+        heapPos[idx] = NONE;
+        if (i == heapSize) return;
+        heap[i] = last;
+        heapPos[last] = i;
+        heapSiftDown(i);
+        heapSiftUp(heapPos[last]);
+    }
+
+    private void heapSiftUp(int i) {
+        int idx = heap[i];
+        long key = order[idx];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (order[p] <= key) break;
+            heap[i] = p;
+            heapPos[p] = i;
+            i = parent;
+        }
+        heap[i] = idx;
+        heapPos[idx] = i;
+    }
+
+    private void heapSiftDown(int i) {
+        int idx = heap[i];
+        long key = order[idx];
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && order[heap[right]] < order[heap[child]]) child = right;
+            int c = heap[child];
+            if (key <= order[c]) break;
+            heap[i] = c;
+            heapPos[c] = i;
+            i = child;
+        }
+        heap[i] = idx;
+        heapPos[idx] = i;
+    }
+
+    // ------------------------------------------------------------------------
+    // Releasing list
+    // ------------------------------------------------------------------------
+
+    private void linkReleasing(int idx) {
+        releasing[idx] = true;
+        relPrev[idx] = relTail;
+        relNext[idx] = NONE;
+        if (relTail != NONE) relNext[relTail] = idx;
+        else relHead = idx;
+        relTail = idx;
+    }
+
+    private void unlinkReleasing(int idx) {
+        if (!releasing[idx]) return;
+        releasing[idx] = false;
+        int p = relPrev[idx];
+        int n = relNext[idx];
+        if (p != NONE) relNext[p] = n;
+        else relHead = n;
+        if (n != NONE) relPrev[n] = p;
+        else relTail = p;
+    }
+
+    // ------------------------------------------------------------------------
+    // Pitch buckets
+    // ------------------------------------------------------------------------
+
+    private int bucketIndex(float pitch) {
+        int h = Float.floatToIntBits(pitch);
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return h & bucketMask;
+    }
+
+    private void linkPitch(int idx, float pitch) {
+        int b = bucketIndex(pitch);
+        pitchOf[idx] = pitch;
+        bucketOf[idx] = b;
+        pitchPrev[idx] = bucketTail[b];
+        pitchNext[idx] = NONE;
+        if (bucketTail[b] != NONE) pitchNext[bucketTail[b]] = idx;
+        else bucketHead[b] = idx;
+        bucketTail[b] = idx;
+    }
+
+    private void unlinkPitch(int idx) {
+        int b = bucketOf[idx];
+        int p = pitchPrev[idx];
+        int n = pitchNext[idx];
+        if (p != NONE) pitchNext[p] = n;
+        else bucketHead[b] = n;
+        if (n != NONE) pitchPrev[n] = p;
+        else bucketTail[b] = p;
+    }
+}
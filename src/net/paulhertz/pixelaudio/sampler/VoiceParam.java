@@ -0,0 +1,34 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.sampler;
+
+/**
+ * VoiceParam names a per-voice parameter that can be changed while the voice sounds. Samplers
+ * accept changes through a generic {@code setParam(voiceId, param, value)} control call, which
+ * posts one command to the audio thread; the voice then ramps to the new value over a short
+ * block, so automation does not click.
+ */
+public enum VoiceParam {
+
+    /** Linear gain multiplier of the voice. */
+    GAIN,
+
+    /** Stereo position, -1.0 (left) to 1.0 (right), applied with equal-power gains. */
+    PAN
+}
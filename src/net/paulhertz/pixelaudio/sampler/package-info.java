@@ -62,8 +62,20 @@
  *   <li>{@link net.paulhertz.pixelaudio.sampler.PASharedBufferSampler PASharedBufferSampler}
  *   manages sampler voices, voice pooling, looping defaults, panning, gain, smooth voice
  *   stealing, finite-event wrap-around, and mix profiles.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.sampler.VoiceAllocator VoiceAllocator}
+ *   finds idle voices and steal candidates in constant time with a free list, a start-order
+ *   heap, and oldest, quietest, or same-pitch steal policies.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.sampler.PASamplerMixer PASamplerMixer}
+ *   optionally replaces the per-instrument samplers of a pool with one UGen that owns a single
+ *   voice array, scheduler and limiter; each instrument becomes a lightweight channel.</li>
  *   <li>{@link net.paulhertz.pixelaudio.sampler.PASamplerVoice PASamplerVoice}
  *   renders individual sampler voices with gain, pitch, pan, and optional ADSR envelope.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.sampler.PASampleBuffer PASampleBuffer}
+ *   holds immutable, reference-counted sample data shared by instruments and voices, so buffer
+ *   swaps need no copy and let sounding voices finish on their original data.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.sampler.PAStreamingSampleBuffer PAStreamingSampleBuffer}
+ *   streams long WAV files from disk through a fixed-size chunk cache with a background reader
+ *   thread, so voices read without blocking and a sample library fits in a constant heap budget.</li>
  * </ul>
  *
  * <p><b>Interfaces and event data</b></p>
@@ -80,6 +92,15 @@
  *   stores computed duration and timing information for triggered sampler events.</li>
  *   <li>{@link net.paulhertz.pixelaudio.sampler.PitchPolicy PitchPolicy}
  *   defines pitch behavior for sample playback.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.sampler.ClipMode ClipMode}
+ *   selects the output soft limiter: exact softsign, a softsign lookup table, or a cubic
+ *   polynomial.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.sampler.VoiceParam VoiceParam}
+ *   names the per-voice parameters, gain and pan, that samplers change through a generic
+ *   {@code setParam} command while a voice sounds.</li>
+ *   <li>{@link net.paulhertz.pixelaudio.sampler.SampleInterpolation SampleInterpolation}
+ *   selects the voice read kernel (truncate, linear, Hermite, or band-limited sinc) for
+ *   pitched playback.</li>
  *   <li>{@link net.paulhertz.pixelaudio.sampler.SamplerBrushEvent SamplerBrushEvent}
  *   stores gesture-derived sampler event data such as location, timing, sample position,
  *   gain, pitch, pan, and envelope.</li>
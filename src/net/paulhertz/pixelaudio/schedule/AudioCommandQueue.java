@@ -0,0 +1,251 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * Bounded lock-free command ring for passing control messages to the audio thread.
+ *
+ * <p>The ring holds a fixed number of preallocated, mutable command records. Producers on any
+ * thread (typically the Processing draw thread, a network thread, or a GUI callback) claim a
+ * slot, fill in the record in place, and publish it. A single consumer, the audio thread,
+ * drains published records at block boundaries and hands each one to a {@link Handler}. No
+ * monitor is ever taken and no memory is allocated after construction.</p>
+ *
+ * <p><b>Producer protocol</b></p>
+ * <pre>
+ *   long ticket = queue.claim();
+ *   if (ticket &lt; 0) { ... ring is full, drop or retry later ... }
+ *   MyCommand cmd = queue.slot(ticket);
+ *   cmd.type = MyCommand.PLAY;
+ *   cmd.gain = 0.8f;
+ *   queue.publish(ticket);
+ * </pre>
+ *
+ * <p><b>Consumer protocol</b> (audio thread only)</p>
+ * <pre>
+ *   queue.drain(handler);   // once per block
+ * </pre>
+ *
+ * <p>The implementation follows the bounded multi-producer sequence ring described by Dmitry
+ * Vyukov: every slot carries a sequence number that tells producers when the slot is free and
+ * tells the consumer when the record has been published. A record must not be retained by the
+ * handler after {@link Handler#onCommand(Object)} returns, because the slot is recycled
+ * immediately afterwards.</p>
+ *
+ * @param <C> mutable command record type
+ */
+public final class AudioCommandQueue<C> {
+
+    /** Consumer callback for published command records. */
+    @FunctionalInterface
+    public interface Handler<C> {
+        /**
+         * Called on the consumer thread for each published command, in publication order.
+         *
+         * @param command   the command record; valid only for the duration of the call
+         */
+        void onCommand(C command);
+    }
+
+    private final C[] slots;
+    private final AtomicLongArray sequence;
+    private final int mask;
+
+    /** Next position to be claimed by a producer. */
+    private final AtomicLong tail = new AtomicLong();
+    /** Next position to be consumed; written only by the consumer thread. */
+    private volatile long head = 0L;
+    /** Number of claims refused because the ring was full. */
+    private final AtomicLong overflowCount = new AtomicLong();
+    /** Largest number of claimed but undrained slots seen by a producer. */
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    /**
+     * Creates a command ring.
+     *
+     * @param capacity   requested capacity, rounded up to a power of two (minimum 2)
+     * @param factory    supplier for the preallocated command records
+     */
+    @SuppressWarnings("unchecked")
+    public AudioCommandQueue(int capacity, Supplier<C> factory) {
+        Objects.requireNonNull(factory, "factory");
+        int cap = 2;
+        while (cap < capacity && cap < (1 << 30)) cap <<= 1;
+        this.slots = (C[]) new Object[cap];
+        this.sequence = new AtomicLongArray(cap);
+        this.mask = cap - 1;
+        for (int i = 0; i < cap; i++) {
+            slots[i] = factory.get();
+            sequence.set(i, i);
+        }
+    }
+
+    /* ----------------------------- Producer side ------------------------------ */
+
+    /**
+     * Claims a free slot. Safe to call from any number of threads.
+     *
+     * @return a ticket identifying the claimed slot, or -1 if the ring is full
+     */
+    public long claim() {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long dif = sequence.get(idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    trackHighWater(pos + 1);
+                    return pos;
+                }
+                pos = tail.get();
+            }
+            else if (dif < 0) {
+                overflowCount.incrementAndGet();
+                return -1L;
+            }
+            else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Claims {@code n} consecutive slots, all or none. Publish them with
+     * {@link #publish(long, int)} so the consumer receives them together.
+     *
+     * @param n   number of slots, from 1 to {@link #capacity()}
+     * @return the ticket of the first claimed slot, or -1 if fewer than {@code n} slots are free
+     */
+    public long claim(int n) {
+        if (n < 1 || n > mask + 1) throw new IllegalArgumentException("n must be in [1, capacity], got " + n);
+        long pos = tail.get();
+        while (true) {
+            // the consumer recycles slots in order, so if the last one is free all of them are
+            long last = pos + n - 1;
+            long dif = sequence.get((int) (last & mask)) - last;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + n)) {
+                    trackHighWater(pos + n);
+                    return pos;
+                }
+                pos = tail.get();
+            }
+            else if (dif < 0) {
+                overflowCount.incrementAndGet();
+                return -1L;
+            }
+            else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private void trackHighWater(long claimedTo) {
+        long used = claimedTo - head;
+        if (used > highWaterMark.get()) highWaterMark.accumulateAndGet(used, Math::max);
+    }
+
+    /**
+     * Returns the command record for a claimed ticket so the producer can fill it in.
+     *
+     * @param ticket   value returned by {@link #claim()}
+     * @return the preallocated record for that slot
+     */
+    public C slot(long ticket) {
+        return slots[(int) (ticket & mask)];
+    }
+
+    /**
+     * Publishes a filled-in record to the consumer. Writes made to the record before this call
+     * are visible to the consumer when it receives the record.
+     *
+     * @param ticket   value returned by {@link #claim()}
+     */
+    public void publish(long ticket) {
+        sequence.set((int) (ticket & mask), ticket + 1);
+    }
+
+    /**
+     * Publishes {@code n} consecutive records claimed with {@link #claim(int)}. The first record
+     * is published last, so the consumer sees none of them until it can take all of them.
+     *
+     * @param first   value returned by {@link #claim(int)}
+     * @param n       number of slots claimed
+     */
+    public void publish(long first, int n) {
+        for (long t = first + n - 1; t >= first; t--) {
+            sequence.set((int) (t & mask), t + 1);
+        }
+    }
+
+    /* ----------------------------- Consumer side ------------------------------ */
+
+    /**
+     * Delivers every published record to {@code handler} and recycles the slots.
+     * Must only be called from the single consumer thread.
+     *
+     * @param handler   command handler
+     * @return number of records delivered
+     */
+    public int drain(Handler<C> handler) {
+        long pos = head;
+        int count = 0;
+        while (true) {
+            int idx = (int) (pos & mask);
+            if (sequence.get(idx) != pos + 1) break;
+            handler.onCommand(slots[idx]);
+            sequence.set(idx, pos + mask + 1);
+            pos++;
+            count++;
+        }
+        if (count > 0) head = pos;
+        return count;
+    }
+
+    /**
+     * Reports whether the ring has no published records waiting. This is only a snapshot when
+     * producers are active.
+     *
+     * @return true if no record is waiting to be drained
+     */
+    public boolean isEmpty() {
+        long pos = head;
+        return sequence.get((int) (pos & mask)) != pos + 1;
+    }
+
+    /** @return number of slots in the ring */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /** @return number of claims refused because the ring was full */
+    public long overflowCount() {
+        return overflowCount.get();
+    }
+
+    /** @return largest number of slots claimed and not yet drained at one time */
+    public long highWaterMark() {
+        return highWaterMark.get();
+    }
+}
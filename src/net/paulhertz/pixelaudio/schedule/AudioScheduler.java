@@ -18,10 +18,13 @@
 
 package net.paulhertz.pixelaudio.schedule;
 
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.Objects;
-import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A sample-accurate scheduler for things that should occur at specific times in an audio stream.
@@ -37,8 +40,33 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * <ul>
  *   <li>{@code schedulePoint(...)} and {@code scheduleSpan(...)} may be called from any thread.</li>
  *   <li>{@code processBlock(...)} must be called exactly once per audio block on the audio thread.</li>
+ *   <li>{@code clear()} may be called from any thread. No method takes a monitor: new events pass
+ *       through a lock-free inbox, and the time-ordered store is touched only by the audio thread.</li>
  * </ul>
  *
+ * <p><b>Inbox</b></p>
+ * <p>
+ * The inbox is a bounded {@link AudioCommandQueue} of preallocated records, so handing an event
+ * to the audio thread allocates nothing. A batch from {@link #schedulePoints} claims its records
+ * together and reaches the audio thread whole. When the ring is full, the {@link InboxOverflow}
+ * policy decides what happens: drop the event, block the calling thread until the audio thread
+ * makes room, or spill it to an unbounded queue that allocates on the calling thread. Overflows,
+ * drops and the ring's high-water mark are counted; a high-water mark near the capacity means
+ * the inbox should be larger.
+ * </p>
+ *
+ * <p><b>Event store</b></p>
+ * <p>
+ * Pending events live in preallocated parallel arrays (times, happenings, links), not in objects.
+ * A timing wheel of {@value #WHEEL_SIZE} buckets, each {@value #TICK_SAMPLES} samples wide, holds
+ * events due within the wheel's horizon; later events wait in an overflow list that is swept into
+ * the wheel every half revolution. Inserting an event and dispatching it are O(1) amortized, apart
+ * from ordering the few events due in one block by time. The arrays grow only when more events
+ * are pending than they hold, so steady scheduling does not allocate. Events due at the same
+ * sample are delivered in the order they were scheduled. Spans that continue past a block are kept
+ * in an active list and visited once per block until they end.
+ * </p>
+ *
  * <p><b>Happenings</b></p>
  * <p>
  * The generic type parameter {@code H} is a user-defined "Happening": a compact piece of information
@@ -159,14 +187,142 @@ public final class AudioScheduler<H> {
         CLAMP_TO_BLOCK_START
     }
 
+    /** What {@code schedule*} does when the inbox ring is full. */
+    public enum InboxOverflow {
+        /** Discard the event and count it in {@link AudioScheduler#inboxDroppedCount()}. */
+        DROP,
+        /**
+         * Wait on the calling thread until the audio thread drains the ring, for at most
+         * {@link AudioScheduler#BLOCK_TIMEOUT_MILLIS} ms, then drop. Never use from the audio thread.
+         */
+        BLOCK,
+        /** Put the event in an unbounded spill queue, allocating on the calling thread. Nothing is lost. */
+        GROW
+    }
+
     /* ----------------------------- Internals ------------------------------ */
 
-    private final ConcurrentLinkedQueue<Object> inbox = new ConcurrentLinkedQueue<>();
-    private final PriorityQueue<Object> queue =
-            new PriorityQueue<>(Comparator.comparingLong(AudioScheduler::startSampleOf));
+    /** Number of inbox records allocated by the default constructor. */
+    public static final int DEFAULT_INBOX_CAPACITY = 1024;
+    /** Longest time {@link InboxOverflow#BLOCK} waits for room, in milliseconds. */
+    public static final long BLOCK_TIMEOUT_MILLIS = 1000L;
+
+    /** Samples covered by one timing-wheel bucket; a power of two. */
+    public static final int TICK_SAMPLES = 64;
+    private static final int TICK_SHIFT = 6;
+    /** Number of timing-wheel buckets; a power of two. */
+    public static final int WHEEL_SIZE = 1024;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    /** Number of event slots allocated by the default constructor. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** Marks a slot as a point event in {@link #evEnd}. */
+    private static final long POINT = Long.MIN_VALUE;
+    private static final int NIL = -1;
+
+    /** An event on its way to the audio thread. */
+    private static final class InboxRecord {
+        long start;
+        long end;             // POINT for point events
+        Object happening;
+        int generation;       // clearRequests when scheduled
+
+        void set(long start, long end, Object happening, int generation) {
+            this.start = start;
+            this.end = end;
+            this.happening = happening;
+            this.generation = generation;
+        }
+    }
+
+    private final AudioCommandQueue<InboxRecord> inbox;
+    /** Records that did not fit the ring under {@link InboxOverflow#GROW}. */
+    private final ConcurrentLinkedQueue<InboxRecord> spill = new ConcurrentLinkedQueue<>();
+    private final AudioCommandQueue.Handler<InboxRecord> inboxHandler = this::receive;
+    private volatile InboxOverflow inboxOverflow = InboxOverflow.GROW;
+    /** Events that found the inbox ring full, whatever the policy did with them. */
+    private final AtomicLong inboxOverflows = new AtomicLong();
+    /** Events lost to a full inbox. */
+    private final AtomicLong inboxDropped = new AtomicLong();
+
+    // Event slots, owned by the audio thread. A slot is either free (linked from freeHead) or on
+    // exactly one of: a wheel bucket, the overflow list, the early list, or the active spans.
+    private long[] evStart;
+    private long[] evEnd;          // POINT for point events
+    private long[] evSeq;          // insertion order, breaks ties between equal start times
+    private Object[] evHappening;
+    private int[] evNext;
+    private int freeHead = NIL;
+    private int stored = 0;
+    private long nextSeq = 0L;
+    private long growCount = 0L;
+
+    // Timing wheel: bucket k holds events whose tick is congruent to k and less than wheelTick + WHEEL_SIZE
+    private final int[] bucketHead = new int[WHEEL_SIZE];
+    private final int[] bucketTail = new int[WHEEL_SIZE];
+    /** Tick (sample time / TICK_SAMPLES) of the earliest bucket that may still hold events. */
+    private long wheelTick = 0L;
+    /** Tick at which the overflow list is next swept into the wheel. */
+    private long nextSweepTick = WHEEL_SIZE / 2;
+    // Events beyond the wheel's horizon, unordered
+    private int overflowHead = NIL;
+    // Events scheduled before wheelTick, unordered; dispatched by absolute time
+    private int earlyHead = NIL;
+
+    // Spans that started in an earlier block and have not ended, in start order
+    private int[] activeSpans;
+    private int activeCount = 0;
+
+    // Events due in the current block, and merge-sort scratch
+    private int[] due;
+    private int[] dueTmp;
+
+    /**
+     * Incremented by {@link #clear()}; the audio thread empties its store when it sees a change,
+     * and ignores inbox records stamped with an earlier value.
+     */
+    private final AtomicInteger clearRequests = new AtomicInteger();
+    /** Last clear request honored by the audio thread. */
+    private int clearsHandled = 0;
 
     private LatePolicy latePolicy = LatePolicy.DROP;
 
+    /** Receives a count of each late point event, or null. */
+    private volatile EngineMetrics metrics;
+
+    /**
+     * Creates a scheduler with {@link #DEFAULT_CAPACITY} preallocated event slots and an inbox of
+     * {@link #DEFAULT_INBOX_CAPACITY} records.
+     */
+    public AudioScheduler() {
+        this(DEFAULT_CAPACITY, DEFAULT_INBOX_CAPACITY);
+    }
+
+    /**
+     * Creates a scheduler with room for {@code capacity} pending events before it has to grow,
+     * and an inbox of {@link #DEFAULT_INBOX_CAPACITY} records.
+     *
+     * @param capacity   number of preallocated event slots; values below 16 are raised to 16
+     */
+    public AudioScheduler(int capacity) {
+        this(capacity, DEFAULT_INBOX_CAPACITY);
+    }
+
+    /**
+     * Creates a scheduler with room for {@code capacity} pending events before it has to grow,
+     * and an inbox ring of {@code inboxCapacity} records. The inbox should hold every event
+     * scheduled between two audio blocks, including the largest batch.
+     *
+     * @param capacity        number of preallocated event slots; values below 16 are raised to 16
+     * @param inboxCapacity   inbox records, rounded up to a power of two
+     */
+    public AudioScheduler(int capacity, int inboxCapacity) {
+        inbox = new AudioCommandQueue<>(inboxCapacity, InboxRecord::new);
+        allocateSlots(Math.max(16, capacity));
+        Arrays.fill(bucketHead, NIL);
+        Arrays.fill(bucketTail, NIL);
+    }
+
     /**
      * Set how late point events are handled. Default is {@link LatePolicy#DROP}.
      *
@@ -185,6 +341,50 @@ public final class AudioScheduler<H> {
         return latePolicy;
     }
 
+    /**
+     * Reports late point events to {@code metrics}, split into clamped and dropped.
+     *
+     * @param metrics   metrics of the engine that owns this scheduler, or null to stop reporting
+     */
+    public void setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets what happens to events scheduled while the inbox ring is full. The default is
+     * {@link InboxOverflow#GROW}.
+     *
+     * @param policy   overflow policy
+     */
+    public void setInboxOverflow(InboxOverflow policy) {
+        this.inboxOverflow = Objects.requireNonNull(policy, "policy");
+    }
+
+    /** @return the current inbox overflow policy */
+    public InboxOverflow inboxOverflow() {
+        return inboxOverflow;
+    }
+
+    /** @return number of inbox records */
+    public int inboxCapacity() {
+        return inbox.capacity();
+    }
+
+    /** @return number of events that found the inbox ring full, whatever the policy did with them */
+    public long inboxOverflowCount() {
+        return inboxOverflows.get();
+    }
+
+    /** @return number of events lost because the inbox ring was full */
+    public long inboxDroppedCount() {
+        return inboxDropped.get();
+    }
+
+    /** @return largest number of inbox records in use at one time */
+    public long inboxHighWaterMark() {
+        return inbox.highWaterMark();
+    }
+
     /* ----------------------------- Scheduling ------------------------------ */
 
     /**
@@ -194,7 +394,39 @@ public final class AudioScheduler<H> {
      * @param happening    the Happening to deliver
      */
     public void schedulePoint(long sampleTime, H happening) {
-        inbox.add(new PointEvent<>(sampleTime, happening));
+        enqueue(sampleTime, POINT, happening);
+    }
+
+    /**
+     * Schedule a batch of point events. The batch claims consecutive inbox records and is
+     * published at once, so the audio thread takes all of it in the same block and a dense
+     * gesture costs one hand-off instead of one per event. A batch larger than the inbox is
+     * handed over in inbox-sized parts.
+     *
+     * @param sampleTimes   absolute sample index of each event
+     * @param happenings    the Happening of each event
+     * @param count         number of events to take from the start of both arrays
+     */
+    public void schedulePoints(long[] sampleTimes, H[] happenings, int count) {
+        if (count <= 0) return;
+        if (count > sampleTimes.length || count > happenings.length) {
+            throw new IllegalArgumentException("count exceeds the supplied arrays");
+        }
+        final int part = inbox.capacity();
+        for (int from = 0; from < count; from += part) {
+            int n = Math.min(part, count - from);
+            long first = spill.isEmpty() ? inbox.claim(n) : -1L;
+            if (first < 0) first = overflow(n);
+            if (first < 0) {
+                spillOrDrop(sampleTimes, happenings, from, n);
+                continue;
+            }
+            final int gen = clearRequests.get();
+            for (int i = 0; i < n; i++) {
+                inbox.slot(first + i).set(sampleTimes[from + i], POINT, happenings[from + i], gen);
+            }
+            inbox.publish(first, n);
+        }
     }
 
     /**
@@ -205,35 +437,141 @@ public final class AudioScheduler<H> {
      * @param happening   the Happening to deliver
      */
     public void scheduleSpan(long startSample, long endSample, H happening) {
-        inbox.add(new SpanEvent<>(startSample, endSample, happening));
+        if (endSample <= startSample) {
+            throw new IllegalArgumentException("SpanEvent endSample must be > startSample.");
+        }
+        enqueue(startSample, endSample, happening);
+    }
+
+    private void enqueue(long start, long end, Object happening) {
+        // while spilled events wait, later ones follow them so arrival order is kept
+        long ticket = spill.isEmpty() ? inbox.claim(1) : -1L;
+        if (ticket < 0) ticket = overflow(1);
+        if (ticket < 0) {
+            if (inboxOverflow == InboxOverflow.GROW) {
+                InboxRecord r = new InboxRecord();
+                r.set(start, end, happening, clearRequests.get());
+                spill.add(r);
+            }
+            return;
+        }
+        inbox.slot(ticket).set(start, end, happening, clearRequests.get());
+        inbox.publish(ticket);
+    }
+
+    /**
+     * Applies the overflow policy to {@code n} events that did not get inbox records. Returns a
+     * ticket if {@link InboxOverflow#BLOCK} found room, otherwise -1 after counting a drop or
+     * leaving the events for the spill queue.
+     */
+    private long overflow(int n) {
+        final InboxOverflow policy = inboxOverflow;
+        if (policy == InboxOverflow.GROW && !spill.isEmpty()) return -1L;
+        inboxOverflows.addAndGet(n);
+        if (policy == InboxOverflow.BLOCK) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MILLIS);
+            int spins = 0;
+            while (System.nanoTime() < deadline) {
+                long ticket = inbox.claim(n);
+                if (ticket >= 0) return ticket;
+                if (++spins < 100) Thread.onSpinWait();
+                else LockSupport.parkNanos(100_000L);
+            }
+        }
+        if (policy != InboxOverflow.GROW) inboxDropped.addAndGet(n);
+        return -1L;
+    }
+
+    private void spillOrDrop(long[] sampleTimes, H[] happenings, int from, int n) {
+        if (inboxOverflow != InboxOverflow.GROW) return;
+        final int gen = clearRequests.get();
+        for (int i = from; i < from + n; i++) {
+            InboxRecord r = new InboxRecord();
+            r.set(sampleTimes[i], POINT, happenings[i], gen);
+            spill.add(r);
+        }
     }
 
     /**
-     * Clears all pending events (both newly scheduled and already queued).
+     * Clears all pending events (both newly scheduled and already stored), including running spans.
      * Safe to call from any thread.
+     *
+     * <p>Pending events, whether still in the inbox or already moved to the audio thread's
+     * store, are discarded at the start of the next {@link #processBlock} call. Inbox records
+     * carry the clear count current when they were scheduled, so events scheduled after
+     * {@code clear()} returns are kept.</p>
      */
     public void clear() {
-        inbox.clear();
-        synchronized (queue) {
-            queue.clear();
-        }
+        clearRequests.incrementAndGet();
+    }
+
+    /**
+     * Returns true when no event is waiting, either in the inbox or in the time-ordered store,
+     * and no span is still running.
+     * Reliable only on the thread that calls {@link #processBlock}; other threads may see a
+     * stale answer.
+     *
+     * @return true if no event is pending
+     */
+    public boolean isIdle() {
+        return inbox.isEmpty() && spill.isEmpty() && stored == 0;
+    }
+
+    /**
+     * Returns the number of events held by the audio thread: pending points and spans, and
+     * spans still running. Reliable only on the thread that calls {@link #processBlock}.
+     *
+     * @return number of stored events, not counting the inbox
+     */
+    public int pendingCount() {
+        return stored;
+    }
+
+    /**
+     * Returns the number of event slots currently allocated.
+     *
+     * @return slot capacity
+     */
+    public int capacity() {
+        return evStart.length;
+    }
+
+    /**
+     * Returns how many times the slot arrays have grown because more events were pending than
+     * they could hold. Growth happens on the audio thread, so a nonzero count suggests passing a
+     * larger capacity to the constructor.
+     *
+     * @return number of times the slot arrays were enlarged
+     */
+    public long growCount() {
+        return growCount;
     }
 
     /* ----------------------------- Audio-thread processing ------------------------------ */
 
     /** Called only on the audio thread. */
     private void drainInbox() {
-        Object ev;
-        while ((ev = inbox.poll()) != null) {
-            synchronized (queue) {
-                queue.add(ev);
-            }
+        int requested = clearRequests.get();
+        if (requested != clearsHandled) {
+            clearStore();
+            clearsHandled = requested;
         }
+        inbox.drain(inboxHandler);
+        InboxRecord r;
+        while ((r = spill.poll()) != null) receive(r);
     }
 
-    private static long startSampleOf(Object o) {
-        if (o instanceof PointEvent<?> p) return p.sampleTime;
-        return ((SpanEvent<?>) o).startSample;
+    /** Moves one inbox record into the store. Audio thread only. */
+    private void receive(InboxRecord r) {
+        final Object happening = r.happening;
+        r.happening = null;
+        if (r.generation - clearsHandled < 0) return;       // scheduled before a clear
+        if (r.generation != clearsHandled) {
+            // a clear arrived while draining: honor it before keeping newer events
+            clearStore();
+            clearsHandled = r.generation;
+        }
+        insert(r.start, r.end, happening);
     }
 
     /**
@@ -243,6 +581,9 @@ public final class AudioScheduler<H> {
      * will be delivered to {@code pointHandler}. Span events will deliver start/end callbacks (when the boundary
      * falls within this block) and an {@code onBlock} callback for each block they overlap.</p>
      *
+     * <p>Spans already running are visited first. Events due in this block follow in time order,
+     * late events first.</p>
+     *
      * @param blockStartSample absolute sample index of the first sample in this block
      * @param blockSize        number of samples in this block
      * @param pointHandler     handler for point events (may be null if you never schedule points)
@@ -255,71 +596,282 @@ public final class AudioScheduler<H> {
 
         final long blockEndSample = blockStartSample + blockSize; // exclusive
         drainInbox();
-
-        while (true) {
-            final Object ev;
-            synchronized (queue) {
-                ev = queue.peek();
-                if (ev == null) return;
-                if (startSampleOf(ev) >= blockEndSample) return; // starts in the future
-                queue.poll();
+        if (blockSize <= 0) return;
+
+        // spans started in earlier blocks
+        int kept = 0;
+        for (int k = 0; k < activeCount; k++) {
+            final int e = activeSpans[k];
+            if (spanHandler == null) {
+                freeSlot(e);
+                continue;
             }
-
-            if (ev instanceof PointEvent<?> p0) {
+            @SuppressWarnings("unchecked")
+            final H h = (H) evHappening[e];
+            spanHandler.onBlock(h, blockStartSample, blockSize);
+            if (evEnd[e] <= blockEndSample) {
+                spanHandler.onEnd(h, (int) Math.max(0L, evEnd[e] - blockStartSample));
+                freeSlot(e);
+            }
+            else {
+                activeSpans[kept++] = e;
+            }
+        }
+        activeCount = kept;
+
+        // events starting before the end of this block, in time order
+        final int n = collectDue(blockEndSample);
+        for (int k = 0; k < n; k++) {
+            final int e = due[k];
+            final long start = evStart[e];
+            @SuppressWarnings("unchecked")
+            final H h = (H) evHappening[e];
+
+            if (evEnd[e] == POINT) {
+                freeSlot(e);
                 if (pointHandler == null) continue;
-
-                @SuppressWarnings("unchecked")
-                PointEvent<H> p = (PointEvent<H>) p0;
-
-                if (p.sampleTime >= blockStartSample) {
-                    int offset = (int) (p.sampleTime - blockStartSample);
-                    if (offset >= 0 && offset < blockSize) {
-                        pointHandler.onPoint(p.happening, offset);
-                    }
-                } 
+                if (start >= blockStartSample) {
+                    pointHandler.onPoint(h, (int) (start - blockStartSample));
+                }
                 else {
                     // late point
                     if (latePolicy == LatePolicy.CLAMP_TO_BLOCK_START) {
-                        pointHandler.onPoint(p.happening, 0);
+                        pointHandler.onPoint(h, 0);
                     }
                     // else DROP
+                    if (metrics != null) metrics.recordLateEvent(latePolicy == LatePolicy.DROP);
                 }
+                continue;
+            }
+
+            final long end = evEnd[e];
+            // Does span overlap this block?
+            if (spanHandler == null || end <= blockStartSample) {
+                freeSlot(e);
+                continue;
+            }
+            // Start within this block?
+            if (start >= blockStartSample) {
+                spanHandler.onStart(h, (int) (start - blockStartSample));
+            }
+            // Always called for overlapping blocks
+            spanHandler.onBlock(h, blockStartSample, blockSize);
+            // End within this block?
+            if (end <= blockEndSample) {
+                spanHandler.onEnd(h, (int) (end - blockStartSample));
+                freeSlot(e);
             }
             else {
-                if (spanHandler == null) continue;
+                // continues; visited again next block
+                activeSpans[activeCount++] = e;
+            }
+        }
+    }
 
-                @SuppressWarnings("unchecked")
-                SpanEvent<H> s = (SpanEvent<H>) ev;
+    /* ----------------------------- Event store ------------------------------ */
+
+    private void allocateSlots(int capacity) {
+        int old = (evStart == null) ? 0 : evStart.length;
+        evStart = (old == 0) ? new long[capacity] : Arrays.copyOf(evStart, capacity);
+        evEnd = (old == 0) ? new long[capacity] : Arrays.copyOf(evEnd, capacity);
+        evSeq = (old == 0) ? new long[capacity] : Arrays.copyOf(evSeq, capacity);
+        evHappening = (old == 0) ? new Object[capacity] : Arrays.copyOf(evHappening, capacity);
+        evNext = (old == 0) ? new int[capacity] : Arrays.copyOf(evNext, capacity);
+        activeSpans = (old == 0) ? new int[capacity] : Arrays.copyOf(activeSpans, capacity);
+        due = new int[capacity];
+        dueTmp = new int[capacity];
+        // new slots join the free list
+        for (int i = capacity - 1; i >= old; i--) {
+            evNext[i] = freeHead;
+            freeHead = i;
+        }
+    }
 
-                // Does span overlap this block?
-                boolean overlaps = s.startSample < blockEndSample && s.endSample > blockStartSample;
-                if (!overlaps) continue;
+    /** Stores an event on the wheel, the overflow list or the early list. Audio thread only. */
+    private void insert(long start, long end, Object happening) {
+        if (freeHead == NIL) {
+            allocateSlots(evStart.length * 2);
+            growCount++;
+        }
+        final int e = freeHead;
+        freeHead = evNext[e];
+        evStart[e] = start;
+        evEnd[e] = end;
+        evSeq[e] = nextSeq++;
+        evHappening[e] = happening;
+        evNext[e] = NIL;
+        stored++;
+        place(e);
+    }
 
-                // Start within this block?
-                if (s.startSample >= blockStartSample && s.startSample < blockEndSample) {
-                    int offset = (int) (s.startSample - blockStartSample);
-                    spanHandler.onStart(s.happening, offset);
+    /** Links slot {@code e} into the list its start tick belongs to. */
+    private void place(int e) {
+        final long tick = evStart[e] >> TICK_SHIFT;
+        if (tick < wheelTick) {
+            evNext[e] = earlyHead;
+            earlyHead = e;
+        }
+        else if (tick - wheelTick < WHEEL_SIZE) {
+            final int b = (int) (tick & WHEEL_MASK);
+            evNext[e] = NIL;
+            if (bucketHead[b] == NIL) bucketHead[b] = e;
+            else evNext[bucketTail[b]] = e;
+            bucketTail[b] = e;
+        }
+        else {
+            evNext[e] = overflowHead;
+            overflowHead = e;
+        }
+    }
+
+    private void freeSlot(int e) {
+        evHappening[e] = null;
+        evNext[e] = freeHead;
+        freeHead = e;
+        stored--;
+    }
+
+    /**
+     * Moves every event starting before {@code blockEnd} into {@link #due}, sorted by start time
+     * and then by insertion order, and advances the wheel. Returns the number of due events.
+     */
+    private int collectDue(long blockEnd) {
+        int n = 0;
+        final long lastTick = (blockEnd - 1) >> TICK_SHIFT;
+
+        if (lastTick - wheelTick >= WHEEL_SIZE) {
+            // jumped past the whole horizon: every wheel event is due
+            for (int b = 0; b < WHEEL_SIZE; b++) {
+                for (int e = bucketHead[b]; e != NIL; ) {
+                    int next = evNext[e];
+                    due[n++] = e;
+                    e = next;
+                }
+                bucketHead[b] = NIL;
+                bucketTail[b] = NIL;
+            }
+            wheelTick = lastTick;
+            sweepOverflow();
+        }
+        else {
+            // buckets wholly before the block end are due in full
+            while (wheelTick < lastTick) {
+                final int b = (int) (wheelTick & WHEEL_MASK);
+                for (int e = bucketHead[b]; e != NIL; ) {
+                    int next = evNext[e];
+                    due[n++] = e;
+                    e = next;
                 }
+                bucketHead[b] = NIL;
+                bucketTail[b] = NIL;
+                wheelTick++;
+                if (wheelTick >= nextSweepTick) sweepOverflow();
+            }
+        }
 
-                // Always called for overlapping blocks
-                spanHandler.onBlock(s.happening, blockStartSample, blockSize);
-
-                // End within this block?
-                if (s.endSample > blockStartSample && s.endSample <= blockEndSample) {
-                    int offset = (int) (s.endSample - blockStartSample);
-                    // offset may equal blockSize if end==blockEndSample; clamp for safety
-                    if (offset < 0) offset = 0;
-                    if (offset > blockSize) offset = blockSize;
-                    spanHandler.onEnd(s.happening, offset);
-                    // finished; do not requeue
-                } 
-                else {
-                    // continues; requeue so we see it again next block
-                    synchronized (queue) {
-                        queue.add(s);
-                    }
+        // the bucket holding the last sample of the block is due only up to blockEnd
+        final int b = (int) (wheelTick & WHEEL_MASK);
+        int prev = NIL;
+        for (int e = bucketHead[b]; e != NIL; ) {
+            int next = evNext[e];
+            if (evStart[e] < blockEnd) {
+                if (prev == NIL) bucketHead[b] = next;
+                else evNext[prev] = next;
+                if (bucketTail[b] == e) bucketTail[b] = prev;
+                due[n++] = e;
+            }
+            else {
+                prev = e;
+            }
+            e = next;
+        }
+
+        // events that were already behind the wheel when they arrived
+        prev = NIL;
+        for (int e = earlyHead; e != NIL; ) {
+            int next = evNext[e];
+            if (evStart[e] < blockEnd) {
+                if (prev == NIL) earlyHead = next;
+                else evNext[prev] = next;
+                due[n++] = e;
+            }
+            else {
+                prev = e;
+            }
+            e = next;
+        }
+
+        if (n > 1) sortDue(n);
+        return n;
+    }
+
+    /**
+     * Moves overflow events that now fall within the horizon onto the wheel, and those already
+     * behind it onto the early list. Runs every half revolution, so an event far in the future
+     * is looked at a bounded number of times per revolution it waits.
+     */
+    private void sweepOverflow() {
+        int e = overflowHead;
+        overflowHead = NIL;
+        while (e != NIL) {
+            int next = evNext[e];
+            place(e);
+            e = next;
+        }
+        nextSweepTick = wheelTick + WHEEL_SIZE / 2;
+    }
+
+    /** Bottom-up merge sort of {@code due[0..n)} by start time, then insertion order. */
+    private void sortDue(int n) {
+        // short runs are sorted by insertion first
+        final int run = 16;
+        for (int lo = 0; lo < n; lo += run) {
+            int hi = Math.min(lo + run, n);
+            for (int i = lo + 1; i < hi; i++) {
+                int e = due[i];
+                int j = i - 1;
+                while (j >= lo && before(e, due[j])) {
+                    due[j + 1] = due[j];
+                    j--;
                 }
+                due[j + 1] = e;
+            }
+        }
+        int[] src = due;
+        int[] dst = dueTmp;
+        for (int width = run; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) dst[k++] = before(src[j], src[i]) ? src[j++] : src[i++];
+                while (i < mid) dst[k++] = src[i++];
+                while (j < hi) dst[k++] = src[j++];
             }
+            int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        if (src != due) System.arraycopy(src, 0, due, 0, n);
+    }
+
+    private boolean before(int a, int b) {
+        return evStart[a] < evStart[b] || (evStart[a] == evStart[b] && evSeq[a] < evSeq[b]);
+    }
+
+    /** Drops every stored event, including running spans. Audio thread only. */
+    private void clearStore() {
+        Arrays.fill(evHappening, null);
+        Arrays.fill(bucketHead, NIL);
+        Arrays.fill(bucketTail, NIL);
+        overflowHead = NIL;
+        earlyHead = NIL;
+        activeCount = 0;
+        stored = 0;
+        freeHead = NIL;
+        for (int i = evStart.length - 1; i >= 0; i--) {
+            evNext[i] = freeHead;
+            freeHead = i;
         }
     }
 }
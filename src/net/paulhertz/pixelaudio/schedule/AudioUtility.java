@@ -18,14 +18,10 @@
 
 package net.paulhertz.pixelaudio.schedule;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.stream.IntStream;
 
-import javax.sound.sampled.AudioFileFormat;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
-import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import ddf.minim.AudioOutput;
@@ -255,6 +251,34 @@ public final class AudioUtility {
 	 * 
      */
 
+    /** Magnitude below which {@link #flushDenormal(float)} returns 0, about -300 dB. */
+    public static final float DENORMAL_THRESHOLD = 1.0e-15f;
+
+    /**
+     * Flushes values too small to hear to exactly 0. Decaying envelopes, window tails and
+     * feedback paths otherwise drift into subnormal floats, which are very slow on some CPUs.
+     *
+     * @param x   sample or gain value
+     * @return {@code x}, or 0 if its magnitude is below {@link #DENORMAL_THRESHOLD}
+     */
+    public static float flushDenormal(float x) {
+        return (Math.abs(x) < DENORMAL_THRESHOLD) ? 0f : x;
+    }
+
+    /**
+     * Flushes every value of {@code signal} that is too small to hear to exactly 0, in place.
+     *
+     * @param signal   audio samples or a gain curve
+     * @return {@code signal}
+     */
+    public static float[] flushDenormals(float[] signal) {
+        if (signal == null) return null;
+        for (int i = 0; i < signal.length; i++) {
+            if (Math.abs(signal[i]) < DENORMAL_THRESHOLD) signal[i] = 0f;
+        }
+        return signal;
+    }
+
     /**
      * Computes the average sample value, useful for detecting DC offset.
      *
@@ -733,19 +757,19 @@ public final class AudioUtility {
         int srcLen   = src.getBufferSize();
 
         if (srcLen == 0) {
-            return new MultiChannelBuffer(channels, 0);
+            return new MultiChannelBuffer(0, channels);
         }
 
         if (Math.abs(sourceRate - targetRate) < 1e-6f) {
             // Just clone
-            MultiChannelBuffer copy = new MultiChannelBuffer(channels, srcLen);
+            MultiChannelBuffer copy = new MultiChannelBuffer(srcLen, channels);
             copy.set(src);
             return copy;
         }
 
         double ratio   = targetRate / sourceRate;
         int dstLen     = (int) Math.round(srcLen * ratio);
-        MultiChannelBuffer dst = new MultiChannelBuffer(channels, dstLen);
+        MultiChannelBuffer dst = new MultiChannelBuffer(dstLen, channels);
 
         double invRatio = 1.0 / ratio;
 
@@ -786,6 +810,156 @@ public final class AudioUtility {
         return resampleMCB(src, sourceRate, out.sampleRate());
     }
 
+    // ------------------------------------------------------------------------
+    // Band-limited resampling: polyphase windowed sinc
+    // ------------------------------------------------------------------------
+
+    /** Channels shorter than this are resampled on the calling thread. */
+    private static final int PARALLEL_MIN_FRAMES = 1 << 16;
+
+    /**
+     * Resamples a mono buffer with the {@link SincResampler.Quality#STANDARD} windowed-sinc kernel.
+     *
+     * @param source       mono samples at sourceRate
+     * @param sourceRate   sample rate of the source buffer (Hz)
+     * @param targetRate   desired sample rate (Hz)
+     * @return new float[] at targetRate
+     * @see #resampleSinc(float[], float, float, SincResampler.Quality)
+     */
+    public static float[] resampleSinc(float[] source, float sourceRate, float targetRate) {
+        return resampleSinc(source, sourceRate, targetRate, SincResampler.Quality.STANDARD);
+    }
+
+    /**
+     * Resamples a mono buffer from sourceRate to targetRate with a polyphase windowed-sinc
+     * kernel. Unlike {@link #resampleMono(float[], float, float)}, which interpolates linearly,
+     * the kernel is band-limited to the lower of the two Nyquist frequencies, so downsampling
+     * does not alias and upsampling does not image. The output has the same length as
+     * {@code resampleMono} gives; samples before and after the source are treated as zero.
+     * For inputs too long to hold in memory, use a {@link SincResampler} directly.
+     *
+     * @param source       mono samples at sourceRate
+     * @param sourceRate   sample rate of the source buffer (Hz)
+     * @param targetRate   desired sample rate (Hz)
+     * @param quality      kernel preset
+     * @return new float[] at targetRate
+     */
+    public static float[] resampleSinc(float[] source, float sourceRate, float targetRate,
+                                       SincResampler.Quality quality) {
+        if (source == null) {
+            throw new IllegalArgumentException("source buffer must not be null");
+        }
+        if (sourceRate <= 0 || targetRate <= 0) {
+            throw new IllegalArgumentException("sample rates must be > 0");
+        }
+        if (quality == null) {
+            throw new IllegalArgumentException("quality must not be null");
+        }
+        if (Math.abs(sourceRate - targetRate) < 1e-6f) {
+            return source.clone();
+        }
+        return resampleSinc(source, sourceRate, targetRate, SincResampler.table(sourceRate, targetRate, quality));
+    }
+
+    /**
+     * Convenience: sinc-resample a mono buffer from sourceRate to match AudioOutput sample rate.
+     *
+     * @param source       mono samples at sourceRate
+     * @param sourceRate   sample rate of the source buffer (Hz)
+     * @param out          target AudioOutput
+     * @param quality      kernel preset
+     * @return new mono buffer at the output sample rate
+     */
+    public static float[] resampleSincToOutput(float[] source, float sourceRate, AudioOutput out,
+                                               SincResampler.Quality quality) {
+        if (out == null) {
+            throw new IllegalArgumentException("AudioOutput must not be null");
+        }
+        return resampleSinc(source, sourceRate, out.sampleRate(), quality);
+    }
+
+    /**
+     * Sinc-resamples all channels in a MultiChannelBuffer. Channels share one kernel table and,
+     * when there are several long channels, are converted in parallel on the common fork-join pool.
+     *
+     * @param src          source buffer to resample
+     * @param sourceRate   sample rate of the source buffer (Hz)
+     * @param targetRate   desired sample rate (Hz)
+     * @param quality      kernel preset
+     * @return new buffer at targetRate
+     */
+    public static MultiChannelBuffer resampleSincMCB(MultiChannelBuffer src, float sourceRate, float targetRate,
+                                                     SincResampler.Quality quality) {
+        if (src == null) {
+            throw new IllegalArgumentException("source MultiChannelBuffer must not be null");
+        }
+        if (sourceRate <= 0 || targetRate <= 0) {
+            throw new IllegalArgumentException("sample rates must be > 0");
+        }
+        if (quality == null) {
+            throw new IllegalArgumentException("quality must not be null");
+        }
+        final int channels = src.getChannelCount();
+        final int srcLen = src.getBufferSize();
+        if (srcLen == 0 || Math.abs(sourceRate - targetRate) < 1e-6f) {
+            MultiChannelBuffer copy = new MultiChannelBuffer(srcLen, channels);
+            copy.set(src);
+            return copy;
+        }
+        final PolyphaseSincTable table = SincResampler.table(sourceRate, targetRate, quality);
+        final int dstLen = (int) SincResampler.outputLength(srcLen, sourceRate, targetRate);
+        MultiChannelBuffer dst = new MultiChannelBuffer(dstLen, channels);
+        IntStream lanes = IntStream.range(0, channels);
+        if (channels > 1 && srcLen >= PARALLEL_MIN_FRAMES) lanes = lanes.parallel();
+        // getChannel returns the backing array, so each lane writes only its own channel
+        lanes.forEach(ch -> {
+            float[] out = resampleSinc(src.getChannel(ch), sourceRate, targetRate, table);
+            System.arraycopy(out, 0, dst.getChannel(ch), 0, dstLen);
+        });
+        return dst;
+    }
+
+    /**
+     * Convenience: sinc-resample a MultiChannelBuffer from sourceRate to match AudioOutput.
+     *
+     * @param src          source buffer to resample
+     * @param sourceRate   sample rate of the source buffer (Hz)
+     * @param out          target AudioOutput
+     * @param quality      kernel preset
+     * @return new buffer at the output sample rate
+     */
+    public static MultiChannelBuffer resampleSincMCBToOutput(MultiChannelBuffer src, float sourceRate,
+                                                             AudioOutput out, SincResampler.Quality quality) {
+        if (out == null) {
+            throw new IllegalArgumentException("AudioOutput must not be null");
+        }
+        return resampleSincMCB(src, sourceRate, out.sampleRate(), quality);
+    }
+
+    /**
+     * Sinc-resamples one channel with a prepared kernel. The read position steps by the reduced
+     * integer rate ratio, exactly as in {@link SincResampler}, so both give identical samples.
+     */
+    private static float[] resampleSinc(float[] source, float sourceRate, float targetRate, PolyphaseSincTable table) {
+        final long[] ratio = SincResampler.ratio(sourceRate, targetRate);
+        final int step = (int) ratio[0];
+        final int den = (int) ratio[1];
+        final float invDen = 1f / den;
+        final int dstLen = (int) SincResampler.outputLength(source.length, sourceRate, targetRate);
+        float[] out = new float[dstLen];
+        int idx = 0;
+        int rem = 0;
+        for (int i = 0; i < dstLen; i++) {
+            out[i] = table.interpolate(source, idx, rem * invDen);
+            rem += step;
+            if (rem >= den) {
+                idx += rem / den;
+                rem %= den;
+            }
+        }
+        return out;
+    }
+
     
 	//-------------------------------------------//
 	//              AUDIO FILE I/O               //
@@ -803,23 +977,7 @@ public final class AudioUtility {
 	 */
 	public static void saveAudioToFile(float[] samples, float sampleRate, String fileName)
 	        throws IOException, UnsupportedAudioFileException {
-	    // Convert samples from float to 16-bit PCM
-	    byte[] audioBytes = new byte[samples.length * 2];
-	    int index = 0;
-	    for (float sample : samples) {
-	        // Scale sample to 16-bit signed integer
-	        int intSample = (int) (sample * 32767);
-	        // Convert to bytes
-	        audioBytes[index++] = (byte) (intSample & 0xFF);
-	        audioBytes[index++] = (byte) ((intSample >> 8) & 0xFF);
-	    }
-	    // Create an AudioInputStream
-	    ByteArrayInputStream byteStream = new ByteArrayInputStream(audioBytes);
-	    AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
-	    AudioInputStream audioInputStream = new AudioInputStream(byteStream, format, samples.length);
-	    // Save the AudioInputStream to a WAV file
-	    File outFile = new File(fileName);
-	    AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, outFile);
+	    saveAudioToFile(new float[][] { samples }, sampleRate, fileName, WavFileWriter.Encoding.PCM_16);
 	}
 	
 	/**
@@ -832,22 +990,7 @@ public final class AudioUtility {
 	 * @throws IOException		an Exception you'll need to catch to call this method (see keyPressed entry for 's')
 	 */
 	public static void saveAudioTo32BitPCMFile(float[] samples, float sampleRate, String fileName) throws IOException {
-		// convert samples to 32-bit PCM float
-		byte[] audioBytes = new byte[samples.length * 4];
-		int index = 0;
-		// convert to IEEE 754 floating-point "single format" bit layout 
-		for (float sample : samples) {
-			int intBits = Float.floatToIntBits(sample);
-			audioBytes[index++] = (byte) (intBits & 0xFF);
-			audioBytes[index++] = (byte) ((intBits >> 8) & 0xFF);
-			audioBytes[index++] = (byte) ((intBits >> 16) & 0xFF);
-			audioBytes[index++] = (byte) ((intBits >> 24) & 0xFF);
-		}
-		ByteArrayInputStream byteStream = new ByteArrayInputStream(audioBytes);
-		AudioFormat format = new AudioFormat(sampleRate, 32, 1, true, false);
-        AudioInputStream audioInputStream = new AudioInputStream(byteStream, format, samples.length);
-        File outFile = new File(fileName);
-        AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, outFile);      
+		saveAudioToFile(new float[][] { samples }, sampleRate, fileName, WavFileWriter.Encoding.FLOAT_32);
 	}
 
 	/**
@@ -862,31 +1005,7 @@ public final class AudioUtility {
 	 */
 	public static void saveStereoAudioToFile(float[] leftChannel, float[] rightChannel, float sampleRate, String fileName)
 	        throws IOException, UnsupportedAudioFileException {
-	    if (leftChannel.length != rightChannel.length) {
-	        throw new IllegalArgumentException("Left and right channel sample arrays must have the same length.");
-	    }
-        int numSamples = leftChannel.length;
-	    // Convert samples from float to 16-bit PCM
-	    byte[] audioBytes = new byte[leftChannel.length * 2 * 2];
-	    int index = 0;
-	    for (int i = 0; i < numSamples; i++) {
-	    	// sclae the samples to 16-bit integers
-	        int left = (int) (leftChannel[i] * 32767);
-	        int right = (int) (rightChannel[i] * 32767);
-	        // Left channel (little endian)
-	        audioBytes[index++] = (byte) (left & 0xFF);
-	        audioBytes[index++] = (byte) ((left >> 8) & 0xFF);
-	        // Right channel (little endian)
-	        audioBytes[index++] = (byte) (right & 0xFF);
-	        audioBytes[index++] = (byte) ((right >> 8) & 0xFF);
-	    }
-	    // Create an AudioInputStream
-	    ByteArrayInputStream byteStream = new ByteArrayInputStream(audioBytes);
-	    AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
-	    AudioInputStream audioInputStream = new AudioInputStream(byteStream, format, numSamples);
-	    // Save the AudioInputStream to a WAV file
-	    File outFile = new File(fileName);
-	    AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, outFile);
+	    saveAudioToFile(new float[][] { leftChannel, rightChannel }, sampleRate, fileName, WavFileWriter.Encoding.PCM_16);
 	}
 	
 	/**
@@ -900,32 +1019,34 @@ public final class AudioUtility {
 	 * @throws IOException		
 	 */
 	public static void saveStereoAudioTo32BitPCMFile(float[] leftChannel, float[] rightChannel, float sampleRate, String fileName) throws IOException {
-        int numSamples = leftChannel.length;
-		// convert leftChannel to 32-bit PCM float
-		byte[] audioBytes = new byte[numSamples * 2 * 4];
-		int index = 0;
-		// convert to IEEE 754 floating-point "single format" bit layout 
-		for (int i = 0; i < numSamples; i++) {
-           // Left channel sample
-            int intBits = Float.floatToIntBits(leftChannel[i]);
-            audioBytes[index++] = (byte) (intBits & 0xFF);
-            audioBytes[index++] = (byte) ((intBits >> 8) & 0xFF);
-            audioBytes[index++] = (byte) ((intBits >> 16) & 0xFF);
-            audioBytes[index++] = (byte) ((intBits >> 24) & 0xFF);
-            // Right channel sample
-            intBits = Float.floatToIntBits(rightChannel[i]);
-            audioBytes[index++] = (byte) (intBits & 0xFF);
-            audioBytes[index++] = (byte) ((intBits >> 8) & 0xFF);
-            audioBytes[index++] = (byte) ((intBits >> 16) & 0xFF);
-            audioBytes[index++] = (byte) ((intBits >> 24) & 0xFF);
-		}
-        // create an AudioInputStream
-		ByteArrayInputStream byteStream = new ByteArrayInputStream(audioBytes);
-		AudioFormat format = new AudioFormat(sampleRate, 32, 2, true, false);
-        AudioInputStream audioInputStream = new AudioInputStream(byteStream, format, numSamples);
-        // write the file 
-        File outFile = new File(fileName);
-        AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, outFile);      
+		saveAudioToFile(new float[][] { leftChannel, rightChannel }, sampleRate, fileName, WavFileWriter.Encoding.FLOAT_32);
+	}
+
+	/**
+	 * Saves any number of channels to a WAV file in the given encoding. Samples are streamed
+	 * through a {@link WavFileWriter}, so only a small fixed buffer is used beyond the arrays
+	 * passed in. To write a render that is produced block by block, use a WavFileWriter directly.
+	 * 
+	 * @param channels			one array per channel, all of the same length
+	 * @param sampleRate		the sample rate for the file
+	 * @param fileName			name of the file
+	 * @param encoding			sample encoding: 16, 24 or 32-bit integer, or 32-bit float
+	 * @throws IOException		if the file cannot be written
+	 */
+	public static void saveAudioToFile(float[][] channels, float sampleRate, String fileName,
+	                                   WavFileWriter.Encoding encoding) throws IOException {
+	    if (channels.length == 0) {
+	        throw new IllegalArgumentException("at least one channel is required");
+	    }
+	    int numSamples = channels[0].length;
+	    for (float[] ch : channels) {
+	        if (ch.length != numSamples) {
+	            throw new IllegalArgumentException("All channel sample arrays must have the same length.");
+	        }
+	    }
+	    try (WavFileWriter out = WavFileWriter.open(new File(fileName), sampleRate, channels.length, encoding)) {
+	        out.write(channels, 0, numSamples);
+	    }
 	}
 
 
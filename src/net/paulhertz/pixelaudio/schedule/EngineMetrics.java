@@ -0,0 +1,542 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counters, gauges and a render-time histogram for a real-time audio engine.
+ *
+ * <p>An EngineMetrics instance belongs to one UGen. The audio thread is its only writer for
+ * everything except rejected triggers: it updates plain fields while a control block is being
+ * rendered and publishes them with single volatile or ordered writes when the block ends.
+ * The UI thread reads a consistent-enough view through {@link #snapshot()}. Nothing here
+ * takes a monitor or allocates on the audio thread.</p>
+ *
+ * <p>What is tracked:</p>
+ * <ul>
+ *   <li>triggers, rejected triggers (command ring full, no voice available) and voice steals;</li>
+ *   <li>late scheduled events, split into clamped and dropped, reported by {@link AudioScheduler};</li>
+ *   <li>active voices at the end of each control block and the peak since the last reset;</li>
+ *   <li>render time per control block, with a log2 histogram, the maximum and the number of
+ *       blocks that exceeded the real-time budget;</li>
+ *   <li>limiter gain reduction: the ratio of limited to linear peak level over each block.</li>
+ * </ul>
+ *
+ * <p>Render time is measured around the UGen's own work, but only in one control block out
+ * of every {@link #getTimingInterval()} ({@value #DEFAULT_TIMING_INTERVAL} by default). Inside
+ * a timed block, an engine that renders frame by frame reads {@link System#nanoTime()} twice
+ * per frame; every other block reads the clock not at all. The block-time statistics and
+ * the histogram describe the timed blocks only. A timing interval of 1 times every block, at
+ * a cost that {@code EngineMetricsTest} measures and prints. {@link #setTimingEnabled(boolean)}
+ * turns timing off, and {@link #setEnabled(boolean)} turns off collection altogether.</p>
+ *
+ * <p>{@link #setPublishToJfr(boolean)} additionally publishes each snapshot as a periodic
+ * Java Flight Recorder event named {@code net.paulhertz.pixelaudio.EngineMetrics}, emitted
+ * by the recorder's own thread once a second while a recording is running.</p>
+ */
+public final class EngineMetrics {
+    /** Number of log2 buckets in the render-time histogram. */
+    public static final int HISTOGRAM_BUCKETS = 32;
+    /** Default number of control blocks per timed block. */
+    public static final int DEFAULT_TIMING_INTERVAL = 16;
+
+    private final String name;
+    private final int blockSize;
+    private final long blockBudgetNanos;
+
+    private volatile boolean enabled = true;
+    private volatile boolean timingEnabled = true;
+    private volatile int timingInterval = DEFAULT_TIMING_INTERVAL;
+
+    // published counters: single writer (the audio thread), read by any thread
+    private volatile long triggers;
+    private volatile long steals;
+    private volatile long lateEvents;
+    private volatile long droppedLateEvents;
+    private volatile int activeVoices;
+    private volatile int peakVoices;
+    private volatile long blocks;
+    private volatile long overBudgetBlocks;
+    private volatile long totalBlockNanos;
+    private volatile long maxBlockNanos;
+    private volatile float gainReduction = 1f;
+    private volatile float maxGainReduction = 1f;
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    /** Written from control threads (ring full) as well as the audio thread (no voice). */
+    private final AtomicLong rejected = new AtomicLong();
+
+    // per-block accumulators, owned by the audio thread
+    private long blockNanos;
+    private int blockFrames;
+    private float peakIn;
+    private float peakOut;
+    /** True while the current block is timed; the first block always is. */
+    private boolean timedBlock = true;
+    /** Blocks left until the next timed block. */
+    private int timingCountdown = DEFAULT_TIMING_INTERVAL;
+
+    /**
+     * Creates metrics for an engine that renders in control blocks of {@code blockSize}
+     * samples at {@code sampleRate}.
+     *
+     * @param name         label used in snapshots and JFR events
+     * @param blockSize    samples per control block
+     * @param sampleRate   output sample rate in Hz, used to compute the block budget
+     */
+    public EngineMetrics(String name, int blockSize, float sampleRate) {
+        this.name = (name != null) ? name : "engine";
+        this.blockSize = Math.max(1, blockSize);
+        float sr = (sampleRate > 0f) ? sampleRate : 44100f;
+        this.blockBudgetNanos = Math.round(this.blockSize * 1.0e9 / sr);
+    }
+
+    /** @return label used in snapshots and JFR events */
+    public String getName() { return name; }
+
+    /** @return real-time budget for one control block in nanoseconds */
+    public long getBlockBudgetNanos() { return blockBudgetNanos; }
+
+    /**
+     * Turns all collection on or off. While off, every recording method returns at once.
+     *
+     * @param enabled true to collect metrics
+     */
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    /** @return true while metrics are collected */
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * Turns render-time measurement on or off; counters and gauges are unaffected.
+     *
+     * @param enabled true to time each rendered frame
+     */
+    public void setTimingEnabled(boolean enabled) { this.timingEnabled = enabled; }
+
+    /** @return true while render time is measured */
+    public boolean isTimingEnabled() { return timingEnabled; }
+
+    /**
+     * Sets how often a control block is timed: one block in every {@code blocks}. Takes effect
+     * at the next block boundary.
+     *
+     * @param blocks   control blocks per timed block, at least 1
+     */
+    public void setTimingInterval(int blocks) { this.timingInterval = Math.max(1, blocks); }
+
+    /** @return control blocks per timed block */
+    public int getTimingInterval() { return timingInterval; }
+
+    // ------------------------------------------------------------------------
+    // Audio-thread recording
+    // ------------------------------------------------------------------------
+
+    /** Counts a voice start. Audio thread only. */
+    public void recordTrigger() {
+        if (enabled) triggers = triggers + 1;
+    }
+
+    /** Counts a voice steal. Audio thread only. */
+    public void recordSteal() {
+        if (enabled) steals = steals + 1;
+    }
+
+    /** Counts a trigger that produced no voice. Safe to call from any thread. */
+    public void recordRejected() {
+        if (enabled) rejected.incrementAndGet();
+    }
+
+    /**
+     * Counts a scheduled event whose time had already passed. Called by the single thread that
+     * processes the schedule.
+     *
+     * @param dropped true if the event was discarded, false if it was clamped and played
+     */
+    public void recordLateEvent(boolean dropped) {
+        if (!enabled) return;
+        if (dropped) droppedLateEvents = droppedLateEvents + 1;
+        else lateEvents = lateEvents + 1;
+    }
+
+    /**
+     * Marks the start of one rendered frame. At a block boundary, call {@link #endBlock(int)}
+     * first, so the frame is attributed to the block it starts.
+     *
+     * @return a start stamp to pass to {@link #endFrame(long)}, or 0 when this block is not timed
+     */
+    public long beginFrame() {
+        return timedBlock ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Marks the end of one rendered frame started with {@link #beginFrame()}.
+     *
+     * @param start stamp returned by {@link #beginFrame()}
+     */
+    public void endFrame(long start) {
+        if (start != 0L) blockNanos += System.nanoTime() - start;
+        blockFrames++;
+    }
+
+    /**
+     * Tracks the limiter for one output sample. Audio thread only.
+     *
+     * @param linear    what the sample would have been without limiting, drive included
+     * @param limited   the limited output sample
+     */
+    public void trackLimiter(float linear, float limited) {
+        float a = Math.abs(linear);
+        if (a > peakIn) peakIn = a;
+        float b = Math.abs(limited);
+        if (b > peakOut) peakOut = b;
+    }
+
+    /**
+     * Publishes the control block that just finished and decides whether the next one is
+     * timed. Call once at each control-block boundary, before rendering the next block.
+     *
+     * @param voices number of voices allocated at the block boundary
+     */
+    public void endBlock(int voices) {
+        if (enabled) publish(voices);
+        blockNanos = 0L;
+        blockFrames = 0;
+        peakIn = peakOut = 0f;
+        timedBlock = false;
+        final int interval = timingInterval;
+        if (timingCountdown > interval) timingCountdown = interval;
+        if (--timingCountdown <= 0) {
+            timingCountdown = interval;
+            timedBlock = enabled && timingEnabled;
+        }
+    }
+
+    private void publish(int voices) {
+        activeVoices = voices;
+        if (voices > peakVoices) peakVoices = voices;
+        if (blockFrames == 0) return;
+        long nanos = blockNanos;
+        if (nanos > 0L) {
+            totalBlockNanos = totalBlockNanos + nanos;
+            if (nanos > maxBlockNanos) maxBlockNanos = nanos;
+            if (nanos > blockBudgetNanos) overBudgetBlocks = overBudgetBlocks + 1;
+            int bucket = bucketOf(nanos);
+            histogram.lazySet(bucket, histogram.get(bucket) + 1);
+        }
+        float ratio = (peakIn > 1.0e-9f) ? Math.min(1f, peakOut / peakIn) : 1f;
+        gainReduction = ratio;
+        if (ratio < maxGainReduction) maxGainReduction = ratio;
+        blocks = blocks + 1;
+    }
+
+    /** Histogram bucket for a duration: bucket k holds durations in [2^(k-1), 2^k) ns. */
+    static int bucketOf(long nanos) {
+        int b = 64 - Long.numberOfLeadingZeros(nanos);
+        return Math.min(HISTOGRAM_BUCKETS - 1, b);
+    }
+
+    // ------------------------------------------------------------------------
+    // Reading
+    // ------------------------------------------------------------------------
+
+    /**
+     * Clears all counters, gauges and the histogram. Intended for the UI thread between
+     * measurements; a block published at the same moment may survive the reset.
+     */
+    public void reset() {
+        triggers = 0L;
+        steals = 0L;
+        lateEvents = 0L;
+        droppedLateEvents = 0L;
+        rejected.set(0L);
+        peakVoices = activeVoices;
+        blocks = 0L;
+        overBudgetBlocks = 0L;
+        totalBlockNanos = 0L;
+        maxBlockNanos = 0L;
+        gainReduction = 1f;
+        maxGainReduction = 1f;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) histogram.set(i, 0L);
+    }
+
+    /** Converts a gain ratio in (0, 1] to dB, flooring silence at -120 dB. */
+    private static float toDb(float ratio) {
+        return (ratio > 1.0e-6f) ? (float) (20.0 * Math.log10(ratio)) : -120f;
+    }
+
+    /** @return an immutable copy of the current values */
+    public Snapshot snapshot() {
+        long[] hist = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) hist[i] = histogram.get(i);
+        return new Snapshot(name, triggers, rejected.get(), steals, lateEvents, droppedLateEvents,
+                activeVoices, peakVoices, blocks, overBudgetBlocks, totalBlockNanos, maxBlockNanos,
+                blockBudgetNanos, toDb(gainReduction), toDb(maxGainReduction), hist);
+    }
+
+    /**
+     * Immutable view of an {@link EngineMetrics} instance, or of several combined with
+     * {@link #combine(String, Snapshot...)}.
+     */
+    public static final class Snapshot {
+        /** Engine label. */
+        public final String name;
+        /** Voices started. */
+        public final long triggers;
+        /** Triggers that produced no voice. */
+        public final long rejectedTriggers;
+        /** Voices taken from a sounding note. */
+        public final long steals;
+        /** Scheduled events that arrived late and were clamped to the block start. */
+        public final long lateEvents;
+        /** Scheduled events that arrived late and were dropped. */
+        public final long droppedLateEvents;
+        /** Voices allocated at the end of the last control block. */
+        public final int activeVoices;
+        /**
+         * Highest {@link #activeVoices} since the last reset. In a combined snapshot, the
+         * highest peak of any part: the parts need not have peaked at the same time.
+         */
+        public final int peakVoices;
+        /** Control blocks rendered. */
+        public final long blocks;
+        /** Timed control blocks whose render time exceeded {@link #blockBudgetNanos}. */
+        public final long overBudgetBlocks;
+        /** Summed render time of all timed blocks, in nanoseconds. */
+        public final long totalBlockNanos;
+        /** Longest render time of a single block, in nanoseconds. */
+        public final long maxBlockNanos;
+        /** Real-time budget for one control block, in nanoseconds. */
+        public final long blockBudgetNanos;
+        /** Limiter gain reduction over the last block, in dB (0 or negative). */
+        public final float gainReductionDb;
+        /** Deepest limiter gain reduction since the last reset, in dB (0 or negative). */
+        public final float maxGainReductionDb;
+        private final long[] histogram;
+
+        Snapshot(String name, long triggers, long rejectedTriggers, long steals, long lateEvents,
+                long droppedLateEvents, int activeVoices, int peakVoices, long blocks,
+                long overBudgetBlocks, long totalBlockNanos, long maxBlockNanos, long blockBudgetNanos,
+                float gainReductionDb, float maxGainReductionDb, long[] histogram) {
+            this.name = name;
+            this.triggers = triggers;
+            this.rejectedTriggers = rejectedTriggers;
+            this.steals = steals;
+            this.lateEvents = lateEvents;
+            this.droppedLateEvents = droppedLateEvents;
+            this.activeVoices = activeVoices;
+            this.peakVoices = peakVoices;
+            this.blocks = blocks;
+            this.overBudgetBlocks = overBudgetBlocks;
+            this.totalBlockNanos = totalBlockNanos;
+            this.maxBlockNanos = maxBlockNanos;
+            this.blockBudgetNanos = blockBudgetNanos;
+            this.gainReductionDb = gainReductionDb;
+            this.maxGainReductionDb = maxGainReductionDb;
+            this.histogram = histogram;
+        }
+
+        /** @return number of control blocks whose render time was measured */
+        public long timedBlocks() {
+            long timed = 0L;
+            for (long n : histogram) timed += n;
+            return timed;
+        }
+
+        /** @return mean render time per timed block in nanoseconds */
+        public double meanBlockNanos() {
+            long timed = timedBlocks();
+            return (timed > 0L) ? (double) totalBlockNanos / timed : 0.0;
+        }
+
+        /** @return mean render time as a percentage of the block budget */
+        public double loadPercent() {
+            return (blockBudgetNanos > 0L) ? 100.0 * meanBlockNanos() / blockBudgetNanos : 0.0;
+        }
+
+        /**
+         * @param bucket histogram bucket, 0 to {@link EngineMetrics#HISTOGRAM_BUCKETS} - 1
+         * @return number of blocks whose render time fell in [2^(bucket-1), 2^bucket) ns
+         */
+        public long histogramCount(int bucket) {
+            return (bucket >= 0 && bucket < histogram.length) ? histogram[bucket] : 0L;
+        }
+
+        /**
+         * Estimates a render-time percentile from the histogram, as the upper edge of the bucket
+         * that contains it.
+         *
+         * @param p percentile in [0, 100]
+         * @return estimated render time in nanoseconds, or 0 if no block was timed
+         */
+        public long percentileNanos(double p) {
+            long timed = timedBlocks();
+            if (timed == 0L) return 0L;
+            long rank = (long) Math.ceil(Math.max(0.0, Math.min(100.0, p)) / 100.0 * timed);
+            long seen = 0L;
+            for (int b = 0; b < histogram.length; b++) {
+                seen += histogram[b];
+                if (seen >= Math.max(1L, rank)) return 1L << b;
+            }
+            return maxBlockNanos;
+        }
+
+        /**
+         * Sums several snapshots, for example every sampler of an instrument pool. Counts and
+         * active voices add; maxima, including the voice peak, take the largest value; and gain
+         * reduction takes the deepest. Summing peaks would report voices that were never
+         * sounding together.
+         *
+         * @param name    label of the combined snapshot
+         * @param parts   snapshots to combine; null entries are skipped
+         * @return combined snapshot
+         */
+        public static Snapshot combine(String name, Snapshot... parts) {
+            long trig = 0, rej = 0, st = 0, late = 0, dropped = 0, blk = 0, over = 0, total = 0, max = 0, budget = 0;
+            int active = 0, peak = 0;
+            float gr = 0f, maxGr = 0f;
+            long[] hist = new long[HISTOGRAM_BUCKETS];
+            for (Snapshot s : parts) {
+                if (s == null) continue;
+                trig += s.triggers;
+                rej += s.rejectedTriggers;
+                st += s.steals;
+                late += s.lateEvents;
+                dropped += s.droppedLateEvents;
+                active += s.activeVoices;
+                peak = Math.max(peak, s.peakVoices);
+                blk += s.blocks;
+                over += s.overBudgetBlocks;
+                total += s.totalBlockNanos;
+                max = Math.max(max, s.maxBlockNanos);
+                budget = Math.max(budget, s.blockBudgetNanos);
+                gr = Math.min(gr, s.gainReductionDb);
+                maxGr = Math.min(maxGr, s.maxGainReductionDb);
+                for (int i = 0; i < HISTOGRAM_BUCKETS; i++) hist[i] += s.histogram[i];
+            }
+            return new Snapshot(name, trig, rej, st, late, dropped, active, peak, blk, over,
+                    total, max, budget, gr, maxGr, hist);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s: voices=%d (peak %d) triggers=%d rejected=%d steals=%d late=%d dropped=%d "
+                    + "blocks=%d overBudget=%d mean=%.1fus p99=%.1fus max=%.1fus load=%.2f%% gr=%.1fdB (max %.1fdB)",
+                    name, activeVoices, peakVoices, triggers, rejectedTriggers, steals, lateEvents,
+                    droppedLateEvents, blocks, overBudgetBlocks, meanBlockNanos() / 1000.0,
+                    percentileNanos(99) / 1000.0, maxBlockNanos / 1000.0, loadPercent(),
+                    gainReductionDb, maxGainReductionDb);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Java Flight Recorder
+    // ------------------------------------------------------------------------
+
+    /**
+     * Publishes this instance as a periodic JFR event while a recording is running. The event
+     * is built on the recorder's thread, so the audio thread does no extra work.
+     *
+     * @param publish true to publish, false to stop publishing
+     * @return true if JFR publishing is now active, false if it is off or JFR is unavailable
+     */
+    public boolean setPublishToJfr(boolean publish) {
+        try {
+            return Jfr.setPublished(this, publish);
+        }
+        catch (LinkageError | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Isolates every reference to {@code jdk.jfr}, so the rest of the class loads on runtimes
+     * without the module.
+     */
+    private static final class Jfr {
+        private static final Set<EngineMetrics> PUBLISHED =
+                Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+        static {
+            jdk.jfr.FlightRecorder.addPeriodicEvent(MetricsEvent.class, Jfr::emit);
+        }
+
+        static boolean setPublished(EngineMetrics m, boolean publish) {
+            if (publish) PUBLISHED.add(m);
+            else PUBLISHED.remove(m);
+            return publish;
+        }
+
+        private static void emit() {
+            EngineMetrics[] all;
+            synchronized (PUBLISHED) {
+                all = PUBLISHED.toArray(new EngineMetrics[0]);
+            }
+            for (EngineMetrics m : all) {
+                Snapshot s = m.snapshot();
+                MetricsEvent e = new MetricsEvent();
+                e.engine = s.name;
+                e.activeVoices = s.activeVoices;
+                e.peakVoices = s.peakVoices;
+                e.triggers = s.triggers;
+                e.rejectedTriggers = s.rejectedTriggers;
+                e.steals = s.steals;
+                e.lateEvents = s.lateEvents;
+                e.droppedLateEvents = s.droppedLateEvents;
+                e.overBudgetBlocks = s.overBudgetBlocks;
+                e.meanBlockNanos = (long) s.meanBlockNanos();
+                e.maxBlockNanos = s.maxBlockNanos;
+                e.loadPercent = (float) s.loadPercent();
+                e.gainReductionDb = s.gainReductionDb;
+                e.commit();
+            }
+        }
+    }
+
+    @jdk.jfr.Name("net.paulhertz.pixelaudio.EngineMetrics")
+    @jdk.jfr.Label("PixelAudio Engine Metrics")
+    @jdk.jfr.Category({ "PixelAudio" })
+    @jdk.jfr.Period("1 s")
+    @jdk.jfr.StackTrace(false)
+    static final class MetricsEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Engine") String engine;
+        @jdk.jfr.Label("Active Voices") int activeVoices;
+        @jdk.jfr.Label("Peak Voices") int peakVoices;
+        @jdk.jfr.Label("Triggers") long triggers;
+        @jdk.jfr.Label("Rejected Triggers") long rejectedTriggers;
+        @jdk.jfr.Label("Steals") long steals;
+        @jdk.jfr.Label("Late Events") long lateEvents;
+        @jdk.jfr.Label("Dropped Late Events") long droppedLateEvents;
+        @jdk.jfr.Label("Over-Budget Blocks") long overBudgetBlocks;
+        @jdk.jfr.Label("Mean Block Time") @jdk.jfr.Timespan long meanBlockNanos;
+        @jdk.jfr.Label("Max Block Time") @jdk.jfr.Timespan long maxBlockNanos;
+        @jdk.jfr.Label("Load Percent") float loadPercent;
+        @jdk.jfr.Label("Gain Reduction dB") float gainReductionDb;
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
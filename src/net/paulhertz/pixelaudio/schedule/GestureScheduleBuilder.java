@@ -123,60 +123,38 @@ public final class GestureScheduleBuilder {
 	  // Resample schedule to count (interpolate points and times)
 	  // ------------------------------------------------------------
 
-	  private static GestureSchedule resampleToCount(GestureSchedule in, int count) {
+	  /**
+	   * Resamples a schedule to {@code count} events, interpolating points and times linearly
+	   * by event index. The first and last events are kept. Counts below 2 are raised to 2.
+	   *
+	   * @param in      schedule to resample
+	   * @param count   number of events wanted
+	   * @return resampled schedule, or {@code in} when it already has {@code count} events
+	   *         or fewer than 2
+	   */
+	  public static GestureSchedule resampleToCount(GestureSchedule in, int count) {
 	    count = Math.max(2, count);
 
 	    int n = in.size();
 	    if (n <= 1 || count == n) return in;
 
-	    // Param u by index in [0..1]
-	    float[] u = new float[n];
-	    for (int i = 0; i < n; i++) u[i] = (float) i / (n - 1);
-
 	    ArrayList<PVector> outPts = new ArrayList<>(count);
 	    float[] outT = new float[count];
+	    final float step = (float) (n - 1) / (count - 1);
 
 	    for (int k = 0; k < count; k++) {
-	      float uk = (float) k / (count - 1);
-	      outPts.add(lerpPointByU(in.points, u, uk));    // interpolate points
-	      outT[k] = lerpFloatByU(in.timesMs, u, uk);     // interpolate times
+	      // position in the source index space; segments are uniform, so no search is needed
+	      float x = (k == count - 1) ? (n - 1) : k * step;
+	      int i = Math.min((int) x, n - 2);
+	      float t = x - i;
+	      outPts.add(PVector.lerp(in.points.get(i), in.points.get(i + 1), t));    // interpolate points
+	      outT[k] = in.timesMs[i] + t * (in.timesMs[i + 1] - in.timesMs[i]);     // interpolate times
 	    }
 
 	    GestureSchedule.enforceNonDecreasing(outT);
 	    return new GestureSchedule(outPts, outT);
 	  }
 
-	  private static PVector lerpPointByU(List<PVector> pts, float[] u, float uk) {
-	    int i = findSegment(u, uk);
-	    if (i >= pts.size() - 1) return pts.get(pts.size() - 1).copy();
-
-	    float denom = Math.max(1e-9f, (u[i + 1] - u[i]));
-	    float t = (uk - u[i]) / denom;
-
-	    return PVector.lerp(pts.get(i), pts.get(i + 1), t);
-	  }
-
-	  private static float lerpFloatByU(float[] a, float[] u, float uk) {
-	    int i = findSegment(u, uk);
-	    if (i >= a.length - 1) return a[a.length - 1];
-
-	    float denom = Math.max(1e-9f, (u[i + 1] - u[i]));
-	    float t = (uk - u[i]) / denom;
-
-	    return a[i] + t * (a[i + 1] - a[i]);
-	  }
-
-	  private static int findSegment(float[] u, float uk) {
-	    int hi = u.length - 1;
-	    if (uk <= u[0]) return 0;
-	    if (uk >= u[hi]) return hi - 1;
-
-	    for (int i = 0; i < hi; i++) {
-	      if (uk >= u[i] && uk <= u[i + 1]) return i;
-	    }
-	    return hi - 1;
-	  }
-
 	  // ------------------------------------------------------------
 	  // Scale schedule duration to targetDurationMs
 	  // ------------------------------------------------------------
@@ -0,0 +1,218 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.LongSupplier;
+
+import ddf.minim.UGen;
+
+/**
+ * A stand-in for Minim's {@code AudioOutput} that renders on the calling thread with a virtual
+ * wall clock, for measurements and tests that must be repeatable without a sound card.
+ *
+ * <p>The driver ticks its patched UGens one buffer at a time, sums them into a stereo buffer,
+ * hands the buffer to an optional {@link BufferListener}, and then advances its
+ * {@link PATransport}, as the output callback would. Control-thread work is modelled with
+ * {@link #at(double, Runnable)}: an action due at time <i>t</i> runs between buffers, just
+ * before the first buffer the real output would request after <i>t</i>, and sees
+ * {@link #millis()} and {@link #nanos()} read exactly <i>t</i>. Code that converts wall-clock
+ * times to sample times therefore meets the same buffer-sized uncertainty it meets live, but
+ * every run gives the same result.</p>
+ *
+ * <p>Buffer <i>k</i> is requested at virtual time <i>k</i> &times; buffer duration. Output
+ * latency beyond that is not modelled.</p>
+ */
+public final class OfflineAudioDriver {
+
+    /** Receives each rendered buffer. */
+    @FunctionalInterface
+    public interface BufferListener {
+        /**
+         * Called after a buffer is rendered and before the transport advances past it.
+         *
+         * @param left          left channel
+         * @param right         right channel
+         * @param frames        number of valid frames
+         * @param startSample   transport sample time of the first frame
+         */
+        void buffer(float[] left, float[] right, int frames, long startSample);
+    }
+
+    /** A control action due at a virtual time. */
+    private static final class Action implements Comparable<Action> {
+        final long nanos;
+        final long seq;
+        final Runnable run;
+
+        Action(long nanos, long seq, Runnable run) {
+            this.nanos = nanos;
+            this.seq = seq;
+            this.run = run;
+        }
+
+        @Override
+        public int compareTo(Action o) {
+            int c = Long.compare(nanos, o.nanos);
+            return (c != 0) ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final float sampleRate;
+    private final int bufferSize;
+    private final PATransport transport;
+    private final List<UGen> ugens = new ArrayList<>();
+    private final PriorityQueue<Action> actions = new PriorityQueue<>();
+    private long actionSeq = 0L;
+    private final float[] left;
+    private final float[] right;
+    private final float[] frame = new float[2];
+    private BufferListener listener;
+    private long buffersRendered = 0L;
+    /** Virtual wall clock in nanoseconds. */
+    private long nowNanos = 0L;
+
+    /**
+     * Creates a driver.
+     *
+     * @param sampleRate   output sample rate in Hz
+     * @param bufferSize   frames per output buffer
+     */
+    public OfflineAudioDriver(float sampleRate, int bufferSize) {
+        if (bufferSize < 1) throw new IllegalArgumentException("bufferSize must be positive");
+        this.sampleRate = sampleRate;
+        this.bufferSize = bufferSize;
+        this.transport = new PATransport(sampleRate);
+        this.left = new float[bufferSize];
+        this.right = new float[bufferSize];
+    }
+
+    /**
+     * Adds a UGen to the output mix. Its stereo output is summed with the others.
+     *
+     * @param ugen   UGen to render
+     */
+    public void patch(UGen ugen) {
+        ugens.add(ugen);
+    }
+
+    /**
+     * Sets the listener that receives each rendered buffer, or null.
+     *
+     * @param listener   buffer listener
+     */
+    public void setBufferListener(BufferListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Schedules a control-thread action at a virtual time.
+     *
+     * @param millis   virtual wall-clock time in milliseconds
+     * @param action   code to run
+     */
+    public void at(double millis, Runnable action) {
+        actions.add(new Action(Math.round(millis * 1.0e6), actionSeq++, action));
+    }
+
+    /** @return the transport advanced by this driver */
+    public PATransport getTransport() {
+        return transport;
+    }
+
+    /** @return output sample rate in Hz */
+    public float sampleRate() {
+        return sampleRate;
+    }
+
+    /** @return frames per output buffer */
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** @return virtual wall-clock time in milliseconds */
+    public long millis() {
+        return nowNanos / 1_000_000L;
+    }
+
+    /** @return virtual wall-clock time in nanoseconds */
+    public long nanos() {
+        return nowNanos;
+    }
+
+    /** @return the virtual clock as a millisecond source, for example for {@code setMillisSource} */
+    public LongSupplier millisSource() {
+        return this::millis;
+    }
+
+    /** @return the virtual clock as a nanosecond source */
+    public LongSupplier nanoSource() {
+        return this::nanos;
+    }
+
+    /**
+     * Renders output buffers, running due control actions between them.
+     *
+     * @param buffers   number of buffers to render
+     */
+    public void render(int buffers) {
+        for (int b = 0; b < buffers; b++) {
+            final long requestNanos = Math.round(buffersRendered * (double) bufferSize * 1.0e9 / sampleRate);
+            // control work that happened before the output asked for this buffer
+            while (!actions.isEmpty() && actions.peek().nanos < requestNanos) {
+                Action a = actions.poll();
+                nowNanos = Math.max(nowNanos, a.nanos);
+                a.run.run();
+            }
+            nowNanos = Math.max(nowNanos, requestNanos);
+            renderBuffer();
+        }
+    }
+
+    /**
+     * Renders buffers until the virtual clock reaches {@code millis}.
+     *
+     * @param millis   virtual time to reach
+     */
+    public void renderMillis(double millis) {
+        long target = Math.round(millis * 1.0e6);
+        while (Math.round(buffersRendered * (double) bufferSize * 1.0e9 / sampleRate) <= target) render(1);
+    }
+
+    private void renderBuffer() {
+        for (int i = 0; i < bufferSize; i++) {
+            float l = 0f;
+            float r = 0f;
+            for (int u = 0; u < ugens.size(); u++) {
+                frame[0] = 0f;
+                frame[1] = 0f;
+                ugens.get(u).tick(frame);
+                l += frame[0];
+                r += frame[1];
+            }
+            left[i] = l;
+            right[i] = r;
+        }
+        if (listener != null) listener.buffer(left, right, bufferSize, transport.getCurrentSampleTime());
+        transport.advance(bufferSize);
+        buffersRendered++;
+    }
+}
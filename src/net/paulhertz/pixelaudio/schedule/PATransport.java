@@ -0,0 +1,338 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+import ddf.minim.AudioListener;
+import ddf.minim.AudioOutput;
+
+/**
+ * A global sample clock shared by every PixelAudio engine patched to one output.
+ *
+ * <p>The transport counts the samples an {@link AudioOutput} has delivered. It is driven by the
+ * output callback: {@link #attach(AudioOutput)} registers a listener that advances the count
+ * by one buffer each time the output finishes a buffer. Offline code can call
+ * {@link #advance(int)} directly.</p>
+ *
+ * <p><b>Engines</b></p>
+ * <p>
+ * Samplers and granular instruments keep their own sample cursors, which start when the engine
+ * is created. An engine subscribes with its {@code setTransport(...)} method and gets a
+ * {@link Follower}. On the audio thread the follower watches the transport: the first frame an
+ * engine renders after the count changes is the first frame of a new output buffer, so the
+ * difference between the transport and the engine cursor at that frame is exact. From then on
+ * the engine reports transport time from {@code getCurrentSampleTime()} and interprets
+ * absolute start times as transport times. Two engines given the same start sample sound on
+ * the same output sample, without per-engine drift correction.
+ * </p>
+ *
+ * <p><b>Reading the clock</b></p>
+ * <p>
+ * All reads are lock-free. {@link #getCurrentSampleTime()} is the start of the buffer being
+ * rendered, updated once per buffer. Control threads that need a finer estimate, for example to
+ * convert a {@code millis()} timestamp, can use {@link #estimateSampleTime()}, which adds the
+ * time since the last callback. Tempo is held in an immutable anchor (sample, beat, tempo) that
+ * {@link #setTempo(double)} replaces, so beat positions stay continuous across tempo changes.
+ * </p>
+ *
+ * @see AudioSampleClock
+ */
+public final class PATransport implements AudioSampleClock {
+
+    /**
+     * Tempo at a point on the transport: beat {@code beat} falls on sample {@code sample},
+     * and beats advance at {@code bpm} from there.
+     */
+    private static final class TempoAnchor {
+        final long sample;
+        final double beat;
+        final double bpm;
+
+        TempoAnchor(long sample, double beat, double bpm) {
+            this.sample = sample;
+            this.beat = beat;
+            this.bpm = bpm;
+        }
+    }
+
+    private final float sampleRate;
+    /** Samples delivered by completed output buffers; written by the driving thread only. */
+    private volatile long frames = 0L;
+    /** System.nanoTime() of the last {@link #advance(int)}, or 0 before the first. */
+    private volatile long lastAdvanceNanos = 0L;
+    /** Length of the last advance, bounds {@link #estimateSampleTime()}. */
+    private volatile int lastAdvance = 0;
+    private volatile TempoAnchor tempo;
+
+    private AudioOutput attached;
+    private final AudioListener listener = new AudioListener() {
+        @Override
+        public void samples(float[] samp) {
+            advance(samp.length);
+        }
+
+        @Override
+        public void samples(float[] sampL, float[] sampR) {
+            advance(sampL.length);
+        }
+    };
+
+    /**
+     * Creates a transport at 120 beats per minute.
+     *
+     * @param sampleRate   sample rate of the output that drives it
+     */
+    public PATransport(float sampleRate) {
+        if (!(sampleRate > 0f)) throw new IllegalArgumentException("sampleRate must be positive");
+        this.sampleRate = sampleRate;
+        this.tempo = new TempoAnchor(0L, 0.0, 120.0);
+    }
+
+    /**
+     * Creates a transport for {@code out} and attaches it.
+     *
+     * @param out   output whose callback drives the transport
+     */
+    public PATransport(AudioOutput out) {
+        this(out.sampleRate());
+        attach(out);
+    }
+
+    /* ----------------------------- Driving ------------------------------ */
+
+    /**
+     * Drives the transport from {@code out}: every buffer the output finishes advances the
+     * clock by the buffer length. Detaches from any previous output.
+     *
+     * @param out   output to follow
+     */
+    public synchronized void attach(AudioOutput out) {
+        detach();
+        attached = out;
+        out.addListener(listener);
+    }
+
+    /** Stops following the attached output, if any. The clock holds its value. */
+    public synchronized void detach() {
+        if (attached != null) {
+            attached.removeListener(listener);
+            attached = null;
+        }
+    }
+
+    /**
+     * Advances the clock by {@code n} samples. Called by the output callback, or by offline
+     * code that renders engines itself. Only one thread may drive a transport.
+     *
+     * @param n   number of samples just delivered
+     */
+    public void advance(int n) {
+        if (n <= 0) return;
+        lastAdvance = n;
+        lastAdvanceNanos = System.nanoTime();
+        frames = frames + n;
+    }
+
+    /* ----------------------------- Reading ------------------------------ */
+
+    /**
+     * Returns the sample at which the buffer being rendered starts.
+     *
+     * @return transport sample time
+     */
+    @Override
+    public long getCurrentSampleTime() {
+        return frames;
+    }
+
+    /** @return sample rate of the transport in Hz */
+    @Override
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Estimates the sample being heard now, for control threads: the last callback's sample
+     * time plus the wall-clock time since, at most one buffer ahead.
+     *
+     * @return estimated transport sample time
+     */
+    public long estimateSampleTime() {
+        final long stamp = lastAdvanceNanos;
+        final long base = frames;
+        if (stamp == 0L) return base;
+        long ahead = Math.round((System.nanoTime() - stamp) * 1e-9 * sampleRate);
+        return base + Math.max(0L, Math.min(ahead, lastAdvance));
+    }
+
+    /* ----------------------------- Conversions ------------------------------ */
+
+    /**
+     * @param millis   duration in milliseconds
+     * @return duration in samples, rounded
+     */
+    public long millisToSamples(double millis) {
+        return Math.round(millis * sampleRate / 1000.0);
+    }
+
+    /**
+     * @param samples   duration in samples
+     * @return duration in milliseconds
+     */
+    public double samplesToMillis(long samples) {
+        return samples * 1000.0 / sampleRate;
+    }
+
+    /**
+     * Returns the video frame showing at a sample time, for animation that follows the audio.
+     *
+     * @param sampleTime   transport sample time
+     * @param fps          frames per second
+     * @return frame index, counting from transport sample 0
+     */
+    public long sampleToVideoFrame(long sampleTime, float fps) {
+        return (long) Math.floor(sampleTime * (double) fps / sampleRate);
+    }
+
+    /**
+     * @param frame   video frame index
+     * @param fps     frames per second
+     * @return transport sample time at which the frame begins
+     */
+    public long videoFrameToSample(long frame, float fps) {
+        return (long) Math.ceil(frame * (double) sampleRate / fps);
+    }
+
+    /* ----------------------------- Tempo ------------------------------ */
+
+    /**
+     * Sets the tempo from the current sample on. Beats already passed keep their positions.
+     *
+     * @param bpm   beats per minute, greater than 0
+     */
+    public void setTempo(double bpm) {
+        if (!(bpm > 0.0)) throw new IllegalArgumentException("bpm must be positive");
+        final long now = frames;
+        tempo = new TempoAnchor(now, sampleToBeat(now), bpm);
+    }
+
+    /** @return current tempo in beats per minute */
+    public double getTempo() {
+        return tempo.bpm;
+    }
+
+    /** @return number of samples in one beat at the current tempo */
+    public double samplesPerBeat() {
+        return sampleRate * 60.0 / tempo.bpm;
+    }
+
+    /**
+     * @param sampleTime   transport sample time
+     * @return beat position at that sample, at the current tempo from the last tempo change
+     */
+    public double sampleToBeat(long sampleTime) {
+        final TempoAnchor a = tempo;
+        return a.beat + (sampleTime - a.sample) * a.bpm / (60.0 * sampleRate);
+    }
+
+    /**
+     * @param beat   beat position
+     * @return transport sample time of that beat, rounded
+     */
+    public long beatToSample(double beat) {
+        final TempoAnchor a = tempo;
+        return a.sample + Math.round((beat - a.beat) * 60.0 * sampleRate / a.bpm);
+    }
+
+    /* ----------------------------- Followers ------------------------------ */
+
+    /**
+     * Creates a follower for an engine whose cursor reads {@code localNow}. Until the follower
+     * sees the first buffer boundary it assumes the engine and the transport advanced together
+     * from this moment.
+     *
+     * @param localNow   the engine's current sample cursor
+     * @return a follower for that engine
+     */
+    public Follower follow(long localNow) {
+        return new Follower(this, localNow);
+    }
+
+    /**
+     * Maps one engine's local sample cursor to transport time. {@link #observe(long)} runs on
+     * the engine's audio thread once per rendered frame; the conversions may be called from
+     * any thread.
+     */
+    public static final class Follower {
+        private final PATransport transport;
+        /** Transport value seen at the last observed frame; audio thread only. */
+        private long lastSeen;
+        /** Transport time minus local time. */
+        private volatile long offset;
+        private volatile boolean locked = false;
+
+        private Follower(PATransport transport, long localNow) {
+            this.transport = transport;
+            this.lastSeen = transport.frames;
+            this.offset = lastSeen - localNow;
+        }
+
+        /**
+         * Called by the engine for each frame it renders, with that frame's local sample time.
+         * When the transport has moved since the previous frame, this frame starts a new
+         * output buffer and the offset is measured again.
+         *
+         * @param localFrame   local sample time of the frame being rendered
+         */
+        public void observe(long localFrame) {
+            final long f = transport.frames;
+            if (f != lastSeen) {
+                lastSeen = f;
+                final long o = f - localFrame;
+                if (o != offset) offset = o;
+                if (!locked) locked = true;
+            }
+        }
+
+        /**
+         * @param transportSample   transport sample time
+         * @return the engine-local sample time of the same output sample
+         */
+        public long toLocal(long transportSample) {
+            return transportSample - offset;
+        }
+
+        /**
+         * @param localSample   engine-local sample time
+         * @return the transport sample time of the same output sample
+         */
+        public long toTransport(long localSample) {
+            return localSample + offset;
+        }
+
+        /** @return true once the offset has been measured at a buffer boundary */
+        public boolean isLocked() {
+            return locked;
+        }
+
+        /** @return the transport this follower tracks */
+        public PATransport getTransport() {
+            return transport;
+        }
+    }
+}
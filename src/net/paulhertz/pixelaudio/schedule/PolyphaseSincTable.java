@@ -0,0 +1,204 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+/**
+ * Precomputed Kaiser-windowed sinc kernel for band-limited fractional reads.
+ *
+ * <p>The kernel is sampled at {@code phases + 1} fractional offsets between two source samples.
+ * Each phase row holds {@code 2 * halfWidth} taps covering source indices
+ * {@code idx - halfWidth + 1 .. idx + halfWidth}. A read at position {@code idx + frac}
+ * interpolates linearly between the two nearest phase rows, so the only per-sample work is a
+ * short dot product. Every row is normalized to unity DC gain.</p>
+ *
+ * <p>The cutoff is a fraction of the source Nyquist frequency. Reading faster than the source
+ * rate (pitch up) needs a cutoff of {@code 1 / rate} to avoid aliasing, so
+ * {@link #forRate(double)} returns a shared table from a small bank of cutoffs spaced a half
+ * octave apart. Tables are immutable and safe to share across voices and threads.</p>
+ */
+public final class PolyphaseSincTable {
+    /** Default number of taps on each side of the read position. */
+    public static final int DEFAULT_HALF_WIDTH = 8;
+    /** Default number of fractional phases between two source samples. */
+    public static final int DEFAULT_PHASES = 256;
+    /** Default Kaiser window shape parameter, roughly 80 dB stopband. */
+    public static final double DEFAULT_KAISER_BETA = 8.0;
+
+    /** Number of half-octave cutoff steps in the shared bank, down to 1/16 of Nyquist. */
+    private static final int BANK_SIZE = 9;
+    private static final PolyphaseSincTable[] BANK = new PolyphaseSincTable[BANK_SIZE];
+    static {
+        for (int k = 0; k < BANK_SIZE; k++) {
+            BANK[k] = new PolyphaseSincTable(DEFAULT_HALF_WIDTH, DEFAULT_PHASES,
+                    Math.pow(2.0, -0.5 * k), DEFAULT_KAISER_BETA);
+        }
+    }
+
+    private final int halfWidth;
+    private final int taps;
+    private final int phases;
+    private final double cutoff;
+    private final float[] coeffs;
+
+    /**
+     * Builds a kernel table.
+     *
+     * @param halfWidth    taps on each side of the read position (at least 1)
+     * @param phases       fractional phases between two source samples (at least 1)
+     * @param cutoff       cutoff as a fraction of the source Nyquist frequency, in (0, 1]
+     * @param kaiserBeta   Kaiser window shape; larger values trade transition width for stopband depth
+     */
+    public PolyphaseSincTable(int halfWidth, int phases, double cutoff, double kaiserBeta) {
+        this.halfWidth = Math.max(1, halfWidth);
+        this.taps = 2 * this.halfWidth;
+        this.phases = Math.max(1, phases);
+        this.cutoff = Math.max(1e-3, Math.min(1.0, cutoff));
+        this.coeffs = new float[(this.phases + 1) * taps];
+        double i0Beta = besselI0(kaiserBeta);
+        for (int p = 0; p <= this.phases; p++) {
+            double frac = (double) p / this.phases;
+            double sum = 0.0;
+            int row = p * taps;
+            for (int j = 0; j < taps; j++) {
+                double x = (j - (this.halfWidth - 1)) - frac;
+                double t = x / this.halfWidth;
+                double w = (Math.abs(t) >= 1.0) ? 0.0
+                        : besselI0(kaiserBeta * Math.sqrt(1.0 - t * t)) / i0Beta;
+                double h = this.cutoff * sinc(this.cutoff * x) * w;
+                coeffs[row + j] = (float) h;
+                sum += h;
+            }
+            if (sum != 0.0) {
+                for (int j = 0; j < taps; j++) coeffs[row + j] /= (float) sum;
+            }
+        }
+    }
+
+    /**
+     * Returns a shared table whose cutoff is at or below {@code 1 / rate}, suitable for
+     * reading a buffer at {@code rate} source samples per output sample.
+     *
+     * @param rate   playback rate; values at or below 1 use the full-band table
+     * @return shared, immutable table
+     */
+    public static PolyphaseSincTable forRate(double rate) {
+        double r = Math.abs(rate);
+        if (!(r > 1.0)) return BANK[0];
+        int k = (int) Math.ceil(2.0 * Math.log(r) / Math.log(2.0) - 1e-9);
+        return BANK[Math.max(0, Math.min(BANK_SIZE - 1, k))];
+    }
+
+    /**
+     * Interpolates {@code src} at {@code idx + frac}. Reads outside the array are treated as zero.
+     *
+     * @param src    source samples
+     * @param idx    integer read position
+     * @param frac   fractional part of the read position, in [0, 1)
+     * @return interpolated sample
+     */
+    public float interpolate(float[] src, int idx, float frac) {
+        float fp = frac * phases;
+        int p = (int) fp;
+        if (p >= phases) p = phases - 1;
+        float mix = fp - p;
+        int rowA = p * taps;
+        int rowB = rowA + taps;
+        int base = idx - halfWidth + 1;
+        float accA = 0f;
+        float accB = 0f;
+        if (base >= 0 && base + taps <= src.length) {
+            for (int j = 0; j < taps; j++) {
+                float s = src[base + j];
+                accA += s * coeffs[rowA + j];
+                accB += s * coeffs[rowB + j];
+            }
+        }
+        else {
+            for (int j = 0; j < taps; j++) {
+                int k = base + j;
+                if (k < 0 || k >= src.length) continue;
+                float s = src[k];
+                accA += s * coeffs[rowA + j];
+                accB += s * coeffs[rowB + j];
+            }
+        }
+        return accA + mix * (accB - accA);
+    }
+
+    /**
+     * Interpolates {@code src} at {@code idx + frac}, wrapping reads at the array boundaries.
+     *
+     * @param src    source samples
+     * @param idx    integer read position, may lie outside the array
+     * @param frac   fractional part of the read position, in [0, 1)
+     * @return interpolated sample
+     */
+    public float interpolateWrapped(float[] src, int idx, float frac) {
+        int n = src.length;
+        if (n == 0) return 0f;
+        float fp = frac * phases;
+        int p = (int) fp;
+        if (p >= phases) p = phases - 1;
+        float mix = fp - p;
+        int rowA = p * taps;
+        int rowB = rowA + taps;
+        int k = (idx - halfWidth + 1) % n;
+        if (k < 0) k += n;
+        float accA = 0f;
+        float accB = 0f;
+        for (int j = 0; j < taps; j++) {
+            float s = src[k];
+            accA += s * coeffs[rowA + j];
+            accB += s * coeffs[rowB + j];
+            if (++k == n) k = 0;
+        }
+        return accA + mix * (accB - accA);
+    }
+
+    /** @return taps on each side of the read position */
+    public int halfWidth() { return halfWidth; }
+
+    /** @return total taps per phase row */
+    public int taps() { return taps; }
+
+    /** @return number of fractional phases */
+    public int phases() { return phases; }
+
+    /** @return cutoff as a fraction of the source Nyquist frequency */
+    public double cutoff() { return cutoff; }
+
+    private static double sinc(double x) {
+        if (Math.abs(x) < 1e-9) return 1.0;
+        double px = Math.PI * x;
+        return Math.sin(px) / px;
+    }
+
+    /** Zeroth-order modified Bessel function of the first kind, by power series. */
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double q = x * x * 0.25;
+        for (int k = 1; k < 50; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+            if (term < sum * 1e-12) break;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Measures how far scheduled events fire from their target samples.
+ *
+ * <p>Each event gets an id from {@link #enqueue(long, AudioScheduler.LatePolicy)}, which stamps
+ * the target sample, the clock's sample time and the time source's nanoseconds. The audio side
+ * then reports {@link #dispatched(int, long)} when the scheduler hands the event to its
+ * handler, and {@link #audible(int, long)} when its first sample is heard. For engines whose
+ * dispatch is internal, {@link #observeOutput} finds onsets in the rendered output and assigns
+ * each to the pending event with the earliest target, which works when events are separated by
+ * silence.</p>
+ *
+ * <p>Per-event stamps are kept in preallocated arrays, so recording on the audio thread does
+ * not allocate; events past the capacity are counted and otherwise ignored.
+ * {@link #histogram(AudioScheduler.LatePolicy, Stage)} sorts the deltas (actual minus target,
+ * in samples) into signed log2 buckets, one histogram per late policy and stage. Both the
+ * events and the histograms can be written as CSV.</p>
+ *
+ * <p>With {@link OfflineAudioDriver} as the clock and time source, a run is deterministic.
+ * With a live output, pass the output's sample clock and {@code System::nanoTime}.</p>
+ */
+public final class SchedulingProbe {
+
+    /** Which timestamp a delta is measured at. */
+    public enum Stage {
+        /** The scheduler handed the event to its handler. */
+        DISPATCH,
+        /** The event's first sample was heard. */
+        AUDIBLE
+    }
+
+    /** Number of buckets on each side of zero; bucket k holds |delta| in [2^(k-1), 2^k). */
+    public static final int BUCKETS = 24;
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final AudioSampleClock clock;
+    private final LongSupplier nanoSource;
+    private final int capacity;
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger overflow = new AtomicInteger();
+
+    private final long[] target;
+    private final byte[] policy;
+    private final long[] enqueueSample;
+    private final long[] enqueueNanos;
+    private final long[] dispatchSample;
+    private final long[] dispatchNanos;
+    private final long[] audibleSample;
+
+    // onset detection state, owned by the thread that calls observeOutput
+    private boolean sounding = false;
+
+    /**
+     * Creates a probe.
+     *
+     * @param clock        clock whose sample time is stamped at enqueue
+     * @param nanoSource   wall-clock source in nanoseconds, e.g. {@code System::nanoTime}
+     * @param capacity     maximum number of events recorded
+     */
+    public SchedulingProbe(AudioSampleClock clock, LongSupplier nanoSource, int capacity) {
+        this.clock = Objects.requireNonNull(clock, "clock");
+        this.nanoSource = Objects.requireNonNull(nanoSource, "nanoSource");
+        this.capacity = Math.max(1, capacity);
+        this.target = new long[this.capacity];
+        this.policy = new byte[this.capacity];
+        this.enqueueSample = new long[this.capacity];
+        this.enqueueNanos = new long[this.capacity];
+        this.dispatchSample = new long[this.capacity];
+        this.dispatchNanos = new long[this.capacity];
+        this.audibleSample = new long[this.capacity];
+        Arrays.fill(dispatchSample, UNSET);
+        Arrays.fill(audibleSample, UNSET);
+    }
+
+    /**
+     * Creates a probe timed by an offline driver, for repeatable runs.
+     *
+     * @param driver     driver whose transport and virtual clock are used
+     * @param capacity   maximum number of events recorded
+     */
+    public SchedulingProbe(OfflineAudioDriver driver, int capacity) {
+        this(driver.getTransport(), driver.nanoSource(), capacity);
+    }
+
+    /* ----------------------------- Recording ------------------------------ */
+
+    /**
+     * Registers an event just before it is scheduled. Safe from any thread.
+     *
+     * @param targetSample   sample time the event should fire at, on the probe's clock
+     * @param latePolicy     late policy the event is scheduled under
+     * @return event id, or -1 if the probe is full
+     */
+    public int enqueue(long targetSample, AudioScheduler.LatePolicy latePolicy) {
+        final int id = count.getAndIncrement();
+        if (id >= capacity) {
+            count.decrementAndGet();
+            overflow.incrementAndGet();
+            return -1;
+        }
+        target[id] = targetSample;
+        policy[id] = (byte) latePolicy.ordinal();
+        enqueueSample[id] = clock.getCurrentSampleTime();
+        enqueueNanos[id] = nanoSource.getAsLong();
+        return id;
+    }
+
+    /**
+     * Stamps the sample at which the scheduler delivered an event. Audio thread.
+     *
+     * @param id       event id; negative ids are ignored
+     * @param sample   block start plus offset of the delivery
+     */
+    public void dispatched(int id, long sample) {
+        if (id < 0 || id >= capacity) return;
+        dispatchSample[id] = sample;
+        dispatchNanos[id] = nanoSource.getAsLong();
+    }
+
+    /**
+     * Stamps the first audible sample of an event. Audio thread.
+     *
+     * @param id       event id; negative ids are ignored
+     * @param sample   sample time of the first non-silent output frame
+     */
+    public void audible(int id, long sample) {
+        if (id < 0 || id >= capacity) return;
+        if (audibleSample[id] == UNSET) audibleSample[id] = sample;
+    }
+
+    /**
+     * Scans rendered output for onsets: frames where the level rises above {@code threshold}
+     * after silence. Each onset is stamped as the first audible sample of the not yet audible
+     * event with the earliest target.
+     *
+     * @param left          left channel
+     * @param right         right channel, or null
+     * @param frames        number of frames to scan
+     * @param startSample   sample time of the first frame
+     * @param threshold     absolute level that counts as sound
+     */
+    public void observeOutput(float[] left, float[] right, int frames, long startSample, float threshold) {
+        for (int i = 0; i < frames; i++) {
+            float a = Math.abs(left[i]);
+            if (right != null) a = Math.max(a, Math.abs(right[i]));
+            boolean on = a > threshold;
+            if (on && !sounding) {
+                int id = earliestSilent();
+                if (id >= 0) audibleSample[id] = startSample + i;
+            }
+            sounding = on;
+        }
+    }
+
+    private int earliestSilent() {
+        final int n = size();
+        int best = -1;
+        for (int i = 0; i < n; i++) {
+            if (audibleSample[i] != UNSET) continue;
+            if (best < 0 || target[i] < target[best]) best = i;
+        }
+        return best;
+    }
+
+    /** Forgets every event; also resets onset detection. Not safe while recording. */
+    public void reset() {
+        count.set(0);
+        overflow.set(0);
+        Arrays.fill(dispatchSample, UNSET);
+        Arrays.fill(audibleSample, UNSET);
+        sounding = false;
+    }
+
+    /* ----------------------------- Results ------------------------------ */
+
+    /** @return number of events recorded */
+    public int size() {
+        return Math.min(count.get(), capacity);
+    }
+
+    /** @return number of events refused because the probe was full */
+    public int overflowCount() {
+        return overflow.get();
+    }
+
+    /**
+     * @param id   event id
+     * @return dispatch sample minus target sample, or {@link Long#MIN_VALUE} if never dispatched
+     */
+    public long dispatchDelta(int id) {
+        return (dispatchSample[id] == UNSET) ? UNSET : dispatchSample[id] - target[id];
+    }
+
+    /**
+     * @param id   event id
+     * @return first audible sample minus target sample, or {@link Long#MIN_VALUE} if never heard
+     */
+    public long audibleDelta(int id) {
+        return (audibleSample[id] == UNSET) ? UNSET : audibleSample[id] - target[id];
+    }
+
+    /**
+     * Builds the histogram of deltas for events scheduled under one late policy.
+     *
+     * @param latePolicy   late policy
+     * @param stage        which timestamp to measure
+     * @return histogram of actual minus target, in samples
+     */
+    public Histogram histogram(AudioScheduler.LatePolicy latePolicy, Stage stage) {
+        final int n = size();
+        final long[] early = new long[BUCKETS + 1];
+        final long[] late = new long[BUCKETS + 1];
+        long exact = 0, missing = 0, total = 0, sum = 0;
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            if (policy[i] != latePolicy.ordinal()) continue;
+            total++;
+            long d = (stage == Stage.DISPATCH) ? dispatchDelta(i) : audibleDelta(i);
+            if (d == UNSET) {
+                missing++;
+                continue;
+            }
+            if (d == 0) exact++;
+            else if (d < 0) early[bucket(-d)]++;
+            else late[bucket(d)]++;
+            sum += d;
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+        }
+        return new Histogram(latePolicy, stage, total, missing, exact, early, late, sum, min, max);
+    }
+
+    /** Bucket for a positive delta: 1 for 1, 2 for [2, 4), k for [2^(k-1), 2^k), capped at BUCKETS. */
+    static int bucket(long magnitude) {
+        return Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(magnitude));
+    }
+
+    /**
+     * Writes one CSV row per event: id, policy, target, enqueue sample and nanos, dispatch
+     * sample and nanos, audible sample, and both deltas. Missing values are left empty.
+     *
+     * @param out   destination
+     * @throws IOException if writing fails
+     */
+    public void writeEventsCsv(Appendable out) throws IOException {
+        out.append("id,policy,target_sample,enqueue_sample,enqueue_nanos,dispatch_sample,dispatch_nanos,"
+                + "audible_sample,dispatch_delta,audible_delta\n");
+        final AudioScheduler.LatePolicy[] policies = AudioScheduler.LatePolicy.values();
+        final int n = size();
+        for (int i = 0; i < n; i++) {
+            out.append(Integer.toString(i)).append(',')
+               .append(policies[policy[i]].name()).append(',')
+               .append(Long.toString(target[i])).append(',')
+               .append(Long.toString(enqueueSample[i])).append(',')
+               .append(Long.toString(enqueueNanos[i])).append(',')
+               .append(opt(dispatchSample[i])).append(',')
+               .append((dispatchSample[i] == UNSET) ? "" : Long.toString(dispatchNanos[i])).append(',')
+               .append(opt(audibleSample[i])).append(',')
+               .append(opt(dispatchDelta(i))).append(',')
+               .append(opt(audibleDelta(i))).append('\n');
+        }
+    }
+
+    /**
+     * Writes every non-empty histogram bucket for every late policy and stage as CSV rows:
+     * policy, stage, lower and upper delta bound (inclusive, in samples) and count. Events that
+     * never reached a stage are written with the bucket label {@code missing}.
+     *
+     * @param out   destination
+     * @throws IOException if writing fails
+     */
+    public void writeHistogramsCsv(Appendable out) throws IOException {
+        out.append("policy,stage,delta_low,delta_high,count\n");
+        for (AudioScheduler.LatePolicy p : AudioScheduler.LatePolicy.values()) {
+            for (Stage s : Stage.values()) {
+                Histogram h = histogram(p, s);
+                if (h.total == 0) continue;
+                h.appendCsv(out);
+            }
+        }
+    }
+
+    private static String opt(long v) {
+        return (v == UNSET) ? "" : Long.toString(v);
+    }
+
+    /**
+     * Deltas for one late policy and stage, in signed log2 buckets: actual minus target, so
+     * positive deltas are late and negative ones early.
+     */
+    public static final class Histogram {
+        /** Late policy of the events counted. */
+        public final AudioScheduler.LatePolicy policy;
+        /** Stage measured. */
+        public final Stage stage;
+        /** Events scheduled under the policy. */
+        public final long total;
+        /** Events that never reached the stage, e.g. late points dropped under DROP. */
+        public final long missing;
+        /** Events that landed on their target sample. */
+        public final long exact;
+        /** Sum of deltas, for the mean. */
+        private final long sum;
+        /** Smallest delta, or 0 if none. */
+        public final long min;
+        /** Largest delta, or 0 if none. */
+        public final long max;
+        private final long[] early;
+        private final long[] late;
+
+        private Histogram(AudioScheduler.LatePolicy policy, Stage stage, long total, long missing,
+                long exact, long[] early, long[] late, long sum, long min, long max) {
+            this.policy = policy;
+            this.stage = stage;
+            this.total = total;
+            this.missing = missing;
+            this.exact = exact;
+            this.early = early;
+            this.late = late;
+            this.sum = sum;
+            boolean any = total > missing;
+            this.min = any ? min : 0L;
+            this.max = any ? max : 0L;
+        }
+
+        /** @return events with a delta */
+        public long measured() {
+            return total - missing;
+        }
+
+        /** @return mean delta in samples, or 0 if nothing was measured */
+        public double mean() {
+            long m = measured();
+            return (m > 0) ? (double) sum / m : 0.0;
+        }
+
+        /**
+         * @param k   bucket, 1 to {@link SchedulingProbe#BUCKETS}
+         * @return events early by [2^(k-1), 2^k) samples
+         */
+        public long earlyCount(int k) {
+            return (k >= 1 && k <= BUCKETS) ? early[k] : 0L;
+        }
+
+        /**
+         * @param k   bucket, 1 to {@link SchedulingProbe#BUCKETS}
+         * @return events late by [2^(k-1), 2^k) samples
+         */
+        public long lateCount(int k) {
+            return (k >= 1 && k <= BUCKETS) ? late[k] : 0L;
+        }
+
+        /** @return events that fired after their target */
+        public long lateTotal() {
+            long n = 0;
+            for (long c : late) n += c;
+            return n;
+        }
+
+        /** @return events that fired before their target */
+        public long earlyTotal() {
+            long n = 0;
+            for (long c : early) n += c;
+            return n;
+        }
+
+        void appendCsv(Appendable out) throws IOException {
+            final String prefix = policy.name() + "," + stage.name() + ",";
+            for (int k = BUCKETS; k >= 1; k--) {
+                if (early[k] == 0) continue;
+                out.append(prefix).append(Long.toString(-high(k))).append(',')
+                   .append(Long.toString(-low(k))).append(',').append(Long.toString(early[k])).append('\n');
+            }
+            if (exact > 0) out.append(prefix).append("0,0,").append(Long.toString(exact)).append('\n');
+            for (int k = 1; k <= BUCKETS; k++) {
+                if (late[k] == 0) continue;
+                out.append(prefix).append(Long.toString(low(k))).append(',')
+                   .append(Long.toString(high(k))).append(',').append(Long.toString(late[k])).append('\n');
+            }
+            if (missing > 0) out.append(prefix).append("missing,missing,").append(Long.toString(missing)).append('\n');
+        }
+
+        private static long low(int k) {
+            return 1L << (k - 1);
+        }
+
+        private static long high(int k) {
+            return (k == BUCKETS) ? Long.MAX_VALUE : (1L << k) - 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s/%s: %d events, %d exact, %d late, %d early, %d missing, mean %.1f, range [%d, %d]",
+                    policy, stage, total, exact, lateTotal(), earlyTotal(), missing, mean(), min, max);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+/**
+ * Streaming sample-rate converter using a polyphase windowed-sinc kernel.
+ *
+ * <p>Output sample <i>n</i> is read from source position <i>n</i> &times; sourceRate / targetRate.
+ * The rates are reduced to an integer ratio <i>M</i>/<i>L</i> (147/160 for 44.1 kHz to 48 kHz), and
+ * the read position is advanced with integer arithmetic, so long streams do not drift. The
+ * kernel is a {@link PolyphaseSincTable} built for the {@link Quality} preset; when downsampling
+ * its cutoff is lowered to the target Nyquist frequency and it is stretched to match.</p>
+ *
+ * <p>Feed input in blocks of any size with {@link #process(float[], int, int, float[], int)},
+ * then call {@link #flush(float[], int)} once to drain the kernel's tail. The concatenated
+ * output has the same length and the same samples as
+ * {@link AudioUtility#resampleSinc(float[], float, float, Quality)} on the whole input. Source
+ * samples before the start and after the end are treated as zero.</p>
+ *
+ * <p>A resampler keeps state for one channel and is not thread-safe; use one per channel.
+ * After construction {@link #process(float[], int, int, float[], int)} does not allocate.</p>
+ */
+public final class SincResampler {
+
+    /**
+     * Kernel presets, from cheapest to cleanest.
+     *
+     * <p>Each preset keeps the band below its {@link #passband} edge flat and rejects aliases
+     * that would fold back into it by at least {@link #rejectionDb}. The kernel's -6 dB point sits
+     * at the lower Nyquist frequency, so tones just above it alias, attenuated, into the band
+     * between the passband edge and Nyquist, which the preset gives up for a shorter kernel.
+     * Tap counts are given at the lower sample rate; when downsampling the kernel is stretched
+     * by the rate ratio, so the figures hold for any ratio.</p>
+     */
+    public enum Quality {
+        /** 22 taps, passband to 0.80 of Nyquist, 60 dB alias rejection; for previews and live pre-transposition. */
+        FAST(11, 256, 5.8, 0.80, 60.0),
+        /** 52 taps, passband to 0.90 of Nyquist, 80 dB alias rejection; the default for library conversion. */
+        STANDARD(26, 512, 7.9, 0.90, 80.0),
+        /** 120 taps, passband to 0.94 of Nyquist, 100 dB alias rejection. */
+        BEST(60, 1024, 10.4, 0.94, 100.0);
+
+        /** Taps on each side of the read position, at the lower of the two rates. */
+        public final int halfWidth;
+        /** Fractional phases stored between two source samples. */
+        public final int phases;
+        /** Kaiser window shape parameter. */
+        public final double kaiserBeta;
+        /** Passband edge as a fraction of the lower Nyquist frequency. */
+        public final double passband;
+        /** Attenuation of aliases that land below the passband edge, in dB. */
+        public final double rejectionDb;
+
+        Quality(int halfWidth, int phases, double kaiserBeta, double passband, double rejectionDb) {
+            this.halfWidth = halfWidth;
+            this.phases = phases;
+            this.kaiserBeta = kaiserBeta;
+            this.passband = passband;
+            this.rejectionDb = rejectionDb;
+        }
+    }
+
+    /** Source samples copied into the work buffer at a time. */
+    private static final int CHUNK = 4096;
+
+    private final PolyphaseSincTable table;
+    private final int halfWidth;
+    /** Source samples per step of the read position, numerator. */
+    private final int step;
+    /** Denominator: read position advances by {@code step / den} source samples per output. */
+    private final int den;
+    private final float invDen;
+
+    /** Holds retained history followed by newly copied input. */
+    private final float[] work;
+    /** Valid samples in {@link #work}. */
+    private int workLen;
+    /** Absolute source index of {@code work[0]}. */
+    private long workBase;
+    /** Integer part of the next read position, as an absolute source index. */
+    private long readIdx = 0L;
+    /** Fractional part of the next read position, in units of {@code 1 / den}. */
+    private int readRem = 0;
+    private long inputCount = 0L;
+    private long outputCount = 0L;
+    private boolean flushed = false;
+
+    /**
+     * Creates a resampler with the {@link Quality#STANDARD} preset.
+     *
+     * @param sourceRate   input sample rate in Hz
+     * @param targetRate   output sample rate in Hz
+     */
+    public SincResampler(float sourceRate, float targetRate) {
+        this(sourceRate, targetRate, Quality.STANDARD);
+    }
+
+    /**
+     * Creates a resampler.
+     *
+     * @param sourceRate   input sample rate in Hz
+     * @param targetRate   output sample rate in Hz
+     * @param quality      kernel preset
+     */
+    public SincResampler(float sourceRate, float targetRate, Quality quality) {
+        if (!(sourceRate > 0f) || !(targetRate > 0f)) {
+            throw new IllegalArgumentException("sample rates must be > 0");
+        }
+        if (quality == null) throw new IllegalArgumentException("quality must not be null");
+        long[] ratio = ratio(sourceRate, targetRate);
+        this.step = (int) ratio[0];
+        this.den = (int) ratio[1];
+        this.invDen = 1f / den;
+        this.table = table(sourceRate, targetRate, quality);
+        this.halfWidth = table.halfWidth();
+        this.work = new float[table.taps() + CHUNK];
+        reset();
+    }
+
+    /**
+     * Builds the kernel for a conversion. Tables are immutable and can be shared by the
+     * resamplers for every channel of a conversion.
+     *
+     * @param sourceRate   input sample rate in Hz
+     * @param targetRate   output sample rate in Hz
+     * @param quality      kernel preset
+     * @return a new kernel table
+     */
+    static PolyphaseSincTable table(float sourceRate, float targetRate, Quality quality) {
+        double down = Math.max(1.0, (double) sourceRate / targetRate);
+        int halfWidth = (int) Math.ceil(quality.halfWidth * down);
+        return new PolyphaseSincTable(halfWidth, quality.phases, 1.0 / down, quality.kaiserBeta);
+    }
+
+    /**
+     * Reduces {@code sourceRate / targetRate} to a ratio of integers that fit the read position
+     * arithmetic. Rates with a fractional part are resolved to 1/1000 Hz.
+     *
+     * @return {step, den}
+     */
+    static long[] ratio(float sourceRate, float targetRate) {
+        long m = Math.round(sourceRate * 1000.0);
+        long l = Math.round(targetRate * 1000.0);
+        long g = gcd(m, l);
+        m /= g;
+        l /= g;
+        // keep den * 2 and step + den within int range
+        while (m > (1 << 28) || l > (1 << 28)) {
+            m = (m + 1) >> 1;
+            l = (l + 1) >> 1;
+        }
+        return new long[] { Math.max(1, m), Math.max(1, l) };
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /** Clears all state, as if newly constructed. */
+    public void reset() {
+        java.util.Arrays.fill(work, 0f);
+        // the kernel's left half reads zeros before the first source sample
+        workLen = halfWidth - 1;
+        workBase = -(halfWidth - 1);
+        readIdx = 0L;
+        readRem = 0;
+        inputCount = 0L;
+        outputCount = 0L;
+        flushed = false;
+    }
+
+    /**
+     * Returns an upper bound on the output produced by the next {@code inputFrames} of input,
+     * for sizing the output array of {@link #process(float[], int, int, float[], int)}.
+     *
+     * @param inputFrames   number of input samples to be passed
+     * @return maximum number of output samples
+     */
+    public int maxOutput(int inputFrames) {
+        return (int) Math.min(Integer.MAX_VALUE - 8L,
+                (long) Math.ceil((double) (inputFrames + table.taps()) * den / step) + 1);
+    }
+
+    /**
+     * Consumes input and writes every output sample whose kernel window is now complete.
+     *
+     * @param in        input samples
+     * @param inOff     index of the first input sample
+     * @param inLen     number of input samples
+     * @param out       output array, with room for {@link #maxOutput(int) maxOutput(inLen)} samples
+     * @param outOff    index at which to write the first output sample
+     * @return number of output samples written
+     */
+    public int process(float[] in, int inOff, int inLen, float[] out, int outOff) {
+        if (flushed) throw new IllegalStateException("resampler was flushed; call reset() to reuse it");
+        int written = 0;
+        while (inLen > 0) {
+            int n = Math.min(inLen, work.length - workLen);
+            System.arraycopy(in, inOff, work, workLen, n);
+            workLen += n;
+            inOff += n;
+            inLen -= n;
+            inputCount += n;
+            written += drain(out, outOff + written, Long.MAX_VALUE);
+            compact();
+        }
+        return written;
+    }
+
+    /**
+     * Ends the stream: pads the input with zeros and writes the remaining output, so the total
+     * output length is {@link #outputLength(long, float, float) outputLength} of the input.
+     * The resampler must be {@link #reset()} before it is used again.
+     *
+     * @param out      output array, with room for {@link #maxOutput(int) maxOutput(0)} samples
+     * @param outOff   index at which to write the first output sample
+     * @return number of output samples written
+     */
+    public int flush(float[] out, int outOff) {
+        if (flushed) return 0;
+        flushed = true;
+        final long total = Math.round(inputCount * (double) den / step);
+        int written = 0;
+        int pad = table.taps();
+        while (pad > 0 && outputCount < total) {
+            int n = Math.min(pad, work.length - workLen);
+            java.util.Arrays.fill(work, workLen, workLen + n, 0f);
+            workLen += n;
+            pad -= n;
+            written += drain(out, outOff + written, total);
+            compact();
+        }
+        return written;
+    }
+
+    /**
+     * Returns the number of output samples a whole input of {@code inputFrames} converts to:
+     * the duration is kept, rounded to the nearest sample.
+     *
+     * @param inputFrames   input length in samples
+     * @param sourceRate    input sample rate in Hz
+     * @param targetRate    output sample rate in Hz
+     * @return output length in samples
+     */
+    public static long outputLength(long inputFrames, float sourceRate, float targetRate) {
+        long[] r = ratio(sourceRate, targetRate);
+        return Math.round(inputFrames * (double) r[1] / r[0]);
+    }
+
+    /** @return input samples consumed since the last reset */
+    public long inputCount() {
+        return inputCount;
+    }
+
+    /** @return output samples produced since the last reset */
+    public long outputCount() {
+        return outputCount;
+    }
+
+    /** @return the kernel table in use */
+    public PolyphaseSincTable getTable() {
+        return table;
+    }
+
+    /** Writes outputs while the kernel window lies inside the work buffer. */
+    private int drain(float[] out, int outOff, long limit) {
+        final long end = workBase + workLen;
+        int written = 0;
+        while (readIdx + halfWidth < end && outputCount < limit) {
+            out[outOff + written++] = table.interpolate(work, (int) (readIdx - workBase), readRem * invDen);
+            outputCount++;
+            readRem += step;
+            if (readRem >= den) {
+                readIdx += readRem / den;
+                readRem %= den;
+            }
+        }
+        return written;
+    }
+
+    /** Moves the history the next read still needs to the front of the work buffer. */
+    private void compact() {
+        long keepFrom = readIdx - halfWidth + 1;
+        int drop = (int) Math.max(0L, Math.min(workLen, keepFrom - workBase));
+        if (drop == 0) return;
+        System.arraycopy(work, drop, work, 0, workLen - drop);
+        workLen -= drop;
+        workBase += drop;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming WAV file reader over a {@link FileChannel}, the counterpart of {@link WavFileWriter}.
+ *
+ * <p>Frames are read sequentially from the current position into float blocks, either planar,
+ * one array per channel, or interleaved; {@link #seek(long)} moves the position. By default the
+ * reader copies the file through one fixed direct buffer. Opened with {@code memoryMap} true it
+ * maps the data chunk instead, in windows of at most {@link #MAP_WINDOW_BYTES}, and decodes
+ * straight from the page cache; this is faster for large files that are read more than once.</p>
+ *
+ * <p>Supported formats are PCM WAV with 8, 16, 24 or 32 bit integer samples and 32 bit float
+ * samples, including WAVE_FORMAT_EXTENSIBLE headers. {@link #readFormat(FileChannel)} parses
+ * the header alone, for readers such as
+ * {@link net.paulhertz.pixelaudio.sampler.PAStreamingSampleBuffer PAStreamingSampleBuffer}
+ * that manage their own I/O.</p>
+ *
+ * <p>A reader is not thread-safe.</p>
+ */
+public final class WavFileReader implements Closeable {
+    /** Size of the read buffer in bytes. */
+    public static final int BUFFER_BYTES = 1 << 16;
+    /** Largest region mapped at once in memory-mapped mode. */
+    public static final int MAP_WINDOW_BYTES = 1 << 28;
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    /** Layout of a WAV file's sample data. Immutable. */
+    public static final class Format {
+        /** Number of frames in the data chunk. */
+        public final long frames;
+        /** Sample rate in Hz. */
+        public final float sampleRate;
+        /** Number of interleaved channels. */
+        public final int channels;
+        /** Bytes per sample: 1, 2, 3 or 4. */
+        public final int bytesPerSample;
+        /** True for IEEE float samples. */
+        public final boolean floatSamples;
+        /** File offset of the first sample. */
+        public final long dataOffset;
+
+        private Format(long frames, float sampleRate, int channels, int bytesPerSample,
+                       boolean floatSamples, long dataOffset) {
+            this.frames = frames;
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.bytesPerSample = bytesPerSample;
+            this.floatSamples = floatSamples;
+            this.dataOffset = dataOffset;
+        }
+
+        /** @return bytes per interleaved frame */
+        public int frameBytes() {
+            return channels * bytesPerSample;
+        }
+
+        /**
+         * Decodes one sample.
+         *
+         * @param bb   little-endian buffer holding sample data
+         * @param p    byte offset of the sample in {@code bb}
+         * @return sample in [-1, 1) for integer formats
+         */
+        public float decode(ByteBuffer bb, int p) {
+            switch (bytesPerSample) {
+                case 1:
+                    return ((bb.get(p) & 0xFF) - 128) / 128f;
+                case 2:
+                    return bb.getShort(p) / 32768f;
+                case 3: {
+                    int v = (bb.get(p) & 0xFF) | ((bb.get(p + 1) & 0xFF) << 8) | (bb.get(p + 2) << 16);
+                    return v / 8388608f;
+                }
+                case 4:
+                    return floatSamples ? bb.getFloat(p) : bb.getInt(p) / 2147483648f;
+                default:
+                    return 0f;
+            }
+        }
+    }
+
+    private final File file;
+    private final FileChannel channel;
+    private final Format format;
+    private final int frameBytes;
+    private final boolean mapped;
+    /** Copy buffer, or the current mapped window. */
+    private ByteBuffer buffer;
+    /** Frame index of {@code buffer}'s first byte, or -1 when it holds nothing. */
+    private long bufferFrame = -1L;
+    /** Frames held in {@code buffer}. */
+    private int bufferFrames = 0;
+    private long position = 0L;
+
+    private WavFileReader(File file, FileChannel channel, Format format, boolean mapped) {
+        this.file = file;
+        this.channel = channel;
+        this.format = format;
+        this.frameBytes = format.frameBytes();
+        this.mapped = mapped;
+        if (!mapped) {
+            int cap = Math.max(frameBytes, BUFFER_BYTES - BUFFER_BYTES % frameBytes);
+            this.buffer = ByteBuffer.allocateDirect(cap).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Opens a WAV file for reading through a fixed buffer.
+     *
+     * @param file   WAV file
+     * @return an open reader positioned at frame 0
+     * @throws IOException if the file cannot be opened or its format is not supported
+     */
+    public static WavFileReader open(File file) throws IOException {
+        return open(file, false);
+    }
+
+    /**
+     * Opens a WAV file for reading.
+     *
+     * @param file        WAV file
+     * @param memoryMap   true to map the data chunk rather than copy it through a buffer
+     * @return an open reader positioned at frame 0
+     * @throws IOException if the file cannot be opened or its format is not supported
+     */
+    public static WavFileReader open(File file, boolean memoryMap) throws IOException {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new WavFileReader(file, ch, readFormat(ch), memoryMap);
+        }
+        catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads frames into one array per channel. Arrays beyond the file's channel count are left
+     * alone; file channels beyond {@code planar.length} are skipped.
+     *
+     * @param planar   channel arrays
+     * @param off      index of the first frame in each array
+     * @param n        maximum number of frames
+     * @return frames read, 0 at the end of the data
+     * @throws IOException if the file cannot be read
+     */
+    public int read(float[][] planar, int off, int n) throws IOException {
+        final int chans = Math.min(planar.length, format.channels);
+        int done = 0;
+        while (done < n) {
+            int avail = fill();
+            if (avail == 0) break;
+            int k = Math.min(avail, n - done);
+            int p = (int) (position - bufferFrame) * frameBytes;
+            for (int i = 0; i < k; i++, p += frameBytes) {
+                for (int c = 0; c < chans; c++) {
+                    planar[c][off + done + i] = format.decode(buffer, p + c * format.bytesPerSample);
+                }
+            }
+            done += k;
+            position += k;
+        }
+        return done;
+    }
+
+    /**
+     * Reads interleaved frames: up to {@code n * getChannels()} samples starting at {@code off}.
+     *
+     * @param interleaved   destination for interleaved samples
+     * @param off           index of the first sample
+     * @param n             maximum number of frames
+     * @return frames read, 0 at the end of the data
+     * @throws IOException if the file cannot be read
+     */
+    public int read(float[] interleaved, int off, int n) throws IOException {
+        final int chans = format.channels;
+        int done = 0;
+        while (done < n) {
+            int avail = fill();
+            if (avail == 0) break;
+            int k = Math.min(avail, n - done);
+            int p = (int) (position - bufferFrame) * frameBytes;
+            int q = off + done * chans;
+            for (int i = 0, m = k * chans; i < m; i++, p += format.bytesPerSample) {
+                interleaved[q + i] = format.decode(buffer, p);
+            }
+            done += k;
+            position += k;
+        }
+        return done;
+    }
+
+    /**
+     * Makes the frame at {@link #position} available in {@link #buffer}.
+     *
+     * @return frames available from the position, 0 at the end of the data
+     */
+    private int fill() throws IOException {
+        if (position >= format.frames) return 0;
+        if (bufferFrame >= 0 && position >= bufferFrame && position < bufferFrame + bufferFrames) {
+            return (int) (bufferFrame + bufferFrames - position);
+        }
+        long left = format.frames - position;
+        long filePos = format.dataOffset + position * frameBytes;
+        if (mapped) {
+            int frames = (int) Math.min(left, Math.max(1, MAP_WINDOW_BYTES / frameBytes));
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, filePos, (long) frames * frameBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            bufferFrames = frames;
+        }
+        else {
+            int frames = (int) Math.min(left, buffer.capacity() / frameBytes);
+            buffer.clear();
+            buffer.limit(frames * frameBytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, filePos + buffer.position()) < 0) break;
+            }
+            bufferFrames = buffer.position() / frameBytes;
+            if (bufferFrames == 0) return 0;
+        }
+        bufferFrame = position;
+        return bufferFrames;
+    }
+
+    /**
+     * Moves the read position.
+     *
+     * @param frame   frame index, clamped to [0, {@link #getFrameCount()}]
+     */
+    public void seek(long frame) {
+        position = Math.max(0L, Math.min(format.frames, frame));
+    }
+
+    /** @return index of the next frame to be read */
+    public long getPosition() { return position; }
+
+    /** @return number of frames in the file */
+    public long getFrameCount() { return format.frames; }
+
+    /** @return number of channels */
+    public int getChannels() { return format.channels; }
+
+    /** @return sample rate in Hz */
+    public float getSampleRate() { return format.sampleRate; }
+
+    /** @return sample data layout */
+    public Format getFormat() { return format; }
+
+    /** @return true if the data chunk is memory-mapped */
+    public boolean isMemoryMapped() { return mapped; }
+
+    /** @return source file */
+    public File getFile() { return file; }
+
+    /**
+     * Closes the file. A mapped window stays valid until it is garbage collected, but is no
+     * longer used.
+     */
+    @Override
+    public void close() throws IOException {
+        bufferFrame = -1L;
+        bufferFrames = 0;
+        channel.close();
+    }
+
+    // ------------------------------------------------------------------------
+    // WAV header
+    // ------------------------------------------------------------------------
+
+    /**
+     * Parses the RIFF header and locates the data chunk. Chunks other than {@code fmt } and
+     * {@code data} are skipped. A data chunk longer than the file, as left by an interrupted
+     * writer, is truncated to the bytes present.
+     *
+     * @param ch   open channel on a WAV file
+     * @return the sample data layout
+     * @throws IOException if the file cannot be read or its format is not supported
+     */
+    public static Format readFormat(FileChannel ch) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch, bb, 0L);
+        if (bb.getInt(0) != 0x46464952 || bb.getInt(8) != 0x45564157) {   // "RIFF", "WAVE"
+            throw new IOException("not a RIFF/WAVE file");
+        }
+        boolean haveFmt = false;
+        int format = 0;
+        int channels = 0;
+        float sampleRate = 0f;
+        int bits = 0;
+        long pos = 12L;
+        long size = ch.size();
+        ByteBuffer hdr = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        while (pos + 8 <= size) {
+            hdr.clear();
+            readFully(ch, hdr, pos);
+            int chunkId = hdr.getInt(0);
+            long chunkSize = hdr.getInt(4) & 0xFFFFFFFFL;
+            long body = pos + 8;
+            if (chunkId == 0x20746D66) {   // "fmt "
+                ByteBuffer fmt = ByteBuffer.allocate((int) Math.min(40, chunkSize)).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(ch, fmt, body);
+                haveFmt = true;
+                format = fmt.getShort(0) & 0xFFFF;
+                channels = fmt.getShort(2) & 0xFFFF;
+                sampleRate = fmt.getInt(4);
+                bits = fmt.getShort(14) & 0xFFFF;
+                if (format == FORMAT_EXTENSIBLE && chunkSize >= 26) format = fmt.getShort(24) & 0xFFFF;
+            }
+            else if (chunkId == 0x61746164) {   // "data"
+                if (!haveFmt) throw new IOException("data chunk before fmt chunk");
+                if (!(format == FORMAT_PCM && bits >= 8 && bits <= 32 && bits % 8 == 0)
+                        && !(format == FORMAT_FLOAT && bits == 32)) {
+                    throw new IOException("unsupported WAV format " + format + " with " + bits + " bits");
+                }
+                if (channels < 1) throw new IOException("invalid channel count");
+                int bytesPerSample = bits / 8;
+                long dataBytes = Math.min(chunkSize, size - body);
+                long frames = dataBytes / ((long) channels * bytesPerSample);
+                return new Format(frames, sampleRate, channels, bytesPerSample, format == FORMAT_FLOAT, body);
+            }
+            pos = body + chunkSize + (chunkSize & 1);
+        }
+        throw new IOException("no data chunk");
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer bb, long pos) throws IOException {
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, pos + bb.position()) < 0) throw new IOException("unexpected end of file");
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ *  Copyright (c) 2024 - 2026 by Paul Hertz <ignotus@gmail.com>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package net.paulhertz.pixelaudio.schedule;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streaming WAV file writer over a {@link FileChannel}.
+ *
+ * <p>The header is written when the file is opened, with placeholder lengths that
+ * {@link #close()} patches. Samples are encoded from float blocks straight into one fixed
+ * direct buffer, which is written out whenever it fills, so the heap used is the same for a
+ * second of audio and for an hour. Multi-channel audio may be passed planar, one array per
+ * channel, or already interleaved.</p>
+ *
+ * <p>Integer encodings clamp samples to [-1, 1] and scale by the largest positive code, as
+ * {@link AudioUtility#saveAudioToFile(float[], float, String)} always has. 16-bit mono and
+ * stereo files use a 16-byte PCM {@code fmt } chunk, which Processing and Minim can open;
+ * float mono and stereo files are tagged as IEEE float (format 3). Integer samples wider than
+ * 16 bits and any file with more than two channels use the 40-byte WAVE_FORMAT_EXTENSIBLE
+ * chunk the format requires for them, with the valid bits, a channel mask and the PCM or float
+ * sub-format. Float files carry a {@code fact} chunk. A WAV file holds at most 4 GiB of
+ * sample data.</p>
+ *
+ * <p>A writer is not thread-safe.</p>
+ *
+ * @see WavFileReader
+ */
+public final class WavFileWriter implements Closeable {
+
+    /** Sample encodings the writer supports. */
+    public enum Encoding {
+        /** 16-bit signed integer PCM. */
+        PCM_16(2, false),
+        /** 24-bit signed integer PCM, packed in three bytes. */
+        PCM_24(3, false),
+        /** 32-bit signed integer PCM. */
+        PCM_32(4, false),
+        /** 32-bit IEEE float. */
+        FLOAT_32(4, true);
+
+        /** Bytes per sample. */
+        public final int bytes;
+        /** True for IEEE float samples. */
+        public final boolean floatSamples;
+
+        Encoding(int bytes, boolean floatSamples) {
+            this.bytes = bytes;
+            this.floatSamples = floatSamples;
+        }
+    }
+
+    /** Size of the write buffer in bytes. */
+    public static final int BUFFER_BYTES = 1 << 16;
+
+    private static final long MAX_DATA_BYTES = 0xFFFFFFFFL - 80;
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_FLOAT = 3;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final File file;
+    private final FileChannel channel;
+    private final float sampleRate;
+    private final int channels;
+    private final Encoding encoding;
+    private final int frameBytes;
+    private final ByteBuffer buffer;
+    /** File offsets of the length fields patched on close. */
+    private final long dataSizePos;
+    private final long factPos;
+    private final long dataStart;
+    private long frames = 0L;
+    /** Data bytes already written to the channel. */
+    private long bytesFlushed = 0L;
+    private boolean closed = false;
+
+    private WavFileWriter(File file, FileChannel channel, float sampleRate, int channels, Encoding encoding)
+            throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.encoding = encoding;
+        this.frameBytes = channels * encoding.bytes;
+        // whole frames only, so a flush never splits a frame
+        int cap = Math.max(frameBytes, BUFFER_BYTES - BUFFER_BYTES % frameBytes);
+        this.buffer = ByteBuffer.allocateDirect(cap).order(ByteOrder.LITTLE_ENDIAN);
+
+        boolean extensible = channels > 2 || (!encoding.floatSamples && encoding.bytes > 2);
+        ByteBuffer h = ByteBuffer.allocate(80).order(ByteOrder.LITTLE_ENDIAN);
+        h.putInt(0x46464952).putInt(0).putInt(0x45564157);   // "RIFF", size, "WAVE"
+        h.putInt(0x20746D66).putInt(extensible ? 40 : encoding.floatSamples ? 18 : 16);   // "fmt "
+        int tag = encoding.floatSamples ? FORMAT_FLOAT : FORMAT_PCM;
+        h.putShort((short) (extensible ? FORMAT_EXTENSIBLE : tag));
+        h.putShort((short) channels);
+        h.putInt(Math.round(sampleRate));
+        h.putInt(Math.round(sampleRate) * frameBytes);
+        h.putShort((short) frameBytes);
+        h.putShort((short) (8 * encoding.bytes));
+        if (extensible) {
+            h.putShort((short) 22);                // cbSize
+            h.putShort((short) (8 * encoding.bytes));   // valid bits
+            h.putInt(channelMask(channels));
+            // sub-format GUID: the format tag, then the fixed KSDATAFORMAT suffix
+            h.putShort((short) tag).putShort((short) 0).putShort((short) 0).putShort((short) 0x0010);
+            h.putLong(0x719B3800AA000080L);
+        }
+        else if (encoding.floatSamples) {
+            h.putShort((short) 0);                 // cbSize
+        }
+        if (encoding.floatSamples) {
+            h.putInt(0x74636166).putInt(4);        // "fact"
+            factPos = h.position();
+            h.putInt(0);
+        }
+        else {
+            factPos = -1L;
+        }
+        h.putInt(0x61746164);                      // "data"
+        dataSizePos = h.position();
+        h.putInt(0);
+        dataStart = h.position();
+        h.flip();
+        channel.truncate(0L);
+        writeFully(h, 0L);
+    }
+
+    /**
+     * Speaker positions for the usual layouts: mono is front center, stereo front left and
+     * right, 4 channels quad, 6 channels 5.1 and 8 channels 7.1. Other counts have no
+     * assigned positions.
+     */
+    private static int channelMask(int channels) {
+        switch (channels) {
+            case 1: return 0x4;
+            case 2: return 0x3;
+            case 4: return 0x33;
+            case 6: return 0x3F;
+            case 8: return 0x63F;
+            default: return 0;
+        }
+    }
+
+    /**
+     * Creates or replaces a WAV file and writes its header.
+     *
+     * @param file         file to write
+     * @param sampleRate   sample rate in Hz
+     * @param channels     number of interleaved channels, 1 to 65535
+     * @param encoding     sample encoding
+     * @return an open writer
+     * @throws IOException if the file cannot be created
+     */
+    public static WavFileWriter open(File file, float sampleRate, int channels, Encoding encoding) throws IOException {
+        if (!(sampleRate > 0f)) throw new IllegalArgumentException("sampleRate must be positive");
+        if (channels < 1 || channels > 0xFFFF) throw new IllegalArgumentException("channels must be in 1..65535");
+        if (encoding == null) throw new IllegalArgumentException("encoding must not be null");
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            return new WavFileWriter(file, ch, sampleRate, channels, encoding);
+        }
+        catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes frames from one array per channel.
+     *
+     * @param planar   channel arrays, at least {@link #getChannels()} of them
+     * @param off      index of the first frame in each array
+     * @param n        number of frames
+     * @throws IOException if the file cannot be written
+     */
+    public void write(float[][] planar, int off, int n) throws IOException {
+        if (planar.length < channels) throw new IllegalArgumentException("expected " + channels + " channel arrays");
+        ensureOpen(n);
+        for (int i = 0; i < n; i++) {
+            if (!buffer.hasRemaining()) drain();
+            for (int c = 0; c < channels; c++) put(planar[c][off + i]);
+        }
+        frames += n;
+    }
+
+    /**
+     * Writes interleaved frames: {@code n * getChannels()} samples starting at {@code off}.
+     * For a mono file this is simply {@code n} samples.
+     *
+     * @param interleaved   interleaved samples
+     * @param off           index of the first sample
+     * @param n             number of frames
+     * @throws IOException if the file cannot be written
+     */
+    public void write(float[] interleaved, int off, int n) throws IOException {
+        ensureOpen(n);
+        int end = off + n * channels;
+        for (int i = off; i < end; i += channels) {
+            if (!buffer.hasRemaining()) drain();
+            for (int c = 0; c < channels; c++) put(interleaved[i + c]);
+        }
+        frames += n;
+    }
+
+    private void put(float s) {
+        switch (encoding) {
+            case PCM_16:
+                buffer.putShort((short) (clamp(s) * 32767f));
+                break;
+            case PCM_24: {
+                int v = (int) (clamp(s) * 8388607f);
+                buffer.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+                break;
+            }
+            case PCM_32:
+                buffer.putInt((int) (clamp(s) * 2147483647.0));
+                break;
+            default:
+                buffer.putFloat(s);
+        }
+    }
+
+    private static float clamp(float s) {
+        return (s > 1f) ? 1f : (s < -1f) ? -1f : s;
+    }
+
+    private void ensureOpen(int n) throws IOException {
+        if (closed) throw new IOException("writer is closed");
+        if (n < 0) throw new IllegalArgumentException("frame count must not be negative");
+        if ((frames + n) * frameBytes > MAX_DATA_BYTES) throw new IOException("WAV data would exceed 4 GiB");
+    }
+
+    /** Writes the buffered bytes at the end of the data written so far. */
+    private void drain() throws IOException {
+        buffer.flip();
+        writeFully(buffer, dataStart + bytesFlushed);
+        bytesFlushed += buffer.limit();
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bb, long pos) throws IOException {
+        while (bb.hasRemaining()) pos += channel.write(bb, pos);
+    }
+
+    /**
+     * Writes any buffered samples and patches the header with the final lengths. The file is
+     * complete and readable after this call; the writer can be closed or written to further.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void flush() throws IOException {
+        if (closed) return;
+        drain();
+        long dataBytes = frames * frameBytes;
+        long end = dataStart + dataBytes;
+        ByteBuffer pad = ByteBuffer.allocate(1);
+        if ((dataBytes & 1) != 0) {
+            writeFully(pad, end);   // RIFF chunks are word aligned
+            end++;
+        }
+        // drop a pad byte left by an earlier flush once the data length has turned even
+        channel.truncate(end);
+        ByteBuffer v = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        writeFully(v.putInt(0, (int) (end - 8)).rewind(), 4L);
+        writeFully(v.putInt(0, (int) dataBytes).rewind(), dataSizePos);
+        if (factPos >= 0) writeFully(v.putInt(0, (int) frames).rewind(), factPos);
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        }
+        finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /** @return frames written so far */
+    public long getFrameCount() { return frames; }
+
+    /** @return number of channels */
+    public int getChannels() { return channels; }
+
+    /** @return sample rate in Hz */
+    public float getSampleRate() { return sampleRate; }
+
+    /** @return sample encoding */
+    public Encoding getEncoding() { return encoding; }
+
+    /** @return file being written */
+    public File getFile() { return file; }
+}
@@ -14,8 +14,31 @@
  * sample-aligned scheduling, and future transport or external-sync implementations can
  * provide the same API.</li>
  *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.PATransport PATransport} is a global sample clock driven by the
+ * output callback, with millisecond, video-frame and tempo conversions and a lock-free read path. Samplers,
+ * mixers, granular samplers, their instruments and sampler instrument pools subscribe with
+ * {@code setTransport(...)}, so events sent to several engines with the same start sample land on the same
+ * output sample.</li>
+ *
  * <li>{@link net.paulhertz.pixelaudio.schedule.AudioScheduler AudioScheduler} provides a sample-accurate scheduler for one-shot
- * point events and duration-based span events, with support for late event policies, block-wise processing, and thread-safe scheduling.</li>
+ * point events and duration-based span events, with support for late event policies, block-wise processing, and thread-safe scheduling
+ * through a bounded, allocation-free inbox with a selectable overflow policy.</li>
+ *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.AudioCommandQueue AudioCommandQueue} is a bounded lock-free ring of
+ * preallocated command records. Control threads claim, fill, and publish records; the audio thread drains them at
+ * block boundaries without taking a monitor or allocating memory.</li>
+ *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.EngineMetrics EngineMetrics} collects lock-free counters, gauges and
+ * a render-time histogram for sampler and granular UGens: triggers, steals, rejected and late events, active voices,
+ * block render time and limiter gain reduction, with immutable snapshots and optional Java Flight Recorder events.</li>
+ *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.SchedulingProbe SchedulingProbe} stamps each scheduled event at enqueue,
+ * dispatch and first audible sample, and reports how late or early events fire as signed log2 histograms per late
+ * policy, with CSV export.</li>
+ *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.OfflineAudioDriver OfflineAudioDriver} stands in for an AudioOutput:
+ * it renders patched UGens buffer by buffer on the calling thread, drives a transport, and runs control actions
+ * against a virtual wall clock, so timing measurements are repeatable without a sound card.</li>
  *
  * </ul>
  *
@@ -50,11 +73,22 @@
  *   <li>Gain conversions: dB ↔ linear amplitude</li>
  *   <li>Pitch/frequency: semitones ↔ frequency ratio, MIDI key number ↔ frequency</li>
  *   <li>Signal analysis: peak, RMS, and normalization (by peak, by RMS, or with ceiling)</li>
- *   <li>Resampling: mono and multi-channel buffer resampling with linear interpolation</li>
- *   <li>File I/O: save audio to 16-bit or 32-bit PCM WAV format (mono or stereo)</li>
+ *   <li>Resampling: mono and multi-channel buffer resampling with linear interpolation or a band-limited
+ *   windowed-sinc kernel, with multi-channel buffers converted in parallel</li>
+ *   <li>File I/O: save audio to 16, 24 or 32-bit integer or 32-bit float WAV format (any number of channels)</li>
  * </ul>
  * </li>
  *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.PolyphaseSincTable PolyphaseSincTable} holds precomputed
+ * Kaiser-windowed sinc kernels for band-limited fractional reads, with a shared bank of cutoffs matched to playback rate.</li>
+ *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.SincResampler SincResampler} is a streaming polyphase sinc sample-rate
+ * converter with FAST, STANDARD and BEST quality presets, for inputs too long to convert in one array.</li>
+ *
+ * <li>{@link net.paulhertz.pixelaudio.schedule.WavFileWriter WavFileWriter} and
+ * {@link net.paulhertz.pixelaudio.schedule.WavFileReader WavFileReader} stream WAV files through a FileChannel with a
+ * small fixed buffer, interleaving multi-channel audio directly from float blocks; the reader can memory-map.</li>
+ *
  * </ul>
  */
 package net.paulhertz.pixelaudio.schedule;
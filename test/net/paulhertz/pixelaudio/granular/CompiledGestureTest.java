@@ -0,0 +1,179 @@
+package net.paulhertz.pixelaudio.granular;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.paulhertz.pixelaudio.schedule.AudioScheduler;
+import net.paulhertz.pixelaudio.schedule.GestureSchedule;
+import net.paulhertz.pixelaudio.schedule.GestureScheduleBuilder;
+import processing.core.PVector;
+
+/**
+ * Smoke tests for compiled gestures and batch scheduling.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/CompiledGestureTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.CompiledGestureTest
+ * </pre>
+ */
+public final class CompiledGestureTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        compilesOnsetsAndDefaults();
+        equalContentHitsTheCache();
+        compiledGestureSoundsOnTime();
+        batchIsDeliveredInTimeOrder();
+        resamplingKeepsEndpoints();
+        editedScheduleIsTransformedAgain();
+        replayedGestureDoesNotAllocate();
+        System.out.println("CompiledGestureTest: " + assertions + " assertions passed.");
+    }
+
+    private static void compilesOnsetsAndDefaults() {
+        PAGranularInstrumentDirector director = director();
+        GestureGranularParams params = GestureGranularParams.builder().pan(0.25f).gainLinear(0.5f).build();
+        int[] idx = { 0, 10, 99999 };
+        CompiledGesture cg = director.compileGesture(schedule(3, 25f), params, GestureEventParams.ofStartIndices(idx), 1000);
+        assertEquals(3, cg.n, "one entry per event");
+        assertEquals(1200, (int) cg.onsetSamples[1], "25 ms is 1200 samples at 48 kHz");
+        assertEquals(2400, (int) cg.spanSamples(), "span runs to the last onset");
+        assertEquals(999, cg.startIndices[2], "indices are clamped to the buffer");
+        assertTrue(cg.pan[0] == 0.25f && cg.gain[0] == 0.5f && cg.pitchRatio[0] == 1f, "defaults come from params");
+        assertTrue(director.compileGesture(schedule(3, 25f), params, GestureEventParams.ofStartIndices(new int[2]), 1000) == null,
+                "mismatched event parameters are rejected");
+    }
+
+    private static void equalContentHitsTheCache() {
+        PAGranularInstrumentDirector director = director();
+        GestureGranularParams params = GestureGranularParams.builder().hopLengthSamples(256).build();
+        CompiledGesture a = director.compileGesture(schedule(50, 10f), params, starts(50), 48000);
+        CompiledGesture b = director.compileGesture(schedule(50, 10f),
+                GestureGranularParams.builder().hopLengthSamples(256).build(), starts(50), 48000);
+        assertTrue(a == b, "new but equal inputs reuse the compilation");
+        assertEquals(1, (int) director.getCompileCount(), "compiled once");
+        CompiledGesture c = director.compileGesture(schedule(50, 10f),
+                GestureGranularParams.builder().hopLengthSamples(256).pan(-0.5f).build(), starts(50), 48000);
+        assertTrue(c != a && c.pan[0] == -0.5f, "a changed parameter compiles again");
+        GestureEventParams evt = starts(50);
+        CompiledGesture d = director.compileGesture(schedule(50, 10f), params, evt, 48000);
+        evt.startIndices[0] = 7;
+        CompiledGesture e = director.compileGesture(schedule(50, 10f), params, evt, 48000);
+        assertTrue(d == a && e != a && e.startIndices[0] == 7, "edited inputs do not alias the cached key");
+    }
+
+    private static void compiledGestureSoundsOnTime() {
+        int atZero = firstSoundingFrame(0);
+        int later = firstSoundingFrame(3000);
+        assertTrue(atZero >= 0, "gesture sounds");
+        assertEquals(3000, later - atZero, "start sample shifts the whole gesture");
+    }
+
+    private static int firstSoundingFrame(long startSample) {
+        PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 32);
+        PAGranularInstrumentDirector director = new PAGranularInstrumentDirector(new PAGranularInstrument(sampler, null));
+        float[] buf = new float[48000];
+        for (int i = 0; i < buf.length; i++) buf[i] = 0.5f * (float) Math.sin(i * 0.03);
+        GestureGranularParams params = GestureGranularParams.builder().grainLengthSamples(512).hopLengthSamples(256).build();
+        director.playGestureAtSampleTime(buf, schedule(4, 20f), params, starts(4), startSample);
+        assertEquals(4, (int) director.getSourcePool().getCreatedCount(), "one pooled source per event");
+        float[] frame = new float[2];
+        for (int i = 0; i < 12000; i++) {
+            sampler.tick(frame);
+            if (Math.abs(frame[0]) > 1e-6f) return i;
+        }
+        return -1;
+    }
+
+    private static void batchIsDeliveredInTimeOrder() {
+        AudioScheduler<String> s = new AudioScheduler<>();
+        s.schedulePoints(new long[] { 130, 10, 70, 999 }, new String[] { "c", "a", "b", "z" }, 3);
+        StringBuilder seen = new StringBuilder();
+        s.processBlock(0, 64, (h, off) -> seen.append(h).append(off), null);
+        s.processBlock(64, 64, (h, off) -> seen.append(h).append(off), null);
+        s.processBlock(128, 64, (h, off) -> seen.append(h).append(off), null);
+        assertTrue("a10b6c2".equals(seen.toString()), "batch entries land in their blocks, got " + seen);
+        assertTrue(s.isIdle(), "count limits the batch");
+    }
+
+    private static void resamplingKeepsEndpoints() {
+        GestureSchedule in = schedule(7, 30f);
+        GestureSchedule out = GestureScheduleBuilder.resampleToCount(in, 25);
+        assertEquals(25, out.size(), "target count");
+        assertTrue(out.timesMs[0] == 0f && out.timesMs[24] == 180f, "times keep their endpoints");
+        assertTrue(out.points.get(24).x == 6f && out.points.get(12).x == 3f, "points interpolate along the path");
+    }
+
+    private static void editedScheduleIsTransformedAgain() {
+        PAGranularInstrumentDirector director = director();
+        GestureGranularParams params = GestureGranularParams.builder()
+                .timeTransform(GestureGranularParams.TimeTransform.DURATION_SCALED).targetDurationMs(300f).build();
+        GestureSchedule raw = schedule(4, 10f);
+        assertTrue(director.prepareSchedule(raw, params).timesMs[1] == 100f, "scaled to 300 ms");
+        raw.timesMs[1] = 20f;
+        assertTrue(director.prepareSchedule(raw, params).timesMs[1] == 200f, "in-place edit is seen");
+        CompiledGesture a = director.compileGesture(raw, params, starts(4), 48000);
+        raw.timesMs[1] = 5f;
+        CompiledGesture b = director.compileGesture(raw, params, starts(4), 48000);
+        assertTrue(a != b && b.onsetSamples[1] == 2400, "edited schedule compiles again");
+    }
+
+    /** Once sources and payloads have cycled through their pools, replays allocate nothing. */
+    private static void replayedGestureDoesNotAllocate() {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 32);
+        PAGranularInstrumentDirector director = new PAGranularInstrumentDirector(new PAGranularInstrument(sampler, null));
+        float[] buf = new float[48000];
+        for (int i = 0; i < buf.length; i++) buf[i] = 0.5f * (float) Math.sin(i * 0.03);
+        GestureGranularParams params = GestureGranularParams.builder().grainLengthSamples(512).hopLengthSamples(256).build();
+        CompiledGesture cg = director.compileGesture(schedule(20, 5f), params, starts(20), buf.length);
+        float[] l = new float[1024];
+        float[] r = new float[1024];
+        long bytes = 0L;
+        // the scheduling and render paths take several passes to finish compiling
+        for (int pass = 0; pass < 8; pass++) {
+            long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int round = 0; round < 5; round++) {
+                director.playCompiledAtSampleTime(buf, cg, params, sampler.getCurrentSampleTime() + 64);
+                for (int b = 0; b < 48; b++) sampler.render(l, r, 0, l.length);
+            }
+            bytes = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        assertEquals(0, sampler.activeOrReleasingVoiceCount(), "every gesture finished");
+        assertTrue(bytes < 1024, "five replayed gestures allocate nothing, got " + bytes + " bytes");
+    }
+
+    private static PAGranularInstrumentDirector director() {
+        return new PAGranularInstrumentDirector(new PAGranularInstrument(new PAGranularSampler(48000f, 1024, 32), null));
+    }
+
+    private static GestureSchedule schedule(int n, float stepMs) {
+        List<PVector> pts = new ArrayList<>();
+        float[] times = new float[n];
+        for (int i = 0; i < n; i++) {
+            pts.add(new PVector(i, i));
+            times[i] = i * stepMs;
+        }
+        return new GestureSchedule(pts, times);
+    }
+
+    private static GestureEventParams starts(int n) {
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = 1000 + i * 300;
+        return GestureEventParams.ofStartIndices(idx);
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
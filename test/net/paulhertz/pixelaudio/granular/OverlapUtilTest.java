@@ -0,0 +1,69 @@
+package net.paulhertz.pixelaudio.granular;
+
+import java.lang.management.ManagementFactory;
+
+import ddf.minim.analysis.HannWindow;
+
+/**
+ * Smoke tests for packed block overlap and an allocation-free burst render path.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/OverlapUtilTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.OverlapUtilTest
+ * </pre>
+ */
+public final class OverlapUtilTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        packedMatchesSlice();
+        renderDoesNotAllocate();
+        System.out.println("OverlapUtilTest: " + assertions + " assertions passed.");
+    }
+
+    private static void packedMatchesSlice() {
+        long[][] spans = { { 90, 100 }, { 90, 101 }, { 100, 164 }, { 120, 130 }, { 163, 400 }, { 164, 200 }, { 0, 1000 } };
+        for (long[] span : spans) {
+            OverlapUtil.Slice slice = OverlapUtil.computeBlockSlice(100, 64, span[0], span[1]);
+            long packed = OverlapUtil.blockOverlap(100, 64, span[0], span[1]);
+            String label = "[" + span[0] + ", " + span[1] + ")";
+            assertTrue(slice.hasOverlap == OverlapUtil.hasOverlap(packed), label + " overlap");
+            if (slice.hasOverlap) {
+                assertEquals(slice.startIndex, OverlapUtil.sliceStart(packed), label + " start");
+                assertEquals(slice.endIndex, OverlapUtil.sliceEnd(packed), label + " end");
+            }
+        }
+    }
+
+    private static void renderDoesNotAllocate() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        float[] buf = new float[48000];
+        for (int i = 0; i < buf.length; i++) buf[i] = (float) Math.sin(i * 0.01);
+        PABurstGranularSource src = new PABurstGranularSource(buf, 0, 512, 400, 64, 48, 1f, true);
+        src.setGrainWindow(new HannWindow(), 512);
+        float[] l = new float[64];
+        float[] r = new float[64];
+        src.seekTo(0);
+        for (long pos = 0; pos < 4096; pos += 64) src.renderBlock(pos, 64, l, r);   // warm up
+        long tid = Thread.currentThread().getId();
+        long before = tmx.getThreadAllocatedBytes(tid);
+        for (long pos = 4096; pos < src.lengthSamples(); pos += 64) src.renderBlock(pos, 64, l, r);
+        long allocated = tmx.getThreadAllocatedBytes(tid) - before;
+        assertTrue(allocated < 1024, "steady-state render allocated " + allocated + " bytes");
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
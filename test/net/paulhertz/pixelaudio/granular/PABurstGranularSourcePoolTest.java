@@ -0,0 +1,99 @@
+package net.paulhertz.pixelaudio.granular;
+
+import ddf.minim.analysis.HannWindow;
+
+/**
+ * Smoke tests for pooled burst grain sources.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/PABurstGranularSourcePoolTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.PABurstGranularSourcePoolTest
+ * </pre>
+ */
+public final class PABurstGranularSourcePoolTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        reusedSourceRendersLikeNew();
+        recycleIsIdempotent();
+        voiceReturnsSourceWhenDone();
+        System.out.println("PABurstGranularSourcePoolTest: " + assertions + " assertions passed.");
+    }
+
+    private static void reusedSourceRendersLikeNew() {
+        float[] buf = ramp(4096);
+        PABurstGranularSource.Pool pool = new PABurstGranularSource.Pool(4);
+        PABurstGranularSource first = pool.acquire(buf, 100, 256, 4, 128, 32, 1.5f, false);
+        first.setGrainWindow(new HannWindow(), 256);
+        first.setGain(0.5f);
+        render(first, 1024);
+        first.recycle();
+        assertEquals(1, pool.available(), "recycled source is free");
+
+        PABurstGranularSource again = pool.acquire(buf, 700, 200, 3, 100, 10, 0.75f, true);
+        assertTrue(again == first, "pool hands back the same object");
+        assertEquals(1, (int) pool.getReusedCount(), "reuse is counted");
+        again.setGrainWindow(new HannWindow(), 200);
+        PABurstGranularSource fresh = new PABurstGranularSource(buf, 700, 200, 3, 100, 10, 0.75f, true);
+        fresh.setGrainWindow(new HannWindow(), 200);
+        float[] a = render(again, 512);
+        float[] b = render(fresh, 512);
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) throw new AssertionError("reused source differs at " + i);
+        }
+        assertions++;
+        assertEquals((int) fresh.lengthSamples(), (int) again.lengthSamples(), "length follows the new event");
+    }
+
+    private static void recycleIsIdempotent() {
+        PABurstGranularSource.Pool pool = new PABurstGranularSource.Pool(8);
+        pool.prefill(3);
+        assertEquals(3, pool.available(), "prefilled");
+        PABurstGranularSource s = pool.acquire(new float[16], 0, 4, 1, 1, 0, 1f, false);
+        assertEquals(2, pool.available(), "acquired one");
+        s.recycle();
+        s.recycle();
+        assertEquals(3, pool.available(), "second recycle is ignored");
+        new PABurstGranularSource(new float[16], 0, 4, 1, 1, 0, 1f, false).recycle();
+        assertEquals(3, pool.available(), "unpooled source is not added");
+        assertEquals(3, (int) pool.getCreatedCount(), "only prefill allocated");
+    }
+
+    private static void voiceReturnsSourceWhenDone() {
+        PABurstGranularSource.Pool pool = new PABurstGranularSource.Pool(4);
+        PAGranularVoice voice = new PAGranularVoice(null, 64, 48000f);
+        PABurstGranularSource s = pool.acquire(ramp(1024), 0, 64, 2, 32, 0, 1f, false);
+        voice.activate(s, null, 1f, 0f, false, null, 64);
+        float[] lr = new float[2];
+        for (int i = 0; i < 128; i++) voice.nextSampleStereo(lr);
+        assertEquals(0, pool.available(), "source stays out while the voice plays");
+        voice.stop();
+        assertEquals(1, pool.available(), "stopped voice returns its source");
+    }
+
+    private static float[] render(PABurstGranularSource src, int frames) {
+        float[] out = new float[frames];
+        src.seekTo(0);
+        src.renderBlock(0, frames, out, null);
+        return out;
+    }
+
+    private static float[] ramp(int n) {
+        float[] buf = new float[n];
+        for (int i = 0; i < n; i++) buf[i] = (float) Math.sin(i * 0.01);
+        return buf;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
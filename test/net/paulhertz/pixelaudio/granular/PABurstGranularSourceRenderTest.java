@@ -0,0 +1,82 @@
+package net.paulhertz.pixelaudio.granular;
+
+import ddf.minim.analysis.HannWindow;
+
+/**
+ * Smoke tests for block rendering of long bursts.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/PABurstGranularSourceRenderTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.PABurstGranularSourceRenderTest
+ * </pre>
+ */
+public final class PABurstGranularSourceRenderTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        blocksMatchOneLongRender();
+        rewindRendersTheSameBlock();
+        System.out.println("PABurstGranularSourceRenderTest: " + assertions + " assertions passed.");
+    }
+
+    private static void blocksMatchOneLongRender() {
+        float[] buf = signal(48000);
+        PABurstGranularSource whole = burst(buf);
+        PABurstGranularSource blocks = burst(buf);
+        int len = (int) whole.lengthSamples() + 100;
+        float[] ref = new float[len];
+        whole.renderBlock(1000, len, ref, null);
+
+        float[] out = new float[64];
+        float worst = 0f;
+        for (int pos = 0; pos < len; pos += out.length) {
+            java.util.Arrays.fill(out, 0f);
+            int n = Math.min(out.length, len - pos);
+            blocks.renderBlock(1000 + pos, n, out, null);
+            for (int i = 0; i < n; i++) worst = Math.max(worst, Math.abs(out[i] - ref[pos + i]));
+        }
+        assertClose(0f, worst, "64-sample blocks match a single render of 500 grains");
+    }
+
+    private static void rewindRendersTheSameBlock() {
+        PABurstGranularSource src = burst(signal(48000));
+        float[] first = new float[64];
+        float[] later = new float[64];
+        float[] again = new float[64];
+        src.renderBlock(1000 + 3200, 64, first, null);
+        src.renderBlock(1000 + 9600, 64, later, null);
+        src.renderBlock(1000 + 3200, 64, again, null);
+        float worst = 0f;
+        for (int i = 0; i < 64; i++) worst = Math.max(worst, Math.abs(first[i] - again[i]));
+        assertClose(0f, worst, "an earlier block renders the same after the cursor moved on");
+        float energy = 0f;
+        for (float v : later) energy += v * v;
+        assertTrue(energy > 0f, "later block is not silent");
+    }
+
+    private static PABurstGranularSource burst(float[] buf) {
+        PABurstGranularSource src = new PABurstGranularSource(buf, 50, 300, 500, 40, 30, 1.25f, true);
+        src.setGrainWindow(new HannWindow(), 300);
+        src.seekTo(1000);
+        return src;
+    }
+
+    private static float[] signal(int n) {
+        float[] buf = new float[n];
+        for (int i = 0; i < n; i++) buf[i] = (float) Math.sin(i * 0.013) * 0.8f;
+        return buf;
+    }
+
+    private static void assertClose(float expected, float actual, String label) {
+        assertions++;
+        if (Math.abs(expected - actual) > 1e-5f) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
@@ -0,0 +1,132 @@
+package net.paulhertz.pixelaudio.granular;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.paulhertz.pixelaudio.schedule.GestureSchedule;
+import processing.core.PVector;
+
+/**
+ * Smoke tests for offline granular rendering.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/PAGranularOfflineRendererTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.PAGranularOfflineRendererTest
+ * </pre>
+ */
+public final class PAGranularOfflineRendererTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) throws IOException {
+        float[] buf = signal(48000 * 4);
+        rendersUntilVoicesFinish(buf);
+        parallelMatchesSharedForOneGesture(buf);
+        gesturesAreSummed(buf);
+        writesWavFile(buf);
+        System.out.println("PAGranularOfflineRendererTest: " + assertions + " assertions passed.");
+    }
+
+    private static void rendersUntilVoicesFinish(float[] buf) {
+        PAGranularOfflineRenderer r = new PAGranularOfflineRenderer(48000f);
+        r.addGesture(buf, schedule(200, 50f), params(), starts(200, buf.length), 0);
+        long t0 = System.nanoTime();
+        float[][] lr = r.render();
+        double seconds = (System.nanoTime() - t0) * 1e-9;
+        double audioSeconds = lr[0].length / 48000.0;
+        assertTrue(audioSeconds > 10.0 && audioSeconds < 12.0, "render covers the 10 s gesture and its tail, got " + audioSeconds);
+        assertTrue(seconds < audioSeconds, "faster than real time: " + seconds + " s for " + audioSeconds + " s");
+        assertTrue(peak(lr[0]) > 0.01f && peak(lr[1]) > 0.01f, "both channels carry signal");
+        assertTrue(peak(lr[0], lr[0].length - 64, lr[0].length) < 1e-3f, "render ends in silence");
+    }
+
+    private static void parallelMatchesSharedForOneGesture(float[] buf) {
+        PAGranularOfflineRenderer r = new PAGranularOfflineRenderer(48000f);
+        r.addGesture(buf, schedule(40, 25f), params(), starts(40, buf.length), 480);
+        float[][] a = r.render();
+        r.setParallel(false);
+        float[][] b = r.render();
+        assertEquals(a[0].length, b[0].length, "same length");
+        float worst = 0f;
+        for (int i = 0; i < a[0].length; i++) worst = Math.max(worst, Math.abs(a[0][i] - b[0][i]));
+        assertTrue(worst == 0f, "one gesture renders identically either way");
+        assertTrue(peak(a[0], 0, 480) == 0f, "nothing sounds before the start sample");
+    }
+
+    private static void gesturesAreSummed(float[] buf) {
+        PAGranularOfflineRenderer one = new PAGranularOfflineRenderer(48000f);
+        one.addGesture(buf, schedule(40, 25f), params(), starts(40, buf.length), 0);
+        float[][] single = one.render();
+        PAGranularOfflineRenderer two = new PAGranularOfflineRenderer(48000f);
+        two.setThreads(2);
+        two.addGesture(buf, schedule(40, 25f), params(), starts(40, buf.length), 0);
+        two.addGesture(buf, schedule(40, 25f), params(), starts(40, buf.length), 96000);
+        float[][] both = two.render();
+        assertEquals(single[0].length + 96000, both[0].length, "second gesture extends the render");
+        assertTrue(Math.abs(both[0][1000] - single[0][1000]) < 1e-6f, "first gesture alone at the start");
+        assertTrue(Math.abs(both[0][97000] - single[0][1000]) < 1e-6f, "second gesture is the same sound, later");
+    }
+
+    private static void writesWavFile(float[] buf) throws IOException {
+        File f = File.createTempFile("pa-offline", ".wav");
+        f.deleteOnExit();
+        PAGranularOfflineRenderer r = new PAGranularOfflineRenderer(44100f);
+        r.addGesture(buf, schedule(20, 20f), params(), starts(20, buf.length), 0);
+        int frames = r.renderToFile(f.getAbsolutePath(), false);
+        assertEquals(44 + frames * 4, (int) f.length(), "16-bit stereo WAV of the rendered frames");
+    }
+
+    private static GestureSchedule schedule(int n, float stepMs) {
+        List<PVector> pts = new ArrayList<>();
+        float[] times = new float[n];
+        for (int i = 0; i < n; i++) {
+            pts.add(new PVector(i, i));
+            times[i] = i * stepMs;
+        }
+        return new GestureSchedule(pts, times);
+    }
+
+    private static GestureGranularParams params() {
+        return GestureGranularParams.builder()
+                .grainLengthSamples(2048)
+                .hopLengthSamples(512)
+                .burstGrains(4)
+                .build();
+    }
+
+    private static GestureEventParams starts(int n, int bufLen) {
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = (i * 7919) % (bufLen - 4096);
+        return GestureEventParams.ofStartIndices(idx);
+    }
+
+    private static float[] signal(int n) {
+        float[] b = new float[n];
+        for (int i = 0; i < n; i++) b[i] = 0.5f * (float) Math.sin(i * 0.031);
+        return b;
+    }
+
+    private static float peak(float[] a) {
+        return peak(a, 0, a.length);
+    }
+
+    private static float peak(float[] a, int from, int to) {
+        float p = 0f;
+        for (int i = from; i < to; i++) p = Math.max(p, Math.abs(a[i]));
+        return p;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
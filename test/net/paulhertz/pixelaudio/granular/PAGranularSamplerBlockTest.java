@@ -0,0 +1,202 @@
+package net.paulhertz.pixelaudio.granular;
+
+import java.lang.management.ManagementFactory;
+
+import ddf.minim.analysis.HannWindow;
+
+/**
+ * Smoke tests for block rendering in the granular sampler.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/PAGranularSamplerBlockTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.PAGranularSamplerBlockTest
+ * </pre>
+ */
+public final class PAGranularSamplerBlockTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        startsLandOnTheirSample();
+        tickAndRenderAgree();
+        stolenVoiceSoundsUntilTheSteal();
+        steadyStateDoesNotAllocate();
+        playReturnsTheVoiceId();
+        fullRingFailsFast();
+        queuedGrowsKeepTheirVoices();
+        System.out.println("PAGranularSamplerBlockTest: " + assertions + " assertions passed.");
+    }
+
+    private static void startsLandOnTheirSample() {
+        for (long start : new long[] { 0, 37, 63, 64, 100, 1000, 1023 }) {
+            PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 4);
+            sampler.startAtSampleTime(burst(2048), null, 1f, 0f, false, start);
+            float[] l = new float[2048];
+            float[] r = new float[2048];
+            sampler.render(l, r, 0, l.length);
+            // the envelope's first value is 0, so sound begins one sample after the start
+            assertEquals((int) start + 1, firstNonZero(l), "start at " + start);
+        }
+        PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 4);
+        assertEquals(0, (int) sampler.getCurrentSampleTime(), "clock starts at zero");
+        sampler.render(new float[100], new float[100], 0, 100);
+        assertEquals(128, (int) sampler.getCurrentSampleTime(), "clock marks the next unrendered block");
+    }
+
+    private static void tickAndRenderAgree() {
+        PAGranularSampler a = scheduledPair();
+        PAGranularSampler b = scheduledPair();
+        float[] l = new float[6000];
+        float[] r = new float[6000];
+        b.render(l, r, 0, 100);
+        b.render(l, r, 100, 5900);
+        float[] frame = new float[2];
+        for (int i = 0; i < l.length; i++) {
+            a.tick(frame);
+            if (frame[0] != l[i] || frame[1] != r[i]) throw new AssertionError("tick and render differ at " + i);
+        }
+        assertions++;
+        assertTrue(peak(l, 0, l.length) > 0.01f, "scheduled voices sound");
+    }
+
+    private static void stolenVoiceSoundsUntilTheSteal() {
+        PAGranularSampler alone = new PAGranularSampler(48000f, 1024, 1);
+        alone.startAtSampleTime(burst(4096), null, 1f, 0f, false, 10);
+        float[] al = new float[512];
+        alone.render(al, new float[512], 0, 512);
+
+        PAGranularSampler stolen = new PAGranularSampler(48000f, 1024, 1);
+        stolen.setSmoothSteal(false);
+        stolen.startAtSampleTime(burst(4096), null, 1f, 0f, false, 10);
+        stolen.startAtSampleTime(burst(4096), null, 1f, 0f, false, 40);
+        float[] sl = new float[512];
+        stolen.render(sl, new float[512], 0, 512);
+        boolean same = true;
+        for (int i = 0; i < 40; i++) same &= (al[i] == sl[i]);
+        assertTrue(same, "first voice plays up to the steal sample");
+        assertTrue(sl[40] == 0f && sl[41] != 0f, "second voice starts at its own sample");
+    }
+
+    private static void steadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 8);
+        sampler.getMetrics().setTimingEnabled(false);
+        for (int v = 0; v < 8; v++) {
+            sampler.startAtSampleTime(burst(480000), null, 0.25f, 0f, false, v * 10);
+        }
+        float[] frame = new float[2];
+        for (int i = 0; i < 48000; i++) sampler.tick(frame);
+        long tid = Thread.currentThread().getId();
+        long before = tmx.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < 96000; i++) sampler.tick(frame);
+        long allocated = tmx.getThreadAllocatedBytes(tid) - before;
+        assertTrue(allocated < 1024, "two seconds of eight voices allocated " + allocated + " bytes");
+        assertEquals(8, sampler.activeOrReleasingVoiceCount(), "voices still sounding");
+    }
+
+    private static void playReturnsTheVoiceId() {
+        PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 4);
+        long first = sampler.play(burst(48000), null, 1f, 0f);
+        long id = sampler.play(burst(48000), null, 1f, 0f);
+        assertTrue(id >= 0 && id != first, "play reserves a fresh id");
+        // posted before the voice exists, applied in order after the play
+        assertTrue(sampler.setParam(first, net.paulhertz.pixelaudio.sampler.VoiceParam.GAIN, 0f), "setParam queued");
+        float[] l = new float[4096];
+        float[] r = new float[4096];
+        sampler.render(l, r, 0, l.length);
+        PAGranularVoice played = null;
+        PAGranularVoice silenced = null;
+        for (PAGranularVoice v : sampler.getVoices()) {
+            if (v.isActive() && v.getVoiceId() == id) played = v;
+            if (v.isActive() && v.getVoiceId() == first) silenced = v;
+        }
+        assertTrue(played != null && silenced != null, "started voices carry the returned ids");
+        assertTrue(silenced.getGain() == 0f && played.getGain() == 1f, "setParam reaches only its voice");
+        sampler.setParam(-1L, net.paulhertz.pixelaudio.sampler.VoiceParam.GAIN, 0f);
+        sampler.render(l, r, 0, l.length);
+        assertTrue(peak(l, 2 * PAGranularSampler.CONTROL_BLOCK_SIZE, l.length) == 0f, "gain ramps to silence");
+    }
+
+    private static void fullRingFailsFast() {
+        PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 4);
+        PABurstGranularSource src = burst(2048);
+        int queued = 0;
+        while (sampler.play(src, null, 1f, 0f) >= 0) queued++;
+        assertTrue(queued > 0, "ring accepts plays until full");
+        long t0 = System.nanoTime();
+        boolean stopped = sampler.stopAll();
+        boolean param = sampler.setParam(-1L, net.paulhertz.pixelaudio.sampler.VoiceParam.PAN, 0.5f);
+        boolean grown = sampler.setMaxVoices(8);
+        long waited = System.nanoTime() - t0;
+        assertTrue(!stopped && !param && !grown, "full ring drops control commands");
+        assertTrue(waited < 5_000_000L, "dropped commands do not wait, took " + waited + " ns");
+        assertEquals(4, sampler.getMaxVoices(), "dropped setMaxVoices leaves the limit");
+        sampler.render(new float[64], new float[64], 0, 64);
+        assertTrue(sampler.stopAll(), "ring accepts commands once drained");
+    }
+
+    /** Two grows drained in one block keep the voices started between them. */
+    private static void queuedGrowsKeepTheirVoices() {
+        PAGranularSampler sampler = new PAGranularSampler(48000f, 1024, 2);
+        for (int i = 0; i < 2; i++) sampler.play(burst(48000), null, 1f, 0f);
+        assertTrue(sampler.setMaxVoices(4), "first grow queued");
+        for (int i = 0; i < 2; i++) sampler.play(burst(48000), null, 1f, 0f);
+        assertTrue(sampler.setMaxVoices(8), "second grow queued");
+        sampler.render(new float[64], new float[64], 0, 64);
+        assertEquals(8, sampler.getVoices().size(), "the last grow is adopted");
+        assertEquals(4, activeVoices(sampler), "voices started in the first grown array survive the second");
+        for (int i = 0; i < 4; i++) sampler.play(burst(48000), null, 1f, 0f);
+        sampler.render(new float[64], new float[64], 0, 64);
+        assertEquals(8, activeVoices(sampler), "every voice is usable and none is stolen");
+    }
+
+    private static int activeVoices(PAGranularSampler sampler) {
+        int n = 0;
+        for (PAGranularVoice v : sampler.getVoices()) if (v.isActive()) n++;
+        return n;
+    }
+
+    private static PAGranularSampler scheduledPair() {
+        PAGranularSampler s = new PAGranularSampler(48000f, 1024, 4);
+        s.startAtSampleTime(burst(2048), null, 1f, -0.5f, false, 5);
+        s.startAtSampleTime(burst(2048), null, 0.5f, 0.5f, false, 2500);
+        return s;
+    }
+
+    /** A windowed burst long enough to span several blocks. */
+    private static PABurstGranularSource burst(int frames) {
+        float[] buf = new float[frames + 1024];
+        for (int i = 0; i < buf.length; i++) buf[i] = 0.5f + 0.25f * (float) Math.sin(i * 0.02);
+        int grains = Math.max(1, (frames - 512) / 256 + 1);
+        PABurstGranularSource src = new PABurstGranularSource(buf, 0, 512, grains, 256, 256, 1f);
+        src.setGrainWindow(new HannWindow(), 512);
+        return src;
+    }
+
+    private static int firstNonZero(float[] a) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != 0f) return i;
+        }
+        return -1;
+    }
+
+    private static float peak(float[] a, int from, int to) {
+        float p = 0f;
+        for (int i = from; i < to; i++) p = Math.max(p, Math.abs(a[i]));
+        return p;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
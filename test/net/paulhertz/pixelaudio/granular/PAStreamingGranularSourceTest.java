@@ -0,0 +1,160 @@
+package net.paulhertz.pixelaudio.granular;
+
+import java.lang.management.ManagementFactory;
+
+import net.paulhertz.pixelaudio.curves.PAKeyframeControlCurve;
+
+/**
+ * Smoke tests for the streaming granular source.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/PAStreamingGranularSourceTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.PAStreamingGranularSourceTest
+ * </pre>
+ */
+public final class PAStreamingGranularSourceTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        float[] buf = signal(48000);
+        sameSeedSameCloud(buf);
+        densitySetsGrainRate(buf);
+        slotsBoundTheCloud(buf);
+        modulationFollowsCurve(buf);
+        longRunDoesNotAllocate(buf);
+        System.out.println("PAStreamingGranularSourceTest: " + assertions + " assertions passed.");
+    }
+
+    private static void sameSeedSameCloud(float[] buf) {
+        PAStreamingGranularSource a = new PAStreamingGranularSource(buf, 48000f, 64, 11L);
+        PAStreamingGranularSource b = new PAStreamingGranularSource(buf, 48000f, 64, 11L);
+        PAStreamingGranularSource c = new PAStreamingGranularSource(buf, 48000f, 64, 12L);
+        for (PAStreamingGranularSource s : new PAStreamingGranularSource[] { a, b, c }) {
+            s.setPitchJitter(3f);
+            s.seekTo(0);
+        }
+        float[][] ra = render(a, 0, 48000, 256);
+        float[][] rb = render(b, 0, 48000, 256);
+        float[][] rc = render(c, 0, 48000, 256);
+        assertTrue(same(ra[0], rb[0]) && same(ra[1], rb[1]), "same seed renders the same cloud");
+        assertTrue(!same(ra[0], rc[0]), "another seed renders another cloud");
+        float[][] again = render(a, 0, 48000, 512);
+        assertTrue(!same(ra[0], again[0]), "cloud keeps running without a seek");
+        a.seekTo(0);
+        float[][] replay = render(a, 0, 48000, 512);
+        assertTrue(same(ra[0], replay[0]), "seek replays the cloud, independent of block size");
+        assertTrue(peak(ra[0]) > 0.05f && peak(ra[1]) > 0.05f, "both channels carry signal");
+    }
+
+    private static void densitySetsGrainRate(float[] buf) {
+        PAStreamingGranularSource s = new PAStreamingGranularSource(buf, 48000f);
+        s.setDensity(50f);
+        s.seekTo(0);
+        render(s, 0, 96000, 1024);
+        assertEquals(100, (int) s.getGrainsStarted(), "50 grains per second for two seconds");
+        assertTrue(s.getActiveGrainCount() <= 4, "only overlapping grains stay active");
+        s.setDensity(0f);
+        render(s, 96000, 48000, 1024);
+        assertEquals(100, (int) s.getGrainsStarted(), "zero density starts nothing");
+        assertEquals(0, s.getActiveGrainCount(), "cloud drains when density is zero");
+    }
+
+    private static void slotsBoundTheCloud(float[] buf) {
+        PAStreamingGranularSource s = new PAStreamingGranularSource(buf, 48000f, 8, 3L);
+        s.setDensity(2000f);
+        s.seekTo(0);
+        float[][] lr = render(s, 0, 48000, 512);
+        assertTrue(s.getActiveGrainCount() <= 8, "active grains never exceed the slots");
+        assertTrue(s.getGrainsDropped() > 0, "grains beyond the slots are dropped");
+        assertTrue(peak(lr[0]) < 4f, "density compensation keeps the level bounded");
+    }
+
+    private static void modulationFollowsCurve(float[] buf) {
+        PAStreamingGranularSource s = new PAStreamingGranularSource(buf, 48000f);
+        PAKeyframeControlCurve ramp = new PAKeyframeControlCurve(new float[] { 0f, 0.5f, 1f }, new float[] { 0f, 0f, 100f });
+        s.setModulation(PAStreamingGranularSource.Param.DENSITY, ramp, 48000, true);
+        s.seekTo(0);
+        render(s, 0, 24000, 1000);
+        assertEquals(0, (int) s.getGrainsStarted(), "curve holds the cloud silent for half a period");
+        render(s, 24000, 24000, 1000);
+        long firstPeriod = s.getGrainsStarted();
+        assertTrue(firstPeriod > 10 && firstPeriod < 50, "curve ramps density up, got " + firstPeriod);
+        render(s, 48000, 24000, 1000);
+        assertEquals((int) firstPeriod, (int) s.getGrainsStarted(), "looping curve restarts at zero");
+        s.clearModulations();
+        s.setDensity(10f);
+        s.seekTo(0);
+        render(s, 0, 48000, 1000);
+        assertEquals(10, (int) s.getGrainsStarted(), "base value returns once the curve is removed");
+    }
+
+    private static void longRunDoesNotAllocate(float[] buf) {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        PAStreamingGranularSource s = new PAStreamingGranularSource(buf, 48000f);
+        s.setDensity(200f);
+        s.setPitchJitter(2f);
+        s.setModulation(PAStreamingGranularSource.Param.POSITION,
+                new PAKeyframeControlCurve(new float[] { 0f, 1f }, new float[] { 0f, 1f }), 480000, true);
+        float[] l = new float[256];
+        float[] r = new float[256];
+        s.seekTo(0);
+        long pos = 0;
+        for (; pos < 48000 * 10; pos += 256) s.renderBlock(pos, 256, l, r);     // warm up
+        long tid = Thread.currentThread().getId();
+        long before = tmx.getThreadAllocatedBytes(tid);
+        for (long end = pos + 48000L * 600; pos < end; pos += 256) s.renderBlock(pos, 256, l, r);
+        long allocated = tmx.getThreadAllocatedBytes(tid) - before;
+        assertTrue(allocated < 1024, "ten minutes of cloud allocated " + allocated + " bytes");
+        assertTrue(s.getActiveGrainCount() <= s.getMaxGrains(), "grain slots stay fixed");
+    }
+
+    private static float[][] render(PAStreamingGranularSource s, long from, int frames, int block) {
+        float[] l = new float[frames];
+        float[] r = new float[frames];
+        float[] bl = new float[block];
+        float[] br = new float[block];
+        for (int done = 0; done < frames; done += block) {
+            int n = Math.min(block, frames - done);
+            java.util.Arrays.fill(bl, 0f);
+            java.util.Arrays.fill(br, 0f);
+            s.renderBlock(from + done, n, bl, br);
+            System.arraycopy(bl, 0, l, done, n);
+            System.arraycopy(br, 0, r, done, n);
+        }
+        return new float[][] { l, r };
+    }
+
+    private static float[] signal(int n) {
+        float[] b = new float[n];
+        for (int i = 0; i < n; i++) b[i] = 0.5f * (float) Math.sin(i * 0.031) + 0.25f * (float) Math.sin(i * 0.0071);
+        return b;
+    }
+
+    private static boolean same(float[] a, float[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.abs(a[i] - b[i]) > 1e-6f) return false;
+        }
+        return true;
+    }
+
+    private static float peak(float[] a) {
+        float p = 0f;
+        for (float v : a) p = Math.max(p, Math.abs(v));
+        return p;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
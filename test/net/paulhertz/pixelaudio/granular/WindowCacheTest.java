@@ -0,0 +1,184 @@
+package net.paulhertz.pixelaudio.granular;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import ddf.minim.analysis.GaussWindow;
+import ddf.minim.analysis.HannWindow;
+import net.paulhertz.pixelaudio.schedule.GestureSchedule;
+import processing.core.PVector;
+
+/**
+ * Smoke tests for the bounded window curve cache.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/granular/WindowCacheTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.granular.WindowCacheTest
+ * </pre>
+ */
+public final class WindowCacheTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        parametersAreKeyed();
+        boundsHoldUnderVaryingLengths();
+        quantizedCurvesInterpolate();
+        hitsDoNotAllocate();
+        prewarmedCurvesArePinned();
+        hitsTakeNoLock();
+        pinnedCurvesAreCapped();
+        directorKeepsTheCacheBounded();
+        System.out.println("WindowCacheTest: " + assertions + " assertions passed.");
+    }
+
+    private static void parametersAreKeyed() {
+        WindowCache cache = new WindowCache(16, 1 << 20);
+        float[] narrow = cache.getWindowCurve(new GaussWindow(0.2), 256);
+        float[] wide = cache.getWindowCurve(new GaussWindow(0.5), 256);
+        assertTrue(narrow != wide && narrow[32] != wide[32], "Gauss alphas get separate curves");
+        assertTrue(cache.getWindowCurve(new GaussWindow(0.2), 256) == narrow, "equal parameters share a curve");
+        assertTrue(cache.getWindowCurve(new HannWindow(), 256) != narrow, "classes are keyed");
+        assertEquals(3, cache.size(), "three distinct curves");
+    }
+
+    private static void boundsHoldUnderVaryingLengths() {
+        WindowCache cache = new WindowCache(32, 20000);
+        HannWindow hann = new HannWindow();
+        java.util.Random rnd = new java.util.Random(7);
+        for (int i = 0; i < 5000; i++) cache.getWindowCurve(hann, 64 + rnd.nextInt(2000));
+        assertTrue(cache.size() <= 32, "entry cap holds");
+        assertTrue(cache.getStoredSamples() <= 20000, "sample cap holds, " + cache.getStoredSamples());
+        assertTrue(cache.getEvictionCount() > 0, "old curves were evicted");
+        float[] recent = cache.getWindowCurve(hann, 100);
+        for (int i = 0; i < 10; i++) cache.getWindowCurve(hann, 1000 + i);
+        assertTrue(cache.getWindowCurve(hann, 100) == recent, "recently used curve survives");
+        cache.setCapacity(4, 1 << 20);
+        assertTrue(cache.size() <= 4, "shrinking evicts");
+        assertTrue(cache.getWindowCurve(hann, 100) == recent, "most recent curve kept across resize");
+        cache.clear();
+        assertEquals(0, cache.size(), "clear empties the cache");
+        assertEquals(0, (int) cache.getStoredSamples(), "clear releases samples");
+    }
+
+    private static void quantizedCurvesInterpolate() {
+        WindowCache cache = new WindowCache(64, 1 << 20);
+        cache.setLengthQuantization(12);
+        HannWindow hann = new HannWindow();
+        for (int len = 500; len < 1000; len++) cache.getWindowCurve(hann, len);
+        assertTrue(cache.size() <= 13, "one octave of lengths fills at most 13 buckets, got " + cache.size());
+        assertEquals(40, cache.quantizeLength(40), "short lengths stay exact");
+        float[] exact = hann.generateCurve(777);
+        float[] bucket = cache.getWindowCurve(hann, 777);
+        float worst = 0f;
+        for (int i = 0; i < 777; i++) {
+            worst = Math.max(worst, Math.abs(exact[i] - WindowCache.readInterpolated(bucket, i, 777)));
+        }
+        assertTrue(worst < 0.02f, "stretched bucket curve tracks the exact window, worst " + worst);
+        assertTrue(WindowCache.readInterpolated(exact, 300, 777) == exact[300], "exact curves read directly");
+    }
+
+    private static void hitsDoNotAllocate() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        WindowCache cache = new WindowCache(16, 1 << 20);
+        HannWindow hann = new HannWindow();
+        GaussWindow gauss = new GaussWindow(0.3);
+        for (int i = 0; i < 1000; i++) {
+            cache.getWindowCurve(hann, 512);
+            cache.getWindowCurve(gauss, 512);
+        }
+        long tid = Thread.currentThread().getId();
+        long before = tmx.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < 10000; i++) {
+            cache.getWindowCurve(hann, 512);
+            cache.getWindowCurve(gauss, 512);
+        }
+        long allocated = tmx.getThreadAllocatedBytes(tid) - before;
+        assertTrue(allocated < 1024, "cache hits allocated " + allocated + " bytes");
+    }
+
+    private static void prewarmedCurvesArePinned() {
+        WindowCache cache = new WindowCache(8, 1 << 20);
+        HannWindow hann = new HannWindow();
+        float[] pinned = cache.prewarm(hann, 333);
+        for (int len = 1000; len < 1100; len++) cache.getWindowCurve(hann, len);
+        assertTrue(cache.getEvictionCount() > 0, "unpinned curves were evicted");
+        assertEquals(9, cache.size(), "bound of 8 plus the pinned curve");
+        assertTrue(cache.getWindowCurve(hann, 333) == pinned, "pinned curve survives eviction");
+        cache.unpinAll();
+        assertEquals(8, cache.size(), "unpinning brings the cache back within its bound");
+        for (int len = 2000; len < 2010; len++) cache.getWindowCurve(hann, len);
+        assertTrue(cache.getWindowCurve(hann, 333) != pinned, "unpinned curve is evicted again");
+    }
+
+    /** A hit completes while another thread holds the cache's lock. */
+    private static void hitsTakeNoLock() throws InterruptedException {
+        WindowCache cache = new WindowCache(16, 1 << 20);
+        HannWindow hann = new HannWindow();
+        float[] warm = cache.prewarm(hann, 512);
+        float[][] got = new float[1][];
+        Thread reader = new Thread(() -> got[0] = cache.getWindowCurve(hann, 512));
+        synchronized (cache) {
+            reader.start();
+            reader.join(2000);
+        }
+        assertTrue(got[0] == warm, "hit returned without waiting for the lock");
+    }
+
+    private static void pinnedCurvesAreCapped() {
+        WindowCache cache = new WindowCache(8, 1 << 20);
+        cache.setMaxPinned(4);
+        HannWindow hann = new HannWindow();
+        float[] first = cache.prewarm(hann, 100);
+        for (int len = 200; len < 1200; len++) cache.prewarm(hann, len);
+        assertEquals(4, cache.getPinnedCount(), "pin limit holds");
+        assertTrue(cache.size() <= 8 + 4, "unpinned curves stay within their bound, " + cache.size());
+        assertTrue(cache.getWindowCurve(hann, 1199) == cache.prewarm(hann, 1199), "latest pin is kept");
+        assertTrue(cache.getWindowCurve(hann, 100) != first, "oldest pin was released and evicted");
+        cache.setMaxPinned(1);
+        assertEquals(1, cache.getPinnedCount(), "lowering the limit unpins at once");
+    }
+
+    /** Gestures with ever-changing grain lengths must not grow the shared cache. */
+    private static void directorKeepsTheCacheBounded() {
+        WindowCache cache = WindowCache.INSTANCE;
+        cache.clear();
+        cache.setCapacity(32, 1 << 20);
+        try {
+            PAGranularInstrumentDirector director = new PAGranularInstrumentDirector(
+                    new PAGranularInstrument(new PAGranularSampler(48000f, 1024, 8), null));
+            float[] buf = new float[48000];
+            List<PVector> pts = new ArrayList<>();
+            pts.add(new PVector(0, 0));
+            pts.add(new PVector(1, 1));
+            GestureSchedule g = new GestureSchedule(pts, new float[] { 0f, 10f });
+            for (int len = 300; len < 1300; len++) {
+                GestureGranularParams params = GestureGranularParams.builder()
+                        .grainLengthSamples(len).hopLengthSamples(len / 2).build();
+                director.playGestureAtSampleTime(buf, g, params, new int[] { 0, 100 }, 0L);
+                director.clearScheduled();
+            }
+            assertEquals(0, cache.getPinnedCount(), "the director pins nothing");
+            assertTrue(cache.size() <= 32, "1000 grain lengths stay within the bound, " + cache.size());
+        }
+        finally {
+            cache.setCapacity(WindowCache.DEFAULT_MAX_ENTRIES, WindowCache.DEFAULT_MAX_SAMPLES);
+            cache.clear();
+        }
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
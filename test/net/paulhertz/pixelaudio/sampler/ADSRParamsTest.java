@@ -17,6 +17,9 @@ public final class ADSRParamsTest {
         copyPreservesCurves();
         durationScalingPreservesCurves();
         simpleAdsrUsesConfiguredCurves();
+        curvedStageMatchesClosedForm();
+        longGentleStageKeepsPrecision();
+        applyToResetsEnvelopeInPlace();
         System.out.println("ADSRParamsTest: " + assertions + " assertions passed.");
     }
 
@@ -67,6 +70,46 @@ public final class ADSRParamsTest {
         assertTrue(curvedSecondTick < linearSecondTick, "curved attack starts more slowly");
     }
 
+    private static void curvedStageMatchesClosedForm() {
+        float curve = 4f;
+        int n = 1000;
+        SimpleADSR env = new ADSRParams(1f, 1f, 0.5f, 1f, 1f, curve, curve, curve).toSimpleADSR(n);
+        env.noteOn();
+        float maxErr = 0f;
+        for (int k = 0; k < n; k++) {
+            float expected = (float) ((Math.pow(curve, (double) k / n) - 1.0) / (curve - 1.0));
+            maxErr = Math.max(maxErr, Math.abs(expected - env.tick()));
+        }
+        assertTrue(maxErr < 1e-5f, "attack recurrence tracks c^t, max error " + maxErr);
+    }
+
+    /** Ten seconds at 48 kHz with a curve near 1: offset and scale are large and nearly cancel. */
+    private static void longGentleStageKeepsPrecision() {
+        float curve = 1.001f;
+        int n = 480000;
+        SimpleADSR env = new ADSRParams(1f, 1f, 0.5f, 1f, 1f, curve, curve, curve).toSimpleADSR(n);
+        env.noteOn();
+        double maxErr = 0.0;
+        for (int k = 0; k < n; k++) {
+            double expected = (Math.pow(curve, (double) k / n) - 1.0) / (curve - 1.0);
+            maxErr = Math.max(maxErr, Math.abs(expected - env.tick()));
+        }
+        assertTrue(maxErr < 1e-6, "long gentle attack tracks c^t, max error " + maxErr);
+    }
+
+    private static void applyToResetsEnvelopeInPlace() {
+        SimpleADSR env = new SimpleADSR(0f, 0f, 1f, 0f);
+        ADSRParams params = new ADSRParams(1f, 1f, 0f, 1f, 0f, 1f, 1f, 1f);
+        params.applyTo(env, 4f).noteOn();
+        env.tick();
+        env.tick();
+        assertTrue(params.applyTo(env, 4f) == env, "applyTo returns the same envelope");
+        assertTrue(env.isFinished(), "applyTo leaves the envelope idle");
+        env.noteOn();
+        env.tick();
+        assertClose(0.25f, env.tick(), "reused envelope restarts its attack");
+    }
+
     private static void assertClose(float expected, float actual, String message) {
         assertions++;
         if (Math.abs(expected - actual) > 1e-6f) {
@@ -0,0 +1,117 @@
+package net.paulhertz.pixelaudio.sampler;
+
+import net.paulhertz.pixelaudio.schedule.AudioUtility;
+
+/**
+ * Smoke tests for soft limiter curves and denormal flushing.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/sampler/ClipModeTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.sampler.ClipModeTest
+ * </pre>
+ */
+public final class ClipModeTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        tableMatchesSoftsign();
+        cubicIsBoundedAndMonotonic();
+        samplerOutputIsSoftsign();
+        denormalsAreFlushed();
+        releaseTailStaysNormal();
+        System.out.println("ClipModeTest: " + assertions + " assertions passed.");
+    }
+
+    private static void tableMatchesSoftsign() {
+        float worst = 0f;
+        for (float x = -12f; x <= 12f; x += 0.0013f) {
+            float exact = ClipMode.SOFTSIGN.apply(x, 1.6f);
+            worst = Math.max(worst, Math.abs(exact - ClipMode.TABLE.apply(x, 1.6f)));
+        }
+        assertTrue(worst < 1e-5f, "table within 1e-5 of softsign, worst " + worst);
+        assertClose(0f, ClipMode.TABLE.apply(0f, 1.6f), "table passes silence");
+        assertClose(-ClipMode.TABLE.apply(0.3f, 1.6f), ClipMode.TABLE.apply(-0.3f, 1.6f), "table is odd");
+    }
+
+    private static void cubicIsBoundedAndMonotonic() {
+        float prev = -2f;
+        for (float x = -3f; x <= 3f; x += 0.01f) {
+            float y = ClipMode.CUBIC.apply(x, 1f);
+            if (y < prev || Math.abs(y) > 1f) throw new AssertionError("cubic misbehaves at " + x);
+            prev = y;
+        }
+        assertions++;
+        assertClose(1f, ClipMode.CUBIC.apply(1.5f, 1f), "cubic reaches full scale at 1.5");
+        assertClose(0.05f, ClipMode.CUBIC.apply(0.05f, 1f), "cubic is nearly linear for small input");
+    }
+
+    /**
+     * Drives a sampler's real mix path with one steady voice. A quiet render recovers the
+     * linear pre-limiter level, and a loud render must equal softsign of that level scaled up.
+     */
+    private static void samplerOutputIsSoftsign() {
+        final float quiet = 0.01f;
+        final float loud = 4f;
+        float drive = PASharedBufferSampler.MixProfile.BALANCED.drive;
+        float yq = steadyOutput(ClipMode.SOFTSIGN, quiet);
+        float linear = yq / (1f - Math.abs(yq)) / drive;
+        assertClose(ClipMode.SOFTSIGN.apply(linear * loud / quiet, drive), steadyOutput(ClipMode.SOFTSIGN, loud),
+                "sampler output follows the softsign curve");
+        assertTrue(steadyOutput(ClipMode.CUBIC, loud) == 1f, "clip mode reaches the sampler output");
+    }
+
+    private static float steadyOutput(ClipMode mode, float gain) {
+        float[] data = new float[48000];
+        java.util.Arrays.fill(data, 0.5f);
+        PASharedBufferSampler s = new PASharedBufferSampler(PASampleBuffer.wrap(data, 48000f), null, 2);
+        s.setClipMode(mode);
+        s.setMasterGain(gain);
+        s.play(0, data.length, 1f, null, 1f, 0f);
+        float[] frame = new float[2];
+        for (int i = 0; i < 4000; i++) s.tick(frame);
+        return frame[0];
+    }
+
+    private static void denormalsAreFlushed() {
+        assertTrue(AudioUtility.flushDenormal(Float.MIN_VALUE) == 0f, "subnormal flushed");
+        assertTrue(AudioUtility.flushDenormal(-1e-20f) == 0f, "tiny negative flushed");
+        assertTrue(AudioUtility.flushDenormal(1e-6f) == 1e-6f, "audible value kept");
+        float[] curve = { 0f, 1e-39f, 0.5f, -1e-40f };
+        AudioUtility.flushDenormals(curve);
+        assertTrue(curve[1] == 0f && curve[3] == 0f && curve[2] == 0.5f, "curve flushed in place");
+    }
+
+    private static void releaseTailStaysNormal() {
+        SimpleADSR env = new SimpleADSR(0.001f, 0.001f, 1e-30f, 2f, 0.1f, 0.1f, 0.1f);
+        env.setSampleRate(48000f);
+        env.noteOn();
+        int subnormals = 0;
+        for (int i = 0; i < 2000; i++) env.tick();
+        env.noteOff();
+        while (!env.isFinished()) {
+            float v = env.tick();
+            if (v != 0f && Math.abs(v) < Float.MIN_NORMAL) subnormals++;
+        }
+        assertEquals(0, subnormals, "release tail never produces a subnormal value");
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertClose(float expected, float actual, String label) {
+        assertions++;
+        if (Math.abs(expected - actual) > 1e-4f) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
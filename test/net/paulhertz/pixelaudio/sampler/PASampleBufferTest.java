@@ -0,0 +1,192 @@
+package net.paulhertz.pixelaudio.sampler;
+
+/**
+ * Smoke tests for copy-on-write buffer swaps and read-time micro-fades.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/sampler/PASampleBufferTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.sampler.PASampleBufferTest
+ * </pre>
+ */
+public final class PASampleBufferTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        microFadeLeavesBufferUntouched();
+        voiceHoldsBufferUntilFinished();
+        releaseNeverGoesNegative();
+        swapKeepsSoundingVoices();
+        refusedSwapKeepsOldBuffer();
+        removedChannelReturnsItsVoices();
+        queuedGrowsKeepTheirVoices();
+        System.out.println("PASampleBufferTest: " + assertions + " assertions passed.");
+    }
+
+    private static void microFadeLeavesBufferUntouched() {
+        float[] data = constant(256, 1f);
+        PASamplerVoice voice = new PASamplerVoice(data, 48000f);
+        voice.setMicroFadeIn(true);
+        for (int note = 0; note < 3; note++) {
+            voice.activate(0, 256, 1f, null, 1f, 0f, false);
+            assertClose(0f, voice.nextSample(), "fade starts from silence, note " + note);
+            float prev = 0f;
+            for (int i = 1; i < PASamplerVoice.MICRO_FADE_SAMPLES; i++) {
+                float s = voice.nextSample();
+                assertTrue(s >= prev, "fade rises monotonically, note " + note);
+                prev = s;
+            }
+            assertClose(1f, voice.nextSample(), "full level after the fade, note " + note);
+        }
+        for (float f : data) {
+            if (f != 1f) throw new AssertionError("micro-fade wrote into the source buffer");
+        }
+        assertions++;
+    }
+
+    private static void voiceHoldsBufferUntilFinished() {
+        PASampleBuffer sb = PASampleBuffer.wrap(constant(32, 0.5f), 48000f);
+        PASamplerVoice voice = new PASamplerVoice(null, 48000f);
+        voice.setSource(sb, 48000f);
+        assertEquals(0, sb.refCount(), "binding alone does not retain");
+        voice.activate(0, 8, 1f, null, 1f, 0f, false);
+        assertEquals(1, sb.refCount(), "sounding voice retains its buffer");
+        for (int i = 0; i < 16 && !voice.isFinished(); i++) voice.nextSample();
+        assertTrue(voice.isFinished(), "voice finishes");
+        assertEquals(0, sb.refCount(), "finished voice releases its buffer");
+        voice.activate(0, 8, 1f, null, 1f, 0f, false);
+        voice.stop();
+        assertEquals(0, sb.refCount(), "stopped voice releases its buffer");
+    }
+
+    private static void releaseNeverGoesNegative() {
+        PASampleBuffer sb = PASampleBuffer.copyOf(new float[] { 1f, 2f }, 44100f);
+        sb.retain();
+        assertEquals(0, sb.release(), "release to zero");
+        assertEquals(0, sb.release(), "extra release is ignored");
+        assertTrue(!sb.isInUse(), "not in use");
+    }
+
+    private static void swapKeepsSoundingVoices() {
+        PASampleBuffer oldBuf = PASampleBuffer.wrap(constant(4096, 0.25f), 48000f);
+        PASampleBuffer newBuf = PASampleBuffer.wrap(constant(4096, -0.25f), 48000f);
+        PASamplerMixer mixer = new PASamplerMixer(null, 4);
+        PASamplerMixer.Channel ch = mixer.createChannel(oldBuf, 4);
+        float[] out = new float[2];
+        ch.play(0, 2048, 1f, null, 1f, 0f);
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE * 2; i++) mixer.tick(out);
+        assertTrue(out[0] > 0f, "first note plays the old buffer");
+        assertEquals(2, oldBuf.refCount(), "channel and sounding voice hold the old buffer");
+
+        ch.setBuffer(newBuf);
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE * 2; i++) mixer.tick(out);
+        assertEquals(1, ch.activeVoiceCount(), "swap does not stop the sounding voice");
+        assertTrue(out[0] > 0f, "sounding voice still reads the old buffer");
+        assertEquals(1, oldBuf.refCount(), "channel released the old buffer");
+        assertEquals(1, newBuf.refCount(), "channel holds the new buffer");
+
+        ch.play(0, 2048, 1f, null, 1f, 1f);
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE * 2; i++) mixer.tick(out);
+        assertTrue(out[1] < 0f, "new note plays the new buffer");
+        assertEquals(2, newBuf.refCount(), "new voice holds the new buffer");
+        for (int i = 0; i < 8192; i++) mixer.tick(out);
+        assertEquals(0, oldBuf.refCount(), "old buffer is free once its voice finishes");
+        assertEquals(1, newBuf.refCount(), "only the channel holds the new buffer");
+    }
+
+    /** With the command ring full and no audio thread draining it, a swap is refused outright. */
+    private static void refusedSwapKeepsOldBuffer() {
+        PASampleBuffer oldBuf = PASampleBuffer.wrap(constant(4096, 0.25f), 48000f);
+        PASampleBuffer newBuf = PASampleBuffer.wrap(constant(1024, -0.25f), 24000f);
+        PASharedBufferSampler sampler = new PASharedBufferSampler(oldBuf, null, 4);
+        for (int i = 0; i < 100000 && sampler.play(0, 512, 1f, null, 1f, 0f) > 0; i++) { }
+        assertTrue(!sampler.trySetBuffer(newBuf), "sampler reports the refused swap");
+        assertTrue(sampler.getSampleBuffer() == oldBuf, "sampler keeps its buffer");
+
+        PASamplerMixer mixer = new PASamplerMixer(null, 4);
+        PASamplerMixer.Channel ch = mixer.createChannel(oldBuf, 4);
+        for (int i = 0; i < 100000 && ch.play(0, 512, 1f, null, 1f, 0f) > 0; i++) { }
+        assertTrue(!ch.trySetBuffer(newBuf), "channel reports the refused swap");
+        assertTrue(ch.getSampleBuffer() == oldBuf, "channel keeps its buffer");
+        float[] out = new float[2];
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE; i++) mixer.tick(out);
+        assertTrue(ch.trySetBuffer(newBuf) && ch.getSampleBuffer() == newBuf, "swap succeeds once the ring drains");
+    }
+
+    /** Removing a channel frees its voices, its buffer and its share of the voice budget. */
+    private static void removedChannelReturnsItsVoices() {
+        PASampleBuffer buf = PASampleBuffer.wrap(constant(4096, 0.25f), 48000f);
+        PASamplerMixer mixer = new PASamplerMixer(null, 4);
+        PASamplerMixer.Channel a = mixer.createChannel(buf, 4);
+        float[] out = new float[2];
+        for (int i = 0; i < 4; i++) a.play(0, 4096, 1f, null, 1f, 0f);
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE; i++) mixer.tick(out);
+        assertEquals(4, a.activeVoiceCount(), "channel fills its voices");
+
+        assertTrue(mixer.removeChannel(a), "channel is removed");
+        assertTrue(!mixer.removeChannel(a), "a second removal is refused");
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE; i++) mixer.tick(out);
+        assertEquals(0, a.activeVoiceCount(), "removal stops the channel's voices");
+        assertEquals(0, buf.refCount(), "removal releases the channel's buffer");
+        assertEquals(0, a.play(0, 512, 1f, null, 1f, 0f), "a removed channel does not play");
+        assertTrue(!a.trySetBuffer(buf), "a removed channel takes no buffer");
+
+        PASamplerMixer.Channel b = mixer.createChannel(buf, 4);
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE; i++) mixer.tick(out);
+        assertEquals(4, mixer.getVoices().size(), "the freed budget is reused, not grown");
+
+        assertTrue(b.setMaxVoices(6), "limit raised");
+        assertEquals(6, b.getMaxVoices(), "new limit reported");
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE; i++) mixer.tick(out);
+        assertEquals(6, mixer.getVoices().size(), "a raised limit grows the voice array");
+        assertTrue(b.setMaxVoices(2), "limit lowered");
+        for (int i = 0; i < 4; i++) b.play(0, 4096, 1f, null, 1f, 0f);
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE; i++) mixer.tick(out);
+        assertEquals(2, b.activeVoiceCount(), "a lowered limit steals down to it");
+    }
+
+    /** Two grows drained in one block keep the voices started between them. */
+    private static void queuedGrowsKeepTheirVoices() {
+        PASharedBufferSampler sampler = new PASharedBufferSampler(PASampleBuffer.wrap(constant(48000, 0.5f), 48000f), null, 2);
+        float[] out = new float[2];
+        for (int i = 0; i < 2; i++) sampler.play(0, 40000, 1f, null, 1f, 0f);
+        assertTrue(sampler.setMaxVoices(4), "first grow queued");
+        for (int i = 0; i < 2; i++) sampler.play(0, 40000, 1f, null, 1f, 0f);
+        assertTrue(sampler.setMaxVoices(8), "second grow queued");
+        for (int i = 0; i < PASharedBufferSampler.CONTROL_BLOCK_SIZE; i++) sampler.tick(out);
+        assertEquals(8, sampler.getVoices().size(), "the last grow is adopted");
+        int active = 0;
+        for (PASamplerVoice v : sampler.getVoices()) if (v.isActive()) active++;
+        assertEquals(4, active, "voices started in the first grown array survive the second");
+        for (int i = 0; i < 4; i++) sampler.play(0, 40000, 1f, null, 1f, 0f);
+        for (int i = 0; i < PASharedBufferSampler.CONTROL_BLOCK_SIZE; i++) sampler.tick(out);
+        active = 0;
+        for (PASamplerVoice v : sampler.getVoices()) if (v.isActive()) active++;
+        assertEquals(8, active, "every voice is usable and none is stolen");
+    }
+
+    private static float[] constant(int n, float value) {
+        float[] buf = new float[n];
+        java.util.Arrays.fill(buf, value);
+        return buf;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertClose(float expected, float actual, String label) {
+        assertions++;
+        if (Math.abs(expected - actual) > 1e-4f) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
@@ -0,0 +1,138 @@
+package net.paulhertz.pixelaudio.sampler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.paulhertz.pixelaudio.schedule.GestureSchedule;
+import net.paulhertz.pixelaudio.schedule.PATransport;
+import processing.core.PVector;
+
+/**
+ * Smoke tests for the pool's millisecond, frame and gesture scheduling, driven by a fake
+ * millisecond source and a transport advanced by hand, as an output callback would.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/sampler/PASamplerInstrumentPoolTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.sampler.PASamplerInstrumentPoolTest
+ * </pre>
+ */
+public final class PASamplerInstrumentPoolTest {
+    private static final float RATE = 48000f;
+    private static final int BUFFER = 1024;
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        playAtMillisLandsOnItsSample();
+        playAtFrameCountsTransportBuffers();
+        gestureKeepsItsSpacingOnASharedTransport();
+        transportReachesEveryInstrument();
+        System.out.println("PASamplerInstrumentPoolTest: " + assertions + " assertions passed.");
+    }
+
+    /** Millisecond times are measured from the millis source's now, on the transport. */
+    private static void playAtMillisLandsOnItsSample() {
+        PASamplerInstrumentPool pool = pool(true);
+        long[] ms = { 5000L };
+        pool.setMillisSource(() -> ms[0]);
+        assertEquals(480, (int) pool.millisToSampleTime(5010L), "10 ms ahead of the transport");
+        pool.schedulePlayAtMillis(5010L, 0, 480, 1f, null, 1f, 0f);
+        List<Integer> onsets = onsets(pool, pool.getTransport(), 2);
+        assertEquals(1, onsets.size(), "one note");
+        assertEquals(480, onsets.get(0), "note starts 10 ms in");
+    }
+
+    /** Frame indices count the output buffers the pool's transport has seen. */
+    private static void playAtFrameCountsTransportBuffers() {
+        PASamplerInstrumentPool pool = pool(true);
+        assertEquals(0, (int) pool.getFrameIndex(), "no buffer delivered yet");
+        render(pool, pool.getTransport(), 2);
+        assertEquals(2, (int) pool.getFrameIndex(), "two buffers delivered");
+        assertEquals(4 * BUFFER, (int) pool.frameToSampleTime(4), "frame 4 starts four buffers in");
+        pool.schedulePlayAtFrame(4, 0, 480, 1f, null, 1f, 0f);
+        List<Integer> onsets = onsets(pool, pool.getTransport(), 4);
+        assertEquals(1, onsets.size(), "one note");
+        assertEquals(4 * BUFFER, 2 * BUFFER + onsets.get(0), "note starts on frame 4");
+    }
+
+    /** Gesture points start on their own samples, in the time of a transport far ahead of the mixer. */
+    private static void gestureKeepsItsSpacingOnASharedTransport() {
+        PASamplerInstrumentPool pool = pool(true);
+        PATransport shared = new PATransport(RATE);
+        for (int b = 0; b < 100; b++) shared.advance(BUFFER);
+        pool.setTransport(shared);
+        assertTrue(pool.getTransport() == shared && pool.getMixer().getTransport() == shared, "mixer follows the shared transport");
+        render(pool, shared, 1);
+        assertEquals(101 * BUFFER, (int) pool.getCurrentSampleTime(), "pool reports transport time");
+        List<PVector> pts = new ArrayList<>();
+        for (int i = 0; i < 3; i++) pts.add(new PVector(i, 0));
+        GestureSchedule g = new GestureSchedule(pts, new float[] { 0f, 10f, 25f });
+        int n = pool.scheduleGesture(g, new int[] { 0, 100, 200 }, shared.getCurrentSampleTime() + 240,
+                120, 1f, null, 1f, 0f);
+        assertEquals(3, n, "every point scheduled");
+        List<Integer> onsets = onsets(pool, shared, 4);
+        assertEquals(3, onsets.size(), "three notes");
+        assertEquals(240, onsets.get(0), "first point at the gesture start");
+        assertEquals(240 + 480, onsets.get(1), "second point 10 ms later");
+        assertEquals(240 + 1200, onsets.get(2), "third point 25 ms later");
+    }
+
+    /** Without a shared mixer, each instrument's sampler is subscribed. */
+    private static void transportReachesEveryInstrument() {
+        PASamplerInstrumentPool pool = pool(false);
+        PATransport own = pool.getTransport();
+        for (PASamplerInstrument inst : pool.getInstruments()) {
+            assertTrue(inst.getTransport() == own, "instrument follows the pool's own transport");
+        }
+        PATransport shared = new PATransport(RATE);
+        pool.setTransport(shared);
+        pool.setPoolSize(4);
+        for (PASamplerInstrument inst : pool.getInstruments()) {
+            assertTrue(inst.getTransport() == shared, "instrument follows the shared transport");
+        }
+        pool.setTransport(null);
+        assertTrue(pool.getTransport() != shared && pool.getTransport() != null, "null restores an own transport");
+    }
+
+    private static PASamplerInstrumentPool pool(boolean sharedMixer) {
+        float[] data = new float[48000];
+        java.util.Arrays.fill(data, 0.5f);
+        return new PASamplerInstrumentPool(PASampleBuffer.wrap(data, RATE), 2, 4, null,
+                new ADSRParams(1f, 0.0001f, 0.001f, 1f, 0.0001f), sharedMixer);
+    }
+
+    /** Renders whole buffers, advancing the transport after each like an output callback. */
+    private static void render(PASamplerInstrumentPool pool, PATransport transport, int buffers) {
+        onsets(pool, transport, buffers);
+    }
+
+    /**
+     * Renders whole buffers and returns the offsets at which notes start. A note's first
+     * sample is the silent start of its attack, so the level rises one sample later.
+     */
+    private static List<Integer> onsets(PASamplerInstrumentPool pool, PATransport transport, int buffers) {
+        List<Integer> onsets = new ArrayList<>();
+        float[] out = new float[2];
+        boolean sounding = false;
+        for (int i = 0; i < buffers * BUFFER; i++) {
+            pool.getMixer().tick(out);
+            boolean now = Math.abs(out[0]) > 1e-6f;
+            if (now && !sounding) onsets.add(i - 1);
+            sounding = now;
+            if ((i + 1) % BUFFER == 0) transport.advance(BUFFER);
+        }
+        return onsets;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
@@ -0,0 +1,73 @@
+package net.paulhertz.pixelaudio.sampler;
+
+import net.paulhertz.pixelaudio.schedule.PolyphaseSincTable;
+
+/**
+ * Smoke tests for PASamplerVoice read kernels.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/sampler/PASamplerVoiceInterpolationTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.sampler.PASamplerVoiceInterpolationTest
+ * </pre>
+ */
+public final class PASamplerVoiceInterpolationTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        linearAndHermiteReproduceRamp();
+        sincIsExactAtIntegerPositions();
+        sincTableBankFollowsRate();
+        System.out.println("PASamplerVoiceInterpolationTest: " + assertions + " assertions passed.");
+    }
+
+    private static void linearAndHermiteReproduceRamp() {
+        float[] ramp = new float[32];
+        for (int i = 0; i < ramp.length; i++) ramp[i] = i;
+        for (SampleInterpolation mode : new SampleInterpolation[] { SampleInterpolation.LINEAR, SampleInterpolation.HERMITE }) {
+            PASamplerVoice voice = new PASamplerVoice(ramp, 48000f);
+            voice.setInterpolation(mode);
+            voice.activate(4, 16, 1f, null, 0.5f, 0f, false);
+            assertClose(4f, voice.nextSample(), mode + " first sample");
+            assertClose(4.5f, voice.nextSample(), mode + " half-sample position");
+            assertClose(5f, voice.nextSample(), mode + " next integer position");
+        }
+        PASamplerVoice truncating = new PASamplerVoice(ramp, 48000f);
+        truncating.activate(4, 16, 1f, null, 0.5f, 0f, false);
+        truncating.nextSample();
+        assertClose(4f, truncating.nextSample(), "TRUNCATE holds the previous sample");
+    }
+
+    private static void sincIsExactAtIntegerPositions() {
+        float[] noise = new float[64];
+        java.util.Random rnd = new java.util.Random(7);
+        for (int i = 0; i < noise.length; i++) noise[i] = rnd.nextFloat() * 2f - 1f;
+        PASamplerVoice voice = new PASamplerVoice(noise, 48000f);
+        voice.setInterpolation(SampleInterpolation.SINC);
+        voice.activate(20, 8, 1f, null, 1f, 0f, false);
+        for (int i = 0; i < 4; i++) {
+            assertClose(noise[20 + i], voice.nextSample(), "sinc read at integer index " + (20 + i));
+        }
+    }
+
+    private static void sincTableBankFollowsRate() {
+        assertClose(1f, (float) PolyphaseSincTable.forRate(0.5).cutoff(), "downward pitch uses full band");
+        assertTrue(PolyphaseSincTable.forRate(2.0).cutoff() <= 0.5 + 1e-6, "octave up halves the cutoff");
+        assertTrue(PolyphaseSincTable.forRate(1.2).cutoff() <= 1.0 / 1.2, "cutoff stays at or below 1/rate");
+        float[] dc = new float[32];
+        java.util.Arrays.fill(dc, 1f);
+        assertClose(1f, PolyphaseSincTable.forRate(3.0).interpolate(dc, 16, 0.37f), "unity DC gain");
+    }
+
+    private static void assertTrue(boolean condition, String message) {
+        assertions++;
+        if (!condition) throw new AssertionError(message);
+    }
+
+    private static void assertClose(float expected, float actual, String message) {
+        assertions++;
+        if (Math.abs(expected - actual) > 1e-4f) {
+            throw new AssertionError(message + ": expected " + expected + " but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package net.paulhertz.pixelaudio.sampler;
+
+/**
+ * Smoke tests for cached pan gains and gain/pan ramps in PASamplerVoice.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/sampler/PASamplerVoiceRampTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.sampler.PASamplerVoiceRampTest
+ * </pre>
+ */
+public final class PASamplerVoiceRampTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        activationCachesEqualPowerGains();
+        panChangeRampsToTarget();
+        gainChangeRampsLinearly();
+        playVoiceHandleAddressesOneVoice();
+        System.out.println("PASamplerVoiceRampTest: " + assertions + " assertions passed.");
+    }
+
+    private static void activationCachesEqualPowerGains() {
+        PASamplerVoice voice = new PASamplerVoice(constantBuffer(16), 48000f);
+        voice.activate(0, 16, 1f, null, 1f, 0f, false);
+        float g = (float) Math.sqrt(0.5);
+        assertClose(g, voice.getPanGainLeft(), "center pan left gain");
+        assertClose(g, voice.getPanGainRight(), "center pan right gain");
+
+        voice.activate(0, 16, 1f, null, 1f, -1f, false);
+        assertClose(1f, voice.getPanGainLeft(), "hard left pan left gain");
+        assertClose(0f, voice.getPanGainRight(), "hard left pan right gain");
+    }
+
+    private static void panChangeRampsToTarget() {
+        int n = PASamplerVoice.PARAM_RAMP_SAMPLES;
+        PASamplerVoice voice = new PASamplerVoice(constantBuffer(4 * n), 48000f);
+        voice.activate(0, 4 * n, 1f, null, 1f, -1f, false);
+        voice.setPan(1f);
+        assertClose(1f, voice.getPanGainLeft(), "pan change is not applied instantly");
+        voice.nextSample();
+        assertTrue(voice.getPanGainLeft() < 1f && voice.getPanGainLeft() > 0.9f, "first ramp step is small");
+        for (int i = 1; i < n; i++) voice.nextSample();
+        assertClose(0f, voice.getPanGainLeft(), "left gain reaches target");
+        assertClose(1f, voice.getPanGainRight(), "right gain reaches target");
+    }
+
+    private static void gainChangeRampsLinearly() {
+        int n = PASamplerVoice.PARAM_RAMP_SAMPLES;
+        PASamplerVoice voice = new PASamplerVoice(constantBuffer(4 * n), 48000f);
+        voice.activate(0, 4 * n, 0f, null, 1f, 0f, false);
+        voice.setGain(1f);
+        float prev = 0f;
+        for (int i = 0; i < n; i++) {
+            float s = voice.nextSample();
+            if (s < prev) throw new AssertionError("gain ramp is not monotonic at " + i);
+            prev = s;
+        }
+        assertClose(0.5f, voiceSampleAt(n / 2), "ramp midpoint");
+        assertClose(1f, prev, "gain reaches target at end of ramp");
+    }
+
+    /** Pan set through the handle from playVoice, before the voice starts, moves only that voice. */
+    private static void playVoiceHandleAddressesOneVoice() {
+        float[] data = constantBuffer(48000);
+        PASharedBufferSampler sampler = new PASharedBufferSampler(PASampleBuffer.wrap(data, 48000f), null, 4);
+        long left = sampler.playVoice(0, data.length, 1f, null, 1f, -1f);
+        long other = sampler.playVoice(0, data.length, 1f, null, 1f, -1f);
+        assertTrue(left >= 0 && other >= 0 && left != other, "each play gets its own handle");
+        assertTrue(sampler.setVoicePan(other, 1f), "pan change queued before the voice starts");
+        float[] frame = new float[2];
+        for (int i = 0; i < 4 * PASharedBufferSampler.CONTROL_BLOCK_SIZE; i++) sampler.tick(frame);
+        PASamplerVoice a = null;
+        PASamplerVoice b = null;
+        for (PASamplerVoice v : sampler.getVoices()) {
+            if (v.isActive() && v.getVoiceId() == left) a = v;
+            if (v.isActive() && v.getVoiceId() == other) b = v;
+        }
+        assertTrue(a != null && b != null, "started voices carry the handles");
+        assertClose(1f, a.getPanGainLeft(), "untouched voice stays left");
+        assertClose(1f, b.getPanGainRight(), "addressed voice moved right");
+        assertTrue(sampler.playVoice(0, 0, 1f, null, 1f, 0f) == -1L, "empty region has no handle");
+    }
+
+    private static float voiceSampleAt(int k) {
+        PASamplerVoice voice = new PASamplerVoice(constantBuffer(4 * PASamplerVoice.PARAM_RAMP_SAMPLES), 48000f);
+        voice.activate(0, 4 * PASamplerVoice.PARAM_RAMP_SAMPLES, 0f, null, 1f, 0f, false);
+        voice.setGain(1f);
+        float s = 0f;
+        for (int i = 0; i < k; i++) s = voice.nextSample();
+        return s;
+    }
+
+    private static float[] constantBuffer(int len) {
+        float[] b = new float[len];
+        java.util.Arrays.fill(b, 1f);
+        return b;
+    }
+
+    private static void assertTrue(boolean condition, String message) {
+        assertions++;
+        if (!condition) throw new AssertionError(message);
+    }
+
+    private static void assertClose(float expected, float actual, String message) {
+        assertions++;
+        if (Math.abs(expected - actual) > 1e-5f) {
+            throw new AssertionError(message + ": expected " + expected + " but got " + actual);
+        }
+    }
+}
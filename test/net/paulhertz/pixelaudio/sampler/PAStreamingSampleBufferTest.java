@@ -0,0 +1,161 @@
+package net.paulhertz.pixelaudio.sampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+/**
+ * Smoke tests for disk-streaming sample buffers.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/sampler/PAStreamingSampleBufferTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.sampler.PAStreamingSampleBufferTest
+ * </pre>
+ */
+public final class PAStreamingSampleBufferTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) throws IOException {
+        File wav = File.createTempFile("pa-stream", ".wav");
+        wav.deleteOnExit();
+        int frames = 20000;
+        writeRampWav(wav, frames, 44100, 2);
+        missCountsUnderrunAndLoads(wav, frames);
+        cacheStaysWithinBudget(wav, frames);
+        voicePlaysFromStream(wav);
+        idleReaderParksAndCloseStopsIt(wav);
+        System.out.println("PAStreamingSampleBufferTest: " + assertions + " assertions passed.");
+    }
+
+    private static void missCountsUnderrunAndLoads(File wav, int frames) throws IOException {
+        PAStreamingSampleBuffer.Cache cache = new PAStreamingSampleBuffer.Cache(1024, 8);
+        try (PAStreamingSampleBuffer sb = PAStreamingSampleBuffer.open(wav, cache)) {
+            assertEquals(frames, sb.length(), "length in frames");
+            assertEquals(2, sb.getFileChannels(), "channel count");
+            assertTrue(sb.isStreaming(), "streaming buffer has no array");
+            assertClose(0f, sb.read(5000), "cold read is silent");
+            assertEquals(1, (int) sb.getUnderrunCount(), "cold read counts an underrun");
+            assertTrue(sb.awaitResident(5000, 100, 2000), "chunk becomes resident");
+            assertClose(expected(5000), sb.read(5000), "resident read returns channel 0");
+            assertClose(expected(frames - 1), readWhenResident(sb, frames - 1), "last partial chunk");
+            assertEquals(1, (int) sb.getUnderrunCount(), "resident reads do not count underruns");
+            float[] all = sb.toArray();
+            assertClose(expected(12345), all[12345], "toArray reads the whole file");
+        }
+    }
+
+    private static void cacheStaysWithinBudget(File wav, int frames) throws IOException {
+        PAStreamingSampleBuffer.Cache cache = new PAStreamingSampleBuffer.Cache(1024, 4);
+        try (PAStreamingSampleBuffer a = PAStreamingSampleBuffer.open(wav, cache);
+             PAStreamingSampleBuffer b = PAStreamingSampleBuffer.open(wav, cache)) {
+            for (int pos = 0; pos < frames; pos += 1024) {
+                assertTrue(a.awaitResident(pos, 1, 2000), "stream a chunk at " + pos);
+                assertTrue(b.awaitResident(pos, 1, 2000), "stream b chunk at " + pos);
+            }
+            assertTrue(a.getResidentChunkCount() + b.getResidentChunkCount() <= cache.slotCount(),
+                    "resident chunks never exceed the slot count");
+            assertTrue(a.getChunkCount() > cache.slotCount(), "file is larger than the cache");
+        }
+    }
+
+    private static void voicePlaysFromStream(File wav) throws IOException {
+        PAStreamingSampleBuffer.Cache cache = new PAStreamingSampleBuffer.Cache(1024, 16);
+        try (PAStreamingSampleBuffer sb = PAStreamingSampleBuffer.open(wav, cache)) {
+            assertTrue(sb.awaitResident(2048, 1024, 2000), "preload");
+            PASamplerVoice voice = new PASamplerVoice(null, 44100f);
+            voice.setSource(sb, 44100f);
+            voice.activate(2048, 512, 1f, null, 1f, 0f, false);
+            assertClose(expected(2048), voice.nextSample(), "voice reads the stream");
+            assertClose(expected(2049), voice.nextSample(), "voice advances through the stream");
+            voice.setInterpolation(SampleInterpolation.SINC);
+            voice.activate(2100, 64, 1f, null, 1f, 0f, false);
+            assertClose(expected(2100), voice.nextSample(), "sinc read at an integer position");
+            assertEquals(0, (int) sb.getUnderrunCount(), "no underruns in a preloaded region");
+        }
+    }
+
+    private static void idleReaderParksAndCloseStopsIt(File wav) throws IOException {
+        PAStreamingSampleBuffer.Cache cache = new PAStreamingSampleBuffer.Cache(1024, 8);
+        PAStreamingSampleBuffer sb = PAStreamingSampleBuffer.open(wav, cache);
+        assertTrue(sb.awaitResident(0, 1024, 2000), "preload");
+        Thread reader = cache.getReaderThread();
+        assertTrue(waitForState(reader, Thread.State.WAITING), "idle reader parks without a timeout");
+        sb.read(9000);
+        assertTrue(sb.awaitResident(9000, 1, 2000), "an audio-thread miss wakes the parked reader");
+        cache.close();
+        assertTrue(cache.isClosed() && !reader.isAlive(), "close stops the reader thread");
+        assertTrue(sb.isClosed(), "close closes the streams still open on the cache");
+        assertClose(0f, sb.read(100), "a stream of a closed cache reads silence");
+        assertEquals(0, sb.getResidentChunkCount(), "close releases every slot");
+        boolean refused = false;
+        try {
+            PAStreamingSampleBuffer.open(wav, cache).close();
+        }
+        catch (IOException e) {
+            refused = true;
+        }
+        assertTrue(refused, "a closed cache opens no streams");
+        sb.close();
+    }
+
+    private static boolean waitForState(Thread t, Thread.State state) {
+        for (int i = 0; i < 2000; i++) {
+            if (t.getState() == state) return true;
+            try {
+                Thread.sleep(1);
+            }
+            catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static float readWhenResident(PAStreamingSampleBuffer sb, int index) {
+        if (!sb.awaitResident(index, 1, 2000)) throw new AssertionError("chunk at " + index + " never loaded");
+        return sb.read(index);
+    }
+
+    /** Channel 0 holds a slow ramp, channel 1 holds its negation. */
+    private static float expected(int frame) {
+        short s = (short) ((frame % 2000) * 16 - 16000);
+        return s / 32768f;
+    }
+
+    private static void writeRampWav(File f, int frames, int rate, int channels) throws IOException {
+        int dataBytes = frames * channels * 2;
+        ByteBuffer bb = ByteBuffer.allocate(44 + dataBytes).order(ByteOrder.LITTLE_ENDIAN);
+        bb.put("RIFF".getBytes()).putInt(36 + dataBytes).put("WAVE".getBytes());
+        bb.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) channels)
+          .putInt(rate).putInt(rate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        bb.put("data".getBytes()).putInt(dataBytes);
+        for (int i = 0; i < frames; i++) {
+            short s = (short) ((i % 2000) * 16 - 16000);
+            bb.putShort(s);
+            for (int c = 1; c < channels; c++) bb.putShort((short) -s);
+        }
+        Files.write(f.toPath(), bb.array());
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertClose(float expected, float actual, String label) {
+        assertions++;
+        if (Math.abs(expected - actual) > 1e-4f) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
@@ -0,0 +1,92 @@
+package net.paulhertz.pixelaudio.sampler;
+
+/**
+ * Smoke tests for VoiceAllocator free-list and steal-heap behavior.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/sampler/VoiceAllocatorTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.sampler.VoiceAllocatorTest
+ * </pre>
+ */
+public final class VoiceAllocatorTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        acquireUntilFullThenStealOldest();
+        freedVoicesAreReused();
+        quietestPrefersReleasingVoices();
+        samePitchRetriggersMatchingVoice();
+        limitAndGrowth();
+        System.out.println("VoiceAllocatorTest: " + assertions + " assertions passed.");
+    }
+
+    private static void acquireUntilFullThenStealOldest() {
+        VoiceAllocator a = new VoiceAllocator(4);
+        int[] idx = new int[4];
+        for (int i = 0; i < 4; i++) idx[i] = a.acquire(1f);
+        assertEquals(4, a.allocatedCount(), "all voices allocated");
+        assertEquals(-1, a.acquire(1f), "acquire fails when full");
+        assertEquals(idx[0], a.steal(VoiceAllocator.StealPolicy.OLDEST, 1f), "first steal takes oldest");
+        assertEquals(idx[1], a.steal(VoiceAllocator.StealPolicy.OLDEST, 1f), "stolen voice becomes newest");
+    }
+
+    private static void freedVoicesAreReused() {
+        VoiceAllocator a = new VoiceAllocator(3);
+        int v0 = a.acquire(1f);
+        a.acquire(1f);
+        a.free(v0);
+        a.free(v0);
+        assertEquals(1, a.allocatedCount(), "double free is ignored");
+        assertEquals(v0, a.acquire(1f), "freed voice is handed out again");
+    }
+
+    private static void quietestPrefersReleasingVoices() {
+        VoiceAllocator a = new VoiceAllocator(3);
+        a.acquire(1f);
+        int v1 = a.acquire(1f);
+        int v2 = a.acquire(1f);
+        a.markReleasing(v2);
+        a.markReleasing(v1);
+        assertEquals(v2, a.steal(VoiceAllocator.StealPolicy.QUIETEST, 1f), "earliest release is stolen first");
+        assertTrue(!a.isReleasing(v2), "stolen voice leaves the releasing list");
+    }
+
+    private static void samePitchRetriggersMatchingVoice() {
+        VoiceAllocator a = new VoiceAllocator(3);
+        a.acquire(1f);
+        int v1 = a.acquire(1.5f);
+        a.acquire(2f);
+        assertEquals(v1, a.steal(VoiceAllocator.StealPolicy.SAME_PITCH, 1.5f), "same pitch is stolen");
+        int oldest = a.oldest();
+        assertEquals(oldest, a.steal(VoiceAllocator.StealPolicy.SAME_PITCH, 3f), "unmatched pitch falls back to oldest");
+    }
+
+    private static void limitAndGrowth() {
+        VoiceAllocator a = new VoiceAllocator(4);
+        a.setLimit(2);
+        int v0 = a.acquire(1f);
+        a.acquire(1f);
+        assertEquals(-1, a.acquire(1f), "limit caps allocation");
+        VoiceAllocator grown = new VoiceAllocator(8);
+        grown.copyFrom(a);
+        grown.setLimit(8);
+        assertEquals(2, grown.allocatedCount(), "allocated voices carried over");
+        assertEquals(v0, grown.oldest(), "start order carried over");
+        int got = 0;
+        while (grown.acquire(1f) >= 0) got++;
+        assertEquals(6, got, "remaining capacity is idle");
+    }
+
+    private static void assertTrue(boolean condition, String message) {
+        assertions++;
+        if (!condition) throw new AssertionError(message);
+    }
+
+    private static void assertEquals(int expected, int actual, String message) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(message + ": expected " + expected + " but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package net.paulhertz.pixelaudio.schedule;
+
+/**
+ * Lightweight unit tests for the lock-free AudioCommandQueue.
+ *
+ * Run from the project root with:
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/schedule/AudioCommandQueueTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.schedule.AudioCommandQueueTest
+ */
+public final class AudioCommandQueueTest {
+    private int testsRun = 0;
+    private int testsFailed = 0;
+
+    private static final class Cmd {
+        int producer;
+        int value;
+    }
+
+    public static void main(String[] args) {
+        AudioCommandQueueTest suite = new AudioCommandQueueTest();
+        suite.run();
+    }
+
+    private void run() {
+        runTest("capacity rounds up to a power of two", this::testCapacityRoundsUp);
+        runTest("drain delivers records in publication order", this::testFifoOrder);
+        runTest("full ring refuses claims and recovers after drain", this::testOverflow);
+        runTest("batch claims are all or none", this::testBatchClaim);
+        runTest("concurrent producers lose nothing", this::testConcurrentProducers);
+
+        if (testsFailed > 0) {
+            throw new AssertionError("AudioCommandQueueTest: " + testsFailed + " test groups failed, "
+                    + testsRun + " assertions passed.");
+        }
+        System.out.println("AudioCommandQueueTest: " + testsRun + " assertions passed.");
+    }
+
+    private void runTest(String name, Runnable test) {
+        try {
+            test.run();
+        }
+        catch (Throwable throwable) {
+            testsFailed++;
+            System.err.println("FAIL " + name + ": " + throwable.getMessage());
+        }
+    }
+
+    private void testCapacityRoundsUp() {
+        assertEquals(8, new AudioCommandQueue<>(5, Cmd::new).capacity(), "capacity for 5");
+        assertEquals(2, new AudioCommandQueue<>(0, Cmd::new).capacity(), "minimum capacity");
+    }
+
+    private void testFifoOrder() {
+        AudioCommandQueue<Cmd> q = new AudioCommandQueue<>(16, Cmd::new);
+        for (int i = 0; i < 10; i++) {
+            long t = q.claim();
+            q.slot(t).value = i;
+            q.publish(t);
+        }
+        int[] next = {0};
+        int n = q.drain(c -> {
+            if (c.value != next[0]) throw new AssertionError("out of order: " + c.value);
+            next[0]++;
+        });
+        assertEquals(10, n, "drained count");
+        assertTrue(q.isEmpty(), "empty after drain");
+        assertEquals(0, q.drain(c -> { }), "second drain");
+    }
+
+    private void testOverflow() {
+        AudioCommandQueue<Cmd> q = new AudioCommandQueue<>(4, Cmd::new);
+        for (int i = 0; i < 4; i++) q.publish(q.claim());
+        assertTrue(q.claim() < 0, "claim on full ring");
+        assertEquals(1, (int) q.overflowCount(), "overflow counted");
+        assertEquals(4, q.drain(c -> { }), "drain full ring");
+        long t = q.claim();
+        assertTrue(t >= 0, "claim after drain");
+        q.publish(t);
+        assertEquals(1, q.drain(c -> { }), "drain after wrap");
+    }
+
+    private void testBatchClaim() {
+        AudioCommandQueue<Cmd> q = new AudioCommandQueue<>(8, Cmd::new);
+        q.publish(q.claim());
+        long first = q.claim(6);
+        assertTrue(first == 1, "batch follows the single claim");
+        assertTrue(q.claim(2) < 0, "batch larger than the free space is refused");
+        for (int i = 0; i < 6; i++) q.slot(first + i).value = i;
+        assertEquals(1, q.drain(c -> { }), "unpublished batch is invisible");
+        q.publish(first, 6);
+        assertEquals(6, q.drain(c -> { }), "published batch drains whole");
+        assertEquals(7, (int) q.highWaterMark(), "high-water mark");
+        assertTrue(q.claim(8) >= 0, "batch of full capacity after drain");
+    }
+
+    private void testConcurrentProducers() {
+        final int producers = 4;
+        final int perProducer = 20000;
+        final AudioCommandQueue<Cmd> q = new AudioCommandQueue<>(256, Cmd::new);
+        final long[] sums = new long[producers];
+        final int[] counts = new int[producers];
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 1; i <= perProducer; i++) {
+                    long t;
+                    while ((t = q.claim()) < 0) Thread.onSpinWait();
+                    Cmd c = q.slot(t);
+                    c.producer = id;
+                    c.value = i;
+                    q.publish(t);
+                }
+            });
+            threads[p].start();
+        }
+        final int[] lastSeen = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            received += q.drain(c -> {
+                if (c.value <= lastSeen[c.producer]) {
+                    throw new AssertionError("producer " + c.producer + " reordered");
+                }
+                lastSeen[c.producer] = c.value;
+                sums[c.producer] += c.value;
+                counts[c.producer]++;
+            });
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            }
+            catch (InterruptedException e) {
+                throw new AssertionError("interrupted");
+            }
+        }
+        long expected = (long) perProducer * (perProducer + 1) / 2;
+        for (int p = 0; p < producers; p++) {
+            assertEquals(perProducer, counts[p], "count for producer " + p);
+            assertTrue(sums[p] == expected, "checksum for producer " + p);
+        }
+    }
+
+    private void assertEquals(int expected, int actual, String label) {
+        testsRun++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private void assertTrue(boolean condition, String label) {
+        testsRun++;
+        if (!condition) {
+            throw new AssertionError(label);
+        }
+    }
+}
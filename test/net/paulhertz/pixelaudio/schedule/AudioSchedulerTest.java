@@ -0,0 +1,259 @@
+package net.paulhertz.pixelaudio.schedule;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Smoke tests for the scheduler's timing wheel and inbox: ordering, late policy, spans,
+ * far-future events, clearing, inbox overflow and steady-state allocation.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/schedule/AudioSchedulerTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.schedule.AudioSchedulerTest
+ * </pre>
+ */
+public final class AudioSchedulerTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        pointsArriveInOrder();
+        latePolicy();
+        spansRunAcrossBlocks();
+        farFutureAndJumps();
+        clearDropsEverything();
+        slotsGrowWhenFull();
+        steadyDispatchDoesNotAllocate();
+        inboxOverflowPolicies();
+        handoffDoesNotAllocate();
+        System.out.println("AudioSchedulerTest: " + assertions + " assertions passed.");
+    }
+
+    private static void pointsArriveInOrder() {
+        AudioScheduler<String> s = new AudioScheduler<>();
+        s.schedulePoint(40, "c");
+        s.schedulePoint(5, "a");
+        s.schedulePoint(40, "d");
+        s.schedulePoint(20, "b");
+        s.schedulePoint(64, "e");
+        StringBuilder seen = new StringBuilder();
+        s.processBlock(0, 64, (h, off) -> seen.append(h).append(off).append(' '), null);
+        assertTrue("a5 b20 c40 d40 ".equals(seen.toString()), "time order, FIFO at equal times, got " + seen);
+        seen.setLength(0);
+        s.processBlock(64, 100, (h, off) -> seen.append(h).append(off).append(' '), null);
+        assertTrue("e0 ".equals(seen.toString()), "next block starts at its own sample, got " + seen);
+        assertTrue(s.isIdle(), "nothing left");
+    }
+
+    private static void latePolicy() {
+        EngineMetrics m = new EngineMetrics("test", 64, 48000f);
+        AudioScheduler<String> s = new AudioScheduler<>();
+        s.setMetrics(m);
+        s.processBlock(0, 64, null, null);
+        s.processBlock(64, 64, null, null);
+        s.schedulePoint(10, "late");
+        s.schedulePoint(130, "ok");
+        StringBuilder seen = new StringBuilder();
+        s.processBlock(128, 64, (h, off) -> seen.append(h).append(off).append(' '), null);
+        assertTrue("ok2 ".equals(seen.toString()), "DROP skips late points, got " + seen);
+        assertEquals(1, (int) m.snapshot().droppedLateEvents, "dropped late point counted");
+
+        s.setLatePolicy(AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START);
+        s.schedulePoint(150, "late");
+        s.schedulePoint(200, "ok");
+        seen.setLength(0);
+        s.processBlock(192, 64, (h, off) -> seen.append(h).append(off).append(' '), null);
+        assertTrue("late0 ok8 ".equals(seen.toString()), "CLAMP delivers late points at offset 0, got " + seen);
+    }
+
+    private static void spansRunAcrossBlocks() {
+        AudioScheduler<String> s = new AudioScheduler<>();
+        int[] counts = new int[3];
+        StringBuilder edges = new StringBuilder();
+        AudioScheduler.SpanHandler<String> handler = new AudioScheduler.SpanHandler<>() {
+            public void onStart(String h, int offset) { counts[0]++; edges.append("start").append(offset).append(' '); }
+            public void onBlock(String h, long blockStart, int blockSize) { counts[1]++; }
+            public void onEnd(String h, int offset) { counts[2]++; edges.append("end").append(offset).append(' '); }
+        };
+        s.scheduleSpan(10, 300, "long");
+        s.scheduleSpan(20, 30, "short");
+        for (long t = 0; t < 512; t += 64) s.processBlock(t, 64, null, handler);
+        assertEquals(2, counts[0], "each span starts once");
+        assertEquals(5 + 1, counts[1], "one onBlock per overlapped block");
+        assertEquals(2, counts[2], "each span ends once");
+        assertTrue("start10 start20 end30 end44 ".equals(edges.toString()), "sample-accurate edges, got " + edges);
+        assertTrue(s.isIdle(), "ended spans are released");
+    }
+
+    private static void farFutureAndJumps() {
+        AudioScheduler<Integer> s = new AudioScheduler<>();
+        long horizon = (long) AudioScheduler.WHEEL_SIZE * AudioScheduler.TICK_SAMPLES;
+        long[] times = { 3 * horizon + 7, horizon / 2, 10 * horizon + 1 };
+        for (int i = 0; i < times.length; i++) s.schedulePoint(times[i], i);
+        long[] when = new long[times.length];
+        for (long t = 0; t < 4 * horizon; t += 256) {
+            final long blockStart = t;
+            s.processBlock(t, 256, (h, off) -> when[h] = blockStart + off, null);
+        }
+        assertTrue(when[0] == times[0] && when[1] == times[1], "events beyond the horizon land on their sample");
+        // skip far ahead in one block, as after a long pause
+        s.setLatePolicy(AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START);
+        s.schedulePoint(4 * horizon + 100, 9);
+        long[] late = new long[1];
+        s.processBlock(20 * horizon, 64, (h, off) -> late[0] += h, null);
+        assertEquals(11, (int) late[0], "a jump past the horizon delivers everything it skipped");
+        assertTrue(s.isIdle(), "nothing left after the jump");
+    }
+
+    private static void clearDropsEverything() {
+        AudioScheduler<String> s = new AudioScheduler<>();
+        int[] hits = new int[1];
+        AudioScheduler.SpanHandler<String> spans = new AudioScheduler.SpanHandler<>() {
+            public void onStart(String h, int offset) { }
+            public void onBlock(String h, long blockStart, int blockSize) { hits[0]++; }
+            public void onEnd(String h, int offset) { }
+        };
+        s.scheduleSpan(0, 10000, "span");
+        s.schedulePoint(500, "p");
+        s.processBlock(0, 64, (h, off) -> hits[0]++, spans);
+        s.clear();
+        s.schedulePoint(200, "after");
+        s.processBlock(64, 64, (h, off) -> hits[0]++, spans);
+        s.processBlock(128, 512, (h, off) -> hits[0] += 100, spans);
+        assertEquals(101, hits[0], "clear drops stored and running events but keeps later ones");
+        assertTrue(s.isIdle(), "idle after clear");
+    }
+
+    private static void slotsGrowWhenFull() {
+        AudioScheduler<Integer> s = new AudioScheduler<>(16);
+        for (int i = 0; i < 100; i++) s.schedulePoint(99 - i, i);
+        int[] order = new int[100];
+        int[] n = new int[1];
+        s.processBlock(0, 128, (h, off) -> order[n[0]++] = off, null);
+        boolean sorted = true;
+        for (int i = 1; i < n[0]; i++) sorted &= order[i - 1] <= order[i];
+        assertEquals(100, n[0], "all events kept");
+        assertTrue(sorted, "a full block is sorted");
+        assertTrue(s.growCount() > 0 && s.capacity() >= 100, "slots grew");
+    }
+
+    private static void steadyDispatchDoesNotAllocate() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        AudioScheduler<Integer> s = new AudioScheduler<>(4096);
+        Integer h = 1;
+        long[] times = new long[4000];
+        Integer[] haps = new Integer[4000];
+        java.util.Arrays.fill(haps, h);
+        long[] sum = new long[1];
+        AudioScheduler.PointHandler<Integer> ph = (x, off) -> sum[0] += off;
+        long tid = Thread.currentThread().getId();
+        long t = 0;
+        for (int k = 0; k < 3; k++) {
+            for (int i = 0; i < times.length; i++) times[i] = t + (i * 7919L) % 600000L;
+            s.schedulePoints(times, haps, times.length);
+            s.processBlock(t, 64, ph, null);
+            long before = tmx.getThreadAllocatedBytes(tid);
+            for (long end = t + 600000L, b = t + 64; b < end; b += 64) s.processBlock(b, 64, ph, null);
+            long allocated = tmx.getThreadAllocatedBytes(tid) - before;
+            t += 600000L;
+            // earlier passes warm up the code paths
+            if (k == 2) assertTrue(allocated < 1024, "dispatching 4000 events allocated " + allocated + " bytes");
+        }
+        assertTrue(s.isIdle() && s.growCount() == 0, "preallocated slots were enough");
+    }
+
+    private static void inboxOverflowPolicies() {
+        AudioScheduler<Integer> drop = new AudioScheduler<>(64, 8);
+        drop.setInboxOverflow(AudioScheduler.InboxOverflow.DROP);
+        for (int i = 0; i < 10; i++) drop.schedulePoint(i, i);
+        int[] n = new int[1];
+        drop.processBlock(0, 64, (h, off) -> n[0]++, null);
+        assertEquals(8, n[0], "DROP keeps what fits");
+        assertEquals(2, (int) drop.inboxDroppedCount(), "DROP counts lost events");
+        assertEquals(2, (int) drop.inboxOverflowCount(), "overflows counted");
+        assertEquals(8, (int) drop.inboxHighWaterMark(), "high-water mark reaches capacity");
+
+        AudioScheduler<Integer> grow = new AudioScheduler<>(64, 8);
+        long[] times = new long[20];
+        Integer[] haps = new Integer[20];
+        for (int i = 0; i < 20; i++) {
+            times[i] = i;
+            haps[i] = i;
+        }
+        grow.schedulePoint(0, -1);
+        grow.schedulePoints(times, haps, 20);
+        grow.schedulePoint(30, 99);
+        StringBuilder order = new StringBuilder();
+        grow.processBlock(0, 64, (h, off) -> order.append(h).append(' '), null);
+        assertTrue(order.toString().startsWith("-1 0 1 2 ") && order.toString().endsWith("19 99 "),
+                "GROW keeps every event in order, got " + order);
+        assertTrue(grow.inboxDroppedCount() == 0 && grow.inboxOverflowCount() > 0, "GROW spills instead of dropping");
+
+        AudioScheduler<Integer> block = new AudioScheduler<>(64, 4);
+        block.setInboxOverflow(AudioScheduler.InboxOverflow.BLOCK);
+        block.setLatePolicy(AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START);
+        int[] got = new int[1];
+        Thread audio = new Thread(() -> {
+            for (long t = 0; got[0] < 50 && t < 64L * 1_000_000; t += 64) {
+                block.processBlock(t, 64, (h, off) -> got[0]++, null);
+                Thread.yield();
+            }
+        });
+        audio.start();
+        for (int i = 0; i < 50; i++) block.schedulePoint(0, i);
+        try {
+            audio.join(5000);
+        }
+        catch (InterruptedException e) {
+            throw new AssertionError("interrupted");
+        }
+        assertEquals(50, got[0], "BLOCK waits for the audio thread instead of dropping");
+        assertEquals(0, (int) block.inboxDroppedCount(), "nothing dropped while blocking");
+    }
+
+    private static void handoffDoesNotAllocate() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+        AudioScheduler<Integer> s = new AudioScheduler<>();
+        Integer h = 1;
+        long[] times = new long[16];
+        Integer[] haps = new Integer[16];
+        java.util.Arrays.fill(haps, h);
+        long[] sum = new long[1];
+        AudioScheduler.PointHandler<Integer> ph = (x, off) -> sum[0] += off;
+        AudioScheduler.SpanHandler<Integer> sh = new AudioScheduler.SpanHandler<>() {
+            public void onStart(Integer x, int offset) { sum[0]++; }
+            public void onBlock(Integer x, long blockStart, int blockSize) { sum[0]++; }
+            public void onEnd(Integer x, int offset) { sum[0]++; }
+        };
+        long t = 0;
+        for (int k = 0; k < 2; k++) {
+            long before = tmx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int b = 0; b < 20000; b++, t += 64) {
+                s.schedulePoint(t + 100, h);
+                s.scheduleSpan(t + 70, t + 300, h);
+                for (int i = 0; i < times.length; i++) times[i] = t + 64 + i * 3;
+                s.schedulePoints(times, haps, times.length);
+                s.processBlock(t, 64, ph, sh);
+            }
+            long allocated = tmx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            // the first pass warms up the code paths
+            if (k == 1) assertTrue(allocated < 1024, "scheduling and dispatching allocated " + allocated + " bytes");
+        }
+        assertTrue(s.inboxOverflowCount() == 0, "inbox never filled");
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
@@ -0,0 +1,204 @@
+package net.paulhertz.pixelaudio.schedule;
+
+import net.paulhertz.pixelaudio.sampler.PASampleBuffer;
+import net.paulhertz.pixelaudio.sampler.PASamplerMixer;
+
+/**
+ * Smoke tests for engine metrics counters, block timing and limiter tracking.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/schedule/EngineMetricsTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.schedule.EngineMetricsTest
+ * </pre>
+ */
+public final class EngineMetricsTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        blockPublishing();
+        histogramBuckets();
+        lateEventsFromScheduler();
+        mixerCountsTriggersAndSteals();
+        combineSumsCounts();
+        onlySampledBlocksAreTimed();
+        timingOverhead();
+        System.out.println("EngineMetricsTest: " + assertions + " assertions passed.");
+    }
+
+    private static void blockPublishing() {
+        EngineMetrics m = new EngineMetrics("test", 64, 48000f);
+        assertEquals(1333333, (int) m.getBlockBudgetNanos(), "64 samples at 48 kHz");
+        for (int i = 0; i < 64; i++) {
+            long t0 = m.beginFrame();
+            m.trackLimiter(2f, 0.5f);
+            m.endFrame(t0);
+        }
+        m.endBlock(3);
+        EngineMetrics.Snapshot s = m.snapshot();
+        assertEquals(1, (int) s.blocks, "one block published");
+        assertEquals(3, s.activeVoices, "voice gauge");
+        assertEquals(3, s.peakVoices, "voice peak");
+        assertClose(-12.04f, s.gainReductionDb, "limiter reduction in dB");
+        assertTrue(s.totalBlockNanos > 0L, "block was timed");
+        m.endBlock(1);
+        s = m.snapshot();
+        assertEquals(1, (int) s.blocks, "an empty block is not counted");
+        assertEquals(3, s.peakVoices, "peak is kept");
+        m.reset();
+        s = m.snapshot();
+        assertEquals(0, (int) s.blocks, "reset clears blocks");
+        assertClose(0f, s.maxGainReductionDb, "reset clears gain reduction");
+        m.setEnabled(false);
+        m.recordTrigger();
+        m.recordRejected();
+        assertEquals(0, (int) (m.snapshot().triggers + m.snapshot().rejectedTriggers), "disabled metrics ignore events");
+    }
+
+    private static void histogramBuckets() {
+        assertEquals(0, EngineMetrics.bucketOf(0L), "zero");
+        assertEquals(1, EngineMetrics.bucketOf(1L), "one");
+        assertEquals(11, EngineMetrics.bucketOf(1500L), "1.5 us in [1024, 2048)");
+        assertEquals(EngineMetrics.HISTOGRAM_BUCKETS - 1, EngineMetrics.bucketOf(Long.MAX_VALUE), "clamped");
+    }
+
+    private static void lateEventsFromScheduler() {
+        EngineMetrics m = new EngineMetrics("sched", 64, 48000f);
+        AudioScheduler<String> sched = new AudioScheduler<>();
+        sched.setMetrics(m);
+        int[] fired = new int[1];
+        AudioScheduler.PointHandler<String> h = (s, off) -> fired[0]++;
+        sched.schedulePoint(10, "late");
+        sched.processBlock(64, 64, h, null);
+        sched.setLatePolicy(AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START);
+        sched.schedulePoint(20, "clamped");
+        sched.schedulePoint(130, "on time");
+        sched.processBlock(128, 64, h, null);
+        EngineMetrics.Snapshot s = m.snapshot();
+        assertEquals(1, (int) s.droppedLateEvents, "dropped late event");
+        assertEquals(1, (int) s.lateEvents, "clamped late event");
+        assertEquals(2, fired[0], "clamped and on-time events fire");
+    }
+
+    private static void mixerCountsTriggersAndSteals() {
+        float[] data = new float[8192];
+        java.util.Arrays.fill(data, 0.9f);
+        PASamplerMixer mixer = new PASamplerMixer(null, 4);
+        PASamplerMixer.Channel ch = mixer.createChannel(PASampleBuffer.wrap(data, 44100f), 2);
+        float[] out = new float[2];
+        for (int i = 0; i < 3; i++) ch.play(0, 4096, 1f, null, 1f, 0f);
+        for (int i = 0; i < PASamplerMixer.CONTROL_BLOCK_SIZE * 3; i++) mixer.tick(out);
+        EngineMetrics.Snapshot s = mixer.getMetricsSnapshot();
+        assertEquals(3, (int) s.triggers, "three voices started");
+        assertEquals(1, (int) s.steals, "third note steals from a two-voice channel");
+        assertEquals(2, (int) s.blocks, "blocks published at each boundary");
+        assertTrue(s.activeVoices >= 2, "voice gauge counts sounding voices");
+        assertTrue(s.gainReductionDb < 0f, "limiter reduction is reported");
+        assertTrue(ch.getMetrics() == mixer.getMetrics(), "channels share the mixer metrics");
+        assertTrue(s.toString().startsWith("PASamplerMixer:"), "readable summary");
+    }
+
+    private static void combineSumsCounts() {
+        EngineMetrics a = new EngineMetrics("a", 64, 48000f);
+        EngineMetrics b = new EngineMetrics("b", 64, 48000f);
+        a.recordTrigger();
+        b.recordTrigger();
+        b.recordSteal();
+        b.recordLateEvent(true);
+        EngineMetrics.Snapshot s = EngineMetrics.Snapshot.combine("pool", a.snapshot(), null, b.snapshot());
+        assertEquals(2, (int) s.triggers, "combined triggers");
+        assertEquals(1, (int) s.steals, "combined steals");
+        assertEquals(1, (int) s.droppedLateEvents, "combined late events");
+        for (int i = 0; i < 4; i++) a.beginFrame();
+        a.endFrame(0L);
+        a.endBlock(5);
+        b.endFrame(0L);
+        b.endBlock(3);
+        b.endFrame(0L);
+        b.endBlock(1);
+        s = EngineMetrics.Snapshot.combine("pool", a.snapshot(), b.snapshot());
+        assertEquals(6, s.activeVoices, "active voices add");
+        assertEquals(5, s.peakVoices, "peak is the largest part's peak, not a sum");
+        assertTrue(a.setPublishToJfr(true), "JFR publishing is available");
+        a.setPublishToJfr(false);
+    }
+
+    private static void onlySampledBlocksAreTimed() {
+        EngineMetrics m = new EngineMetrics("sampled", 64, 48000f);
+        m.setTimingInterval(4);
+        int stamped = 0;
+        for (int b = 0; b < 40; b++) {
+            for (int i = 0; i < 64; i++) {
+                long t0 = m.beginFrame();
+                if (t0 != 0L) stamped++;
+                m.endFrame(t0);
+            }
+            m.endBlock(1);
+        }
+        EngineMetrics.Snapshot s = m.snapshot();
+        assertEquals(40, (int) s.blocks, "every block is counted");
+        assertEquals(10, (int) s.timedBlocks(), "one block in four is timed");
+        assertEquals(10 * 64, stamped, "untimed blocks read no clock");
+        m.setTimingEnabled(false);
+        for (int b = 0; b < 8; b++) m.endBlock(1);
+        assertEquals(0, (int) m.beginFrame(), "timing off stamps nothing");
+    }
+
+    /**
+     * Measures the metrics calls a frame-by-frame engine makes, with the default timing
+     * interval and with every block timed, against the 48 kHz frame budget, and prints the
+     * cost. Only the default is held to a bound: under 1% of the frame budget.
+     */
+    private static void timingOverhead() {
+        final int blocks = 40000;
+        final double frameBudget = 1.0e9 / 48000.0;
+        double sampled = 0.0;
+        double every = 0.0;
+        double off = 0.0;
+        for (int pass = 0; pass < 3; pass++) {
+            sampled = nanosPerFrame(new EngineMetrics("sampled", 64, 48000f), blocks);
+            EngineMetrics all = new EngineMetrics("every", 64, 48000f);
+            all.setTimingInterval(1);
+            every = nanosPerFrame(all, blocks);
+            EngineMetrics none = new EngineMetrics("off", 64, 48000f);
+            none.setTimingEnabled(false);
+            off = nanosPerFrame(none, blocks);
+        }
+        System.out.println(String.format("  metrics per frame: untimed %.1f ns, sampled 1 in %d %.1f ns, "
+                + "every block %.1f ns (%.2f%% of the frame budget)", off,
+                EngineMetrics.DEFAULT_TIMING_INTERVAL, sampled, every, 100.0 * every / frameBudget));
+        assertTrue(sampled < 0.01 * frameBudget, "sampled timing costs " + sampled + " ns per frame");
+    }
+
+    private static double nanosPerFrame(EngineMetrics m, int blocks) {
+        long t0 = System.nanoTime();
+        for (int b = 0; b < blocks; b++) {
+            m.endBlock(4);
+            for (int i = 0; i < 64; i++) {
+                long f = m.beginFrame();
+                m.trackLimiter(0.5f, 0.5f);
+                m.endFrame(f);
+            }
+        }
+        return (System.nanoTime() - t0) / (blocks * 64.0);
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertClose(float expected, float actual, String label) {
+        assertions++;
+        if (Math.abs(expected - actual) > 1e-2f) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
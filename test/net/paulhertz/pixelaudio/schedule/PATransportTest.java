@@ -0,0 +1,142 @@
+package net.paulhertz.pixelaudio.schedule;
+
+import ddf.minim.UGen;
+import ddf.minim.analysis.HannWindow;
+import net.paulhertz.pixelaudio.granular.PABurstGranularSource;
+import net.paulhertz.pixelaudio.granular.PAGranularSampler;
+import net.paulhertz.pixelaudio.sampler.PASampleBuffer;
+import net.paulhertz.pixelaudio.sampler.PASamplerMixer;
+
+/**
+ * Smoke tests for the shared transport clock: conversions, tempo, and engines that follow it.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/schedule/PATransportTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.schedule.PATransportTest
+ * </pre>
+ */
+public final class PATransportTest {
+    private static int assertions = 0;
+    private static final int BUFFER = 256;
+
+    public static void main(String[] args) {
+        conversions();
+        tempoChangesKeepBeats();
+        followerLocksAtBufferBoundary();
+        enginesLandOnTheSameSample();
+        System.out.println("PATransportTest: " + assertions + " assertions passed.");
+    }
+
+    private static void conversions() {
+        PATransport t = new PATransport(48000f);
+        assertEquals(480, (int) t.millisToSamples(10.0), "10 ms");
+        assertTrue(t.samplesToMillis(24000) == 500.0, "half a second");
+        assertEquals(30, (int) t.sampleToVideoFrame(48000, 30f), "one second of video");
+        assertEquals(1600, (int) t.videoFrameToSample(1, 30f), "one video frame");
+        assertEquals(0, (int) t.estimateSampleTime(), "estimate before the first callback");
+        t.advance(BUFFER);
+        t.advance(BUFFER);
+        assertEquals(512, (int) t.getCurrentSampleTime(), "advance counts samples");
+        long est = t.estimateSampleTime();
+        assertTrue(est >= 512 && est <= 512 + BUFFER, "estimate stays within one buffer, got " + est);
+    }
+
+    private static void tempoChangesKeepBeats() {
+        PATransport t = new PATransport(48000f);
+        assertEquals(24000, (int) t.samplesPerBeat(), "120 bpm");
+        assertEquals(96000, (int) t.beatToSample(4.0), "four beats at 120 bpm");
+        t.advance(48000);
+        t.setTempo(60.0);
+        assertTrue(t.sampleToBeat(48000) == 2.0, "beat position is kept at the change");
+        assertEquals(96000, (int) t.beatToSample(3.0), "one beat per second after the change");
+        assertTrue(t.getTempo() == 60.0, "tempo");
+    }
+
+    private static void followerLocksAtBufferBoundary() {
+        PATransport t = new PATransport(48000f);
+        t.advance(1000);
+        PATransport.Follower f = t.follow(37);
+        assertTrue(!f.isLocked() && f.toTransport(37) == 1000, "seeded from the current values");
+        f.observe(37);
+        f.observe(38);
+        t.advance(BUFFER);
+        f.observe(100);
+        assertTrue(f.isLocked(), "locks when the transport moves");
+        assertTrue(f.toTransport(100) == 1000 + BUFFER && f.toLocal(2000) == 2000 - 1156, "offset from the first frame of the buffer");
+    }
+
+    /**
+     * Engines created at different times, one of them already running, follow one transport;
+     * starts at the same transport sample sound on the same output frame.
+     */
+    private static void enginesLandOnTheSameSample() {
+        PAGranularSampler early = new PAGranularSampler(48000f, 1024, 4);
+        float[] frame = new float[2];
+        for (int i = 0; i < 777; i++) early.tick(frame);       // runs before the output starts
+        PAGranularSampler late = new PAGranularSampler(48000f, 1024, 4);
+        float[] data = new float[48000];
+        java.util.Arrays.fill(data, 0.5f);
+        PASamplerMixer mixer = new PASamplerMixer(null, 4);
+        PASamplerMixer.Channel ch = mixer.createChannel(PASampleBuffer.wrap(data, 48000f), 2);
+        for (int i = 0; i < 301; i++) mixer.tick(frame);
+
+        PATransport transport = new PATransport(48000f);
+        transport.advance(5 * BUFFER);
+        early.setTransport(transport);
+        late.setTransport(transport);
+        mixer.setTransport(transport);
+        UGen[] engines = { early, late, mixer };
+        int[] first = { -1, -1, -1 };
+        long out = 0;
+        boolean scheduled = false;
+        for (int b = 0; b < 40; b++) {
+            if (b == 2) {
+                long when = transport.getCurrentSampleTime() + 3000;
+                early.startAtSampleTime(burst(), null, 1f, 0f, false, when);
+                late.startAtSampleTime(burst(), null, 1f, 0f, false, when);
+                // the mixer voice has no envelope, so it sounds one sample before the grains
+                ch.startAtSampleTime(0, 4000, 1f, null, 1f, 0f, when + 1);
+                scheduled = true;
+            }
+            for (int i = 0; i < BUFFER; i++, out++) {
+                for (int e = 0; e < engines.length; e++) {
+                    engines[e].tick(frame);
+                    if (scheduled && first[e] < 0 && frame[0] != 0f) first[e] = (int) out;
+                }
+            }
+            transport.advance(BUFFER);
+        }
+        assertTrue(first[0] > 0, "engines sound");
+        assertEquals(first[0], first[1], "granular samplers with different histories agree");
+        assertEquals(first[0], first[2], "granular sampler and mixer agree");
+        assertEquals(2 * BUFFER + 3000 + 1, first[0], "start lands on its transport sample");
+        long now = transport.getCurrentSampleTime();
+        assertTrue(mixer.getCurrentSampleTime() == now, "mixer clock reads in transport time");
+        for (PAGranularSampler g : new PAGranularSampler[] { early, late }) {
+            long ahead = g.getCurrentSampleTime() - now;
+            assertTrue(ahead >= 0 && ahead < PAGranularSampler.CONTROL_BLOCK_SIZE,
+                    "granular clock reads in transport time, at most a block ahead, got " + ahead);
+        }
+    }
+
+    private static PABurstGranularSource burst() {
+        float[] buf = new float[4096];
+        java.util.Arrays.fill(buf, 0.5f);
+        PABurstGranularSource src = new PABurstGranularSource(buf, 0, 512, 8, 256, 256, 1f);
+        src.setGrainWindow(new HannWindow(), 512);
+        return src;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
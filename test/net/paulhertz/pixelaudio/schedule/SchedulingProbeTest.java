@@ -0,0 +1,158 @@
+package net.paulhertz.pixelaudio.schedule;
+
+import java.io.IOException;
+
+import ddf.minim.UGen;
+import net.paulhertz.pixelaudio.sampler.ADSRParams;
+import net.paulhertz.pixelaudio.sampler.PASampleBuffer;
+import net.paulhertz.pixelaudio.sampler.PASamplerInstrumentPool;
+
+/**
+ * Smoke tests for the scheduling latency probe and the offline audio driver.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/schedule/SchedulingProbeTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.schedule.SchedulingProbeTest
+ * </pre>
+ */
+public final class SchedulingProbeTest {
+    private static int assertions = 0;
+    private static final float RATE = 48000f;
+    private static final int BUFFER = 512;
+
+    public static void main(String[] args) throws IOException {
+        bucketsAreLog2();
+        onTimeEventsLandExactly();
+        latePolicyShapesTheHistogram();
+        millisConversionIsMeasured();
+        System.out.println("SchedulingProbeTest: " + assertions + " assertions passed.");
+    }
+
+    private static void bucketsAreLog2() {
+        assertEquals(1, SchedulingProbe.bucket(1), "one sample");
+        assertEquals(2, SchedulingProbe.bucket(3), "two to three samples");
+        assertEquals(10, SchedulingProbe.bucket(512), "one buffer");
+        assertEquals(SchedulingProbe.BUCKETS, SchedulingProbe.bucket(Long.MAX_VALUE), "capped");
+    }
+
+    private static void onTimeEventsLandExactly() throws IOException {
+        SchedulingProbe probe = runClicks(AudioScheduler.LatePolicy.DROP, 2 * BUFFER);
+        SchedulingProbe.Histogram d = probe.histogram(AudioScheduler.LatePolicy.DROP, SchedulingProbe.Stage.DISPATCH);
+        SchedulingProbe.Histogram a = probe.histogram(AudioScheduler.LatePolicy.DROP, SchedulingProbe.Stage.AUDIBLE);
+        assertEquals(20, (int) d.total, "every event recorded");
+        assertEquals(20, (int) d.exact, "events scheduled ahead dispatch on their sample");
+        assertEquals(20, (int) a.exact, "and are heard on it");
+        StringBuilder csv = new StringBuilder();
+        probe.writeEventsCsv(csv);
+        assertEquals(21, csv.toString().split("\n").length, "header plus one row per event");
+        assertTrue(csv.toString().startsWith("id,policy,target_sample,"), "events header");
+    }
+
+    private static void latePolicyShapesTheHistogram() throws IOException {
+        // no lead: the output has already rendered past the wall-clock sample
+        SchedulingProbe drop = runClicks(AudioScheduler.LatePolicy.DROP, 0);
+        SchedulingProbe.Histogram hd = drop.histogram(AudioScheduler.LatePolicy.DROP, SchedulingProbe.Stage.DISPATCH);
+        assertEquals(20, (int) hd.missing, "DROP never dispatches late events");
+
+        SchedulingProbe clamp = runClicks(AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START, 0);
+        SchedulingProbe.Histogram hc = clamp.histogram(AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START, SchedulingProbe.Stage.DISPATCH);
+        assertEquals(20, (int) hc.lateTotal(), "CLAMP fires every late event late");
+        assertTrue(hc.min > 0 && hc.max <= BUFFER, "no later than one buffer, got " + hc);
+
+        StringBuilder a = new StringBuilder();
+        StringBuilder b = new StringBuilder();
+        clamp.writeHistogramsCsv(a);
+        runClicks(AudioScheduler.LatePolicy.CLAMP_TO_BLOCK_START, 0).writeHistogramsCsv(b);
+        assertTrue(a.toString().equals(b.toString()), "offline runs are repeatable");
+        assertTrue(a.toString().contains("CLAMP_TO_BLOCK_START,DISPATCH,"), "histogram rows");
+    }
+
+    private static void millisConversionIsMeasured() {
+        OfflineAudioDriver driver = new OfflineAudioDriver(RATE, BUFFER);
+        float[] data = new float[48000];
+        java.util.Arrays.fill(data, 0.5f);
+        PASamplerInstrumentPool pool = new PASamplerInstrumentPool(PASampleBuffer.wrap(data, RATE), 2, 2, null,
+                new ADSRParams(1f, 0.001f, 0.001f, 1f, 0.002f), true);
+        pool.setMillisSource(driver.millisSource());
+        driver.patch(pool.getMixer());
+        pool.setTransport(driver.getTransport());
+        SchedulingProbe probe = new SchedulingProbe(driver, 64);
+        driver.setBufferListener((l, r, n, start) -> probe.observeOutput(l, r, n, start, 1e-6f));
+        for (int i = 0; i < 20; i++) {
+            final double t = 37.3 + i * 97.1;
+            driver.at(t, () -> {
+                long when = driver.millis() + 50;
+                probe.enqueue(Math.round(when * RATE / 1000.0), AudioScheduler.LatePolicy.DROP);
+                pool.schedulePlayAtMillis(when, 0, 480, 1f, null, 1f, 0f);
+            });
+        }
+        driver.renderMillis(2200);
+        SchedulingProbe.Histogram h = probe.histogram(AudioScheduler.LatePolicy.DROP, SchedulingProbe.Stage.AUDIBLE);
+        assertEquals(0, (int) h.missing, "every millisecond-timed event is heard");
+        assertTrue(Math.abs(h.min) <= 2 * BUFFER && Math.abs(h.max) <= 2 * BUFFER,
+                "conversion error stays within two buffers, got " + h);
+    }
+
+    /**
+     * Twenty control-thread events at irregular virtual times, each asking for a click
+     * {@code lead} samples after the wall-clock sample it was issued at.
+     */
+    private static SchedulingProbe runClicks(AudioScheduler.LatePolicy policy, int lead) {
+        OfflineAudioDriver driver = new OfflineAudioDriver(RATE, BUFFER);
+        ClickUGen clicks = new ClickUGen();
+        clicks.scheduler.setLatePolicy(policy);
+        driver.patch(clicks);
+        SchedulingProbe probe = new SchedulingProbe(driver, 64);
+        clicks.probe = probe;
+        driver.setBufferListener((l, r, n, start) -> probe.observeOutput(l, r, n, start, 0.5f));
+        for (int i = 0; i < 20; i++) {
+            final double t = 11.7 + i * 53.9;
+            driver.at(t, () -> {
+                long target = Math.round(t * RATE / 1000.0) + lead;
+                int id = probe.enqueue(target, policy);
+                clicks.scheduler.schedulePoint(target, id);
+            });
+        }
+        driver.renderMillis(1200);
+        return probe;
+    }
+
+    /** Emits a one-sample click for each dispatched event, scheduling in 64-sample blocks. */
+    private static final class ClickUGen extends UGen {
+        final AudioScheduler<Integer> scheduler = new AudioScheduler<>();
+        SchedulingProbe probe;
+        private final float[] block = new float[64];
+        private long blockStart = 0L;
+        private int pos = 64;
+        private final AudioScheduler.PointHandler<Integer> handler = (id, offset) -> {
+            probe.dispatched(id, blockStart + offset);
+            block[offset] = 1f;
+        };
+
+        @Override
+        protected void uGenerate(float[] channels) {
+            if (pos == block.length) {
+                java.util.Arrays.fill(block, 0f);
+                scheduler.processBlock(blockStart, block.length, handler, null);
+                pos = 0;
+            }
+            channels[0] = block[pos];
+            if (channels.length > 1) channels[1] = block[pos];
+            pos++;
+            if (pos == block.length) blockStart += block.length;
+        }
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
@@ -0,0 +1,205 @@
+package net.paulhertz.pixelaudio.schedule;
+
+import ddf.minim.MultiChannelBuffer;
+
+/**
+ * Smoke tests and a throughput comparison for the windowed-sinc resampler.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/schedule/SincResamplerTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.schedule.SincResamplerTest
+ * </pre>
+ */
+public final class SincResamplerTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) {
+        ratioIsReduced();
+        lengthMatchesLinearPath();
+        streamingMatchesBatch();
+        sineIsCleanerThanLinear();
+        downsamplingDoesNotAlias();
+        presetsMeetTheirAliasRejection();
+        channelsMatchMono();
+        streamingDoesNotAllocate();
+        throughput();
+        System.out.println("SincResamplerTest: " + assertions + " assertions passed.");
+    }
+
+    private static void ratioIsReduced() {
+        long[] r = SincResampler.ratio(44100f, 48000f);
+        assertEquals(147, (int) r[0], "source step");
+        assertEquals(160, (int) r[1], "target denominator");
+        assertEquals(96000, (int) SincResampler.outputLength(88200, 44100f, 48000f), "two seconds");
+    }
+
+    private static void lengthMatchesLinearPath() {
+        float[] src = sine(12345, 440.0, 44100.0);
+        for (float target : new float[] { 48000f, 22050f, 96000f, 32000f }) {
+            assertEquals(AudioUtility.resampleMono(src, 44100f, target).length,
+                    AudioUtility.resampleSinc(src, 44100f, target).length, "length at " + target);
+        }
+    }
+
+    private static void streamingMatchesBatch() {
+        float[] src = noise(50000, 7L);
+        for (float target : new float[] { 48000f, 16000f }) {
+            float[] batch = AudioUtility.resampleSinc(src, 44100f, target, SincResampler.Quality.BEST);
+            SincResampler r = new SincResampler(44100f, target, SincResampler.Quality.BEST);
+            float[] out = new float[batch.length + r.maxOutput(0)];
+            int n = 0;
+            int[] chunks = { 1, 7, 333, 5000, 64 };
+            int pos = 0;
+            for (int c = 0; pos < src.length; c++) {
+                int len = Math.min(chunks[c % chunks.length], src.length - pos);
+                n += r.process(src, pos, len, out, n);
+                pos += len;
+            }
+            n += r.flush(out, n);
+            assertEquals(batch.length, n, "streamed length at " + target);
+            boolean same = true;
+            for (int i = 0; i < n; i++) same &= (out[i] == batch[i]);
+            assertTrue(same, "streamed samples equal batch samples at " + target);
+        }
+    }
+
+    private static void sineIsCleanerThanLinear() {
+        float[] src = sine(44100, 9000.0, 44100.0);
+        float[] ideal = sine(48000, 9000.0, 48000.0);
+        double lin = error(AudioUtility.resampleMono(src, 44100f, 48000f), ideal);
+        double sinc = error(AudioUtility.resampleSinc(src, 44100f, 48000f), ideal);
+        assertTrue(sinc < lin * 0.01, "sinc error " + sinc + " is far below linear " + lin);
+    }
+
+    private static void downsamplingDoesNotAlias() {
+        // 30 kHz at 96 kHz has no place at 44.1 kHz and should vanish, not fold to 14.1 kHz
+        float[] src = sine(96000, 30000.0, 96000.0);
+        double lin = rms(AudioUtility.resampleMono(src, 96000f, 44100f));
+        double sinc = rms(AudioUtility.resampleSinc(src, 96000f, 44100f));
+        assertTrue(lin > 0.1, "linear interpolation aliases, rms " + lin);
+        assertTrue(sinc < lin * 0.01, "sinc stopband suppresses the tone, rms " + sinc);
+    }
+
+    /**
+     * Tones that would fold back below each preset's passband edge, 96 kHz to 44.1 kHz, come
+     * out at least {@code rejectionDb} below the input; tones at the passband edge pass flat.
+     */
+    private static void presetsMeetTheirAliasRejection() {
+        final float src = 96000f;
+        final float dst = 44100f;
+        final double nyq = dst / 2.0;
+        final double input = levelDb(sine(16384, 1000.0, src));
+        for (SincResampler.Quality q : SincResampler.Quality.values()) {
+            double lo = (2.0 - q.passband) * nyq;
+            double worst = -Double.MAX_VALUE;
+            for (int k = 0; k < 24; k++) {
+                double f = lo + (src / 2.0 - lo) * k / 24.0;
+                worst = Math.max(worst, levelDb(AudioUtility.resampleSinc(sine(16384, f, src), src, dst, q)) - input);
+            }
+            assertTrue(worst <= -q.rejectionDb, q + " alias rejection " + worst + " dB");
+            double edge = levelDb(AudioUtility.resampleSinc(sine(16384, q.passband * nyq, src), src, dst, q)) - input;
+            assertTrue(Math.abs(edge) < 0.05, q + " flat to the passband edge, " + edge + " dB");
+        }
+    }
+
+    private static void channelsMatchMono() {
+        MultiChannelBuffer mcb = new MultiChannelBuffer(100000, 2);
+        mcb.setChannel(0, noise(100000, 1L));
+        mcb.setChannel(1, sine(100000, 1000.0, 44100.0));
+        MultiChannelBuffer out = AudioUtility.resampleSincMCB(mcb, 44100f, 48000f, SincResampler.Quality.STANDARD);
+        for (int ch = 0; ch < 2; ch++) {
+            float[] mono = AudioUtility.resampleSinc(mcb.getChannel(ch), 44100f, 48000f);
+            assertEquals(mono.length, out.getBufferSize(), "channel length");
+            boolean same = true;
+            for (int i = 0; i < mono.length; i++) same &= (mono[i] == out.getChannel(ch)[i]);
+            assertTrue(same, "parallel channel " + ch + " equals mono path");
+        }
+    }
+
+    private static void streamingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        float[] in = noise(512, 3L);
+        SincResampler r = new SincResampler(44100f, 48000f);
+        float[] out = new float[r.maxOutput(in.length)];
+        long bytes = 0L;
+        for (int pass = 0; pass < 3; pass++) {
+            long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 2000; i++) r.process(in, 0, in.length, out, 0);
+            bytes = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        }
+        assertTrue(bytes < 1024, "process allocates nothing, got " + bytes + " bytes");
+    }
+
+    /** Converts one minute of 44.1 kHz audio to 48 kHz with each path and prints the rates. */
+    private static void throughput() {
+        float[] src = noise(44100 * 60, 11L);
+        double linear = 0.0;
+        double[] sinc = new double[SincResampler.Quality.values().length];
+        for (int pass = 0; pass < 2; pass++) {
+            long t0 = System.nanoTime();
+            AudioUtility.resampleMono(src, 44100f, 48000f);
+            linear = 60.0 / ((System.nanoTime() - t0) * 1e-9);
+            for (SincResampler.Quality q : SincResampler.Quality.values()) {
+                t0 = System.nanoTime();
+                AudioUtility.resampleSinc(src, 44100f, 48000f, q);
+                sinc[q.ordinal()] = 60.0 / ((System.nanoTime() - t0) * 1e-9);
+            }
+        }
+        StringBuilder sb = new StringBuilder("  44.1 -> 48 kHz, x real time: linear ");
+        sb.append(Math.round(linear));
+        for (SincResampler.Quality q : SincResampler.Quality.values()) {
+            sb.append(", ").append(q).append(' ').append(Math.round(sinc[q.ordinal()]));
+        }
+        System.out.println(sb);
+        assertTrue(sinc[SincResampler.Quality.BEST.ordinal()] > 10.0, "BEST runs well ahead of real time");
+    }
+
+    private static float[] sine(int n, double freq, double rate) {
+        float[] a = new float[n];
+        for (int i = 0; i < n; i++) a[i] = (float) (0.5 * Math.sin(2.0 * Math.PI * freq * i / rate));
+        return a;
+    }
+
+    private static float[] noise(int n, long seed) {
+        java.util.Random rnd = new java.util.Random(seed);
+        float[] a = new float[n];
+        for (int i = 0; i < n; i++) a[i] = rnd.nextFloat() - 0.5f;
+        return a;
+    }
+
+    /** RMS difference over the middle of the buffers, away from the zero-padded edges. */
+    private static double error(float[] a, float[] b) {
+        int n = Math.min(a.length, b.length);
+        double sum = 0.0;
+        for (int i = 256; i < n - 256; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return Math.sqrt(sum / (n - 512));
+    }
+
+    /** RMS level in dB over the middle of a buffer. */
+    private static double levelDb(float[] a) {
+        return 20.0 * Math.log10(Math.max(1e-12, rms(a)));
+    }
+
+    private static double rms(float[] a) {
+        double sum = 0.0;
+        for (int i = 256; i < a.length - 256; i++) sum += a[i] * a[i];
+        return Math.sqrt(sum / (a.length - 512));
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}
@@ -0,0 +1,204 @@
+package net.paulhertz.pixelaudio.schedule;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import net.paulhertz.pixelaudio.sampler.PAStreamingSampleBuffer;
+
+/**
+ * Smoke tests for the streaming WAV writer and reader.
+ *
+ * <p>Run with:</p>
+ * <pre>
+ * javac -cp "libs/*:src" -d test-bin test/net/paulhertz/pixelaudio/schedule/WavFileTest.java
+ * java -cp "libs/*:src:test-bin" net.paulhertz.pixelaudio.schedule.WavFileTest
+ * </pre>
+ */
+public final class WavFileTest {
+    private static int assertions = 0;
+
+    public static void main(String[] args) throws Exception {
+        everyEncodingRoundTrips();
+        headerIsPatchedOnClose();
+        otherReadersAgree();
+        saveMethodsUseTheWriter();
+        longWritesUseAFixedBuffer();
+        System.out.println("WavFileTest: " + assertions + " assertions passed.");
+    }
+
+    private static void everyEncodingRoundTrips() throws IOException {
+        // odd frame count and three channels: 24-bit data needs a pad byte, blocks split frames unevenly
+        final int frames = 30001;
+        float[][] src = { ramp(frames, 0.9f), ramp(frames, -0.5f), ramp(frames, 0.25f) };
+        // integer writes truncate by the largest positive code and reads divide by the next power of two
+        float[] tolerance = { 2f / 32767, 2f / 8388607, 1e-6f, 0f };
+        for (WavFileWriter.Encoding enc : WavFileWriter.Encoding.values()) {
+            File f = temp();
+            try (WavFileWriter w = WavFileWriter.open(f, 44100f, 3, enc)) {
+                for (int off = 0; off < frames; off += 1000) w.write(src, off, Math.min(1000, frames - off));
+            }
+            for (boolean mapped : new boolean[] { false, true }) {
+                try (WavFileReader r = WavFileReader.open(f, mapped)) {
+                    assertEquals(frames, (int) r.getFrameCount(), enc + " frame count");
+                    assertEquals(3, r.getChannels(), enc + " channels");
+                    float[][] back = new float[3][frames];
+                    int n = 0;
+                    while (n < frames) n += r.read(back, n, 777);
+                    assertEquals(0, r.read(back, 0, 1), enc + " end of data");
+                    float worst = 0f;
+                    for (int c = 0; c < 3; c++) {
+                        for (int i = 0; i < frames; i++) worst = Math.max(worst, Math.abs(back[c][i] - src[c][i]));
+                    }
+                    assertTrue(worst <= tolerance[enc.ordinal()], enc + (mapped ? " mapped" : "") + " error " + worst);
+
+                    r.seek(12345);
+                    float[] inter = new float[30];
+                    assertEquals(10, r.read(inter, 0, 10), enc + " interleaved read");
+                    assertTrue(inter[3] == back[0][12346] && inter[5] == back[2][12346], enc + " interleaved order");
+                }
+            }
+        }
+    }
+
+    private static void headerIsPatchedOnClose() throws IOException {
+        File f = temp();
+        WavFileWriter w = WavFileWriter.open(f, 48000f, 1, WavFileWriter.Encoding.PCM_24);
+        w.write(ramp(101, 0.5f), 0, 101);
+        assertEquals(68, (int) f.length(), "extensible header up front; samples still buffered");
+        w.flush();
+        assertEquals(68 + 303 + 1, (int) f.length(), "flush writes data and the pad byte");
+        try (WavFileReader r = WavFileReader.open(f)) {
+            assertEquals(101, (int) r.getFrameCount(), "flushed file is complete");
+        }
+        w.write(ramp(100, 0.5f), 0, 100);
+        w.close();
+        assertEquals(68 + 603 + 1, (int) f.length(), "writing continues over the pad");
+        try (WavFileReader r = WavFileReader.open(f)) {
+            assertEquals(201, (int) r.getFrameCount(), "lengths patched on close");
+            assertTrue(r.getSampleRate() == 48000f, "sample rate");
+        }
+        File e = temp();
+        try (WavFileWriter ew = WavFileWriter.open(e, 48000f, 1, WavFileWriter.Encoding.PCM_24)) {
+            ew.write(ramp(101, 0.5f), 0, 101);
+            ew.flush();
+            ew.write(ramp(1, 0.5f), 0, 1);
+        }
+        assertEquals(68 + 306, (int) e.length(), "no stale pad byte once the data length turns even");
+        try (WavFileReader r = WavFileReader.open(e)) {
+            assertEquals(102, (int) r.getFrameCount(), "even-length data reads back");
+        }
+        File g = temp();
+        try (WavFileWriter fw = WavFileWriter.open(g, 48000f, 2, WavFileWriter.Encoding.FLOAT_32)) {
+            fw.write(new float[] { 2f, -3f }, 0, 1);
+        }
+        try (WavFileReader r = WavFileReader.open(g)) {
+            float[] s = new float[2];
+            r.read(s, 0, 1);
+            assertTrue(r.getFormat().floatSamples && s[0] == 2f && s[1] == -3f, "float samples are not clamped");
+        }
+    }
+
+    private static void otherReadersAgree() throws Exception {
+        File f = temp();
+        float[] src = ramp(5000, 0.8f);
+        try (WavFileWriter w = WavFileWriter.open(f, 44100f, 2, WavFileWriter.Encoding.PCM_24)) {
+            w.write(new float[][] { src, src }, 0, src.length);
+        }
+        AudioFileFormat aff = AudioSystem.getAudioFileFormat(f);
+        assertEquals(5000, aff.getFrameLength(), "javax.sound reads the frame count");
+        assertEquals(24, aff.getFormat().getSampleSizeInBits(), "javax.sound reads the sample size");
+        ByteBuffer h = ByteBuffer.wrap(Files.readAllBytes(f.toPath()), 0, 68).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(40, h.getInt(16), "24-bit fmt chunk is extensible size");
+        assertEquals(0xFFFE, h.getShort(20) & 0xFFFF, "24-bit files are tagged extensible");
+        assertEquals(24, h.getShort(38), "valid bits");
+        assertEquals(0x3, h.getInt(40), "stereo channel mask");
+        assertEquals(1, h.getShort(44), "PCM sub-format");
+
+        File m = temp();
+        try (WavFileWriter w = WavFileWriter.open(m, 44100f, 6, WavFileWriter.Encoding.PCM_16)) {
+            w.write(new float[][] { src, src, src, src, src, src }, 0, src.length);
+        }
+        AudioFileFormat maff = AudioSystem.getAudioFileFormat(m);
+        assertEquals(6, maff.getFormat().getChannels(), "javax.sound reads a 6-channel extensible file");
+        assertEquals(5000, maff.getFrameLength(), "javax.sound reads the 6-channel frame count");
+        try (WavFileReader r = WavFileReader.open(m)) {
+            assertEquals(6, r.getChannels(), "reader parses the extensible header");
+        }
+
+        File g = temp();
+        try (WavFileWriter w = WavFileWriter.open(g, 44100f, 2, WavFileWriter.Encoding.FLOAT_32)) {
+            w.write(new float[][] { src, ramp(5000, -1f) }, 0, src.length);
+        }
+        try (PAStreamingSampleBuffer sb = PAStreamingSampleBuffer.open(g)) {
+            float[] a = sb.toArray();
+            assertEquals(5000, a.length, "streaming buffer length");
+            assertTrue(a[4321] == src[4321], "streaming buffer reads channel 0 of a float file");
+        }
+    }
+
+    private static void saveMethodsUseTheWriter() throws IOException, UnsupportedAudioFileException {
+        File f = temp();
+        float[] l = ramp(1000, 1.5f);
+        AudioUtility.saveStereoAudioToFile(l, ramp(1000, 0.5f), 22050f, f.getAbsolutePath());
+        assertEquals(44 + 4000, (int) f.length(), "16-bit stereo file size unchanged");
+        try (WavFileReader r = WavFileReader.open(f)) {
+            float[][] back = new float[2][1000];
+            r.read(back, 0, 1000);
+            assertTrue(back[0][999] > 0.99f, "overloads clamp rather than wrap");
+        }
+        AudioUtility.saveAudioTo32BitPCMFile(l, 22050f, f.getAbsolutePath());
+        try (WavFileReader r = WavFileReader.open(f)) {
+            float[] back = new float[1000];
+            r.read(back, 0, 1000);
+            assertTrue(r.getFormat().floatSamples && back[999] == l[999], "32-bit files are tagged as float");
+        }
+    }
+
+    private static void longWritesUseAFixedBuffer() throws IOException {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        float[][] block = { ramp(4096, 0.5f), ramp(4096, -0.5f) };
+        File f = temp();
+        long bytes = 0L;
+        for (int pass = 0; pass < 3; pass++) {
+            try (WavFileWriter w = WavFileWriter.open(f, 48000f, 2, WavFileWriter.Encoding.FLOAT_32)) {
+                long before = mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = 0; i < 500; i++) w.write(block, 0, 4096);
+                bytes = mx.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            }
+        }
+        assertTrue(bytes < 1024, "writing 2M frames allocates nothing, got " + bytes + " bytes");
+        assertEquals(58 + 500 * 4096 * 8, (int) f.length(), "float header plus data");
+    }
+
+    private static float[] ramp(int n, float peak) {
+        float[] a = new float[n];
+        for (int i = 0; i < n; i++) a[i] = peak * (2f * i / Math.max(1, n - 1) - 1f);
+        return a;
+    }
+
+    private static File temp() throws IOException {
+        File f = File.createTempFile("pa-wav", ".wav");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static void assertEquals(int expected, int actual, String label) {
+        assertions++;
+        if (expected != actual) {
+            throw new AssertionError(label + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void assertTrue(boolean condition, String label) {
+        assertions++;
+        if (!condition) throw new AssertionError(label);
+    }
+}